@@ -0,0 +1,31 @@
+package io.heracles.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次以1/4/16/64线程运行所有基准测试，并开启GC Profiler
+ * <p>
+ * 其余参数与JMH命令行一致，例如只跑Counter：java -jar target/benchmarks.jar CounterBenchmark
+ *
+ * @author walter
+ * @date 2021/01/23 14:20
+ **/
+public class BenchmarkRunner {
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.heracles.benchmark;
+
+import io.heracles.label.LabelMissingStrategy;
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CounterWrapper各打点方法与原生Counter的对比
+ * <p>
+ * raw*为原生SDK基线，wrapper*依次覆盖无标签、标签名+标签值、LabelExtractor解析、with()、bind()以及各标签缺失策略
+ *
+ * @author walter
+ * @date 2021/01/23 14:30
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CounterBenchmark {
+    private static final Request REQUEST = new Request("/api/users", "GET");
+
+    /**
+     * 缺失tenant标签的打点，DEFAULT策略下缺失标签会由原生SDK抛出异常，因此给tenant设置默认值
+     */
+    @State(Scope.Benchmark)
+    public static class MissingLabelState {
+        @Param({"DEFAULT", "FILL_WITH_EMPTY_STRING", "SKIP"})
+        public LabelMissingStrategy labelMissingStrategy;
+
+        public CounterWrapper wrapper;
+
+        @Setup
+        public void setup() {
+            CounterWrapper.Builder builder = CounterWrapper.builder()
+                    .name("missing_total").help("missing")
+                    .labelMissingStrategy(labelMissingStrategy)
+                    .labelNames("path", "method");
+            if (LabelMissingStrategy.DEFAULT.equals(labelMissingStrategy)) {
+                builder.labelName("tenant", "unknown");
+            } else {
+                builder.labelNames("tenant");
+            }
+            wrapper = builder.wrap(new CollectorRegistry());
+        }
+    }
+
+    private Counter rawCounter;
+    private Counter rawLabeledCounter;
+    private CounterWrapper wrapper;
+    private CounterWrapper labeledWrapper;
+    private CounterWrapper extractorWrapper;
+    private Counter.Child boundChild;
+
+    @Setup
+    public void setup() {
+        CollectorRegistry registry = new CollectorRegistry();
+        rawCounter = Counter.build().name("raw_total").help("raw").register(registry);
+        rawLabeledCounter = Counter.build().name("raw_labeled_total").help("raw")
+                .labelNames("path", "method").register(registry);
+        wrapper = CounterWrapper.builder().name("wrapper_total").help("wrapper").wrap(registry);
+        labeledWrapper = CounterWrapper.builder().name("labeled_wrapper_total").help("wrapper")
+                .labelNames("path", "method").wrap(registry);
+        extractorWrapper = CounterWrapper.builder().name("extractor_wrapper_total").help("wrapper")
+                .labelExtractor(new RequestLabelExtractor(), Request.class).wrap(registry);
+        boundChild = extractorWrapper.bind(REQUEST, Request.class);
+    }
+
+    @Benchmark
+    public void rawInc() {
+        rawCounter.inc();
+    }
+
+    @Benchmark
+    public void rawLabeledInc() {
+        rawLabeledCounter.labels(REQUEST.getPath(), REQUEST.getMethod()).inc();
+    }
+
+    @Benchmark
+    public void wrapperInc() {
+        wrapper.inc();
+    }
+
+    @Benchmark
+    public void wrapperLabeledInc() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .inc();
+    }
+
+    @Benchmark
+    public void wrapperExtractorInc() {
+        extractorWrapper.label(REQUEST, Request.class).inc();
+    }
+
+    @Benchmark
+    public void wrapperWithInc() {
+        extractorWrapper.with().label(REQUEST, Request.class).inc();
+    }
+
+    @Benchmark
+    public void wrapperBoundInc() {
+        boundChild.inc();
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelInc(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .inc();
+    }
+}
@@ -0,0 +1,407 @@
+package io.heracles.benchmark;
+
+import io.heracles.label.LabelMissingStrategy;
+import io.heracles.wrapper.GaugeWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GaugeWrapper各打点方法与原生Gauge的对比
+ * <p>
+ * raw*为原生SDK基线，wrapper*依次覆盖无标签、标签名+标签值、LabelExtractor解析、with()、bind()以及各标签缺失策略
+ *
+ * @author walter
+ * @date 2021/01/23 15:02
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GaugeBenchmark {
+    private static final Request REQUEST = new Request("/api/users", "GET");
+    private static final Runnable NOOP = () -> {
+    };
+
+    /**
+     * 缺失tenant标签的打点，DEFAULT策略下缺失标签会由原生SDK抛出异常，因此给tenant设置默认值
+     */
+    @State(Scope.Benchmark)
+    public static class MissingLabelState {
+        @Param({"DEFAULT", "FILL_WITH_EMPTY_STRING", "SKIP"})
+        public LabelMissingStrategy labelMissingStrategy;
+
+        public GaugeWrapper wrapper;
+
+        @Setup
+        public void setup() {
+            GaugeWrapper.Builder builder = GaugeWrapper.build()
+                    .name("missing_gauge").help("missing")
+                    .labelMissingStrategy(labelMissingStrategy)
+                    .labelNames("path", "method");
+            if (LabelMissingStrategy.DEFAULT.equals(labelMissingStrategy)) {
+                builder.labelName("tenant", "unknown");
+            } else {
+                builder.labelNames("tenant");
+            }
+            wrapper = builder.wrap(new CollectorRegistry());
+        }
+    }
+
+    private Gauge rawGauge;
+    private Gauge rawLabeledGauge;
+    private GaugeWrapper wrapper;
+    private GaugeWrapper labeledWrapper;
+    private GaugeWrapper extractorWrapper;
+    private Gauge.Child boundChild;
+
+    @Setup
+    public void setup() {
+        CollectorRegistry registry = new CollectorRegistry();
+        rawGauge = Gauge.build().name("raw_gauge").help("raw").register(registry);
+        rawLabeledGauge = Gauge.build().name("raw_labeled_gauge").help("raw")
+                .labelNames("path", "method").register(registry);
+        wrapper = GaugeWrapper.build().name("wrapper_gauge").help("wrapper").wrap(registry);
+        labeledWrapper = GaugeWrapper.build().name("labeled_wrapper_gauge").help("wrapper")
+                .labelNames("path", "method").wrap(registry);
+        extractorWrapper = GaugeWrapper.build().name("extractor_wrapper_gauge").help("wrapper")
+                .labelExtractor(new RequestLabelExtractor(), Request.class).wrap(registry);
+        boundChild = extractorWrapper.bind(REQUEST, Request.class);
+    }
+
+    @Benchmark
+    public void rawInc() {
+        rawGauge.inc();
+    }
+
+    @Benchmark
+    public void rawLabeledInc() {
+        rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).inc();
+    }
+
+    @Benchmark
+    public void wrapperInc() {
+        wrapper.inc();
+    }
+
+    @Benchmark
+    public void wrapperLabeledInc() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .inc();
+    }
+
+    @Benchmark
+    public void wrapperExtractorInc() {
+        extractorWrapper.label(REQUEST, Request.class).inc();
+    }
+
+    @Benchmark
+    public void wrapperWithInc() {
+        extractorWrapper.with().label(REQUEST, Request.class).inc();
+    }
+
+    @Benchmark
+    public void wrapperBoundInc() {
+        boundChild.inc();
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelInc(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .inc();
+    }
+
+    @Benchmark
+    public void rawDec() {
+        rawGauge.dec();
+    }
+
+    @Benchmark
+    public void rawLabeledDec() {
+        rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).dec();
+    }
+
+    @Benchmark
+    public void wrapperDec() {
+        wrapper.dec();
+    }
+
+    @Benchmark
+    public void wrapperLabeledDec() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .dec();
+    }
+
+    @Benchmark
+    public void wrapperExtractorDec() {
+        extractorWrapper.label(REQUEST, Request.class).dec();
+    }
+
+    @Benchmark
+    public void wrapperWithDec() {
+        extractorWrapper.with().label(REQUEST, Request.class).dec();
+    }
+
+    @Benchmark
+    public void wrapperBoundDec() {
+        boundChild.dec();
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelDec(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .dec();
+    }
+
+    @Benchmark
+    public void rawSet() {
+        rawGauge.set(42);
+    }
+
+    @Benchmark
+    public void rawLabeledSet() {
+        rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).set(42);
+    }
+
+    @Benchmark
+    public void wrapperSet() {
+        wrapper.set(42);
+    }
+
+    @Benchmark
+    public void wrapperLabeledSet() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .set(42);
+    }
+
+    @Benchmark
+    public void wrapperExtractorSet() {
+        extractorWrapper.label(REQUEST, Request.class).set(42);
+    }
+
+    @Benchmark
+    public void wrapperWithSet() {
+        extractorWrapper.with().label(REQUEST, Request.class).set(42);
+    }
+
+    @Benchmark
+    public void wrapperBoundSet() {
+        boundChild.set(42);
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelSet(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .set(42);
+    }
+
+    @Benchmark
+    public void rawSetToCurrentTime() {
+        rawGauge.setToCurrentTime();
+    }
+
+    @Benchmark
+    public void rawLabeledSetToCurrentTime() {
+        rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperSetToCurrentTime() {
+        wrapper.setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperLabeledSetToCurrentTime() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperExtractorSetToCurrentTime() {
+        extractorWrapper.label(REQUEST, Request.class).setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperWithSetToCurrentTime() {
+        extractorWrapper.with().label(REQUEST, Request.class).setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperBoundSetToCurrentTime() {
+        boundChild.setToCurrentTime();
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelSetToCurrentTime(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .setToCurrentTime();
+    }
+
+    @Benchmark
+    public double rawStartTimer() {
+        return rawGauge.startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double rawLabeledStartTimer() {
+        return rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperStartTimer() {
+        return wrapper.startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperLabeledStartTimer() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperExtractorStartTimer() {
+        return extractorWrapper.label(REQUEST, Request.class).startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperWithStartTimer() {
+        return extractorWrapper.with().label(REQUEST, Request.class).startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperBoundStartTimer() {
+        return boundChild.startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double wrapperMissingLabelStartTimer(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .startTimer().setDuration();
+    }
+
+    @Benchmark
+    public double rawSetToTime() {
+        return rawGauge.setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double rawLabeledSetToTime() {
+        return rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperSetToTime() {
+        return wrapper.setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperLabeledSetToTime() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperExtractorSetToTime() {
+        return extractorWrapper.label(REQUEST, Request.class).setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperWithSetToTime() {
+        return extractorWrapper.with().label(REQUEST, Request.class).setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperBoundSetToTime() {
+        return boundChild.setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperMissingLabelSetToTime(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .setToTime(NOOP);
+    }
+
+    @Benchmark
+    public double rawGet() {
+        return rawGauge.get();
+    }
+
+    @Benchmark
+    public double rawLabeledGet() {
+        return rawLabeledGauge.labels(REQUEST.getPath(), REQUEST.getMethod()).get();
+    }
+
+    @Benchmark
+    public double wrapperGet() {
+        return wrapper.get();
+    }
+
+    @Benchmark
+    public double wrapperLabeledGet() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .get();
+    }
+
+    @Benchmark
+    public double wrapperExtractorGet() {
+        return extractorWrapper.label(REQUEST, Request.class).get();
+    }
+
+    @Benchmark
+    public double wrapperWithGet() {
+        return extractorWrapper.with().label(REQUEST, Request.class).get();
+    }
+
+    @Benchmark
+    public double wrapperBoundGet() {
+        return boundChild.get();
+    }
+
+    @Benchmark
+    public double wrapperMissingLabelGet(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .get();
+    }
+}
@@ -0,0 +1,25 @@
+package io.heracles.benchmark;
+
+/**
+ * 基准测试中用于标签解析的请求对象
+ *
+ * @author walter
+ * @date 2021/01/23 14:02
+ **/
+public class Request {
+    private final String path;
+    private final String method;
+
+    public Request(String path, String method) {
+        this.path = path;
+        this.method = method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+}
@@ -0,0 +1,29 @@
+package io.heracles.benchmark;
+
+import io.heracles.label.LabelNames;
+import io.heracles.label.Labels;
+import io.heracles.label.extractor.LabelExtractor;
+
+/**
+ * 从{@link Request}中解析path和method标签
+ *
+ * @author walter
+ * @date 2021/01/23 14:04
+ **/
+public class RequestLabelExtractor implements LabelExtractor<Request> {
+    @Override
+    public Labels extractLabels(Request object) {
+        if (object == null) {
+            return Labels.newInstance();
+        }
+
+        return Labels.newInstance()
+                .label("path", object.getPath())
+                .label("method", object.getMethod());
+    }
+
+    @Override
+    public LabelNames getTargetLabelNames() {
+        return LabelNames.newInstance().names("path", "method");
+    }
+}
@@ -0,0 +1,275 @@
+package io.heracles.benchmark;
+
+import io.heracles.label.LabelMissingStrategy;
+import io.heracles.wrapper.SummaryWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Summary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SummaryWrapper各打点方法与原生Summary的对比
+ * <p>
+ * raw*为原生SDK基线，wrapper*依次覆盖无标签、标签名+标签值、LabelExtractor解析、with()、bind()以及各标签缺失策略
+ *
+ * @author walter
+ * @date 2021/01/23 16:15
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SummaryBenchmark {
+    private static final Request REQUEST = new Request("/api/users", "GET");
+    private static final Runnable NOOP = () -> {
+    };
+
+    /**
+     * 缺失tenant标签的打点，DEFAULT策略下缺失标签会由原生SDK抛出异常，因此给tenant设置默认值
+     */
+    @State(Scope.Benchmark)
+    public static class MissingLabelState {
+        @Param({"DEFAULT", "FILL_WITH_EMPTY_STRING", "SKIP"})
+        public LabelMissingStrategy labelMissingStrategy;
+
+        public SummaryWrapper wrapper;
+
+        @Setup
+        public void setup() {
+            SummaryWrapper.Builder builder = SummaryWrapper.build()
+                    .name("missing_seconds").help("missing")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001)
+                    .labelMissingStrategy(labelMissingStrategy)
+                    .labelNames("path", "method");
+            if (LabelMissingStrategy.DEFAULT.equals(labelMissingStrategy)) {
+                builder.labelName("tenant", "unknown");
+            } else {
+                builder.labelNames("tenant");
+            }
+            wrapper = builder.wrap(new CollectorRegistry());
+        }
+    }
+
+    private Summary rawSummary;
+    private Summary rawLabeledSummary;
+    private SummaryWrapper wrapper;
+    private SummaryWrapper labeledWrapper;
+    private SummaryWrapper extractorWrapper;
+    private Summary.Child boundChild;
+
+    @Setup
+    public void setup() {
+        CollectorRegistry registry = new CollectorRegistry();
+        rawSummary = Summary.build().name("raw_seconds").help("raw")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001).register(registry);
+        rawLabeledSummary = Summary.build().name("raw_labeled_seconds").help("raw")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001)
+                .labelNames("path", "method").register(registry);
+        wrapper = SummaryWrapper.build().name("wrapper_seconds").help("wrapper")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001).wrap(registry);
+        labeledWrapper = SummaryWrapper.build().name("labeled_wrapper_seconds").help("wrapper")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001)
+                .labelNames("path", "method").wrap(registry);
+        extractorWrapper = SummaryWrapper.build().name("extractor_wrapper_seconds").help("wrapper")
+                .quantile(0.5, 0.05).quantile(0.99, 0.001)
+                .labelExtractor(new RequestLabelExtractor(), Request.class).wrap(registry);
+        boundChild = extractorWrapper.bind(REQUEST, Request.class);
+    }
+
+    @Benchmark
+    public void rawObserve() {
+        rawSummary.observe(0.042);
+    }
+
+    @Benchmark
+    public void rawLabeledObserve() {
+        rawLabeledSummary.labels(REQUEST.getPath(), REQUEST.getMethod()).observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperObserve() {
+        wrapper.observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperLabeledObserve() {
+        labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperExtractorObserve() {
+        extractorWrapper.label(REQUEST, Request.class).observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperWithObserve() {
+        extractorWrapper.with().label(REQUEST, Request.class).observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperBoundObserve() {
+        boundChild.observe(0.042);
+    }
+
+    @Benchmark
+    public void wrapperMissingLabelObserve(MissingLabelState state) {
+        state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .observe(0.042);
+    }
+
+    @Benchmark
+    public double rawStartTimer() {
+        return rawSummary.startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double rawLabeledStartTimer() {
+        return rawLabeledSummary.labels(REQUEST.getPath(), REQUEST.getMethod()).startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperStartTimer() {
+        return wrapper.startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperLabeledStartTimer() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperExtractorStartTimer() {
+        return extractorWrapper.label(REQUEST, Request.class).startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperWithStartTimer() {
+        return extractorWrapper.with().label(REQUEST, Request.class).startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperBoundStartTimer() {
+        return boundChild.startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double wrapperMissingLabelStartTimer(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .startTimer().observeDuration();
+    }
+
+    @Benchmark
+    public double rawTime() {
+        return rawSummary.time(NOOP);
+    }
+
+    @Benchmark
+    public double rawLabeledTime() {
+        return rawLabeledSummary.labels(REQUEST.getPath(), REQUEST.getMethod()).time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperTime() {
+        return wrapper.time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperLabeledTime() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperExtractorTime() {
+        return extractorWrapper.label(REQUEST, Request.class).time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperWithTime() {
+        return extractorWrapper.with().label(REQUEST, Request.class).time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperBoundTime() {
+        return boundChild.time(NOOP);
+    }
+
+    @Benchmark
+    public double wrapperMissingLabelTime(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .time(NOOP);
+    }
+
+    @Benchmark
+    public Summary.Child.Value rawGet() {
+        return rawSummary.get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value rawLabeledGet() {
+        return rawLabeledSummary.labels(REQUEST.getPath(), REQUEST.getMethod()).get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperGet() {
+        return wrapper.get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperLabeledGet() {
+        return labeledWrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperExtractorGet() {
+        return extractorWrapper.label(REQUEST, Request.class).get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperWithGet() {
+        return extractorWrapper.with().label(REQUEST, Request.class).get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperBoundGet() {
+        return boundChild.get();
+    }
+
+    @Benchmark
+    public Summary.Child.Value wrapperMissingLabelGet(MissingLabelState state) {
+        return state.wrapper
+                .label("path", REQUEST.getPath())
+                .label("method", REQUEST.getMethod())
+                .get();
+    }
+}
@@ -0,0 +1,218 @@
+package io.heracles.processor;
+
+import io.heracles.label.annotation.MetricLabel;
+import io.heracles.label.extractor.LabelExtractors;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 为标注了{@link MetricLabel}的类生成同包下的{@code 类名_LabelExtractor}
+ * <p>
+ * 生成的标签解析直接读取字段、调用方法，不使用反射；整数、布尔、字符类型调用label的基本类型重载，
+ * float、double通过String.valueOf转换，均不装箱。标签按{@link MetricLabel#order()}、标签名排列，与运行时生成的一致。
+ * 被标注的成员及所在类不能是private，运行时由{@link LabelExtractors#forClass(Class)}加载
+ *
+ * @author walter
+ * @date 2021/01/30 15:20
+ **/
+public class MetricLabelProcessor extends AbstractProcessor {
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(MetricLabel.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        // 按所在类分组
+        Map<TypeElement, List<Element>> membersByType = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(MetricLabel.class)) {
+            if (!validate(element)) {
+                continue;
+            }
+            membersByType.computeIfAbsent((TypeElement) element.getEnclosingElement(), t -> new ArrayList<>()).add(element);
+        }
+
+        for (Map.Entry<TypeElement, List<Element>> entry : membersByType.entrySet()) {
+            if (validate(entry.getKey())) {
+                generate(entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    private boolean validate(Element element) {
+        Set<Modifier> modifiers = element.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            error(element, "@MetricLabel members and their enclosing types must not be private");
+            return false;
+        }
+
+        if (element.getKind() == ElementKind.FIELD || element.getKind() == ElementKind.METHOD) {
+            if (modifiers.contains(Modifier.STATIC)) {
+                error(element, "@MetricLabel members must not be static");
+                return false;
+            }
+        }
+        if (element.getKind() == ElementKind.METHOD) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID) {
+                error(element, "@MetricLabel methods must take no arguments and return a value");
+                return false;
+            }
+        }
+        if (element instanceof TypeElement) {
+            TypeElement type = (TypeElement) element;
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                error(element, "@MetricLabel is not supported on inner (non-static) classes");
+                return false;
+            }
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                error(element, "@MetricLabel is not supported on local or anonymous classes");
+                return false;
+            }
+            if (type.getEnclosingElement() instanceof TypeElement) {
+                return validate(type.getEnclosingElement());
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<Element> members) {
+        PackageElement packageElement = this.processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String qualifiedName = LabelExtractors.generatedClassName(this.processingEnv.getElementUtils().getBinaryName(type).toString());
+        String simpleName = packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1);
+        String targetType = this.processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        List<Element> sorted = new ArrayList<>(members);
+        sorted.sort(Comparator.<Element>comparingInt(member -> member.getAnnotation(MetricLabel.class).order())
+                .thenComparing(MetricLabelProcessor::labelName));
+
+        StringBuilder extract = new StringBuilder();
+        StringBuilder names = new StringBuilder("LabelNames.newInstance()");
+        for (Element member : sorted) {
+            MetricLabel metricLabel = member.getAnnotation(MetricLabel.class);
+            String accessor;
+            TypeMirror valueType;
+            String labelName = labelName(member);
+            if (member.getKind() == ElementKind.METHOD) {
+                accessor = "object." + member.getSimpleName() + "()";
+                valueType = ((ExecutableElement) member).getReturnType();
+            } else {
+                accessor = "object." + member.getSimpleName();
+                valueType = member.asType();
+            }
+
+            // float、double没有基本类型重载，直接转换为字符串，避免装箱
+            TypeKind kind = valueType.getKind();
+            String value = kind == TypeKind.FLOAT || kind == TypeKind.DOUBLE ? "String.valueOf(" + accessor + ")" : accessor;
+            extract.append("        labels.label(").append(literal(labelName)).append(", ").append(value).append(");\n");
+            if (metricLabel.defaultValue().isEmpty()) {
+                names.append("\n                .names(").append(literal(labelName)).append(")");
+            } else {
+                names.append("\n                .name(").append(literal(labelName)).append(", ").append(literal(metricLabel.defaultValue())).append(")");
+            }
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import io.heracles.label.LabelNames;\n")
+                .append("import io.heracles.label.Labels;\n")
+                .append("import io.heracles.label.extractor.LabelExtractor;\n\n")
+                .append("/**\n * Generated by ").append(getClass().getName()).append(", do not edit\n */\n")
+                .append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n")
+                .append("public final class ").append(simpleName).append(" implements LabelExtractor<").append(targetType).append("> {\n\n")
+                .append("    @Override\n")
+                .append("    public Labels extractLabels(").append(targetType).append(" object) {\n")
+                .append("        Labels labels = Labels.newInstance();\n")
+                .append("        if (object == null) {\n")
+                .append("            return labels;\n")
+                .append("        }\n\n")
+                .append(extract)
+                .append("        return labels;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public LabelNames getTargetLabelNames() {\n")
+                .append("        return ").append(names).append(";\n")
+                .append("    }\n")
+                .append("}\n");
+
+        try {
+            JavaFileObject file = this.processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            error(type, "failed to generate " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private static String labelName(Element member) {
+        MetricLabel metricLabel = member.getAnnotation(MetricLabel.class);
+        if (!metricLabel.value().isEmpty()) {
+            return metricLabel.value();
+        }
+        String simpleName = member.getSimpleName().toString();
+        return member.getKind() == ElementKind.METHOD ? LabelExtractors.propertyName(simpleName) : simpleName;
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
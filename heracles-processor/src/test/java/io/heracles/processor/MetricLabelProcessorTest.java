@@ -0,0 +1,231 @@
+package io.heracles.processor;
+
+import io.heracles.label.LabelNames;
+import io.heracles.label.Labels;
+import io.heracles.label.annotation.MetricLabel;
+import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.label.extractor.LabelExtractors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在内存中编译带{@link MetricLabel}的源码，检查生成的标签解析和编译错误
+ *
+ * @author walter
+ * @date 2021/02/13 20:30
+ **/
+public class MetricLabelProcessorTest {
+    @Rule
+    public TemporaryFolder output = new TemporaryFolder();
+
+    /**
+     * 编译结果
+     */
+    private static final class Compilation {
+        private final boolean success;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        private final File classes;
+
+        private Compilation(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, File classes) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+        }
+
+        private List<String> errors() {
+            List<String> errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : this.diagnostics) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.add(diagnostic.getMessage(null));
+                }
+            }
+            return errors;
+        }
+    }
+
+    @Test
+    public void generatesExtractorWithoutReflection() throws Exception {
+        Compilation compilation = compile("demo.Request",
+                "package demo;\n"
+                        + "import io.heracles.label.annotation.MetricLabel;\n"
+                        + "public class Request {\n"
+                        + "    @MetricLabel int code = 200;\n"
+                        + "    @MetricLabel(\"ok\") boolean success = true;\n"
+                        + "    @MetricLabel double ratio = 0.5;\n"
+                        + "    @MetricLabel(defaultValue = \"none\") String tenant;\n"
+                        + "    @MetricLabel public String getPath() { return \"/a\\\"b\"; }\n"
+                        + "    public static class Inner {\n"
+                        + "        @MetricLabel long id = 7;\n"
+                        + "    }\n"
+                        + "}\n");
+        assertTrue(compilation.errors().toString(), compilation.success);
+
+        String source = new String(Files.readAllBytes(new File(compilation.classes, "demo/Request_LabelExtractor.java").toPath()), StandardCharsets.UTF_8);
+        // 基本类型调用对应重载，float、double转换为字符串，均不装箱
+        assertTrue(source, source.contains("labels.label(\"code\", object.code);"));
+        assertTrue(source, source.contains("labels.label(\"ratio\", String.valueOf(object.ratio));"));
+        assertTrue(source, source.contains("labels.label(\"path\", object.getPath());"));
+        assertTrue(new File(compilation.classes, "demo/Request_Inner_LabelExtractor.java").isFile());
+
+        try (URLClassLoader loader = load(compilation)) {
+            Class<Object> type = loadClass(loader, "demo.Request");
+            LabelExtractor<Object> extractor = LabelExtractors.forClass(type);
+            assertEquals("demo.Request_LabelExtractor", extractor.getClass().getName());
+
+            Labels labels = extractor.extractLabels(type.getDeclaredConstructor().newInstance());
+            assertEquals("200", labels.getLabelValue("code"));
+            assertEquals("true", labels.getLabelValue("ok"));
+            assertEquals("0.5", labels.getLabelValue("ratio"));
+            assertEquals("/a\"b", labels.getLabelValue("path"));
+            assertNull(labels.getLabelValue("tenant"));
+            assertEquals("none", extractor.getTargetLabelNames().getDefaultValue("tenant"));
+            assertTrue(extractor.extractLabels(null).getCurrentLabels().isEmpty());
+
+            Class<Object> inner = loadClass(loader, "demo.Request$Inner");
+            LabelExtractor<Object> innerExtractor = LabelExtractors.forClass(inner);
+            assertEquals("demo.Request_Inner_LabelExtractor", innerExtractor.getClass().getName());
+            assertEquals("7", innerExtractor.extractLabels(inner.getDeclaredConstructor().newInstance()).getLabelValue("id"));
+        }
+    }
+
+    @Test
+    public void ordersLabelsByOrderThenName() throws Exception {
+        Compilation compilation = compile("demo.Ordered",
+                "package demo;\n"
+                        + "import io.heracles.label.annotation.MetricLabel;\n"
+                        + "public class Ordered {\n"
+                        + "    @MetricLabel String zone;\n"
+                        + "    @MetricLabel(order = -1) String tenant;\n"
+                        + "    @MetricLabel String app;\n"
+                        + "    @MetricLabel(value = \"method\", order = 2) String getVerb() { return \"GET\"; }\n"
+                        + "    @MetricLabel(order = 1) String host;\n"
+                        + "}\n");
+        assertTrue(compilation.errors().toString(), compilation.success);
+
+        try (URLClassLoader loader = load(compilation)) {
+            LabelNames names = LabelExtractors.forClass(loadClass(loader, "demo.Ordered")).getTargetLabelNames();
+            // 与声明顺序无关：order升序，相同时按标签名
+            assertArrayEquals(new String[]{"tenant", "app", "zone", "host", "method"}, names.toArray());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidMembers() throws Exception {
+        Compilation compilation = compile("demo.Invalid",
+                "package demo;\n"
+                        + "import io.heracles.label.annotation.MetricLabel;\n"
+                        + "public class Invalid {\n"
+                        + "    @MetricLabel private String secret;\n"
+                        + "    @MetricLabel static String shared;\n"
+                        + "    @MetricLabel String lookup(String key) { return key; }\n"
+                        + "    @MetricLabel void touch() { }\n"
+                        + "    class Inner {\n"
+                        + "        @MetricLabel String name;\n"
+                        + "    }\n"
+                        + "    private static class Hidden {\n"
+                        + "        @MetricLabel String name;\n"
+                        + "    }\n"
+                        + "}\n");
+        assertFalse(compilation.success);
+
+        List<String> errors = compilation.errors();
+        assertEquals(errors.toString(), 6, errors.size());
+        assertEquals(2, count(errors, "@MetricLabel members and their enclosing types must not be private"));
+        assertEquals(1, count(errors, "@MetricLabel members must not be static"));
+        assertEquals(2, count(errors, "@MetricLabel methods must take no arguments and return a value"));
+        assertEquals(1, count(errors, "@MetricLabel is not supported on inner (non-static) classes"));
+        // 出错的类不生成标签解析
+        assertFalse(new File(compilation.classes, "demo/Invalid_Inner_LabelExtractor.java").exists());
+        assertFalse(new File(compilation.classes, "demo/Invalid_Hidden_LabelExtractor.java").exists());
+    }
+
+    private Compilation compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("tests must run on a JDK", compiler);
+        File classes = this.output.newFolder();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            // 生成的源码与编译结果都输出到同一目录，便于检查
+            List<String> options = Arrays.asList(
+                    "-classpath", classpathOf(MetricLabel.class),
+                    "-d", classes.getPath(),
+                    "-s", classes.getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    Collections.singletonList(new SourceFile(className, source)));
+            task.setProcessors(Collections.singletonList(new MetricLabelProcessor()));
+            boolean success = task.call();
+            return new Compilation(success, diagnostics.getDiagnostics(), classes);
+        }
+    }
+
+    private static URLClassLoader load(Compilation compilation) throws IOException {
+        return new URLClassLoader(new URL[]{compilation.classes.toURI().toURL()}, MetricLabelProcessorTest.class.getClassLoader());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Object> loadClass(ClassLoader loader, String name) throws ClassNotFoundException {
+        return (Class<Object>) loader.loadClass(name);
+    }
+
+    private static String classpathOf(Class<?> type) {
+        try {
+            return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int count(List<String> errors, String message) {
+        int count = 0;
+        for (String error : errors) {
+            if (error.contains(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 内存中的源码
+     */
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        private SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return this.source;
+        }
+    }
+}
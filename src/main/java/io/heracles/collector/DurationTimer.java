@@ -0,0 +1,41 @@
+package io.heracles.collector;
+
+import io.prometheus.client.SimpleTimer;
+
+import java.io.Closeable;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Heracles自带采集器的计时器，与原生SDK的Histogram.Timer/Summary.DurationTimer用法一致
+ *
+ * @author walter
+ * @date 2021/02/02 20:05
+ **/
+public class DurationTimer implements Closeable {
+    private final DoubleConsumer observer;
+    private final long start;
+
+    DurationTimer(DoubleConsumer observer) {
+        this.observer = observer;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * 记录从计时器创建到现在的耗时
+     *
+     * @return 耗时（秒）
+     */
+    public double observeDuration() {
+        double elapsed = SimpleTimer.elapsedSecondsFromNanos(this.start, System.nanoTime());
+        this.observer.accept(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * 同observeDuration()，便于try-with-resources
+     */
+    @Override
+    public void close() {
+        observeDuration();
+    }
+}
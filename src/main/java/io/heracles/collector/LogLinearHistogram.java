@@ -0,0 +1,342 @@
+package io.heracles.collector;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * 对数-线性分桶的高精度直方图
+ * <p>
+ * 内部按{@link LogLinearLayout}分为数千个桶，每个桶只是一个long计数，打点按线程分条写入，只做一次无锁自增；
+ * 采集时合并各分条，按配置导出为Prometheus直方图（指定的le边界）或Summary（指定的分位数）
+ *
+ * @author walter
+ * @date 2021/02/02 20:40
+ **/
+public class LogLinearHistogram extends SimpleCollector<LogLinearHistogram.Child> implements Collector.Describable {
+    private static final LogLinearLayout PLACEHOLDER_LAYOUT = new LogLinearLayout(1, 1, 2);
+    private static final double[] DEFAULT_BUCKETS = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
+
+    public static class Builder extends SimpleCollector.Builder<Builder, LogLinearHistogram> {
+        private int significantDigits = 2;
+        private double minValue = 1e-6;
+        private double maxValue = 1e3;
+        private int stripes = 4;
+        private double[] buckets = DEFAULT_BUCKETS;
+        private double[] quantiles;
+
+        /**
+         * 有效数字位数，每个内部桶的相对宽度不超过10^-significantDigits
+         *
+         * @param significantDigits 1~4，默认2
+         * @return 当前对象
+         */
+        public Builder significantDigits(int significantDigits) {
+            this.significantDigits = significantDigits;
+            return this;
+        }
+
+        /**
+         * 可区分的值域，超出值域的观测值分别落入最低和最高的桶，但仍计入sum
+         *
+         * @param minValue 最小正数，默认1e-6
+         * @param maxValue 最大值，默认1e3
+         * @return 当前对象
+         */
+        public Builder range(double minValue, double maxValue) {
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            return this;
+        }
+
+        /**
+         * 打点分条数，多个线程按线程ID写入不同分条，降低缓存行争用；分条在首次写入时才分配
+         *
+         * @param stripes 分条数，向上取整为2的幂，默认4
+         * @return 当前对象
+         */
+        public Builder stripes(int stripes) {
+            this.stripes = StripedBuckets.stripesFor(stripes);
+            return this;
+        }
+
+
+        /**
+         * 以Prometheus直方图导出，le取给定的边界
+         *
+         * @param buckets 导出的桶边界
+         * @return 当前对象
+         */
+        public Builder exportBuckets(double... buckets) {
+            this.buckets = buckets;
+            this.quantiles = null;
+            return this;
+        }
+
+        /**
+         * 以Prometheus Summary导出给定的分位数
+         *
+         * @param quantiles 分位数，0~1
+         * @return 当前对象
+         */
+        public Builder exportQuantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                if (quantile < 0 || quantile > 1) {
+                    throw new IllegalArgumentException("Quantile " + quantile + " invalid: Expected number between 0.0 and 1.0.");
+                }
+            }
+            this.quantiles = quantiles;
+            this.buckets = null;
+            return this;
+        }
+
+        @Override
+        public LogLinearHistogram create() {
+            return new LogLinearHistogram(this);
+        }
+    }
+
+    /**
+     * 一个标签值组合的直方图
+     */
+    public static class Child {
+        private final LogLinearLayout layout;
+        private final StripedBuckets buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Child(LogLinearLayout layout, int stripes) {
+            this.layout = layout;
+            this.buckets = new StripedBuckets(layout.getBucketCount(), stripes);
+        }
+
+        /**
+         * 记录观测值
+         *
+         * @param amt 观测值
+         */
+        public void observe(double amt) {
+            this.buckets.increment(this.layout.indexOf(amt));
+            this.sum.add(amt);
+        }
+
+        public DurationTimer startTimer() {
+            return new DurationTimer(this::observe);
+        }
+
+        public double time(Runnable timeable) {
+            DurationTimer timer = startTimer();
+            double elapsed;
+            try {
+                timeable.run();
+            } finally {
+                elapsed = timer.observeDuration();
+            }
+            return elapsed;
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            DurationTimer timer = startTimer();
+            try {
+                return timeable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                timer.observeDuration();
+            }
+        }
+
+        /**
+         * 合并各分条的桶计数
+         *
+         * @return 桶下标 -> 计数
+         */
+        public long[] snapshot() {
+            long[] counts = new long[this.layout.getBucketCount()];
+            this.buckets.addTo(counts);
+            return counts;
+        }
+
+        public double getSum() {
+            return this.sum.sum();
+        }
+
+        public long getCount() {
+            return StripedBuckets.total(snapshot());
+        }
+
+        /**
+         * 估算分位数，误差不超过所在桶的宽度的一半
+         *
+         * @param quantile 分位数，0~1
+         * @return 分位数的估算值，没有观测值时返回NaN
+         */
+        public double getQuantile(double quantile) {
+            long[] counts = snapshot();
+            return quantile(counts, StripedBuckets.total(counts), quantile);
+        }
+
+        private double quantile(long[] counts, long total, double quantile) {
+            if (total == 0) {
+                return Double.NaN;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return this.layout.representative(i);
+                }
+            }
+            return this.layout.representative(counts.length - 1);
+        }
+    }
+
+    private final LogLinearLayout layout;
+    private final int stripes;
+    private final double[] buckets;
+    private final double[] quantiles;
+
+    LogLinearHistogram(Builder b) {
+        super(b);
+        this.layout = new LogLinearLayout(b.significantDigits, b.minValue, b.maxValue);
+        this.stripes = b.stripes;
+        if (b.quantiles != null) {
+            this.quantiles = b.quantiles.clone();
+            this.buckets = null;
+        } else {
+            double[] sorted = b.buckets.clone();
+            Arrays.sort(sorted);
+            this.buckets = sorted;
+            this.quantiles = null;
+        }
+        for (String labelName : this.labelNames) {
+            if ("le".equals(labelName) || "quantile".equals(labelName)) {
+                throw new IllegalStateException("LogLinearHistogram cannot have a label named " + labelName + ".");
+            }
+        }
+
+        // 父类构造时配置尚未就绪，重新创建无标签的Child
+        if (this.labelNames.isEmpty()) {
+            this.children.clear();
+            initializeNoLabelsChild();
+        }
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    @Override
+    protected Child newChild() {
+        if (this.layout == null) {
+            return new Child(PLACEHOLDER_LAYOUT, 1);
+        }
+        return new Child(this.layout, this.stripes);
+    }
+
+    public void observe(double amt) {
+        this.noLabelsChild.observe(amt);
+    }
+
+    public DurationTimer startTimer() {
+        return this.noLabelsChild.startTimer();
+    }
+
+    public double time(Runnable timeable) {
+        return this.noLabelsChild.time(timeable);
+    }
+
+    public <E> E time(Callable<E> timeable) {
+        return this.noLabelsChild.time(timeable);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Map.Entry<List<String>, Child> entry : this.children.entrySet()) {
+            collectSamples(entry.getKey(), entry.getValue(), samples);
+        }
+        return familySamplesList(getType(), samples);
+    }
+
+    /**
+     * 生成一个标签值组合的样本
+     *
+     * @param labelValues 标签值
+     * @param child       Child
+     * @param samples     样本输出
+     */
+    public void collectSamples(List<String> labelValues, Child child, List<MetricFamilySamples.Sample> samples) {
+        long[] counts = child.snapshot();
+        long total = StripedBuckets.total(counts);
+        if (this.quantiles != null) {
+            collectQuantiles(samples, labelValues, child, counts, total);
+        } else {
+            collectBuckets(samples, labelValues, counts, total);
+        }
+        samples.add(new MetricFamilySamples.Sample(this.fullname + "_count", this.labelNames, labelValues, total));
+        samples.add(new MetricFamilySamples.Sample(this.fullname + "_sum", this.labelNames, labelValues, child.getSum()));
+    }
+
+    /**
+     * 内部桶的下界不超过le即计入该le：观测值恰好等于le时计数准确，le落在内部桶中间时最多多计入该桶的观测值
+     */
+    private void collectBuckets(List<MetricFamilySamples.Sample> samples, List<String> labelValues, long[] counts, long total) {
+        List<String> bucketLabelNames = new ArrayList<>(this.labelNames);
+        bucketLabelNames.add("le");
+
+        int index = 0;
+        long cumulative = 0;
+        for (double bucket : this.buckets) {
+            while (index < counts.length && this.layout.lowerBound(index) <= bucket) {
+                cumulative += counts[index++];
+            }
+            samples.add(bucketSample(bucketLabelNames, labelValues, Collector.doubleToGoString(bucket), cumulative));
+        }
+        samples.add(bucketSample(bucketLabelNames, labelValues, "+Inf", total));
+    }
+
+    private MetricFamilySamples.Sample bucketSample(List<String> bucketLabelNames, List<String> labelValues, String le, long count) {
+        List<String> bucketLabelValues = new ArrayList<>(labelValues);
+        bucketLabelValues.add(le);
+        return new MetricFamilySamples.Sample(this.fullname + "_bucket", bucketLabelNames, bucketLabelValues, count);
+    }
+
+    private void collectQuantiles(List<MetricFamilySamples.Sample> samples, List<String> labelValues, Child child, long[] counts, long total) {
+        List<String> quantileLabelNames = new ArrayList<>(this.labelNames);
+        quantileLabelNames.add("quantile");
+
+        for (double quantile : this.quantiles) {
+            List<String> quantileLabelValues = new ArrayList<>(labelValues);
+            quantileLabelValues.add(Collector.doubleToGoString(quantile));
+            samples.add(new MetricFamilySamples.Sample(this.fullname, quantileLabelNames, quantileLabelValues, child.quantile(counts, total, quantile)));
+        }
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(this.fullname, getType(), this.help, Collections.emptyList()));
+    }
+
+    private Type getType() {
+        return this.quantiles != null ? Type.SUMMARY : Type.HISTOGRAM;
+    }
+
+    public LogLinearLayout getLayout() {
+        return this.layout;
+    }
+}
@@ -0,0 +1,112 @@
+package io.heracles.collector;
+
+/**
+ * 对数-线性分桶布局（HdrHistogram的思路）
+ * <p>
+ * 直接使用double的二进制表示：指数决定所在的2的幂区间，尾数的高位把区间等分为2^subBucketBits份，
+ * 相对误差不超过2^-subBucketBits。低于最小值的观测值（包括0和负数）落入第一个桶，超过最大值的落入最后一个桶；
+ * NaN也落入最后一个桶，与原生客户端一样导出时只计入+Inf
+ *
+ * @author walter
+ * @date 2021/02/02 20:20
+ **/
+public final class LogLinearLayout {
+    private static final int MANTISSA_BITS = 52;
+
+    private final int subBucketBits;
+    private final int minExponent;
+    private final int maxExponent;
+    private final double lowest;
+    private final int bucketCount;
+
+    /**
+     * @param significantDigits 有效数字位数（1~4），与HdrHistogram的numberOfSignificantValueDigits含义一致
+     * @param minValue          可区分的最小正数
+     * @param maxValue          可区分的最大值
+     */
+    public LogLinearLayout(int significantDigits, double minValue, double maxValue) {
+        if (significantDigits < 1 || significantDigits > 4) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 4");
+        }
+        if (!(minValue > 0) || !(maxValue > minValue)) {
+            throw new IllegalArgumentException("require 0 < minValue < maxValue");
+        }
+
+        // 2 * 10^d 个子桶覆盖[2^k, 2^(k+1))的上下两半，等价于每个2的幂区间分为2^bits份
+        this.subBucketBits = 64 - Long.numberOfLeadingZeros(2 * (long) Math.pow(10, significantDigits) - 1) - 1;
+        this.minExponent = Math.getExponent(minValue);
+        this.maxExponent = Math.getExponent(maxValue);
+        this.lowest = Math.scalb(1d, this.minExponent);
+        this.bucketCount = ((this.maxExponent - this.minExponent + 1) << this.subBucketBits) + 2;
+    }
+
+    /**
+     * 观测值所在的桶
+     *
+     * @param value 观测值
+     * @return 桶下标
+     */
+    public int indexOf(double value) {
+        if (!(value >= this.lowest)) {
+            return Double.isNaN(value) ? this.bucketCount - 1 : 0;
+        }
+
+        int exponent = Math.getExponent(value);
+        if (exponent > this.maxExponent) {
+            return this.bucketCount - 1;
+        }
+
+        int subBucket = (int) (Double.doubleToRawLongBits(value) >>> (MANTISSA_BITS - this.subBucketBits)) & ((1 << this.subBucketBits) - 1);
+        return 1 + ((exponent - this.minExponent) << this.subBucketBits) + subBucket;
+    }
+
+    /**
+     * 桶的下界（含）
+     *
+     * @param index 桶下标
+     * @return 下界，第一个桶为0
+     */
+    public double lowerBound(int index) {
+        if (index == 0) {
+            return 0d;
+        }
+        if (index == this.bucketCount - 1) {
+            return Math.scalb(1d, this.maxExponent + 1);
+        }
+
+        int offset = index - 1;
+        int exponent = this.minExponent + (offset >>> this.subBucketBits);
+        int subBucket = offset & ((1 << this.subBucketBits) - 1);
+        return Math.scalb(1d + (double) subBucket / (1 << this.subBucketBits), exponent);
+    }
+
+    /**
+     * 桶的上界（不含）
+     *
+     * @param index 桶下标
+     * @return 上界，最后一个桶为正无穷
+     */
+    public double upperBound(int index) {
+        return index == this.bucketCount - 1 ? Double.POSITIVE_INFINITY : lowerBound(index + 1);
+    }
+
+    /**
+     * 桶的代表值，用于估算分位数
+     *
+     * @param index 桶下标
+     * @return 代表值
+     */
+    public double representative(int index) {
+        if (index == 0) {
+            return this.lowest;
+        }
+        if (index == this.bucketCount - 1) {
+            return lowerBound(index);
+        }
+        return (lowerBound(index) + upperBound(index)) / 2;
+    }
+
+    public int getBucketCount() {
+        return this.bucketCount;
+    }
+}
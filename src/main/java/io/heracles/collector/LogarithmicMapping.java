@@ -0,0 +1,84 @@
+package io.heracles.collector;
+
+/**
+ * DDSketch的对数映射
+ * <p>
+ * gamma = (1 + a) / (1 - a)，第k个桶覆盖(gamma^(k-1), gamma^k]，以2 * gamma^k / (gamma + 1)作为代表值时相对误差不超过a。
+ * 桶数组有固定的值域：不超过最小值的观测值（包括0和负数）落入第一个桶，代表值为0；超过最大值的观测值落入最后一个桶
+ *
+ * @author walter
+ * @date 2021/02/03 20:25
+ **/
+public final class LogarithmicMapping {
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double multiplier;
+    private final double minValue;
+    private final double maxValue;
+    private final int minIndex;
+    private final int bucketCount;
+
+    /**
+     * @param relativeAccuracy 相对误差，0~1
+     * @param minValue         可区分的最小正数
+     * @param maxValue         可区分的最大值
+     */
+    public LogarithmicMapping(double relativeAccuracy, double minValue, double maxValue) {
+        if (!(relativeAccuracy > 0) || !(relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+        }
+        if (!(minValue > 0) || !(maxValue > minValue)) {
+            throw new IllegalArgumentException("require 0 < minValue < maxValue");
+        }
+
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.multiplier = 1 / Math.log(this.gamma);
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.minIndex = logIndex(minValue);
+        this.bucketCount = logIndex(maxValue) - this.minIndex + 2;
+    }
+
+    private int logIndex(double value) {
+        return (int) Math.ceil(Math.log(value) * this.multiplier);
+    }
+
+    /**
+     * 观测值所在的桶
+     *
+     * @param value 观测值
+     * @return 桶下标
+     */
+    public int indexOf(double value) {
+        if (!(value > this.minValue)) {
+            return 0;
+        }
+        // 先截断，避免+Inf等过大的值在取整时溢出
+        if (value > this.maxValue) {
+            return this.bucketCount - 1;
+        }
+        return Math.min(logIndex(value) - this.minIndex + 1, this.bucketCount - 1);
+    }
+
+    /**
+     * 桶的代表值
+     *
+     * @param index 桶下标
+     * @return 代表值，第一个桶为0
+     */
+    public double representative(int index) {
+        if (index == 0) {
+            return 0d;
+        }
+        return 2 * Math.pow(this.gamma, index - 1 + this.minIndex) / (this.gamma + 1);
+    }
+
+    public double getRelativeAccuracy() {
+        return this.relativeAccuracy;
+    }
+
+    public int getBucketCount() {
+        return this.bucketCount;
+    }
+}
@@ -0,0 +1,348 @@
+package io.heracles.collector;
+
+import io.heracles.util.CoarseClock;
+import io.prometheus.client.Collector;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于可合并草图（DDSketch）的Summary
+ * <p>
+ * 原生SDK的Summary用CKMS估算分位数，每次observe都要在Child上加锁。这里把观测值映射到对数桶，
+ * 打点只是按线程分条的一次无锁自增，采集时再合并各分条、各时间片；分位数的相对误差固定，不随观测值分布变化。
+ * 与原生SDK一样，分位数只统计最近maxAgeSeconds内的观测值，count和sum统计全部观测值
+ *
+ * @author walter
+ * @date 2021/02/03 20:45
+ **/
+public class SketchSummary extends SimpleCollector<SketchSummary.Child> implements Collector.Describable {
+    private static final LogarithmicMapping PLACEHOLDER_MAPPING = new LogarithmicMapping(0.5, 1, 2);
+
+    public static class Builder extends SimpleCollector.Builder<Builder, SketchSummary> {
+        private final List<Double> quantiles = new ArrayList<>();
+        private double relativeAccuracy = 0.01;
+        private double minValue = 1e-6;
+        private double maxValue = 1e4;
+        private int stripes = 4;
+        private long maxAgeSeconds = TimeUnit.MINUTES.toSeconds(10);
+        private int ageBuckets = 5;
+
+        /**
+         * 导出的分位数，误差由{@link #relativeAccuracy(double)}统一决定
+         *
+         * @param quantile 分位数，0~1
+         * @return 当前对象
+         */
+        public Builder quantile(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0) {
+                throw new IllegalArgumentException("Quantile " + quantile + " invalid: Expected number between 0.0 and 1.0.");
+            }
+            this.quantiles.add(quantile);
+            return this;
+        }
+
+        /**
+         * 分位数的相对误差
+         *
+         * @param relativeAccuracy 0~1，默认0.01
+         * @return 当前对象
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            return this;
+        }
+
+        /**
+         * 可区分的值域，不超过最小值的观测值按0统计，超过最大值的按最大值统计，但都按原值计入sum
+         *
+         * @param minValue 最小正数，默认1e-6
+         * @param maxValue 最大值，默认1e4
+         * @return 当前对象
+         */
+        public Builder range(double minValue, double maxValue) {
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            return this;
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#stripes(int)
+         */
+        public Builder stripes(int stripes) {
+            this.stripes = StripedBuckets.stripesFor(stripes);
+            return this;
+        }
+
+        public Builder maxAgeSeconds(long maxAgeSeconds) {
+            if (maxAgeSeconds <= 0) {
+                throw new IllegalArgumentException("maxAgeSeconds cannot be " + maxAgeSeconds);
+            }
+            this.maxAgeSeconds = maxAgeSeconds;
+            return this;
+        }
+
+        public Builder ageBuckets(int ageBuckets) {
+            if (ageBuckets <= 0) {
+                throw new IllegalArgumentException("ageBuckets cannot be " + ageBuckets);
+            }
+            this.ageBuckets = ageBuckets;
+            return this;
+        }
+
+        @Override
+        public SketchSummary create() {
+            return new SketchSummary(this);
+        }
+    }
+
+    /**
+     * 一个时间片内的草图
+     */
+    private static final class Slice {
+        /**
+         * 时间片序号 = 当前时间 / 时间片长度
+         */
+        private final long epoch;
+        private final StripedBuckets buckets;
+
+        private Slice(long epoch, StripedBuckets buckets) {
+            this.epoch = epoch;
+            this.buckets = buckets;
+        }
+    }
+
+    /**
+     * 一个标签值组合的Summary
+     * <p>
+     * 最近maxAgeSeconds被切分为ageBuckets个时间片，打点只写入当前时间片；
+     * 轮转到新的时间片时CAS替换掉最旧的时间片，轮转瞬间仍在写入旧时间片的少量打点不计入分位数
+     */
+    public static class Child {
+        private final LogarithmicMapping mapping;
+        private final int stripes;
+        private final long sliceMillis;
+        private final AtomicReferenceArray<Slice> slices;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Child(LogarithmicMapping mapping, int stripes, long maxAgeMillis, int ageBuckets) {
+            this.mapping = mapping;
+            this.stripes = stripes;
+            this.sliceMillis = Math.max(1, maxAgeMillis / ageBuckets);
+            this.slices = new AtomicReferenceArray<>(ageBuckets);
+        }
+
+        /**
+         * 记录观测值
+         *
+         * @param amt 观测值
+         */
+        public void observe(double amt) {
+            long epoch = CoarseClock.currentTimeMillis() / this.sliceMillis;
+            int index = (int) (epoch % this.slices.length());
+            Slice slice = this.slices.get(index);
+            if (slice == null || slice.epoch < epoch) {
+                slice = rotate(index, slice, epoch);
+            }
+
+            slice.buckets.increment(this.mapping.indexOf(amt));
+            this.count.increment();
+            this.sum.add(amt);
+        }
+
+        private Slice rotate(int index, Slice expired, long epoch) {
+            Slice slice = new Slice(epoch, new StripedBuckets(this.mapping.getBucketCount(), this.stripes));
+            return this.slices.compareAndSet(index, expired, slice) ? slice : this.slices.get(index);
+        }
+
+        public DurationTimer startTimer() {
+            return new DurationTimer(this::observe);
+        }
+
+        public double time(Runnable timeable) {
+            DurationTimer timer = startTimer();
+            double elapsed;
+            try {
+                timeable.run();
+            } finally {
+                elapsed = timer.observeDuration();
+            }
+            return elapsed;
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            DurationTimer timer = startTimer();
+            try {
+                return timeable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                timer.observeDuration();
+            }
+        }
+
+        /**
+         * 合并时间窗口内各时间片、各分条的桶计数
+         *
+         * @return 桶下标 -> 计数
+         */
+        public long[] snapshot() {
+            long[] counts = new long[this.mapping.getBucketCount()];
+            long oldest = CoarseClock.currentTimeMillis() / this.sliceMillis - this.slices.length();
+            for (int i = 0; i < this.slices.length(); i++) {
+                Slice slice = this.slices.get(i);
+                if (slice != null && slice.epoch > oldest) {
+                    slice.buckets.addTo(counts);
+                }
+            }
+            return counts;
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public double getSum() {
+            return this.sum.sum();
+        }
+
+        /**
+         * 估算时间窗口内的分位数
+         *
+         * @param quantile 分位数，0~1
+         * @return 分位数的估算值，时间窗口内没有观测值时返回NaN
+         */
+        public double getQuantile(double quantile) {
+            long[] counts = snapshot();
+            return quantile(counts, StripedBuckets.total(counts), quantile);
+        }
+
+        private double quantile(long[] counts, long total, double quantile) {
+            if (total == 0) {
+                return Double.NaN;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return this.mapping.representative(i);
+                }
+            }
+            return this.mapping.representative(counts.length - 1);
+        }
+    }
+
+    private final LogarithmicMapping mapping;
+    private final double[] quantiles;
+    private final int stripes;
+    private final long maxAgeMillis;
+    private final int ageBuckets;
+
+    SketchSummary(Builder b) {
+        super(b);
+        this.mapping = new LogarithmicMapping(b.relativeAccuracy, b.minValue, b.maxValue);
+        this.quantiles = b.quantiles.stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(this.quantiles);
+        this.stripes = b.stripes;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(b.maxAgeSeconds);
+        this.ageBuckets = b.ageBuckets;
+        for (String labelName : this.labelNames) {
+            if ("quantile".equals(labelName)) {
+                throw new IllegalStateException("SketchSummary cannot have a label named 'quantile'.");
+            }
+        }
+
+        // 父类构造时配置尚未就绪，重新创建无标签的Child
+        if (this.labelNames.isEmpty()) {
+            this.children.clear();
+            initializeNoLabelsChild();
+        }
+    }
+
+    public static Builder build(String name, String help) {
+        return new Builder().name(name).help(help);
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    @Override
+    protected Child newChild() {
+        if (this.mapping == null) {
+            return new Child(PLACEHOLDER_MAPPING, 1, 1, 1);
+        }
+        return new Child(this.mapping, this.stripes, this.maxAgeMillis, this.ageBuckets);
+    }
+
+    public void observe(double amt) {
+        this.noLabelsChild.observe(amt);
+    }
+
+    public DurationTimer startTimer() {
+        return this.noLabelsChild.startTimer();
+    }
+
+    public double time(Runnable timeable) {
+        return this.noLabelsChild.time(timeable);
+    }
+
+    public <E> E time(Callable<E> timeable) {
+        return this.noLabelsChild.time(timeable);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (Map.Entry<List<String>, Child> entry : this.children.entrySet()) {
+            collectSamples(entry.getKey(), entry.getValue(), samples);
+        }
+        return familySamplesList(Type.SUMMARY, samples);
+    }
+
+    /**
+     * 生成一个标签值组合的样本
+     *
+     * @param labelValues 标签值
+     * @param child       Child
+     * @param samples     样本输出
+     */
+    public void collectSamples(List<String> labelValues, Child child, List<MetricFamilySamples.Sample> samples) {
+        if (this.quantiles.length > 0) {
+            List<String> quantileLabelNames = new ArrayList<>(this.labelNames);
+            quantileLabelNames.add("quantile");
+            long[] counts = child.snapshot();
+            long total = StripedBuckets.total(counts);
+            for (double quantile : this.quantiles) {
+                List<String> quantileLabelValues = new ArrayList<>(labelValues);
+                quantileLabelValues.add(Collector.doubleToGoString(quantile));
+                samples.add(new MetricFamilySamples.Sample(this.fullname, quantileLabelNames, quantileLabelValues, child.quantile(counts, total, quantile)));
+            }
+        }
+        samples.add(new MetricFamilySamples.Sample(this.fullname + "_count", this.labelNames, labelValues, child.getCount()));
+        samples.add(new MetricFamilySamples.Sample(this.fullname + "_sum", this.labelNames, labelValues, child.getSum()));
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        return Collections.singletonList(new MetricFamilySamples(this.fullname, Type.SUMMARY, this.help, Collections.emptyList()));
+    }
+
+    public LogarithmicMapping getMapping() {
+        return this.mapping;
+    }
+}
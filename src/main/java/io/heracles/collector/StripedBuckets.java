@@ -0,0 +1,100 @@
+package io.heracles.collector;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按线程分条的桶计数
+ * <p>
+ * 打点线程按线程ID选择分条，只做一次无锁自增；分条在首次写入时才分配，单线程打点的Child只占用一个分条
+ *
+ * @author walter
+ * @date 2021/02/03 20:10
+ **/
+final class StripedBuckets {
+    private final int bucketCount;
+    private final int stripeMask;
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    /**
+     * @param bucketCount 桶数
+     * @param stripes     分条数，必须是2的幂
+     */
+    StripedBuckets(int bucketCount, int stripes) {
+        this.bucketCount = bucketCount;
+        this.stripeMask = stripes - 1;
+        this.stripes = new AtomicReferenceArray<>(stripes);
+    }
+
+    /**
+     * 桶计数加一
+     *
+     * @param index 桶下标
+     */
+    void increment(int index) {
+        int stripeIndex = (int) Thread.currentThread().getId() & this.stripeMask;
+        AtomicLongArray stripe = this.stripes.get(stripeIndex);
+        if (stripe == null) {
+            stripe = allocate(stripeIndex);
+        }
+
+        stripe.getAndIncrement(index);
+    }
+
+    private AtomicLongArray allocate(int stripeIndex) {
+        AtomicLongArray stripe = new AtomicLongArray(this.bucketCount);
+        return this.stripes.compareAndSet(stripeIndex, null, stripe) ? stripe : this.stripes.get(stripeIndex);
+    }
+
+    /**
+     * 把各分条的计数累加到给定数组
+     *
+     * @param counts 桶下标 -> 计数，长度与桶数一致
+     */
+    void addTo(long[] counts) {
+        for (int i = 0; i < this.stripes.length(); i++) {
+            AtomicLongArray stripe = this.stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int j = 0; j < counts.length; j++) {
+                counts[j] += stripe.get(j);
+            }
+        }
+    }
+
+    int getBucketCount() {
+        return this.bucketCount;
+    }
+
+    /**
+     * 向上取整为2的幂
+     *
+     * @param stripes 分条数
+     * @return 2的幂
+     */
+    static int stripesFor(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive");
+        }
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * 计数总和
+     *
+     * @param counts 桶下标 -> 计数
+     * @return 总和
+     */
+    static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
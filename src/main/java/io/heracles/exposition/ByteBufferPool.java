@@ -0,0 +1,75 @@
+package io.heracles.exposition;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定大小的直接内存缓冲池
+ * <p>
+ * 每次采集的响应体写入若干个缓冲，发送完成后归还；池中最多保留maxPooled个缓冲，超出的交给GC回收，
+ * 避免一次超大的采集长期占住内存
+ *
+ * @author walter
+ * @date 2021/02/04 20:10
+ **/
+public class ByteBufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> pooled;
+    /**
+     * 池中没有空闲缓冲时新分配的次数
+     */
+    private final LongAdder allocatedCount = new LongAdder();
+
+    /**
+     * @param bufferSize 单个缓冲的字节数
+     * @param maxPooled  池中最多保留的空闲缓冲数
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        if (bufferSize <= 0 || maxPooled <= 0) {
+            throw new IllegalArgumentException("bufferSize and maxPooled must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.pooled = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * 取出一个已清空的缓冲
+     *
+     * @return 直接内存缓冲
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.pooled.poll();
+        if (buffer == null) {
+            this.allocatedCount.increment();
+            return ByteBuffer.allocateDirect(this.bufferSize);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲，池已满时丢弃
+     *
+     * @param buffer 由{@link #acquire()}取出的缓冲
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == this.bufferSize) {
+            this.pooled.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    public int getPooledCount() {
+        return this.pooled.size();
+    }
+
+    public long getAllocatedCount() {
+        return this.allocatedCount.sum();
+    }
+}
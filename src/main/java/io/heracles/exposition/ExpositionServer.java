@@ -0,0 +1,615 @@
+package io.heracles.exposition;
+
+import io.heracles.util.HeraclesScheduler;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基于NIO的指标暴露端点
+ * <p>
+ * 一个选择器线程负责接受连接、读取请求和发送响应，渲染在独立的线程池中进行：指标按文本格式直接编码为字节，
+ * 写入池化的直接内存缓冲（需要时经过gzip），渲染完成后由选择器线程用聚集写发送，发送完成后缓冲归还到池中。
+ * /和/metrics返回指标，/-/healthy返回健康检查，其他路径返回404；支持name[]参数过滤指标族，支持HTTP/1.1长连接。
+ * 可选开启{@link SnapshotCache}，多个抓取方在最小刷新间隔内共享同一次采集
+ *
+ * @author walter
+ * @date 2021/02/04 21:00
+ **/
+public class ExpositionServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ExpositionServer.class.getName());
+    private static final AtomicInteger RENDER_THREAD_INDEX = new AtomicInteger();
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    private static final String METRICS_PATH = "/metrics";
+    private static final String HEALTHY_PATH = "/-/healthy";
+    private static final String HEALTHY_BODY = "Exporter is Healthy.";
+    public static final String DEFAULT_SNAPSHOT_AGE_METRIC = "heracles_scrape_snapshot_age_seconds";
+
+    public static class Builder {
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private InetSocketAddress address = new InetSocketAddress(0);
+        private int renderThreads = 1;
+        private int bufferSize = 64 * 1024;
+        private int maxPooledBuffers = 256;
+        private int maxRequestSize = 8 * 1024;
+        private long snapshotIntervalMillis;
+        private String snapshotAgeMetric = DEFAULT_SNAPSHOT_AGE_METRIC;
+
+        protected Builder() {
+        }
+
+        public Builder registry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * 监听地址，默认监听所有网卡的随机端口
+         *
+         * @param address 监听地址
+         * @return 当前对象
+         */
+        public Builder address(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        public Builder address(String host, int port) {
+            return address(new InetSocketAddress(host, port));
+        }
+
+        public Builder port(int port) {
+            return address(new InetSocketAddress(port));
+        }
+
+        /**
+         * 渲染线程数，即可以同时进行的采集数
+         *
+         * @param renderThreads 渲染线程数，默认1
+         * @return 当前对象
+         */
+        public Builder renderThreads(int renderThreads) {
+            if (renderThreads <= 0) {
+                throw new IllegalArgumentException("renderThreads must be positive");
+            }
+            this.renderThreads = renderThreads;
+            return this;
+        }
+
+        /**
+         * 响应缓冲池配置
+         *
+         * @param bufferSize       单个直接内存缓冲的字节数，默认64KB
+         * @param maxPooledBuffers 池中最多保留的空闲缓冲数，默认256
+         * @return 当前对象
+         * @see ByteBufferPool
+         */
+        public Builder buffers(int bufferSize, int maxPooledBuffers) {
+            this.bufferSize = bufferSize;
+            this.maxPooledBuffers = maxPooledBuffers;
+            return this;
+        }
+
+        /**
+         * 请求行加请求头的最大字节数，超过时返回431并关闭连接
+         *
+         * @param maxRequestSize 最大字节数，默认8KB
+         * @return 当前对象
+         */
+        public Builder maxRequestSize(int maxRequestSize) {
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        /**
+         * 开启采集快照缓存，未指定name[]的抓取在快照未超过间隔时直接返回快照
+         *
+         * @param interval 最小刷新间隔，0代表不缓存（默认）
+         * @param unit     间隔单位
+         * @return 当前对象
+         * @see SnapshotCache
+         */
+        public Builder snapshotInterval(long interval, TimeUnit unit) {
+            this.snapshotIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * 返回快照时在响应末尾追加的快照年龄指标名
+         *
+         * @param snapshotAgeMetric 指标名，null代表不追加，默认heracles_scrape_snapshot_age_seconds
+         * @return 当前对象
+         */
+        public Builder snapshotAgeMetric(String snapshotAgeMetric) {
+            this.snapshotAgeMetric = snapshotAgeMetric;
+            return this;
+        }
+
+        /**
+         * 绑定端口并启动
+         *
+         * @return 已启动的端点
+         * @throws IOException 绑定失败
+         */
+        public ExpositionServer start() throws IOException {
+            ExpositionServer server = new ExpositionServer(this);
+            server.selectorThread.start();
+            return server;
+        }
+    }
+
+    /**
+     * 一个连接的读写状态，只由选择器线程访问
+     */
+    private static final class Connection {
+        private final ByteBuffer request;
+        private Response response;
+
+        private Connection(int maxRequestSize) {
+            this.request = ByteBuffer.allocate(maxRequestSize);
+        }
+    }
+
+    /**
+     * 渲染好的响应：响应头、共享的响应体快照以及可选的尾部
+     */
+    private static final class Response {
+        private final ByteBuffer[] buffers;
+        private final Snapshot snapshot;
+        private final boolean keepAlive;
+        /**
+         * 第一个还有剩余字节的缓冲
+         */
+        private int offset;
+
+        private Response(ByteBuffer head, Snapshot snapshot, ByteBuffer trailer, boolean keepAlive) {
+            int bodyCount = snapshot == null ? 0 : snapshot.bufferCount();
+            this.buffers = new ByteBuffer[1 + bodyCount + (trailer == null ? 0 : 1)];
+            this.buffers[0] = head;
+            if (snapshot != null) {
+                snapshot.copyViewsTo(this.buffers, 1);
+            }
+            if (trailer != null) {
+                this.buffers[this.buffers.length - 1] = trailer;
+            }
+            this.snapshot = snapshot;
+            this.keepAlive = keepAlive;
+        }
+
+        private void write(SocketChannel channel) throws IOException {
+            channel.write(this.buffers, this.offset, this.buffers.length - this.offset);
+            while (this.offset < this.buffers.length && !this.buffers[this.offset].hasRemaining()) {
+                this.offset++;
+            }
+        }
+
+        private boolean hasRemaining() {
+            return this.offset < this.buffers.length;
+        }
+
+        private void release() {
+            if (this.snapshot != null) {
+                this.snapshot.release();
+            }
+        }
+    }
+
+    private final CollectorRegistry registry;
+    private final int maxRequestSize;
+    private final ByteBufferPool pool;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread selectorThread;
+    private final ExecutorService renderExecutor;
+    /**
+     * 渲染线程提交给选择器线程的任务
+     */
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    /**
+     * 未开启快照缓存时为null
+     */
+    private final SnapshotCache snapshotCache;
+    private final String snapshotAgeMetric;
+    private volatile boolean running = true;
+
+    protected ExpositionServer(Builder builder) throws IOException {
+        this.registry = builder.registry;
+        this.maxRequestSize = builder.maxRequestSize;
+        this.pool = new ByteBufferPool(builder.bufferSize, builder.maxPooledBuffers);
+        this.snapshotCache = builder.snapshotIntervalMillis > 0
+                ? new SnapshotCache(builder.snapshotIntervalMillis, gzip -> renderSnapshot(Collections.emptySet(), gzip)) : null;
+        this.snapshotAgeMetric = builder.snapshotAgeMetric;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            this.serverChannel.bind(builder.address);
+            this.serverChannel.configureBlocking(false);
+            this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            this.serverChannel.close();
+            this.selector.close();
+            throw e;
+        }
+        this.selectorThread = HeraclesScheduler.newDaemonThread("heracles-exposition-selector", this::run);
+        this.renderExecutor = Executors.newFixedThreadPool(builder.renderThreads,
+                r -> HeraclesScheduler.newDaemonThread("heracles-exposition-render-" + RENDER_THREAD_INDEX.incrementAndGet(), r));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 实际监听的端口，监听随机端口时用于获取分配到的端口
+     *
+     * @return 端口
+     */
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return this.pool;
+    }
+
+    /**
+     * @return 快照缓存，未开启时返回null
+     */
+    public SnapshotCache getSnapshotCache() {
+        return this.snapshotCache;
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                this.selector.select();
+                Runnable task;
+                while ((task = this.pendingTasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "heracles exposition selector failed", e);
+            }
+        }
+
+        for (SelectionKey key : this.selector.keys()) {
+            closeConnection(key);
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "close selector failed", e);
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                closeConnection(key);
+            } else if (key.isAcceptable()) {
+                accept();
+            } else if (key.isReadable()) {
+                read(key);
+            } else if (key.isWritable()) {
+                write(key);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "heracles exposition connection failed", e);
+            closeConnection(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.register(this.selector, SelectionKey.OP_READ, new Connection(this.maxRequestSize));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.request) < 0) {
+            closeConnection(key);
+            return;
+        }
+
+        int headerEnd = indexOf(connection.request, HEADER_END);
+        if (headerEnd < 0) {
+            if (!connection.request.hasRemaining()) {
+                respondError(key, connection, 431, "Request Header Fields Too Large");
+            }
+            return;
+        }
+
+        // 不支持请求体和管线化，请求头之后的字节直接丢弃
+        String header = new String(connection.request.array(), 0, headerEnd, StandardCharsets.ISO_8859_1);
+        connection.request.clear();
+        key.interestOps(0);
+        try {
+            this.renderExecutor.execute(() -> {
+                Response response = render(header);
+                submit(() -> startWrite(key, connection, response));
+            });
+        } catch (RejectedExecutionException e) {
+            closeConnection(key);
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        Response response = connection.response;
+        response.write((SocketChannel) key.channel());
+        if (response.hasRemaining()) {
+            return;
+        }
+
+        response.release();
+        connection.response = null;
+        if (response.keepAlive) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            closeConnection(key);
+        }
+    }
+
+    private void startWrite(SelectionKey key, Connection connection, Response response) {
+        if (!key.isValid()) {
+            response.release();
+            return;
+        }
+
+        connection.response = response;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void respondError(SelectionKey key, Connection connection, int status, String reason) {
+        connection.request.clear();
+        startWrite(key, connection, plainResponse(status, reason, reason, false, false));
+    }
+
+    private void submit(Runnable task) {
+        this.pendingTasks.add(task);
+        this.selector.wakeup();
+    }
+
+    private void closeConnection(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment instanceof Connection && ((Connection) attachment).response != null) {
+            ((Connection) attachment).response.release();
+            ((Connection) attachment).response = null;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "close channel failed", e);
+        }
+    }
+
+    /**
+     * 解析请求并渲染响应，在渲染线程中执行
+     *
+     * @param header 请求行和请求头
+     * @return 响应
+     */
+    private Response render(String header) {
+        String[] lines = header.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            return plainResponse(400, "Bad Request", "Bad Request", false, false);
+        }
+
+        String method = requestLine[0];
+        String target = requestLine[1];
+        boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+        boolean gzip = false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+            if ("accept-encoding".equals(name)) {
+                gzip = value.contains("gzip");
+            } else if ("connection".equals(name)) {
+                keepAlive = value.contains("keep-alive") || (keepAlive && !value.contains("close"));
+            }
+        }
+
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            return plainResponse(405, "Method Not Allowed", "Method Not Allowed", false, keepAlive);
+        }
+
+        int query = target.indexOf('?');
+        String path = query < 0 ? target : target.substring(0, query);
+        if (HEALTHY_PATH.equals(path)) {
+            return plainResponse(200, "OK", HEALTHY_BODY, head, keepAlive);
+        }
+        if (!"/".equals(path) && !METRICS_PATH.equals(path)) {
+            return plainResponse(404, "Not Found", "Not Found", head, keepAlive);
+        }
+
+        Snapshot snapshot;
+        ByteBuffer trailer = null;
+        try {
+            Set<String> names = parseNames(query < 0 ? null : target.substring(query + 1));
+            if (this.snapshotCache != null && names.isEmpty()) {
+                snapshot = this.snapshotCache.get(gzip);
+                if (this.snapshotAgeMetric != null) {
+                    trailer = renderSnapshotAge(snapshot, gzip);
+                }
+            } else {
+                snapshot = renderSnapshot(names, gzip);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "heracles exposition render failed", e);
+            return plainResponse(500, "Internal Server Error", "Internal Server Error", false, false);
+        }
+
+        long contentLength = snapshot.size() + (trailer == null ? 0 : trailer.remaining());
+        String statusAndHeaders = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: " + TextFormatWriter.CONTENT_TYPE_004 + "\r\n"
+                + "Content-Length: " + contentLength + "\r\n"
+                + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n";
+        ByteBuffer statusAndHeadersBuffer = ByteBuffer.wrap(statusAndHeaders.getBytes(StandardCharsets.ISO_8859_1));
+        if (head) {
+            snapshot.release();
+            return new Response(statusAndHeadersBuffer, null, null, keepAlive);
+        }
+        return new Response(statusAndHeadersBuffer, snapshot, trailer, keepAlive);
+    }
+
+    /**
+     * 采集并渲染响应体
+     *
+     * @param names 需要的指标名，空集合代表全部
+     * @param gzip  是否gzip
+     * @return 引用计数为1的快照
+     */
+    private Snapshot renderSnapshot(Set<String> names, boolean gzip) throws IOException {
+        long createdMillis = System.currentTimeMillis();
+        PooledBufferOutputStream body = new PooledBufferOutputStream(this.pool);
+        try {
+            OutputStream out = gzip ? new GZIPOutputStream(body, this.pool.getBufferSize()) : body;
+            new TextFormatWriter(out, this.pool.getBufferSize()).write(this.registry.filteredMetricFamilySamples(names));
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            body.release();
+            throw e;
+        }
+        return new Snapshot(body, createdMillis);
+    }
+
+    /**
+     * 渲染快照年龄指标，gzip时作为独立的gzip成员追加（多个成员串联仍是合法的gzip流）
+     */
+    private ByteBuffer renderSnapshotAge(Snapshot snapshot, boolean gzip) throws IOException {
+        double ageSeconds = (System.currentTimeMillis() - snapshot.getCreatedMillis()) / 1000d;
+        Collector.MetricFamilySamples family = new Collector.MetricFamilySamples(this.snapshotAgeMetric, Collector.Type.GAUGE,
+                "Age of the served scrape snapshot in seconds.",
+                Collections.singletonList(new Collector.MetricFamilySamples.Sample(this.snapshotAgeMetric, Collections.emptyList(), Collections.emptyList(), ageSeconds)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes;
+        TextFormatWriter writer = new TextFormatWriter(out, 256);
+        writer.write(family);
+        writer.flush();
+        out.close();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static Response plainResponse(int status, String reason, String body, boolean head, boolean keepAlive) {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n")
+                + "\r\n";
+        ByteBuffer buffer = ByteBuffer.allocate(header.length() + (head ? 0 : bodyBytes.length));
+        buffer.put(header.getBytes(StandardCharsets.ISO_8859_1));
+        if (!head) {
+            buffer.put(bodyBytes);
+        }
+        buffer.flip();
+        return new Response(buffer, null, null, keepAlive);
+    }
+
+    /**
+     * 解析name[]参数
+     *
+     * @param query 查询串
+     * @return 指标名，没有name[]参数时返回空集合（原生SDK视为不过滤）
+     */
+    private static Set<String> parseNames(String query) throws UnsupportedEncodingException {
+        Set<String> names = new HashSet<>();
+        if (query == null) {
+            return names;
+        }
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && "name[]".equals(URLDecoder.decode(pair.substring(0, eq), "UTF-8"))) {
+                names.add(URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return names;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] target) {
+        byte[] array = buffer.array();
+        for (int i = 0; i + target.length <= buffer.position(); i++) {
+            int j = 0;
+            while (j < target.length && array[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 停止监听并关闭所有连接
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+        this.renderExecutor.shutdown();
+        if (this.snapshotCache != null) {
+            this.snapshotCache.clear();
+        }
+        try {
+            this.selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+            this.serverChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "close server channel failed", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.heracles.exposition;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 写入池化缓冲链的输出流，当前缓冲写满后从池中取下一个
+ *
+ * @author walter
+ * @date 2021/02/04 20:20
+ **/
+final class PooledBufferOutputStream extends OutputStream {
+    private final ByteBufferPool pool;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private ByteBuffer current;
+    private long size;
+
+    PooledBufferOutputStream(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        if (this.current == null || !this.current.hasRemaining()) {
+            next();
+        }
+        this.current.put((byte) b);
+        this.size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (this.current == null || !this.current.hasRemaining()) {
+                next();
+            }
+            int n = Math.min(len, this.current.remaining());
+            this.current.put(b, off, n);
+            off += n;
+            len -= n;
+            this.size += n;
+        }
+    }
+
+    private void next() {
+        this.current = this.pool.acquire();
+        this.buffers.add(this.current);
+    }
+
+    /**
+     * 结束写入，把所有缓冲切换为读模式
+     *
+     * @return 按写入顺序排列的缓冲
+     */
+    List<ByteBuffer> finish() {
+        for (ByteBuffer buffer : this.buffers) {
+            buffer.flip();
+        }
+        this.current = null;
+        return this.buffers;
+    }
+
+    /**
+     * 把所有缓冲归还到池中
+     */
+    void release() {
+        for (ByteBuffer buffer : this.buffers) {
+            this.pool.release(buffer);
+        }
+        this.buffers.clear();
+        this.current = null;
+    }
+
+    long size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,83 @@
+package io.heracles.exposition;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次渲染的响应体，按引用计数共享
+ * <p>
+ * 缓存和每个正在发送的响应各持有一个引用，每个响应使用缓冲的独立视图，互不影响读位置；
+ * 最后一个引用释放时缓冲归还到池中
+ *
+ * @author walter
+ * @date 2021/02/05 20:10
+ **/
+final class Snapshot {
+    private final PooledBufferOutputStream body;
+    private final List<ByteBuffer> buffers;
+    private final long size;
+    private final long createdMillis;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * @param body          已写完的响应体，之后由快照负责释放
+     * @param createdMillis 开始采集的时间
+     */
+    Snapshot(PooledBufferOutputStream body, long createdMillis) {
+        this.size = body.size();
+        this.buffers = body.finish();
+        this.body = body;
+        this.createdMillis = createdMillis;
+    }
+
+    /**
+     * 增加引用
+     *
+     * @return 快照已被释放时返回false
+     */
+    boolean retain() {
+        while (true) {
+            int current = this.references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (this.references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时归还缓冲
+     */
+    void release() {
+        if (this.references.decrementAndGet() == 0) {
+            this.body.release();
+        }
+    }
+
+    /**
+     * 把缓冲的独立视图写入目标数组
+     *
+     * @param target 目标数组
+     * @param offset 起始下标
+     */
+    void copyViewsTo(ByteBuffer[] target, int offset) {
+        for (int i = 0; i < this.buffers.size(); i++) {
+            target[offset + i] = this.buffers.get(i).duplicate();
+        }
+    }
+
+    int bufferCount() {
+        return this.buffers.size();
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    long getCreatedMillis() {
+        return this.createdMillis;
+    }
+}
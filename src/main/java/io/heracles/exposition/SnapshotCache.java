@@ -0,0 +1,149 @@
+package io.heracles.exposition;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 采集快照缓存
+ * <p>
+ * 多个抓取方（多副本Prometheus、agent）同时抓取同一实例时，快照未超过最小刷新间隔就直接返回，
+ * 超过间隔时只有一个请求进行采集，同时到达的其他请求等待并共享这次采集的结果（single-flight）。
+ * 原始格式和gzip格式分别缓存
+ *
+ * @author walter
+ * @date 2021/02/05 20:30
+ **/
+public final class SnapshotCache {
+    /**
+     * 渲染一次完整的采集
+     */
+    interface Renderer {
+        Snapshot render(boolean gzip) throws Exception;
+    }
+
+    private static final class Entry {
+        /**
+         * 缓存持有一个引用，以下字段都由Entry锁保护
+         */
+        private Snapshot current;
+        private CompletableFuture<Snapshot> inflight;
+    }
+
+    private final long minIntervalMillis;
+    private final Renderer renderer;
+    private final Entry plain = new Entry();
+    private final Entry gzip = new Entry();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder collectCount = new LongAdder();
+
+    SnapshotCache(long minIntervalMillis, Renderer renderer) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.renderer = renderer;
+    }
+
+    /**
+     * 获取快照，调用方使用完后需调用{@link Snapshot#release()}
+     *
+     * @param gzip 是否gzip格式
+     * @return 已增加引用的快照
+     * @throws Exception 采集失败，同时等待这次采集的请求都会收到同样的异常
+     */
+    Snapshot get(boolean gzip) throws Exception {
+        Entry entry = gzip ? this.gzip : this.plain;
+        while (true) {
+            CompletableFuture<Snapshot> future;
+            boolean leader = false;
+            synchronized (entry) {
+                Snapshot current = entry.current;
+                if (current != null && System.currentTimeMillis() - current.getCreatedMillis() < this.minIntervalMillis && current.retain()) {
+                    this.hitCount.increment();
+                    return current;
+                }
+                if (entry.inflight == null) {
+                    entry.inflight = new CompletableFuture<>();
+                    leader = true;
+                }
+                future = entry.inflight;
+            }
+
+            if (leader) {
+                return collect(entry, future, gzip);
+            }
+
+            Snapshot snapshot;
+            try {
+                snapshot = future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            this.hitCount.increment();
+            // 快照可能已被更新的采集替换并释放，此时重新获取
+            if (snapshot.retain()) {
+                return snapshot;
+            }
+        }
+    }
+
+    private Snapshot collect(Entry entry, CompletableFuture<Snapshot> future, boolean gzip) throws Exception {
+        Snapshot snapshot;
+        try {
+            this.collectCount.increment();
+            snapshot = this.renderer.render(gzip);
+        } catch (Exception | Error e) {
+            synchronized (entry) {
+                entry.inflight = null;
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        // 一个引用属于缓存，一个属于当前请求
+        snapshot.retain();
+        Snapshot expired;
+        synchronized (entry) {
+            expired = entry.current;
+            entry.current = snapshot;
+            entry.inflight = null;
+        }
+        future.complete(snapshot);
+        if (expired != null) {
+            expired.release();
+        }
+        return snapshot;
+    }
+
+    /**
+     * 释放缓存的快照
+     */
+    void clear() {
+        for (Entry entry : new Entry[]{this.plain, this.gzip}) {
+            Snapshot expired;
+            synchronized (entry) {
+                expired = entry.current;
+                entry.current = null;
+            }
+            if (expired != null) {
+                expired.release();
+            }
+        }
+    }
+
+    public long getMinIntervalMillis() {
+        return this.minIntervalMillis;
+    }
+
+    /**
+     * 直接使用缓存或共享其他请求采集结果的次数
+     */
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * 实际采集的次数
+     */
+    public long getCollectCount() {
+        return this.collectCount.sum();
+    }
+}
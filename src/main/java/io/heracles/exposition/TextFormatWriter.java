@@ -0,0 +1,224 @@
+package io.heracles.exposition;
+
+import io.prometheus.client.Collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Prometheus文本格式（0.0.4）编码器
+ * <p>
+ * 直接把指标名、标签和值编码为UTF-8字节写入暂存数组，暂存数组写满后整体写入目标流；
+ * 标签值和帮助文本逐字符转义，整数值直接输出数字，不产生中间String
+ *
+ * @author walter
+ * @date 2021/02/04 20:35
+ **/
+public class TextFormatWriter {
+    public static final String CONTENT_TYPE_004 = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * 小于该值的整数按Double.toString的格式直接输出，更大的值会被Double.toString写为科学计数法
+     */
+    private static final double PLAIN_LONG_LIMIT = 1e7;
+    private static final byte[] HELP = ascii("# HELP ");
+    private static final byte[] TYPE = ascii("# TYPE ");
+    private static final byte[][] TYPE_NAMES = new byte[Collector.Type.values().length][];
+
+    static {
+        for (Collector.Type type : Collector.Type.values()) {
+            TYPE_NAMES[type.ordinal()] = ascii(type.name().toLowerCase());
+        }
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * @param out        目标流
+     * @param bufferSize 暂存数组大小，至少为32
+     */
+    public TextFormatWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(bufferSize, 32)];
+    }
+
+    /**
+     * 编码所有指标族
+     *
+     * @param metricFamilySamples 指标族
+     * @throws IOException 目标流写入失败
+     */
+    public void write(Enumeration<Collector.MetricFamilySamples> metricFamilySamples) throws IOException {
+        while (metricFamilySamples.hasMoreElements()) {
+            write(metricFamilySamples.nextElement());
+        }
+        flush();
+    }
+
+    /**
+     * 编码一个指标族，编码后的字节可能仍在暂存数组中，需调用{@link #flush()}
+     *
+     * @param family 指标族
+     * @throws IOException 目标流写入失败
+     */
+    public void write(Collector.MetricFamilySamples family) throws IOException {
+        writeBytes(HELP);
+        writeUtf8(family.name, Escape.NONE);
+        writeByte(' ');
+        writeUtf8(family.help, Escape.HELP);
+        writeByte('\n');
+
+        writeBytes(TYPE);
+        writeUtf8(family.name, Escape.NONE);
+        writeByte(' ');
+        writeBytes(TYPE_NAMES[family.type.ordinal()]);
+        writeByte('\n');
+
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            writeUtf8(sample.name, Escape.NONE);
+            List<String> labelNames = sample.labelNames;
+            if (!labelNames.isEmpty()) {
+                writeByte('{');
+                for (int i = 0; i < labelNames.size(); i++) {
+                    if (i > 0) {
+                        writeByte(',');
+                    }
+                    writeUtf8(labelNames.get(i), Escape.NONE);
+                    writeByte('=');
+                    writeByte('"');
+                    writeUtf8(sample.labelValues.get(i), Escape.LABEL_VALUE);
+                    writeByte('"');
+                }
+                writeByte('}');
+            }
+            writeByte(' ');
+            writeDouble(sample.value);
+            if (sample.timestampMs != null) {
+                writeByte(' ');
+                writeLong(sample.timestampMs);
+            }
+            writeByte('\n');
+        }
+    }
+
+    /**
+     * 把暂存数组写入目标流
+     *
+     * @throws IOException 目标流写入失败
+     */
+    public void flush() throws IOException {
+        if (this.position > 0) {
+            this.out.write(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+    }
+
+    private enum Escape {
+        NONE, HELP, LABEL_VALUE
+    }
+
+    private void writeUtf8(String s, Escape escape) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (escape != Escape.NONE && (c == '\\' || c == '\n' || (c == '"' && escape == Escape.LABEL_VALUE))) {
+                    writeByte('\\');
+                    writeByte(c == '\n' ? 'n' : c);
+                } else {
+                    writeByte(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                this.buffer[this.position++] = (byte) (0xc0 | (c >> 6));
+                this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                ensure(4);
+                this.buffer[this.position++] = (byte) (0xf0 | (codePoint >> 18));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符按String.getBytes(UTF_8)的行为输出'?'
+                writeByte('?');
+            } else {
+                ensure(3);
+                this.buffer[this.position++] = (byte) (0xe0 | (c >> 12));
+                this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * 与{@link Collector#doubleToGoString(double)}输出一致
+     */
+    private void writeDouble(double value) throws IOException {
+        long longValue = (long) value;
+        if (longValue == value && Math.abs(value) < PLAIN_LONG_LIMIT && !(value == 0 && 1 / value < 0)) {
+            writeLong(longValue);
+            writeByte('.');
+            writeByte('0');
+            return;
+        }
+
+        String s = Collector.doubleToGoString(value);
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeUtf8(Long.toString(value), Escape.NONE);
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            this.buffer[this.position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = this.position + digits;
+        for (int i = end - 1; i >= this.position; i--) {
+            this.buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        this.position = end;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (this.position == this.buffer.length) {
+            flush();
+        }
+        this.buffer[this.position++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (this.buffer.length - this.position < bytes) {
+            flush();
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < s.length(); i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
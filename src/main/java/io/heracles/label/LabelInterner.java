@@ -0,0 +1,54 @@
+package io.heracles.label;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有容量上限的标签值驻留池，每个标签位一个
+ * <p>
+ * 重复出现的标签值共享同一个String实例：哈希值只计算一次，之后的比较在引用相等时直接返回。
+ * 池满后新值原样返回，不再驻留
+ *
+ * @author walter
+ * @date 2021/01/31 10:40
+ **/
+public class LabelInterner {
+    private final int maxSize;
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+    /**
+     * 驻留的值数，并发写入时可能被少量超出
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    public LabelInterner(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 获取标签值的驻留实例
+     *
+     * @param value 标签值
+     * @return 驻留实例，池满且未驻留时返回传入值
+     */
+    public String intern(String value) {
+        String canonical = this.pool.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+
+        if (this.size.get() >= this.maxSize) {
+            return value;
+        }
+
+        canonical = this.pool.putIfAbsent(value, value);
+        if (canonical == null) {
+            this.size.incrementAndGet();
+            return value;
+        }
+        return canonical;
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+}
@@ -3,6 +3,7 @@ package io.heracles.label;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Stream;
@@ -18,6 +19,10 @@ public class LabelNames {
      * 标签名 -> 默认值（null代表无默认值）
      */
     private final Map<String, String> labelNamesWithDefaultValues = new LinkedHashMap<>();
+    /**
+     * 标签名 -> 枚举类型，只包含声明为枚举的标签
+     */
+    private final Map<String, Class<? extends Enum<?>>> enumTypes = new HashMap<>();
 
     private LabelNames() {
     }
@@ -60,6 +65,37 @@ public class LabelNames {
         return this;
     }
 
+    /**
+     * 添加取值为枚举常量的标签名，已存在时保留原有默认值
+     *
+     * @param labelName 标签名
+     * @param enumType  枚举类型，标签值为枚举常量的toString()
+     * @return 当前对象
+     */
+    public LabelNames enumName(String labelName, Class<? extends Enum<?>> enumType) {
+        if (StringUtils.isEmpty(labelName) || enumType == null) {
+            return this;
+        }
+
+        this.labelNamesWithDefaultValues.putIfAbsent(labelName, null);
+        this.enumTypes.put(labelName, enumType);
+        return this;
+    }
+
+    /**
+     * 获取标签名对应枚举类型
+     *
+     * @param labelName 标签名
+     * @return 枚举类型，不是枚举标签返回null
+     */
+    public Class<? extends Enum<?>> getEnumType(String labelName) {
+        if (StringUtils.isEmpty(labelName)) {
+            return null;
+        }
+
+        return this.enumTypes.get(labelName);
+    }
+
     /**
      * 获取标签名对应默认值
      *
@@ -0,0 +1,404 @@
+package io.heracles.label;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编译后的标签解析计划
+ * <p>
+ * 在Collector Wrapper构建时由{@link LabelNames}和{@link LabelMissingStrategy}编译生成，不可变，
+ * 固定了标签名顺序、每个标签位的兜底值以及缺失时的处理方式，打点时只需一次遍历即可完成跳过判断和标签值填充
+ *
+ * @author walter
+ * @date 2021/01/16 10:12
+ **/
+public final class LabelPlan {
+    private static final String[] EMPTY_VALUES = new String[0];
+    /**
+     * 枚举标签值组合数不超过该值时才按数组下标定位Child
+     */
+    public static final int MAX_DENSE_SERIES = 4096;
+
+    /**
+     * 标签名，顺序与原生SDK Collector声明顺序一致
+     */
+    private final String[] names;
+    /**
+     * 标签位兜底值：默认值，无默认值且策略为FILL_WITH_EMPTY_STRING时为空字符串，否则为null
+     */
+    private final String[] fallbackValues;
+    /**
+     * 兜底值也缺失时是否跳过当前打点
+     */
+    private final boolean skipOnMissing;
+    /**
+     * 标签名 -> 标签位
+     */
+    private final ImmutableMap<String, Integer> indexes;
+    /**
+     * 标签位 -> 标签值驻留池，为null代表不驻留
+     */
+    private final LabelInterner[] interners;
+    /**
+     * 以下字段只在全部标签都是枚举且组合数不超过{@link #MAX_DENSE_SERIES}时有值：
+     * 标签位 -> 枚举常量字符串 -> 序数，标签位 -> 兜底值序数（无兜底值为-1），以及按序数混合进制计算组合下标的权重
+     */
+    private final ImmutableMap<String, Integer>[] ordinals;
+    private final Class<? extends Enum<?>>[] enumTypes;
+    private final int[] fallbackOrdinals;
+    private final int[] strides;
+    private final int denseSize;
+
+    private LabelPlan(String[] names, String[] fallbackValues, boolean skipOnMissing, int internPoolSize, Class<? extends Enum<?>>[] enumTypes) {
+        this.names = names;
+        this.fallbackValues = fallbackValues;
+        this.skipOnMissing = skipOnMissing;
+        if (internPoolSize > 0) {
+            this.interners = new LabelInterner[names.length];
+            for (int i = 0; i < names.length; i++) {
+                this.interners[i] = new LabelInterner(internPoolSize);
+            }
+        } else {
+            this.interners = null;
+        }
+
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < names.length; i++) {
+            builder.put(names[i], i);
+        }
+        this.indexes = builder.build();
+
+        ImmutableMap<String, Integer>[] ordinals = denseOrdinals(enumTypes);
+        if (ordinals == null) {
+            this.ordinals = null;
+            this.enumTypes = null;
+            this.fallbackOrdinals = null;
+            this.strides = null;
+            this.denseSize = 0;
+            return;
+        }
+
+        this.ordinals = ordinals;
+        this.enumTypes = enumTypes;
+        this.fallbackOrdinals = new int[names.length];
+        this.strides = new int[names.length];
+        int stride = 1;
+        for (int i = names.length - 1; i >= 0; i--) {
+            Integer fallbackOrdinal = fallbackValues[i] == null ? null : ordinals[i].get(fallbackValues[i]);
+            this.fallbackOrdinals[i] = fallbackOrdinal == null ? -1 : fallbackOrdinal;
+            this.strides[i] = stride;
+            stride *= ordinals[i].size();
+        }
+        this.denseSize = stride;
+    }
+
+    /**
+     * 全部标签都是枚举、组合数不超过上限且各枚举常量的字符串互不相同时，返回各标签位的字符串 -> 序数
+     */
+    @SuppressWarnings("unchecked")
+    private static ImmutableMap<String, Integer>[] denseOrdinals(Class<? extends Enum<?>>[] enumTypes) {
+        if (enumTypes.length == 0) {
+            return null;
+        }
+
+        long product = 1;
+        ImmutableMap<String, Integer>[] ordinals = (ImmutableMap<String, Integer>[]) new ImmutableMap<?, ?>[enumTypes.length];
+        for (int i = 0; i < enumTypes.length; i++) {
+            if (enumTypes[i] == null) {
+                return null;
+            }
+
+            Enum<?>[] constants = enumTypes[i].getEnumConstants();
+            product *= constants.length;
+            if (product == 0 || product > MAX_DENSE_SERIES) {
+                return null;
+            }
+
+            Map<String, Integer> constantOrdinals = new HashMap<>();
+            for (Enum<?> constant : constants) {
+                if (constantOrdinals.put(LabelValues.of(constant), constant.ordinal()) != null) {
+                    return null;
+                }
+            }
+            ordinals[i] = ImmutableMap.copyOf(constantOrdinals);
+        }
+        return ordinals;
+    }
+
+    /**
+     * 编译标签解析计划
+     *
+     * @param labelNames           标签名及默认值
+     * @param labelMissingStrategy 标签缺失处理策略
+     * @return 标签解析计划
+     */
+    public static LabelPlan compile(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy) {
+        return compile(labelNames, labelMissingStrategy, 0);
+    }
+
+    /**
+     * 编译标签解析计划，并为每个标签位创建标签值驻留池
+     *
+     * @param labelNames           标签名及默认值
+     * @param labelMissingStrategy 标签缺失处理策略
+     * @param internPoolSize       每个标签位最多驻留的标签值数，0代表不驻留
+     * @return 标签解析计划
+     * @see LabelInterner
+     */
+    public static LabelPlan compile(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, int internPoolSize) {
+        String[] names = labelNames.toArray();
+        String[] fallbackValues = new String[names.length];
+        @SuppressWarnings("unchecked")
+        Class<? extends Enum<?>>[] enumTypes = (Class<? extends Enum<?>>[]) new Class<?>[names.length];
+        boolean fillWithEmptyString = LabelMissingStrategy.FILL_WITH_EMPTY_STRING.equals(labelMissingStrategy);
+        for (int i = 0; i < names.length; i++) {
+            String defaultValue = labelNames.getDefaultValue(names[i]);
+            if (defaultValue == null && fillWithEmptyString) {
+                defaultValue = "";
+            }
+            fallbackValues[i] = defaultValue;
+            enumTypes[i] = labelNames.getEnumType(names[i]);
+        }
+
+        return new LabelPlan(names, fallbackValues, LabelMissingStrategy.SKIP.equals(labelMissingStrategy), internPoolSize, enumTypes);
+    }
+
+    /**
+     * 标签位数量
+     *
+     * @return 标签位数量
+     */
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * 获取标签位对应标签名
+     *
+     * @param index 标签位
+     * @return 标签名
+     */
+    public String getName(int index) {
+        return this.names[index];
+    }
+
+    /**
+     * 获取标签名对应标签位
+     *
+     * @param labelName 标签名
+     * @return 标签位，不存在返回-1
+     */
+    public int indexOf(String labelName) {
+        if (labelName == null) {
+            return -1;
+        }
+
+        Integer index = this.indexes.get(labelName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 获取标签位兜底值
+     *
+     * @param index 标签位
+     * @return 兜底值，无兜底值返回null
+     */
+    public String getFallbackValue(int index) {
+        return this.fallbackValues[index];
+    }
+
+    /**
+     * 获取标签值在标签位上的驻留实例
+     *
+     * @param index 标签位
+     * @param value 标签值
+     * @return 驻留实例，未开启驻留或驻留池已满时返回传入值
+     */
+    public String intern(int index, String value) {
+        return this.interners == null ? value : this.interners[index].intern(value);
+    }
+
+    /**
+     * 兜底值也缺失时是否跳过当前打点
+     *
+     * @return true=跳过，false=交由原生SDK处理
+     */
+    public boolean isSkipOnMissing() {
+        return this.skipOnMissing;
+    }
+
+    /**
+     * 是否全部标签都是枚举，且组合数不超过{@link #MAX_DENSE_SERIES}，可以按序数直接定位Child
+     *
+     * @return true=可以
+     */
+    public boolean isDense() {
+        return this.denseSize > 0;
+    }
+
+    /**
+     * 枚举标签值组合数
+     *
+     * @return 组合数，不满足{@link #isDense()}时为0
+     */
+    public int getDenseSize() {
+        return this.denseSize;
+    }
+
+    /**
+     * 获取枚举标签位的枚举类型
+     *
+     * @param index 标签位
+     * @return 枚举类型，不满足{@link #isDense()}时返回null
+     */
+    public Class<? extends Enum<?>> getEnumType(int index) {
+        return this.enumTypes == null ? null : this.enumTypes[index];
+    }
+
+    /**
+     * 获取标签值在枚举标签位上的序数
+     *
+     * @param index 标签位
+     * @param value 标签值
+     * @return 序数，不满足{@link #isDense()}或不是该枚举的常量时返回-1
+     */
+    public int ordinalOf(int index, String value) {
+        if (this.ordinals == null || value == null) {
+            return -1;
+        }
+
+        Integer ordinal = this.ordinals[index].get(value);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * 获取枚举标签位兜底值的序数
+     *
+     * @param index 标签位
+     * @return 序数，无兜底值或兜底值不是枚举常量时返回-1
+     */
+    public int getFallbackOrdinal(int index) {
+        return this.fallbackOrdinals == null ? -1 : this.fallbackOrdinals[index];
+    }
+
+    /**
+     * 按各标签位的序数计算组合下标
+     *
+     * @param ordinals 按标签位排列的序数
+     * @return 组合下标，有标签位序数缺失时返回-1
+     */
+    public int denseIndex(int[] ordinals) {
+        int denseIndex = 0;
+        for (int i = 0; i < ordinals.length; i++) {
+            if (ordinals[i] < 0) {
+                return -1;
+            }
+            denseIndex += ordinals[i] * this.strides[i];
+        }
+        return denseIndex;
+    }
+
+    /**
+     * 按标签值计算组合下标
+     *
+     * @param labelValues 按标签位排列的标签值
+     * @return 组合下标，不满足{@link #isDense()}或有标签值不是枚举常量时返回-1
+     */
+    public int denseIndex(String[] labelValues) {
+        if (this.ordinals == null || labelValues.length != this.names.length) {
+            return -1;
+        }
+
+        int denseIndex = 0;
+        for (int i = 0; i < labelValues.length; i++) {
+            int ordinal = ordinalOf(i, labelValues[i]);
+            if (ordinal < 0) {
+                return -1;
+            }
+            denseIndex += ordinal * this.strides[i];
+        }
+        return denseIndex;
+    }
+
+    /**
+     * 组合下标对应的标签值
+     *
+     * @param denseIndex 组合下标
+     * @return 按标签位排列的标签值
+     */
+    public String[] denseValues(int denseIndex) {
+        String[] values = new String[this.names.length];
+        for (int i = 0; i < values.length; i++) {
+            int ordinal = denseIndex / this.strides[i];
+            denseIndex %= this.strides[i];
+            for (Map.Entry<String, Integer> entry : this.ordinals[i].entrySet()) {
+                if (entry.getValue() == ordinal) {
+                    values[i] = entry.getKey();
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 获取标签名数组
+     *
+     * @return 标签名数组副本
+     */
+    public String[] names() {
+        return this.names.clone();
+    }
+
+    /**
+     * 按计划解析标签值，一次遍历内完成跳过判断、默认值和缺失策略的处理
+     *
+     * @param labels 当前标签组合，可以为null
+     * @return 按标签位排列的标签值；需要跳过当前打点时返回null
+     */
+    public String[] resolve(Labels labels) {
+        if (this.names.length == 0) {
+            return EMPTY_VALUES;
+        }
+
+        SlotLabels slotLabels = labels instanceof SlotLabels && ((SlotLabels) labels).getLabelPlan() == this ? (SlotLabels) labels : null;
+        String[] values = new String[this.names.length];
+        int missing = 0;
+        for (int i = 0; i < this.names.length; i++) {
+            String value;
+            if (slotLabels != null) {
+                value = slotLabels.getLabelValue(i);
+            } else {
+                value = labels == null ? null : labels.getLabelValue(this.names[i]);
+            }
+            if (value == null) {
+                value = this.fallbackValues[i];
+                if (value == null) {
+                    if (this.skipOnMissing) {
+                        return null;
+                    }
+                    missing++;
+                }
+            }
+            values[i] = value;
+        }
+
+        return missing == 0 ? values : compact(values, missing);
+    }
+
+    /**
+     * DEFAULT策略下去掉缺失的标签值，交由原生SDK处理
+     */
+    private static String[] compact(String[] values, int missing) {
+        String[] compacted = new String[values.length - missing];
+        int j = 0;
+        for (String value : values) {
+            if (value != null) {
+                compacted[j++] = value;
+            }
+        }
+        return compacted;
+    }
+}
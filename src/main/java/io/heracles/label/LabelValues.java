@@ -0,0 +1,70 @@
+package io.heracles.label;
+
+/**
+ * 基本类型和枚举标签值的字符串形式
+ * <p>
+ * 常用范围内的整数、布尔值、ASCII字符以及枚举常量的字符串预先计算并缓存，打点时不再每次toString()产生新字符串，
+ * 同一个值始终是同一个String实例，后续的哈希和比较也更快
+ *
+ * @author walter
+ * @date 2021/01/31 10:10
+ **/
+public class LabelValues {
+    /**
+     * 缓存的整数范围，覆盖常见的状态码、错误码、分片号
+     */
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final String[] NUMBERS = new String[CACHE_HIGH - CACHE_LOW + 1];
+    private static final String[] CHARS = new String[128];
+
+    private static final ClassValue<String[]> ENUM_VALUES = new ClassValue<String[]>() {
+        @Override
+        protected String[] computeValue(Class<?> type) {
+            Object[] constants = type.getEnumConstants();
+            String[] values = new String[constants.length];
+            for (int i = 0; i < constants.length; i++) {
+                values[i] = constants[i].toString();
+            }
+            return values;
+        }
+    };
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = Integer.toString(i + CACHE_LOW);
+        }
+        for (int i = 0; i < CHARS.length; i++) {
+            CHARS[i] = String.valueOf((char) i);
+        }
+    }
+
+    private LabelValues() {
+    }
+
+    public static String of(int value) {
+        return value >= CACHE_LOW && value <= CACHE_HIGH ? NUMBERS[value - CACHE_LOW] : Integer.toString(value);
+    }
+
+    public static String of(long value) {
+        return value >= CACHE_LOW && value <= CACHE_HIGH ? NUMBERS[(int) value - CACHE_LOW] : Long.toString(value);
+    }
+
+    public static String of(boolean value) {
+        return value ? "true" : "false";
+    }
+
+    public static String of(char value) {
+        return value < CHARS.length ? CHARS[value] : String.valueOf(value);
+    }
+
+    /**
+     * 枚举常量的字符串形式，与toString()一致
+     *
+     * @param value 枚举常量，可以为null
+     * @return 字符串，null返回null
+     */
+    public static String of(Enum<?> value) {
+        return value == null ? null : ENUM_VALUES.get(value.getDeclaringClass())[value.ordinal()];
+    }
+}
@@ -16,9 +16,14 @@ public class Labels {
     /**
      * 标签名 -> 标签值
      */
-    private final Map<String, String> labelMap = new HashMap<>();
+    private final Map<String, String> labelMap;
 
     private Labels() {
+        this(new HashMap<>());
+    }
+
+    Labels(Map<String, String> labelMap) {
+        this.labelMap = labelMap;
     }
 
     public static Labels newInstance() {
@@ -41,18 +46,72 @@ public class Labels {
         return this;
     }
 
+    /**
+     * 设置标签名对应值，使用缓存的字符串形式
+     *
+     * @param labelName  标签名
+     * @param labelValue 标签值
+     * @return 当前对象
+     * @see LabelValues#of(int)
+     */
+    public Labels label(String labelName, int labelValue) {
+        return label(labelName, LabelValues.of(labelValue));
+    }
+
+    /**
+     * @see #label(String, int)
+     * @see LabelValues#of(long)
+     */
+    public Labels label(String labelName, long labelValue) {
+        return label(labelName, LabelValues.of(labelValue));
+    }
+
+    /**
+     * @see #label(String, int)
+     * @see LabelValues#of(boolean)
+     */
+    public Labels label(String labelName, boolean labelValue) {
+        return label(labelName, LabelValues.of(labelValue));
+    }
+
+    /**
+     * 字符保持原有的字符串形式，避免被当作int重载处理
+     *
+     * @see #label(String, int)
+     * @see LabelValues#of(char)
+     */
+    public Labels label(String labelName, char labelValue) {
+        return label(labelName, LabelValues.of(labelValue));
+    }
+
+    /**
+     * @see #label(String, int)
+     * @see LabelValues#of(Enum)
+     */
+    public Labels label(String labelName, Enum<?> labelValue) {
+        return label(labelName, (Object) LabelValues.of(labelValue));
+    }
+
     public Labels with(Labels another) {
         if (another == null) {
             return this;
         }
 
-        for (Map.Entry<String, String> entry : another.getCurrentLabels().entrySet()) {
-            label(entry.getKey(), entry.getValue());
-        }
-
+        another.copyTo(this);
         return this;
     }
 
+    /**
+     * 将当前标签逐个填充到目标标签组合，不产生中间Map
+     *
+     * @param target 目标标签组合
+     */
+    void copyTo(Labels target) {
+        for (Map.Entry<String, String> entry : this.labelMap.entrySet()) {
+            target.label(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * 获取当前标签值组合
      *
@@ -0,0 +1,277 @@
+package io.heracles.label;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 按标签位存储的标签组合
+ * <p>
+ * 绑定到某个Collector Wrapper的{@link LabelPlan}，标签名在填充时解析为标签位，标签值直接写入可复用的数组，
+ * 不在计划内的标签名会被忽略（它们本来也不会被上报）
+ *
+ * @author walter
+ * @date 2021/01/16 15:40
+ **/
+public class SlotLabels extends Labels {
+    /**
+     * @see LabelPlan
+     */
+    private final LabelPlan labelPlan;
+    /**
+     * 标签位 -> 标签值（null代表未填充）
+     */
+    private final String[] values;
+    /**
+     * 标签位 -> 枚举序数（-1代表未填充或不是枚举常量），只在{@link LabelPlan#isDense()}时存在
+     */
+    private final int[] ordinals;
+
+    private SlotLabels(LabelPlan labelPlan) {
+        super(Collections.emptyMap());
+        this.labelPlan = labelPlan;
+        this.values = new String[labelPlan.size()];
+        if (labelPlan.isDense()) {
+            this.ordinals = new int[labelPlan.size()];
+            Arrays.fill(this.ordinals, -1);
+        } else {
+            this.ordinals = null;
+        }
+    }
+
+    public static SlotLabels newInstance(LabelPlan labelPlan) {
+        return new SlotLabels(labelPlan);
+    }
+
+    /**
+     * 设置标签名对应值
+     *
+     * @param labelName  标签名，不在标签解析计划内会被忽略
+     * @param labelValue 标签值，null会被忽略
+     * @return 当前对象
+     */
+    @Override
+    public SlotLabels label(String labelName, Object labelValue) {
+        if (labelValue instanceof Enum) {
+            return label(labelName, (Enum<?>) labelValue);
+        }
+
+        int index = this.labelPlan.indexOf(labelName);
+        if (index < 0 || labelValue == null) {
+            return this;
+        }
+
+        set(index, this.labelPlan.intern(index, labelValue.toString()));
+        return this;
+    }
+
+    @Override
+    public SlotLabels label(String labelName, int labelValue) {
+        return labelCanonical(labelName, LabelValues.of(labelValue));
+    }
+
+    @Override
+    public SlotLabels label(String labelName, long labelValue) {
+        return labelCanonical(labelName, LabelValues.of(labelValue));
+    }
+
+    @Override
+    public SlotLabels label(String labelName, boolean labelValue) {
+        return labelCanonical(labelName, LabelValues.of(labelValue));
+    }
+
+    @Override
+    public SlotLabels label(String labelName, char labelValue) {
+        return labelCanonical(labelName, LabelValues.of(labelValue));
+    }
+
+    @Override
+    public SlotLabels label(String labelName, Enum<?> labelValue) {
+        int index = this.labelPlan.indexOf(labelName);
+        if (index < 0 || labelValue == null) {
+            return this;
+        }
+
+        this.values[index] = LabelValues.of(labelValue);
+        if (this.ordinals != null) {
+            // 声明的枚举类型直接取序数，不查表
+            this.ordinals[index] = labelValue.getDeclaringClass() == this.labelPlan.getEnumType(index)
+                    ? labelValue.ordinal() : this.labelPlan.ordinalOf(index, this.values[index]);
+        }
+        return this;
+    }
+
+    /**
+     * 设置已经是缓存实例的标签值，不再经过驻留池
+     */
+    private SlotLabels labelCanonical(String labelName, String labelValue) {
+        int index = this.labelPlan.indexOf(labelName);
+        if (index < 0 || labelValue == null) {
+            return this;
+        }
+
+        set(index, labelValue);
+        return this;
+    }
+
+    private void set(int index, String labelValue) {
+        this.values[index] = labelValue;
+        if (this.ordinals != null) {
+            this.ordinals[index] = this.labelPlan.ordinalOf(index, labelValue);
+        }
+    }
+
+    @Override
+    public SlotLabels with(Labels another) {
+        if (another == null) {
+            return this;
+        }
+
+        if (another instanceof SlotLabels && ((SlotLabels) another).labelPlan == this.labelPlan) {
+            String[] anotherValues = ((SlotLabels) another).values;
+            for (int i = 0; i < anotherValues.length; i++) {
+                if (anotherValues[i] != null) {
+                    this.values[i] = anotherValues[i];
+                    if (this.ordinals != null) {
+                        this.ordinals[i] = ((SlotLabels) another).ordinals[i];
+                    }
+                }
+            }
+            return this;
+        }
+
+        another.copyTo(this);
+        return this;
+    }
+
+    @Override
+    void copyTo(Labels target) {
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != null) {
+                target.label(this.labelPlan.getName(i), this.values[i]);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, String> getCurrentLabels() {
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != null) {
+                builder.put(this.labelPlan.getName(i), this.values[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String getLabelValue(String labelName) {
+        int index = this.labelPlan.indexOf(labelName);
+        return index < 0 ? null : this.values[index];
+    }
+
+    /**
+     * 获取标签位对应值
+     *
+     * @param index 标签位
+     * @return 标签值
+     */
+    public String getLabelValue(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * 用兜底值填充缺失的标签位
+     *
+     * @return 需要跳过当前打点时返回-1，否则返回仍然缺失的标签位数量
+     * @see LabelPlan#getFallbackValue(int)
+     */
+    public int fillMissing() {
+        int missing = 0;
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != null) {
+                continue;
+            }
+
+            this.values[i] = this.labelPlan.getFallbackValue(i);
+            if (this.ordinals != null) {
+                this.ordinals[i] = this.labelPlan.getFallbackOrdinal(i);
+            }
+            if (this.values[i] == null) {
+                if (this.labelPlan.isSkipOnMissing()) {
+                    return -1;
+                }
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 计算当前标签值组合的哈希，与{@link #hashValues(String[])}一致
+     *
+     * @return 哈希值
+     */
+    public int hashValues() {
+        return hashValues(this.values);
+    }
+
+    /**
+     * 当前标签值组合是否与给定标签值一致
+     *
+     * @param labelValues 标签值
+     * @return true=一致
+     */
+    public boolean equalValues(String[] labelValues) {
+        return Arrays.equals(this.values, labelValues);
+    }
+
+    /**
+     * 拷贝当前标签值组合
+     *
+     * @return 按标签位排列的标签值
+     */
+    public String[] toValues() {
+        return this.values.clone();
+    }
+
+    /**
+     * 计算标签值组合的哈希，直接使用String缓存的哈希，不产生装箱
+     *
+     * @param labelValues 标签值
+     * @return 哈希值
+     */
+    public static int hashValues(String[] labelValues) {
+        int hash = 1;
+        for (String labelValue : labelValues) {
+            hash = 31 * hash + (labelValue == null ? 0 : labelValue.hashCode());
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 按各标签位的枚举序数计算组合下标，需先调用{@link #fillMissing()}
+     *
+     * @return 组合下标，不满足{@link LabelPlan#isDense()}或有标签值不是枚举常量时返回-1
+     * @see LabelPlan#denseIndex(int[])
+     */
+    public int denseIndex() {
+        return this.ordinals == null ? -1 : this.labelPlan.denseIndex(this.ordinals);
+    }
+
+    public LabelPlan getLabelPlan() {
+        return this.labelPlan;
+    }
+
+    /**
+     * 清空所有标签位，便于复用
+     */
+    public void clear() {
+        Arrays.fill(this.values, null);
+        if (this.ordinals != null) {
+            Arrays.fill(this.ordinals, -1);
+        }
+    }
+}
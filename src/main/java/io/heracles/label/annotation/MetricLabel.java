@@ -0,0 +1,44 @@
+package io.heracles.label.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记作为标签的字段或无参方法
+ * <p>
+ * 经heracles-processor处理的类会在编译期生成同包下的{@code 类名_LabelExtractor}，直接读取字段、调用方法；
+ * 未经处理的类在运行时由{@link io.heracles.label.extractor.LabelExtractors#forClass(Class)}生成标签解析。
+ * 只处理类自身声明的成员，父类上的标注由父类自己的标签解析负责。
+ * 标签按{@link #order()}升序排列，相同时按标签名排列，与成员的声明顺序无关
+ *
+ * @author walter
+ * @date 2021/01/30 14:10
+ **/
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface MetricLabel {
+    /**
+     * 标签名，为空时使用字段名；方法按getter规则去掉get/is前缀并首字母小写
+     *
+     * @return 标签名
+     */
+    String value() default "";
+
+    /**
+     * 标签默认值，为空代表无默认值
+     *
+     * @return 默认值
+     */
+    String defaultValue() default "";
+
+    /**
+     * 标签的排列顺序，决定按标签解析声明的标签名顺序
+     *
+     * @return 顺序，越小越靠前
+     */
+    int order() default 0;
+}
@@ -0,0 +1,257 @@
+package io.heracles.label.extractor;
+
+import io.heracles.label.LabelNames;
+import io.heracles.label.Labels;
+import io.heracles.label.annotation.MetricLabel;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按{@link MetricLabel}标注获取标签解析
+ * <p>
+ * 优先使用heracles-processor编译期生成的{@code 类名_LabelExtractor}；类未经处理时在运行时生成：
+ * public方法通过{@link LambdaMetafactory}生成访问函数，字段和其余方法使用{@link MethodHandle}。
+ * 标签按{@link MetricLabel#order()}、标签名排列，与编译期生成的一致；结果按类型缓存，同一类型只生成一次
+ *
+ * @author walter
+ * @date 2021/01/30 14:30
+ **/
+public class LabelExtractors {
+    /**
+     * 编译期生成的标签解析类名后缀
+     */
+    public static final String GENERATED_SUFFIX = "_LabelExtractor";
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final Comparator<LabelMember> LABEL_ORDER = Comparator.<LabelMember>comparingInt(member -> member.order)
+            .thenComparing(member -> member.name);
+
+    private static final ClassValue<LabelExtractor<?>> EXTRACTORS = new ClassValue<LabelExtractor<?>>() {
+        @Override
+        protected LabelExtractor<?> computeValue(Class<?> type) {
+            LabelExtractor<?> generated = loadGenerated(type);
+            return generated != null ? generated : buildAtRuntime(type);
+        }
+    };
+
+    private LabelExtractors() {
+    }
+
+    /**
+     * 获取类型对应的标签解析
+     *
+     * @param tClass 标注了{@link MetricLabel}的类型
+     * @param <T>    类型泛型
+     * @return 标签解析
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> LabelExtractor<T> forClass(Class<T> tClass) {
+        return (LabelExtractor<T>) EXTRACTORS.get(tClass);
+    }
+
+    /**
+     * 编译期生成的标签解析类名：二进制类名中的$替换为_，再加后缀
+     *
+     * @param binaryName 目标类型二进制类名
+     * @return 标签解析类名
+     */
+    public static String generatedClassName(String binaryName) {
+        return binaryName.replace('$', '_') + GENERATED_SUFFIX;
+    }
+
+    private static LabelExtractor<?> loadGenerated(Class<?> type) {
+        try {
+            Class<?> generated = Class.forName(generatedClassName(type.getName()), true, type.getClassLoader());
+            if (!LabelExtractor.class.isAssignableFrom(generated)) {
+                return null;
+            }
+            return (LabelExtractor<?>) generated.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LabelExtractor<?> buildAtRuntime(Class<?> type) {
+        // getDeclaredFields、getDeclaredMethods的顺序没有保证，按order、标签名排序
+        List<LabelMember> members = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            MetricLabel metricLabel = field.getAnnotation(MetricLabel.class);
+            if (metricLabel == null || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+
+            String name = StringUtils.isEmpty(metricLabel.value()) ? field.getName() : metricLabel.value();
+            members.add(new LabelMember(metricLabel, name, fieldAccessor(field)));
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            MetricLabel metricLabel = method.getAnnotation(MetricLabel.class);
+            if (metricLabel == null || Modifier.isStatic(method.getModifiers())
+                    || method.getParameterCount() != 0 || method.getReturnType() == void.class) {
+                continue;
+            }
+
+            String name = StringUtils.isEmpty(metricLabel.value()) ? propertyName(method.getName()) : metricLabel.value();
+            members.add(new LabelMember(metricLabel, name, methodAccessor(method)));
+        }
+        members.sort(LABEL_ORDER);
+
+        String[] names = new String[members.size()];
+        String[] defaultValues = new String[members.size()];
+        Function<Object, Object>[] accessors = (Function<Object, Object>[]) new Function<?, ?>[members.size()];
+        for (int i = 0; i < members.size(); i++) {
+            LabelMember member = members.get(i);
+            names[i] = member.name;
+            defaultValues[i] = member.defaultValue;
+            accessors[i] = member.accessor;
+        }
+        return new AccessorLabelExtractor(names, defaultValues, accessors);
+    }
+
+    /**
+     * 按getter规则把方法名转换为标签名
+     *
+     * @param methodName 方法名
+     * @return 标签名
+     */
+    public static String propertyName(String methodName) {
+        String name = methodName;
+        if (methodName.startsWith("get") && methodName.length() > 3) {
+            name = methodName.substring(3);
+        } else if (methodName.startsWith("is") && methodName.length() > 2) {
+            name = methodName.substring(2);
+        }
+        return name.equals(methodName) ? name : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static Function<Object, Object> fieldAccessor(Field field) {
+        MethodHandle getter;
+        try {
+            getter = LOOKUP.unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            try {
+                field.setAccessible(true);
+                getter = LOOKUP.unreflectGetter(field);
+            } catch (IllegalAccessException | RuntimeException retry) {
+                throw new IllegalArgumentException("can not access label field " + field, retry);
+            }
+        }
+        return handleAccessor(getter.asType(ACCESSOR_TYPE));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> methodAccessor(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        // 生成的访问函数按类名链接目标类型，目标类型必须对本类的类加载器可见
+        if (Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(declaringClass.getModifiers()) && isVisible(declaringClass)) {
+            try {
+                MethodHandle target = LOOKUP.unreflect(method);
+                CallSite callSite = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                        ACCESSOR_TYPE, target, MethodType.methodType(Object.class, declaringClass));
+                return (Function<Object, Object>) callSite.getTarget().invoke();
+            } catch (Throwable e) {
+                // 退回MethodHandle
+            }
+        }
+
+        MethodHandle getter;
+        try {
+            getter = LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            try {
+                method.setAccessible(true);
+                getter = LOOKUP.unreflect(method);
+            } catch (IllegalAccessException | RuntimeException retry) {
+                throw new IllegalArgumentException("can not access label method " + method, retry);
+            }
+        }
+        return handleAccessor(getter.asType(ACCESSOR_TYPE));
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, LabelExtractors.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static Function<Object, Object> handleAccessor(MethodHandle getter) {
+        return object -> {
+            try {
+                return getter.invokeExact(object);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    /**
+     * 运行时解析到的一个标签成员
+     */
+    private static final class LabelMember {
+        private final int order;
+        private final String name;
+        private final String defaultValue;
+        private final Function<Object, Object> accessor;
+
+        private LabelMember(MetricLabel metricLabel, String name, Function<Object, Object> accessor) {
+            this.order = metricLabel.order();
+            this.name = name;
+            this.defaultValue = StringUtils.isEmpty(metricLabel.defaultValue()) ? null : metricLabel.defaultValue();
+            this.accessor = accessor;
+        }
+    }
+
+    /**
+     * 运行时生成的标签解析
+     */
+    private static final class AccessorLabelExtractor implements LabelExtractor<Object> {
+        private final String[] names;
+        private final String[] defaultValues;
+        private final Function<Object, Object>[] accessors;
+
+        private AccessorLabelExtractor(String[] names, String[] defaultValues, Function<Object, Object>[] accessors) {
+            this.names = names;
+            this.defaultValues = defaultValues;
+            this.accessors = accessors;
+        }
+
+        @Override
+        public Labels extractLabels(Object object) {
+            Labels labels = Labels.newInstance();
+            if (object == null) {
+                return labels;
+            }
+
+            for (int i = 0; i < this.names.length; i++) {
+                labels.label(this.names[i], this.accessors[i].apply(object));
+            }
+            return labels;
+        }
+
+        @Override
+        public LabelNames getTargetLabelNames() {
+            LabelNames labelNames = LabelNames.newInstance();
+            for (int i = 0; i < this.names.length; i++) {
+                labelNames.name(this.names[i], this.defaultValues[i]);
+            }
+            return labelNames;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.heracles.push;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 有容量上限、可复用的字节数组输出流
+ *
+ * @author walter
+ * @date 2021/02/07 20:25
+ **/
+final class BoundedByteArrayOutputStream extends OutputStream {
+    private final int maxSize;
+    private byte[] buffer;
+    private int size;
+
+    BoundedByteArrayOutputStream(int initialSize, int maxSize) {
+        this.maxSize = maxSize;
+        this.buffer = new byte[Math.min(initialSize, maxSize)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(this.size + 1);
+        this.buffer[this.size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(this.size + len);
+        System.arraycopy(b, off, this.buffer, this.size, len);
+        this.size += len;
+    }
+
+    private void ensureCapacity(int capacity) throws IOException {
+        if (capacity > this.maxSize) {
+            throw new PayloadTooLargeException(this.maxSize);
+        }
+        if (capacity > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, (int) Math.min(this.maxSize, Math.max(capacity, this.buffer.length * 2L)));
+        }
+    }
+
+    /**
+     * 清空内容，保留已分配的数组
+     */
+    void reset() {
+        this.size = 0;
+    }
+
+    byte[] buffer() {
+        return this.buffer;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * 超过容量上限
+     */
+    static final class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private PayloadTooLargeException(int maxSize) {
+            super("payload exceeds " + maxSize + " bytes");
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package io.heracles.push;
+
+import io.heracles.exposition.TextFormatWriter;
+import io.heracles.util.ChangeEpoch;
+import io.heracles.util.HeraclesScheduler;
+import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.prometheus.client.Collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 增量推送：只把上一次推送成功后变更过的标签值组合推送到Pushgateway兼容的端点
+ * <p>
+ * 使用POST推送，推送失败时不推进起始纪元，下一次推送会重新包含这些组合。
+ * 注意Pushgateway按指标名整体替换分组内的样本，直接对接Pushgateway时需开启{@link Builder#wholeFamilies()}，
+ * 任一组合变更时推送该指标的全部组合；按组合合并的接收端（如聚合网关）可以只接收变更的组合。
+ * 后台推送在独立的守护线程执行，慢速的端点不会阻塞Heracles共享的调度线程
+ *
+ * @author walter
+ * @date 2021/02/06 21:00
+ **/
+public class DeltaPushExporter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(DeltaPushExporter.class.getName());
+
+    public static class Builder {
+        private String address;
+        private String job;
+        private final Map<String, String> groupingKey = new LinkedHashMap<>();
+        private final List<BaseCollectorWrapper<?, ?, ?>> wrappers = new ArrayList<>();
+        private boolean wholeFamilies;
+        private int connectTimeoutMillis = 5000;
+        private int readTimeoutMillis = 10000;
+
+        protected Builder() {
+        }
+
+        /**
+         * @param address 端点地址，如http://localhost:9091
+         * @return 当前对象
+         */
+        public Builder address(String address) {
+            this.address = address;
+            return this;
+        }
+
+        public Builder job(String job) {
+            this.job = job;
+            return this;
+        }
+
+        public Builder groupingKey(String name, String value) {
+            this.groupingKey.put(name, value);
+            return this;
+        }
+
+        /**
+         * 需要推送的采集器，必须开启变更跟踪
+         *
+         * @param wrappers 采集器
+         * @return 当前对象
+         * @see io.heracles.wrapper.base.BaseWrapperBuilder#trackChanges()
+         */
+        public Builder wrappers(BaseCollectorWrapper<?, ?, ?>... wrappers) {
+            for (BaseCollectorWrapper<?, ?, ?> wrapper : wrappers) {
+                if (!wrapper.isTrackChanges()) {
+                    throw new IllegalArgumentException("trackChanges is not enabled for " + wrapper.getClass().getSimpleName());
+                }
+                this.wrappers.add(wrapper);
+            }
+            return this;
+        }
+
+        /**
+         * 任一组合变更时推送该指标的全部组合，对接Pushgateway时需要开启
+         *
+         * @return 当前对象
+         */
+        public Builder wholeFamilies() {
+            this.wholeFamilies = true;
+            return this;
+        }
+
+        public Builder timeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        public DeltaPushExporter build() {
+            if (this.address == null || this.job == null) {
+                throw new IllegalStateException("address and job must be set");
+            }
+            return new DeltaPushExporter(this);
+        }
+    }
+
+    private final PushClient client;
+    private final List<BaseCollectorWrapper<?, ?, ?>> wrappers;
+    private final boolean wholeFamilies;
+    /**
+     * 采集器下标 -> 下一次推送的起始纪元，0代表推送全部组合
+     */
+    private final long[] sinceEpochs;
+    private final ScheduledExecutorService executor;
+    private volatile ScheduledFuture<?> schedule;
+
+    protected DeltaPushExporter(Builder builder) {
+        this.client = new PushClient(builder.address, builder.job, builder.groupingKey, builder.connectTimeoutMillis, builder.readTimeoutMillis);
+        this.wrappers = new ArrayList<>(builder.wrappers);
+        this.wholeFamilies = builder.wholeFamilies;
+        this.sinceEpochs = new long[this.wrappers.size()];
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> HeraclesScheduler.newDaemonThread("heracles-delta-push-" + builder.job, r));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 推送变更的组合，没有变更时不发送请求
+     *
+     * @return 推送的样本数
+     * @throws IOException 推送失败，起始纪元不推进
+     */
+    public synchronized int push() throws IOException {
+        long epoch = ChangeEpoch.advance();
+        List<Collector.MetricFamilySamples> families = new ArrayList<>();
+        int sampleCount = 0;
+        for (int i = 0; i < this.wrappers.size(); i++) {
+            BaseCollectorWrapper<?, ?, ?> wrapper = this.wrappers.get(i);
+            Collector.MetricFamilySamples changed = wrapper.collectChangedSince(this.sinceEpochs[i]);
+            if (changed.samples.isEmpty()) {
+                continue;
+            }
+
+            List<Collector.MetricFamilySamples> collected = this.wholeFamilies ? wrapper.getRealCollector().collect() : Collections.singletonList(changed);
+            for (Collector.MetricFamilySamples family : collected) {
+                families.add(family);
+                sampleCount += family.samples.size();
+            }
+        }
+
+        if (!families.isEmpty()) {
+            send(families);
+        }
+        for (int i = 0; i < this.sinceEpochs.length; i++) {
+            this.sinceEpochs[i] = epoch;
+        }
+        return sampleCount;
+    }
+
+    private void send(List<Collector.MetricFamilySamples> families) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        TextFormatWriter writer = new TextFormatWriter(body, 8192);
+        writer.write(Collections.enumeration(families));
+        this.client.send("POST", TextFormatWriter.CONTENT_TYPE_004, null, body.toByteArray(), body.size(), 0);
+    }
+
+    /**
+     * 按固定间隔在后台推送，推送失败时等待下一次推送重新包含未推送成功的组合
+     *
+     * @param interval 间隔
+     * @param unit     间隔单位
+     * @return 当前对象
+     */
+    public DeltaPushExporter start(long interval, TimeUnit unit) {
+        this.schedule = this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                push();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "heracles delta push failed", e);
+            }
+        }, interval, interval, unit);
+        return this;
+    }
+
+    /**
+     * 停止后台推送
+     */
+    @Override
+    public void close() {
+        ScheduledFuture<?> schedule = this.schedule;
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+        this.executor.shutdown();
+    }
+}
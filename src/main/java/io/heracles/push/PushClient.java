@@ -0,0 +1,127 @@
+package io.heracles.push;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Pushgateway兼容端点的HTTP客户端
+ *
+ * @author walter
+ * @date 2021/02/07 20:10
+ **/
+final class PushClient {
+    private final URL url;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    PushClient(String address, String job, Map<String, String> groupingKey, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.url = buildUrl(address, job, groupingKey);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * 发送请求
+     *
+     * @param method          请求方法，PUT替换整个分组，POST替换同名指标
+     * @param contentType     请求体类型
+     * @param contentEncoding 请求体编码，为null代表未压缩
+     * @param body            请求体
+     * @param length          请求体长度
+     * @param timeoutMillis   连接和读取超时，不大于0时使用默认超时
+     * @throws IOException 请求失败或响应码不是2xx
+     */
+    void send(String method, String contentType, String contentEncoding, byte[] body, int length, int timeoutMillis) throws IOException {
+        try {
+            sendOnce(method, contentType, contentEncoding, body, length, timeoutMillis);
+        } catch (ConnectException e) {
+            throw e;
+        } catch (SocketException e) {
+            // 推送间隔通常大于服务端的空闲超时，复用的连接可能已被关闭；HttpURLConnection不会自动重发PUT/POST，
+            // 而Pushgateway的PUT/POST都是整体替换，重发一次是安全的
+            sendOnce(method, contentType, contentEncoding, body, length, timeoutMillis);
+        }
+    }
+
+    private void sendOnce(String method, String contentType, String contentEncoding, byte[] body, int length, int timeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(timeoutMillis > 0 ? timeoutMillis : this.connectTimeoutMillis);
+            connection.setReadTimeout(timeoutMillis > 0 ? timeoutMillis : this.readTimeoutMillis);
+            connection.setRequestProperty("Content-Type", contentType);
+            if (contentEncoding != null) {
+                connection.setRequestProperty("Content-Encoding", contentEncoding);
+            }
+            connection.setFixedLengthStreamingMode(length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body, 0, length);
+            }
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new PushStatusException(this.url, status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    URL getUrl() {
+        return this.url;
+    }
+
+    /**
+     * 响应码不是2xx
+     */
+    static final class PushStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private PushStatusException(URL url, int status) {
+            super("Response code from " + url + " was " + status);
+            this.status = status;
+        }
+
+        int getStatus() {
+            return this.status;
+        }
+    }
+
+    /**
+     * 与原生SDK的PushGateway一致：包含'/'的分组值使用base64编码
+     */
+    private static URL buildUrl(String address, String job, Map<String, String> groupingKey) {
+        String base = address.endsWith("/") ? address.substring(0, address.length() - 1) : address;
+        StringBuilder url = new StringBuilder(base).append("/metrics/").append(encodePathSegment("job", job));
+        for (Map.Entry<String, String> entry : groupingKey.entrySet()) {
+            url.append('/').append(encodePathSegment(entry.getKey(), entry.getValue()));
+        }
+        try {
+            return new URL(url.toString());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid address " + address, e);
+        }
+    }
+
+    private static String encodePathSegment(String name, String value) {
+        try {
+            if (value.contains("/")) {
+                return name + "@base64/" + Base64.getUrlEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+            }
+            return name + "/" + URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package io.heracles.push;
+
+import io.heracles.exposition.TextFormatWriter;
+import io.heracles.util.HeraclesScheduler;
+import io.heracles.wrapper.CounterWrapper;
+import io.heracles.wrapper.GaugeWrapper;
+import io.heracles.wrapper.HistogramWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.SimpleTimer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 后台异步推送
+ * <p>
+ * 无法被抓取的批处理任务和短生命周期进程使用：独立的守护线程按固定间隔把整个{@link CollectorRegistry}
+ * 序列化为一个（默认gzip压缩的）请求推送到Pushgateway兼容的端点，推送失败时按指数退避有限次重试。
+ * 序列化缓冲有容量上限并在各次推送间复用；由于每次推送的都是完整的当前值，重试耗尽后不再保留旧数据，
+ * 由下一次推送覆盖。JVM退出时以较短的超时做最后一次推送。
+ * 推送耗时、失败次数等指标通过Heracles自身的wrapper记录
+ *
+ * @author walter
+ * @date 2021/02/07 20:40
+ **/
+public class PushExporter implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PushExporter.class.getName());
+
+    public static class Builder {
+        private String address;
+        private String job;
+        private final Map<String, String> groupingKey = new LinkedHashMap<>();
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private CollectorRegistry selfMetricsRegistry;
+        private long intervalMillis = TimeUnit.SECONDS.toMillis(10);
+        private String method = "PUT";
+        private boolean gzip = true;
+        private int maxPayloadBytes = 16 * 1024 * 1024;
+        private int maxRetries = 3;
+        private long retryBackoffMillis = 500;
+        private int connectTimeoutMillis = 5000;
+        private int readTimeoutMillis = 10000;
+        private boolean flushOnShutdown = true;
+        private int shutdownTimeoutMillis = 2000;
+
+        protected Builder() {
+        }
+
+        /**
+         * @param address 端点地址，如http://localhost:9091
+         * @return 当前对象
+         */
+        public Builder address(String address) {
+            this.address = address;
+            return this;
+        }
+
+        public Builder job(String job) {
+            this.job = job;
+            return this;
+        }
+
+        public Builder groupingKey(String name, String value) {
+            this.groupingKey.put(name, value);
+            return this;
+        }
+
+        /**
+         * 需要推送的注册表，默认为CollectorRegistry.defaultRegistry
+         *
+         * @param registry 注册表
+         * @return 当前对象
+         */
+        public Builder registry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * 推送自身指标的注册表，默认与推送的注册表相同，同一注册表上有多个推送时需要分别指定
+         *
+         * @param selfMetricsRegistry 注册表
+         * @return 当前对象
+         */
+        public Builder selfMetrics(CollectorRegistry selfMetricsRegistry) {
+            this.selfMetricsRegistry = selfMetricsRegistry;
+            return this;
+        }
+
+        public Builder interval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.intervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * 使用POST推送，只替换分组内同名的指标；默认PUT替换整个分组
+         *
+         * @return 当前对象
+         */
+        public Builder usePost() {
+            this.method = "POST";
+            return this;
+        }
+
+        /**
+         * 不压缩请求体，用于不支持Content-Encoding: gzip的端点
+         *
+         * @return 当前对象
+         */
+        public Builder disableGzip() {
+            this.gzip = false;
+            return this;
+        }
+
+        /**
+         * 单次推送的请求体上限，超过时放弃本次推送
+         *
+         * @param maxPayloadBytes 字节数，默认16MB
+         * @return 当前对象
+         */
+        public Builder maxPayloadBytes(int maxPayloadBytes) {
+            this.maxPayloadBytes = maxPayloadBytes;
+            return this;
+        }
+
+        /**
+         * 推送失败后的重试
+         *
+         * @param maxRetries   最多重试次数，默认3
+         * @param backoff      首次重试前的等待时间，之后每次翻倍，不超过推送间隔
+         * @param backoffUnit  等待时间单位
+         * @return 当前对象
+         */
+        public Builder retries(int maxRetries, long backoff, TimeUnit backoffUnit) {
+            this.maxRetries = maxRetries;
+            this.retryBackoffMillis = backoffUnit.toMillis(backoff);
+            return this;
+        }
+
+        public Builder timeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * JVM退出时的最后一次推送
+         *
+         * @param flushOnShutdown       是否推送，默认是
+         * @param shutdownTimeoutMillis 连接和读取超时，默认2000
+         * @return 当前对象
+         */
+        public Builder flushOnShutdown(boolean flushOnShutdown, int shutdownTimeoutMillis) {
+            this.flushOnShutdown = flushOnShutdown;
+            this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 创建并开始后台推送
+         *
+         * @return 推送
+         */
+        public PushExporter start() {
+            if (this.address == null || this.job == null) {
+                throw new IllegalStateException("address and job must be set");
+            }
+            PushExporter exporter = new PushExporter(this);
+            exporter.start();
+            return exporter;
+        }
+    }
+
+    private final PushClient client;
+    private final CollectorRegistry registry;
+    private final long intervalMillis;
+    private final String method;
+    private final boolean gzip;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final int shutdownTimeoutMillis;
+    /**
+     * 序列化缓冲，只在持有当前对象锁时访问
+     */
+    private final BoundedByteArrayOutputStream payload;
+    private final ScheduledExecutorService executor;
+    private final Thread shutdownHook;
+    private volatile ScheduledFuture<?> schedule;
+    private volatile boolean closed;
+
+    private final HistogramWrapper pushDuration;
+    private final CounterWrapper pushFailures;
+    private final GaugeWrapper payloadBytes;
+    private final GaugeWrapper lastSuccess;
+
+    protected PushExporter(Builder builder) {
+        this.client = new PushClient(builder.address, builder.job, builder.groupingKey, builder.connectTimeoutMillis, builder.readTimeoutMillis);
+        this.registry = builder.registry;
+        this.intervalMillis = builder.intervalMillis;
+        this.method = builder.method;
+        this.gzip = builder.gzip;
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoffMillis = builder.retryBackoffMillis;
+        this.shutdownTimeoutMillis = builder.shutdownTimeoutMillis;
+        this.payload = new BoundedByteArrayOutputStream(64 * 1024, builder.maxPayloadBytes);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> HeraclesScheduler.newDaemonThread("heracles-push-" + builder.job, r));
+        this.shutdownHook = builder.flushOnShutdown ? new Thread(this::flushOnShutdown, "heracles-push-shutdown-" + builder.job) : null;
+
+        CollectorRegistry selfMetricsRegistry = builder.selfMetricsRegistry != null ? builder.selfMetricsRegistry : builder.registry;
+        this.pushDuration = HistogramWrapper.build()
+                .name("heracles_push_duration_seconds").help("Duration of pushes to the push endpoint.")
+                .labelNames("result")
+                .wrap(selfMetricsRegistry);
+        this.pushFailures = CounterWrapper.builder()
+                .name("heracles_push_failures_total").help("Failed push attempts by reason.")
+                .labelNames("reason")
+                .wrap(selfMetricsRegistry);
+        this.payloadBytes = GaugeWrapper.build()
+                .name("heracles_push_payload_bytes").help("Size of the last serialized push payload.")
+                .wrap(selfMetricsRegistry);
+        this.lastSuccess = GaugeWrapper.build()
+                .name("heracles_push_last_success_timestamp_seconds").help("Unix time of the last successful push.")
+                .wrap(selfMetricsRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private void start() {
+        this.schedule = this.executor.scheduleWithFixedDelay(this::pushWithRetries, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+        if (this.shutdownHook != null) {
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
+    }
+
+    /**
+     * 定时任务：推送失败时按指数退避重试，重试期间推送线程不处理下一次推送
+     */
+    private void pushWithRetries() {
+        long backoff = this.retryBackoffMillis;
+        for (int attempt = 0; attempt <= this.maxRetries && !this.closed; attempt++) {
+            try {
+                push(0);
+                return;
+            } catch (BoundedByteArrayOutputStream.PayloadTooLargeException e) {
+                LOGGER.log(Level.WARNING, "heracles push payload dropped", e);
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "heracles push failed, attempt " + (attempt + 1), e);
+            }
+
+            if (attempt < this.maxRetries) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, this.intervalMillis);
+            }
+        }
+    }
+
+    /**
+     * 立即推送一次，不重试
+     *
+     * @throws IOException 推送失败
+     */
+    public void push() throws IOException {
+        push(0);
+    }
+
+    private synchronized void push(int timeoutMillis) throws IOException {
+        SimpleTimer timer = new SimpleTimer();
+        try {
+            serialize();
+            this.payloadBytes.set(this.payload.size());
+            this.client.send(this.method, TextFormatWriter.CONTENT_TYPE_004, this.gzip ? "gzip" : null, this.payload.buffer(), this.payload.size(), timeoutMillis);
+        } catch (BoundedByteArrayOutputStream.PayloadTooLargeException e) {
+            this.pushFailures.label("reason", "too_large").inc();
+            throw e;
+        } catch (PushClient.PushStatusException e) {
+            this.pushFailures.label("reason", "status_" + e.getStatus() / 100 + "xx").inc();
+            this.pushDuration.label("result", "failure").observe(timer.elapsedSeconds());
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            this.pushFailures.label("reason", "io").inc();
+            this.pushDuration.label("result", "failure").observe(timer.elapsedSeconds());
+            throw e;
+        }
+        this.pushDuration.label("result", "success").observe(timer.elapsedSeconds());
+        this.lastSuccess.set(System.currentTimeMillis() / 1000d);
+    }
+
+    private void serialize() throws IOException {
+        this.payload.reset();
+        OutputStream out = this.gzip ? new GZIPOutputStream(this.payload, 8192) : this.payload;
+        new TextFormatWriter(out, 8192).write(this.registry.metricFamilySamples());
+        out.close();
+    }
+
+    private void flushOnShutdown() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        cancel();
+        try {
+            push(this.shutdownTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "heracles final push failed", e);
+        }
+    }
+
+    private void cancel() {
+        ScheduledFuture<?> schedule = this.schedule;
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+        this.executor.shutdown();
+    }
+
+    /**
+     * 停止后台推送并做最后一次推送
+     */
+    @Override
+    public void close() {
+        if (this.shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM正在退出，由钩子完成最后一次推送
+                return;
+            }
+        }
+        flushOnShutdown();
+    }
+}
@@ -0,0 +1,14 @@
+package io.heracles.store;
+
+/**
+ * 值保存在内存映射文件中的Child
+ *
+ * @author walter
+ * @date 2021/02/11 20:30
+ **/
+interface MappedChild {
+    /**
+     * 组合被移除后调用，之后的写入被忽略、读取返回移除时的值，槽位可以被新组合复用
+     */
+    void detach();
+}
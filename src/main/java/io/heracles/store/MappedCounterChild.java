@@ -0,0 +1,50 @@
+package io.heracles.store;
+
+import io.prometheus.client.Counter;
+
+/**
+ * 值保存在内存映射文件中的Counter Child
+ *
+ * @author walter
+ * @date 2021/02/09 21:50
+ **/
+final class MappedCounterChild extends Counter.Child implements MappedChild {
+    private final MappedMemory memory;
+    private final int offset;
+    /**
+     * 组合已被移除，槽位可能已被复用
+     */
+    private volatile boolean detached;
+    private volatile double detachedValue;
+
+    MappedCounterChild(MappedMemory memory, int offset) {
+        this.memory = memory;
+        this.offset = offset;
+    }
+
+    @Override
+    public void inc() {
+        inc(1);
+    }
+
+    @Override
+    public void inc(double amt) {
+        if (amt < 0) {
+            throw new IllegalArgumentException("Amount to increment must be non-negative.");
+        }
+        if (!this.detached) {
+            this.memory.addDouble(this.offset, amt);
+        }
+    }
+
+    @Override
+    public double get() {
+        return this.detached ? this.detachedValue : this.memory.getDouble(this.offset);
+    }
+
+    @Override
+    public void detach() {
+        this.detachedValue = this.memory.getDouble(this.offset);
+        this.detached = true;
+    }
+}
@@ -0,0 +1,71 @@
+package io.heracles.store;
+
+import io.prometheus.client.Gauge;
+
+/**
+ * 值保存在内存映射文件中的Gauge Child，计时相关方法经由{@link #set(double)}写入
+ *
+ * @author walter
+ * @date 2021/02/09 21:50
+ **/
+final class MappedGaugeChild extends Gauge.Child implements MappedChild {
+    private final MappedMemory memory;
+    private final int offset;
+    /**
+     * 组合已被移除，槽位可能已被复用
+     */
+    private volatile boolean detached;
+    private volatile double detachedValue;
+
+    MappedGaugeChild(MappedMemory memory, int offset) {
+        this.memory = memory;
+        this.offset = offset;
+    }
+
+    @Override
+    public void inc() {
+        inc(1);
+    }
+
+    @Override
+    public void inc(double amt) {
+        if (!this.detached) {
+            this.memory.addDouble(this.offset, amt);
+        }
+    }
+
+    @Override
+    public void dec() {
+        dec(1);
+    }
+
+    @Override
+    public void dec(double amt) {
+        if (!this.detached) {
+            this.memory.addDouble(this.offset, -amt);
+        }
+    }
+
+    @Override
+    public void set(double val) {
+        if (!this.detached) {
+            this.memory.setDouble(this.offset, val);
+        }
+    }
+
+    @Override
+    public void setToCurrentTime() {
+        set(System.currentTimeMillis() / 1000d);
+    }
+
+    @Override
+    public double get() {
+        return this.detached ? this.detachedValue : this.memory.getDouble(this.offset);
+    }
+
+    @Override
+    public void detach() {
+        this.detachedValue = this.memory.getDouble(this.offset);
+        this.detached = true;
+    }
+}
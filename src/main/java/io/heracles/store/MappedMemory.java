@@ -0,0 +1,134 @@
+package io.heracles.store;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 按地址访问内存映射区域，提供int、long的有序读写和CAS
+ * <p>
+ * MappedByteBuffer没有原子操作，Java 8也没有VarHandle，因此直接使用Unsafe访问映射地址。
+ * 持有映射缓冲的引用，只要当前对象可达映射就不会被释放；使用本机字节序，文件不能跨字节序的机器使用
+ *
+ * @author walter
+ * @date 2021/02/09 21:20
+ **/
+final class MappedMemory {
+    private static final Unsafe UNSAFE;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final int size;
+
+    MappedMemory(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+        this.size = buffer.capacity();
+    }
+
+    int getIntVolatile(int offset) {
+        return UNSAFE.getIntVolatile(null, this.address + offset);
+    }
+
+    void putIntOrdered(int offset, int value) {
+        UNSAFE.putOrderedInt(null, this.address + offset, value);
+    }
+
+    void loadFence() {
+        UNSAFE.loadFence();
+    }
+
+    void storeFence() {
+        UNSAFE.storeFence();
+    }
+
+    int getInt(int offset) {
+        return UNSAFE.getInt(this.address + offset);
+    }
+
+    void putInt(int offset, int value) {
+        UNSAFE.putInt(this.address + offset, value);
+    }
+
+    long getLong(int offset) {
+        return UNSAFE.getLong(this.address + offset);
+    }
+
+    void putLong(int offset, long value) {
+        UNSAFE.putLong(this.address + offset, value);
+    }
+
+    long getLongVolatile(int offset) {
+        return UNSAFE.getLongVolatile(null, this.address + offset);
+    }
+
+    void putLongVolatile(int offset, long value) {
+        UNSAFE.putLongVolatile(null, this.address + offset, value);
+    }
+
+    boolean compareAndSwapLong(int offset, long expected, long value) {
+        return UNSAFE.compareAndSwapLong(null, this.address + offset, expected, value);
+    }
+
+    double getDouble(int offset) {
+        return Double.longBitsToDouble(getLongVolatile(offset));
+    }
+
+    void setDouble(int offset, double value) {
+        putLongVolatile(offset, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * CAS累加
+     *
+     * @param offset 偏移量，8字节对齐
+     * @param amt    增量
+     */
+    void addDouble(int offset, double amt) {
+        long address = this.address + offset;
+        for (; ; ) {
+            long current = UNSAFE.getLongVolatile(null, address);
+            long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + amt);
+            if (UNSAFE.compareAndSwapLong(null, address, current, next)) {
+                return;
+            }
+        }
+    }
+
+    void getBytes(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = UNSAFE.getByte(this.address + offset + i);
+        }
+    }
+
+    void putBytes(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            UNSAFE.putByte(this.address + offset + i, bytes[i]);
+        }
+    }
+
+    /**
+     * 把修改写回文件
+     */
+    void force() {
+        this.buffer.force();
+    }
+
+    int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,583 @@
+package io.heracles.store;
+
+import io.heracles.util.HeraclesScheduler;
+import io.heracles.wrapper.base.ChildFactory;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.logging.Logger;
+
+/**
+ * 保存在内存映射文件中的Counter、Gauge组合，进程重启后恢复
+ * <p>
+ * 文件布局见{@link SeriesSegment}：固定大小的组合目录加值槽位，打点直接对映射地址做CAS，不经过原生SDK的DoubleAdder；
+ * 启动时只扫描一次组合目录，值不需要解析。文件被当前进程独占锁定，同一文件不能被多个进程或多次打开。
+ * 被移除的组合标记删除，槽位进入空闲队列，按释放顺序分配给新组合，重启时扫描到的删除槽位同样复用；
+ * 已移除组合的Child不再写入映射，与移除同时进行的写入可能丢失，极端情况下计入复用该槽位的新组合。组合数超过容量或组合键过长时退化为普通的内存Child。
+ * <p>
+ * 原生SDK的Histogram、Summary的Child无法替换，可通过{@link #mirror(Collector)}定时把采集结果复制到文件中，
+ * 复制的值不会在重启后恢复，主要用于{@link SegmentDirectoryCollector}的多进程聚合
+ *
+ * @author walter
+ * @date 2021/02/09 22:00
+ **/
+public final class MappedSeriesStore implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MappedSeriesStore.class.getName());
+    private static final String[] EMPTY = new String[0];
+    /**
+     * 当前JVM中已打开的文件 -> 组合存储。关闭同一文件的任意FileChannel会释放进程在该文件上的全部锁，
+     * 同一JVM中的聚合通过这里读取，不另外打开文件
+     */
+    private static final ConcurrentMap<Path, MappedSeriesStore> OPEN_STORES = new ConcurrentHashMap<>();
+
+    public static class Builder {
+        private Path path;
+        private int capacity = 4096;
+        private int maxKeyBytes = 248;
+        private long syncIntervalMillis;
+        private long mirrorIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+        private boolean processSegment;
+
+        private Builder() {
+        }
+
+        public Builder path(Path path) {
+            this.path = path;
+            this.processSegment = false;
+            return this;
+        }
+
+        /**
+         * 在共享目录中为当前进程创建独立的文件，由{@link SegmentDirectoryCollector}在同一目录中聚合
+         * <p>
+         * 文件名包含PID和进程启动时间，每次启动都是新文件；进程退出后由聚合进程合并累计值并删除
+         *
+         * @param directory 共享目录
+         * @return 当前对象
+         */
+        public Builder processSegmentIn(Path directory) {
+            this.path = ProcessSegments.segmentPath(directory);
+            this.processSegment = true;
+            return this;
+        }
+
+        /**
+         * 组合数上限，只在创建新文件时生效，已有文件沿用其布局
+         *
+         * @param capacity 组合数上限，默认4096
+         * @return 当前对象
+         */
+        public Builder capacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * 组合键（指标名加标签值）编码后的最大字节数，只在创建新文件时生效
+         *
+         * @param maxKeyBytes 最大字节数，默认248
+         * @return 当前对象
+         */
+        public Builder maxKeyBytes(int maxKeyBytes) {
+            if (maxKeyBytes < 16) {
+                throw new IllegalArgumentException("maxKeyBytes must be at least 16");
+            }
+            this.maxKeyBytes = maxKeyBytes;
+            return this;
+        }
+
+        /**
+         * 定时把映射页写回磁盘，防止操作系统崩溃时丢失数据；进程崩溃不需要写回
+         *
+         * @param interval 间隔，不大于0代表不定时写回
+         * @param unit     间隔单位
+         * @return 当前对象
+         */
+        public Builder syncInterval(long interval, TimeUnit unit) {
+            this.syncIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * {@link #mirror(Collector)}复制采集结果的间隔
+         *
+         * @param interval 间隔，默认1秒
+         * @param unit     间隔单位
+         * @return 当前对象
+         */
+        public Builder mirrorInterval(long interval, TimeUnit unit) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            this.mirrorIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * 打开或创建文件并恢复已有组合
+         *
+         * @return 组合存储
+         * @throws IOException 文件不可用、被其他进程锁定或不是组合文件
+         */
+        public MappedSeriesStore open() throws IOException {
+            if (this.path == null) {
+                throw new IllegalStateException("path must be set");
+            }
+
+            if (this.processSegment) {
+                return createProcessSegment();
+            }
+
+            FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock lock;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    throw new IOException(this.path + " is already opened in this JVM", e);
+                }
+                if (lock == null) {
+                    throw new IOException(this.path + " is locked by another process");
+                }
+
+                SeriesSegment segment = SeriesSegment.open(channel, FileChannel.MapMode.READ_WRITE);
+                if (segment == null) {
+                    segment = SeriesSegment.create(channel, this.capacity, this.maxKeyBytes);
+                }
+                return new MappedSeriesStore(this, channel, lock, segment);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 在临时文件上加锁并初始化后再重命名，文件锁跟随文件保留
+         */
+        private MappedSeriesStore createProcessSegment() throws IOException {
+            Path temporary = ProcessSegments.temporaryPath(this.path);
+            FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    throw new IOException(temporary + " is locked by another process");
+                }
+                SeriesSegment segment = SeriesSegment.create(channel, this.capacity, this.maxKeyBytes);
+                Files.move(temporary, this.path, StandardCopyOption.ATOMIC_MOVE);
+                return new MappedSeriesStore(this, channel, lock, segment);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final SeriesSegment segment;
+    /**
+     * 组合键编码 -> 组合
+     */
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+    /**
+     * 下一个未使用的槽位，只在持有当前对象锁时访问
+     */
+    private int nextSlot;
+    /**
+     * 已标记删除、可以重新发布的槽位，先释放的先复用，只在持有当前对象锁时访问
+     */
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    /**
+     * 超过容量或组合键过长、退化为内存Child的组合数
+     */
+    private final LongAdder overflowCount = new LongAdder();
+    private final ScheduledFuture<?> syncSchedule;
+    /**
+     * 定时复制采集结果的采集器
+     */
+    private final List<Collector> mirrored = new CopyOnWriteArrayList<>();
+    private final long mirrorIntervalMillis;
+    /**
+     * 复制轮次，只在持有mirrored锁时访问
+     */
+    private int mirrorPass;
+    private ScheduledFuture<?> mirrorSchedule;
+
+    private MappedSeriesStore(Builder builder, FileChannel channel, FileLock lock, SeriesSegment segment) {
+        this.path = builder.path;
+        this.channel = channel;
+        this.lock = lock;
+        this.segment = segment;
+        this.mirrorIntervalMillis = builder.mirrorIntervalMillis;
+        this.nextSlot = restore();
+        OPEN_STORES.put(this.path.toAbsolutePath().normalize(), this);
+        this.syncSchedule = builder.syncIntervalMillis > 0
+                ? HeraclesScheduler.scheduleWithFixedDelay(this::force, builder.syncIntervalMillis, TimeUnit.MILLISECONDS) : null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param path 绝对路径
+     * @return 当前JVM中打开该文件的组合存储，未打开时返回null
+     */
+    static MappedSeriesStore openStore(Path path) {
+        return OPEN_STORES.get(path);
+    }
+
+    /**
+     * 扫描组合目录，不完整或重复的目录项标记删除，删除的槽位放入空闲队列
+     *
+     * @return 第一个未使用的槽位
+     */
+    private int restore() {
+        int slot = 0;
+        for (; slot < this.segment.getCapacity(); slot++) {
+            int state = this.segment.getState(slot);
+            if (state == SeriesSegment.EMPTY) {
+                break;
+            }
+            if (!SeriesSegment.isLive(state)) {
+                this.freeSlots.add(slot);
+                continue;
+            }
+
+            byte[] encoded = this.segment.readKey(slot);
+            SeriesKey key = encoded == null ? null : SeriesKey.decode(encoded);
+            if (key == null || this.series.putIfAbsent(toMapKey(encoded), new Series(key, slot, newChild(key, slot))) != null) {
+                this.segment.markRemoved(slot);
+                this.freeSlots.add(slot);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Counter、Gauge的组合创建对应的Child，其他样本只保存值
+     */
+    private Object newChild(SeriesKey key, int slot) {
+        if (!key.sampleName.equals(key.familyName)) {
+            return null;
+        }
+        int offset = this.segment.valueOffset(slot);
+        if (key.type == SeriesKey.COUNTER) {
+            return new MappedCounterChild(this.segment.getMemory(), offset);
+        }
+        return key.type == SeriesKey.GAUGE ? new MappedGaugeChild(this.segment.getMemory(), offset) : null;
+    }
+
+    /**
+     * 用于{@link io.heracles.wrapper.CounterWrapper.Builder#persistIn(MappedSeriesStore)}
+     *
+     * @param name       指标名
+     * @param labelNames 标签名
+     * @return 在当前存储中创建Child
+     */
+    public ChildFactory<Counter.Child> counterChildren(String name, String[] labelNames) {
+        return new SeriesChildren<>(SeriesKey.COUNTER, name, labelNames.clone(), Counter.Child.class);
+    }
+
+    /**
+     * 用于{@link io.heracles.wrapper.GaugeWrapper.Builder#persistIn(MappedSeriesStore)}
+     *
+     * @param name       指标名
+     * @param labelNames 标签名
+     * @return 在当前存储中创建Child
+     */
+    public ChildFactory<Gauge.Child> gaugeChildren(String name, String[] labelNames) {
+        return new SeriesChildren<>(SeriesKey.GAUGE, name, labelNames.clone(), Gauge.Child.class);
+    }
+
+    /**
+     * 定时把采集器的采集结果复制到文件中，用于无法替换Child的采集器（如原生SDK的Histogram、Summary）
+     * <p>
+     * 复制的值最多落后一个复制间隔，不在重启后恢复；不再出现的样本会被移除。
+     * 已通过persistIn保存的Wrapper不需要复制
+     *
+     * @param collector 采集器
+     */
+    public void mirror(Collector collector) {
+        this.mirrored.add(collector);
+        synchronized (this.mirrored) {
+            if (this.mirrorSchedule == null) {
+                this.mirrorSchedule = HeraclesScheduler.scheduleWithFixedDelay(this::mirrorNow, this.mirrorIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 立即复制一次采集结果，如进程退出前
+     */
+    public void mirrorNow() {
+        synchronized (this.mirrored) {
+            int pass = ++this.mirrorPass;
+            for (Collector collector : this.mirrored) {
+                for (Collector.MetricFamilySamples family : collector.collect()) {
+                    byte type = SeriesKey.typeOf(family.type);
+                    for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                        Series series = obtain(type, family.name, sample.name, sample.labelNames.toArray(EMPTY), sample.labelValues.toArray(EMPTY));
+                        if (series != null) {
+                            this.segment.setValue(series.slot, sample.value);
+                            series.mirrorPass = pass;
+                        }
+                    }
+                }
+            }
+
+            synchronized (this) {
+                this.series.values().removeIf(series -> {
+                    if (series.mirrorPass != 0 && series.mirrorPass != pass) {
+                        release(series);
+                        return true;
+                    }
+                    return false;
+                });
+            }
+        }
+    }
+
+    /**
+     * 获取或创建组合
+     *
+     * @return 组合；组合键不可编码、过长或超过容量时返回null
+     */
+    private Series obtain(byte type, String familyName, String sampleName, String[] labelNames, String[] labelValues) {
+        byte[] encoded = SeriesKey.encode(type, familyName, sampleName, labelNames, labelValues);
+        if (encoded == null) {
+            return null;
+        }
+
+        String mapKey = toMapKey(encoded);
+        Series existing = this.series.get(mapKey);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (this) {
+            existing = this.series.get(mapKey);
+            if (existing != null) {
+                return existing;
+            }
+
+            if (encoded.length > this.segment.getMaxKeyBytes() || (this.freeSlots.isEmpty() && this.nextSlot >= this.segment.getCapacity())) {
+                this.overflowCount.increment();
+                if (this.overflowCount.sum() == 1) {
+                    LOGGER.warning(this.path + " is full or series key of " + familyName + " is too long, falling back to in-memory series");
+                }
+                return null;
+            }
+
+            Integer free = this.freeSlots.poll();
+            int slot = free != null ? free : this.nextSlot++;
+            this.segment.publish(slot, encoded);
+            SeriesKey key = new SeriesKey(type, familyName, sampleName, labelNames.clone(), labelValues.clone());
+            Series created = new Series(key, slot, newChild(key, slot));
+            this.series.put(mapKey, created);
+            return created;
+        }
+    }
+
+    /**
+     * 累加到组合，用于合并已退出进程的累计值
+     */
+    void add(SeriesKey key, double amt) {
+        Series series = obtain(key.type, key.familyName, key.sampleName, key.labelNames, key.labelValues);
+        if (series != null) {
+            this.segment.addValue(series.slot, amt);
+        }
+    }
+
+    /**
+     * 遍历当前所有组合的值
+     */
+    void forEachValue(ObjDoubleConsumer<SeriesKey> consumer) {
+        for (Series series : this.series.values()) {
+            consumer.accept(series.key, this.segment.getValue(series.slot));
+        }
+    }
+
+    private void remove(byte type, String name, String[] labelNames, String[] labelValues) {
+        byte[] encoded = SeriesKey.encode(type, name, name, labelNames, labelValues);
+        if (encoded == null) {
+            return;
+        }
+
+        synchronized (this) {
+            Series removed = this.series.remove(toMapKey(encoded));
+            if (removed != null) {
+                release(removed);
+            }
+        }
+    }
+
+    private void removeAll(byte type, String name) {
+        synchronized (this) {
+            this.series.values().removeIf(series -> {
+                if (series.key.type == type && series.key.familyName.equals(name)) {
+                    release(series);
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * 标记删除并放入空闲队列，调用方持有当前对象锁且已从组合中移除
+     */
+    private void release(Series series) {
+        if (series.child instanceof MappedChild) {
+            ((MappedChild) series.child).detach();
+        }
+        this.segment.markRemoved(series.slot);
+        this.freeSlots.add(series.slot);
+    }
+
+    private static String toMapKey(byte[] encoded) {
+        return new String(encoded, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 把映射页写回磁盘
+     */
+    public void force() {
+        this.segment.force();
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public int getSize() {
+        return this.series.size();
+    }
+
+    public int getCapacity() {
+        return this.segment.getCapacity();
+    }
+
+    /**
+     * @return 可以复用的已删除槽位数
+     */
+    public synchronized int getFreeSlotCount() {
+        return this.freeSlots.size();
+    }
+
+    public long getOverflowCount() {
+        return this.overflowCount.sum();
+    }
+
+    /**
+     * 写回磁盘并释放文件锁
+     * <p>
+     * 映射在已创建的Child不可达之前一直有效，关闭后的打点仍会写入映射但不再受文件锁保护，应只在进程退出前关闭
+     *
+     * @throws IOException 释放失败
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.syncSchedule != null) {
+            this.syncSchedule.cancel(false);
+        }
+        synchronized (this.mirrored) {
+            if (this.mirrorSchedule != null) {
+                this.mirrorSchedule.cancel(false);
+            }
+        }
+        force();
+        OPEN_STORES.remove(this.path.toAbsolutePath().normalize(), this);
+        try {
+            this.lock.release();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private static final class Series {
+        private final SeriesKey key;
+        private final int slot;
+        /**
+         * MappedCounterChild或MappedGaugeChild，持有映射，每个组合只创建一次；其他样本为null
+         */
+        private final Object child;
+        /**
+         * 最近一次复制该组合的轮次，0代表不是复制的组合
+         */
+        private volatile int mirrorPass;
+
+        private Series(SeriesKey key, int slot, Object child) {
+            this.key = key;
+            this.slot = slot;
+            this.child = child;
+        }
+    }
+
+    private final class SeriesChildren<Child> implements ChildFactory<Child> {
+        private final byte type;
+        private final String name;
+        private final String[] labelNames;
+        private final Class<Child> childClass;
+
+        private SeriesChildren(byte type, String name, String[] labelNames, Class<Child> childClass) {
+            this.type = type;
+            this.name = name;
+            this.labelNames = labelNames;
+            this.childClass = childClass;
+        }
+
+        @Override
+        public Child newChild(String[] labelValues) {
+            Series series = obtain(this.type, this.name, this.name, this.labelNames, labelValues);
+            return series == null || series.child == null ? null : this.childClass.cast(series.child);
+        }
+
+        @Override
+        public void forEachRestored(BiConsumer<String[], Child> consumer) {
+            for (Series series : MappedSeriesStore.this.series.values()) {
+                if (series.child != null && series.key.type == this.type && series.key.familyName.equals(this.name)
+                        && Arrays.equals(series.key.labelNames, this.labelNames)) {
+                    consumer.accept(series.key.labelValues.clone(), this.childClass.cast(series.child));
+                }
+            }
+        }
+
+        @Override
+        public void removed(String[] labelValues) {
+            remove(this.type, this.name, this.labelNames, labelValues);
+        }
+
+        @Override
+        public void cleared() {
+            removeAll(this.type, this.name);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package io.heracles.store;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.file.Path;
+
+/**
+ * 共享目录中的文件命名
+ * <p>
+ * 每个进程一个heracles-&lt;pid&gt;-&lt;启动时间&gt;.series，启动时间避免PID复用时与已退出进程的文件重名；
+ * 创建时先写入.series.tmp再重命名，聚合进程不会看到未初始化的文件；已退出进程的累计值合并到heracles-archive.series
+ *
+ * @author walter
+ * @date 2021/02/10 20:30
+ **/
+final class ProcessSegments {
+    static final String PREFIX = "heracles-";
+    static final String SUFFIX = ".series";
+    static final String TMP_SUFFIX = SUFFIX + ".tmp";
+    static final String ARCHIVE_FILE_NAME = PREFIX + "archive" + SUFFIX;
+
+    private ProcessSegments() {
+    }
+
+    /**
+     * @param directory 共享目录
+     * @return 当前进程的文件
+     */
+    static Path segmentPath(Path directory) {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        String name = runtime.getName();
+        int at = name.indexOf('@');
+        String pid = at > 0 ? name.substring(0, at) : name;
+        return directory.resolve(PREFIX + pid + "-" + runtime.getStartTime() + SUFFIX);
+    }
+
+    static Path temporaryPath(Path segmentPath) {
+        return segmentPath.resolveSibling(segmentPath.getFileName() + ".tmp");
+    }
+
+    static boolean isSegment(String fileName) {
+        return fileName.startsWith(PREFIX) && fileName.endsWith(SUFFIX) && !fileName.equals(ARCHIVE_FILE_NAME);
+    }
+
+    static boolean isTemporary(String fileName) {
+        return fileName.startsWith(PREFIX) && fileName.endsWith(TMP_SUFFIX);
+    }
+
+    /**
+     * @param fileName 进程文件名
+     * @return 文件名中的PID，不符合命名时返回文件名
+     */
+    static String pidOf(String fileName) {
+        int end = fileName.indexOf('-', PREFIX.length());
+        return fileName.startsWith(PREFIX) && end > 0 ? fileName.substring(PREFIX.length(), end) : fileName;
+    }
+}
@@ -0,0 +1,500 @@
+package io.heracles.store;
+
+import io.prometheus.client.Collector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 聚合共享目录中各进程文件的采集器
+ * <p>
+ * 同一主机上的多个工作进程通过{@link MappedSeriesStore.Builder#processSegmentIn(Path)}各自写入独立的文件，
+ * 由一个导出进程注册本采集器统一暴露。采集时只读映射各进程文件，组合键只在目录项首次出现或被复用时解码，值直接从映射中读取；
+ * Counter、Histogram的全部样本以及Summary的_count、_sum求和，Gauge按{@link GaugeMerge}合并，
+ * Summary的分位数无法合并，不输出。
+ * <p>
+ * 进程存活与否以文件锁判断：进程退出后操作系统释放其文件锁，采集时能加锁的文件即属于已退出的进程，
+ * 其Counter、Histogram、Summary的累计值合并到heracles-archive.series后删除文件，汇总值不会因进程退出而回退
+ *
+ * @author walter
+ * @date 2021/02/10 21:00
+ **/
+public final class SegmentDirectoryCollector extends Collector implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SegmentDirectoryCollector.class.getName());
+    private static final String HELP = "Multiprocess metric";
+
+    /**
+     * Gauge的合并方式
+     */
+    public enum GaugeMerge {
+        /**
+         * 各进程的值求和
+         */
+        SUM,
+        /**
+         * 取最小值
+         */
+        MIN,
+        /**
+         * 取最大值
+         */
+        MAX,
+        /**
+         * 不合并，每个进程的值增加PID标签
+         */
+        PER_PROCESS
+    }
+
+    public static class Builder {
+        private Path directory;
+        private GaugeMerge gaugeMerge = GaugeMerge.PER_PROCESS;
+        private String pidLabel = "pid";
+        private int archiveCapacity = 16384;
+
+        private Builder() {
+        }
+
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param gaugeMerge Gauge的合并方式，默认{@link GaugeMerge#PER_PROCESS}
+         * @return 当前对象
+         */
+        public Builder gaugeMerge(GaugeMerge gaugeMerge) {
+            this.gaugeMerge = gaugeMerge;
+            return this;
+        }
+
+        /**
+         * @param pidLabel {@link GaugeMerge#PER_PROCESS}时的PID标签名，默认pid
+         * @return 当前对象
+         */
+        public Builder pidLabel(String pidLabel) {
+            this.pidLabel = pidLabel;
+            return this;
+        }
+
+        /**
+         * @param archiveCapacity 已退出进程累计值的组合数上限，只在创建归档文件时生效，默认16384
+         * @return 当前对象
+         */
+        public Builder archiveCapacity(int archiveCapacity) {
+            this.archiveCapacity = archiveCapacity;
+            return this;
+        }
+
+        /**
+         * 打开归档文件，一个目录只能有一个聚合进程
+         *
+         * @return 采集器
+         * @throws IOException 归档文件不可用或被其他进程锁定
+         */
+        public SegmentDirectoryCollector build() throws IOException {
+            if (this.directory == null) {
+                throw new IllegalStateException("directory must be set");
+            }
+            return new SegmentDirectoryCollector(this);
+        }
+    }
+
+    private final Path directory;
+    private final GaugeMerge gaugeMerge;
+    private final String pidLabel;
+    private final MappedSeriesStore archive;
+    /**
+     * 文件 -> 其他进程的文件，只在持有当前对象锁时访问
+     */
+    private final Map<Path, SegmentReader> readers = new HashMap<>();
+    /**
+     * 已合并并删除的文件数
+     */
+    private volatile long archivedCount;
+
+    private SegmentDirectoryCollector(Builder builder) throws IOException {
+        this.directory = builder.directory.toAbsolutePath().normalize();
+        this.gaugeMerge = builder.gaugeMerge;
+        this.pidLabel = builder.pidLabel;
+        this.archive = MappedSeriesStore.builder()
+                .path(this.directory.resolve(ProcessSegments.ARCHIVE_FILE_NAME))
+                .capacity(builder.archiveCapacity)
+                .open();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public synchronized List<MetricFamilySamples> collect() {
+        Aggregation aggregation = new Aggregation();
+        this.archive.forEachValue((key, value) -> aggregation.add(key, value, null));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, ProcessSegments.PREFIX + "*")) {
+            Set<Path> seen = new HashSet<>();
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                if (ProcessSegments.isTemporary(fileName)) {
+                    deleteIfAbandoned(path);
+                } else if (ProcessSegments.isSegment(fileName)) {
+                    seen.add(path);
+                    collectSegment(path, ProcessSegments.pidOf(fileName), aggregation);
+                }
+            }
+            closeReaders(entry -> !seen.contains(entry.getKey()));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "failed to list " + this.directory, e);
+        }
+        return aggregation.toFamilies();
+    }
+
+    private void collectSegment(Path path, String pid, Aggregation aggregation) {
+        // 当前JVM打开的文件不能另外打开，否则关闭时会释放其文件锁
+        MappedSeriesStore local = MappedSeriesStore.openStore(path);
+        if (local != null) {
+            local.forEachValue((key, value) -> aggregation.add(key, value, pid));
+            return;
+        }
+
+        SegmentReader reader = this.readers.get(path);
+        try {
+            if (reader == null) {
+                reader = SegmentReader.open(path, pid);
+                if (reader == null) {
+                    return;
+                }
+                this.readers.put(path, reader);
+            }
+
+            if (reader.isAlive()) {
+                reader.forEachValue((key, value) -> aggregation.add(key, value, pid));
+            } else {
+                this.readers.remove(path);
+                archive(reader, aggregation);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "failed to read " + path, e);
+            if (reader != null) {
+                this.readers.remove(path);
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 合并已退出进程的累计值并删除其文件，调用方已持有其文件锁
+     * <p>
+     * 每合并一个组合即在原文件中标记删除，合并中断后重试不会重复累加
+     */
+    private void archive(SegmentReader reader, Aggregation aggregation) throws IOException {
+        try {
+            SeriesSegment writable = SeriesSegment.open(reader.channel, FileChannel.MapMode.READ_WRITE);
+            reader.scan();
+            for (Entry entry : reader.entries) {
+                if (entry.key == null || writable.getState(entry.slot) != entry.state) {
+                    continue;
+                }
+                if (isCumulative(entry.key)) {
+                    double value = writable.getValue(entry.slot);
+                    this.archive.add(entry.key, value);
+                    // 本次采集的汇总中也包含已合并的值
+                    aggregation.add(entry.key, value, null);
+                }
+                writable.markRemoved(entry.slot);
+            }
+            this.archive.force();
+            Files.deleteIfExists(reader.path);
+            this.archivedCount++;
+            LOGGER.info("archived series of exited process " + reader.pid + " from " + reader.path);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 进程退出后仍会增长的值：Counter、Histogram的全部样本，Summary的_count、_sum
+     */
+    private static boolean isCumulative(SeriesKey key) {
+        return key.type == SeriesKey.COUNTER || key.type == SeriesKey.HISTOGRAM || (key.type == SeriesKey.SUMMARY && !isQuantile(key));
+    }
+
+    private static boolean isQuantile(SeriesKey key) {
+        return Arrays.asList(key.labelNames).contains("quantile");
+    }
+
+    /**
+     * 删除创建中途退出的进程留下的临时文件
+     */
+    private void deleteIfAbandoned(Path path) {
+        if (MappedSeriesStore.openStore(path) != null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (NoSuchFileException | OverlappingFileLockException e) {
+            // 已完成重命名或由当前JVM创建中
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "failed to delete " + path, e);
+        }
+    }
+
+    private void closeReaders(Predicate<Map.Entry<Path, SegmentReader>> predicate) {
+        Iterator<Map.Entry<Path, SegmentReader>> iterator = this.readers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, SegmentReader> entry = iterator.next();
+            if (predicate.test(entry)) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return 当前读取的其他进程文件数
+     */
+    public synchronized int getSegmentCount() {
+        return this.readers.size();
+    }
+
+    public long getArchivedCount() {
+        return this.archivedCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeReaders(entry -> true);
+        this.archive.close();
+    }
+
+    private static final class Entry {
+        private final int slot;
+        /**
+         * 解码组合键时的状态字
+         */
+        private int state;
+        /**
+         * 组合键，目录项已删除或不可解码时为null
+         */
+        private SeriesKey key;
+
+        private Entry(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * 其他进程的文件，只读映射；未使用的目录项增量扫描，已扫描的目录项在状态字变化时重新读取组合键
+     */
+    private static final class SegmentReader {
+        private final Path path;
+        private final String pid;
+        private final FileChannel channel;
+        private final SeriesSegment segment;
+        private final List<Entry> entries = new ArrayList<>();
+        /**
+         * 已扫描到的槽位，之前的每个槽位在entries中有一项
+         */
+        private int scanned;
+
+        private SegmentReader(Path path, String pid, FileChannel channel, SeriesSegment segment) {
+            this.path = path;
+            this.pid = pid;
+            this.channel = channel;
+            this.segment = segment;
+        }
+
+        /**
+         * @return 文件读取器；文件未初始化时返回null
+         */
+        private static SegmentReader open(Path path, String pid) throws IOException {
+            // 需要写权限才能尝试加排他锁
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                SeriesSegment segment = SeriesSegment.open(channel, FileChannel.MapMode.READ_ONLY);
+                if (segment == null) {
+                    channel.close();
+                    return null;
+                }
+                return new SegmentReader(path, pid, channel, segment);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 能加锁说明所属进程已退出，此时保留锁直到{@link #close()}
+         */
+        private boolean isAlive() throws IOException {
+            try {
+                return this.channel.tryLock() == null;
+            } catch (OverlappingFileLockException e) {
+                return true;
+            }
+        }
+
+        private void scan() {
+            for (Entry entry : this.entries) {
+                refresh(entry);
+            }
+            for (; this.scanned < this.segment.getCapacity(); this.scanned++) {
+                if (this.segment.getState(this.scanned) == SeriesSegment.EMPTY) {
+                    return;
+                }
+                Entry entry = new Entry(this.scanned);
+                refresh(entry);
+                this.entries.add(entry);
+            }
+        }
+
+        /**
+         * 状态字变化说明目录项被删除或复用，重新读取组合键；读取期间再次变化时留到下次采集
+         */
+        private void refresh(Entry entry) {
+            int state = this.segment.getState(entry.slot);
+            if (state == entry.state) {
+                return;
+            }
+
+            SeriesKey key = null;
+            if (SeriesSegment.isLive(state)) {
+                byte[] encoded = this.segment.readKey(entry.slot, state);
+                if (encoded == null && this.segment.getState(entry.slot) != state) {
+                    return;
+                }
+                key = encoded == null ? null : SeriesKey.decode(encoded);
+            }
+            entry.state = state;
+            entry.key = key;
+        }
+
+        private void forEachValue(ObjDoubleConsumer<SeriesKey> consumer) {
+            scan();
+            for (Entry entry : this.entries) {
+                if (entry.key == null) {
+                    continue;
+                }
+                double value = this.segment.getValue(entry.slot);
+                // 读取值之后状态字不变，值才属于该组合
+                if (this.segment.getState(entry.slot) == entry.state) {
+                    consumer.accept(entry.key, value);
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "failed to close " + this.path, e);
+            }
+        }
+    }
+
+    /**
+     * 一次采集的汇总
+     */
+    private final class Aggregation {
+        private final Map<String, Family> families = new LinkedHashMap<>();
+
+        private void add(SeriesKey key, double value, String pid) {
+            if (key.type == SeriesKey.SUMMARY && isQuantile(key)) {
+                return;
+            }
+
+            Family family = this.families.computeIfAbsent(key.familyName, name -> new Family(key.type));
+            if (family.type != key.type) {
+                // 不同进程中同名指标的类型不一致，以先出现的为准
+                return;
+            }
+
+            boolean gauge = key.type == SeriesKey.GAUGE || key.type == SeriesKey.UNTYPED;
+            List<String> labelNames = key.getLabelNames();
+            List<String> labelValues = key.getLabelValues();
+            if (gauge && SegmentDirectoryCollector.this.gaugeMerge == GaugeMerge.PER_PROCESS) {
+                labelNames = new ArrayList<>(labelNames);
+                labelNames.add(SegmentDirectoryCollector.this.pidLabel);
+                labelValues = new ArrayList<>(labelValues);
+                labelValues.add(pid == null ? "" : pid);
+            }
+
+            List<Object> sampleKey = Arrays.asList(key.sampleName, labelNames, labelValues);
+            Accumulator accumulator = family.samples.get(sampleKey);
+            if (accumulator == null) {
+                family.samples.put(sampleKey, new Accumulator(key.sampleName, labelNames, labelValues, value));
+            } else if (!gauge || SegmentDirectoryCollector.this.gaugeMerge == GaugeMerge.SUM) {
+                accumulator.value += value;
+            } else if (SegmentDirectoryCollector.this.gaugeMerge == GaugeMerge.MIN) {
+                accumulator.value = Math.min(accumulator.value, value);
+            } else if (SegmentDirectoryCollector.this.gaugeMerge == GaugeMerge.MAX) {
+                accumulator.value = Math.max(accumulator.value, value);
+            } else {
+                accumulator.value = value;
+            }
+        }
+
+        private List<MetricFamilySamples> toFamilies() {
+            List<MetricFamilySamples> result = new ArrayList<>(this.families.size());
+            for (Map.Entry<String, Family> entry : this.families.entrySet()) {
+                Family family = entry.getValue();
+                List<MetricFamilySamples.Sample> samples = new ArrayList<>(family.samples.size());
+                for (Accumulator accumulator : family.samples.values()) {
+                    samples.add(new MetricFamilySamples.Sample(accumulator.sampleName, accumulator.labelNames, accumulator.labelValues, accumulator.value));
+                }
+                result.add(new MetricFamilySamples(entry.getKey(), SeriesKey.collectorType(family.type), HELP, samples));
+            }
+            return result;
+        }
+    }
+
+    private static final class Family {
+        private final byte type;
+        /**
+         * 样本名与标签 -> 汇总值，保持首次出现的顺序
+         */
+        private final Map<List<Object>, Accumulator> samples = new LinkedHashMap<>();
+
+        private Family(byte type) {
+            this.type = type;
+        }
+    }
+
+    private static final class Accumulator {
+        private final String sampleName;
+        private final List<String> labelNames;
+        private final List<String> labelValues;
+        private double value;
+
+        private Accumulator(String sampleName, List<String> labelNames, List<String> labelValues, double value) {
+            this.sampleName = sampleName;
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+            this.value = value;
+        }
+    }
+}
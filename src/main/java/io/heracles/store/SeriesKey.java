@@ -0,0 +1,153 @@
+package io.heracles.store;
+
+import io.prometheus.client.Collector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 组合目录中的组合键：指标族类型、指标族名、样本名、标签名与标签值
+ * <p>
+ * 编码为[类型 1字节][指标族名][样本名][标签数 1字节]([标签名][标签值])*，字符串为[长度 2字节][UTF-8]，
+ * 样本名与指标族名相同时编码为空串。标签名也保存在文件中，聚合进程不需要知道各Wrapper的定义
+ *
+ * @author walter
+ * @date 2021/02/09 21:30
+ **/
+final class SeriesKey {
+    static final byte COUNTER = 1;
+    static final byte GAUGE = 2;
+    static final byte HISTOGRAM = 3;
+    static final byte SUMMARY = 4;
+    static final byte UNTYPED = 5;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final int MAX_LABELS = 0xFF;
+    private static final Collector.Type[] TYPES = {null, Collector.Type.COUNTER, Collector.Type.GAUGE, Collector.Type.HISTOGRAM, Collector.Type.SUMMARY, Collector.Type.UNTYPED};
+
+    final byte type;
+    final String familyName;
+    final String sampleName;
+    final String[] labelNames;
+    final String[] labelValues;
+
+    SeriesKey(byte type, String familyName, String sampleName, String[] labelNames, String[] labelValues) {
+        this.type = type;
+        this.familyName = familyName;
+        this.sampleName = sampleName;
+        this.labelNames = labelNames;
+        this.labelValues = labelValues;
+    }
+
+    /**
+     * @param type 原生SDK的指标类型
+     * @return 类型编码
+     */
+    static byte typeOf(Collector.Type type) {
+        switch (type) {
+            case COUNTER:
+                return COUNTER;
+            case GAUGE:
+                return GAUGE;
+            case HISTOGRAM:
+                return HISTOGRAM;
+            case SUMMARY:
+                return SUMMARY;
+            default:
+                return UNTYPED;
+        }
+    }
+
+    static Collector.Type collectorType(byte type) {
+        return TYPES[type];
+    }
+
+    List<String> getLabelNames() {
+        return Arrays.asList(this.labelNames);
+    }
+
+    List<String> getLabelValues() {
+        return Arrays.asList(this.labelValues);
+    }
+
+    /**
+     * 编码组合键
+     *
+     * @return 编码结果；标签值为null或超出编码范围时返回null
+     */
+    static byte[] encode(byte type, String familyName, String sampleName, String[] labelNames, String[] labelValues) {
+        if (labelNames.length > MAX_LABELS || labelNames.length != labelValues.length) {
+            return null;
+        }
+
+        byte[][] strings = new byte[2 + 2 * labelNames.length][];
+        int length = 2;
+        for (int i = 0; i < strings.length; i++) {
+            String string;
+            if (i == 0) {
+                string = familyName;
+            } else if (i == 1) {
+                string = familyName.equals(sampleName) ? "" : sampleName;
+            } else {
+                string = (i & 1) == 0 ? labelNames[(i - 2) >> 1] : labelValues[(i - 2) >> 1];
+            }
+            if (string == null) {
+                return null;
+            }
+            strings[i] = string.getBytes(StandardCharsets.UTF_8);
+            if (strings[i].length > MAX_STRING_BYTES) {
+                return null;
+            }
+            length += 2 + strings[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(type);
+        buffer.putShort((short) strings[0].length).put(strings[0]);
+        buffer.putShort((short) strings[1].length).put(strings[1]);
+        buffer.put((byte) labelNames.length);
+        for (int i = 2; i < strings.length; i++) {
+            buffer.putShort((short) strings[i].length).put(strings[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 解码组合键
+     *
+     * @param bytes 编码结果
+     * @return 组合键；编码不完整时返回null
+     */
+    static SeriesKey decode(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            byte type = buffer.get();
+            if (type < COUNTER || type > UNTYPED) {
+                return null;
+            }
+            String familyName = readString(buffer);
+            String sampleName = readString(buffer);
+            int labelCount = buffer.get() & 0xFF;
+            String[] labelNames = new String[labelCount];
+            String[] labelValues = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                labelNames[i] = readString(buffer);
+                labelValues[i] = readString(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            return new SeriesKey(type, familyName, sampleName.isEmpty() ? familyName : sampleName, labelNames, labelValues);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
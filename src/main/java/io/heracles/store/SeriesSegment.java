@@ -0,0 +1,230 @@
+package io.heracles.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * 组合文件的固定布局
+ * <pre>
+ * 文件头 64字节：[magic 4][版本 4][容量 4][目录项大小 4][创建时间 8][保留 40]
+ * 组合目录 容量 * 目录项大小：[状态 4][组合键长度 4][组合键]
+ * 值槽位 容量 * 8：double
+ * </pre>
+ * 目录项先写入组合键、清零值槽位，最后有序写入状态，状态为{@link #LIVE}的目录项一定完整；
+ * 未使用的目录项按顺序分配，第一个{@link #EMPTY}目录项之后都未使用。
+ * 标记删除的目录项可以重新发布，状态字的低2位为状态，其余为发布代数，每次重新发布加1，
+ * 读取方在读取组合键或值的前后比较状态字，即可发现期间发生的删除与复用。值槽位8字节对齐，读写不会撕裂。
+ * 进程崩溃时映射页仍在操作系统缓存中，不会丢失已完成的写入；操作系统崩溃时只保证最近一次{@link #force()}之前的写入
+ *
+ * @author walter
+ * @date 2021/02/09 21:40
+ **/
+final class SeriesSegment {
+    static final int EMPTY = 0;
+    static final int LIVE = 1;
+    static final int REMOVED = 2;
+
+    private static final int STATUS_MASK = 3;
+    private static final int MAGIC = 0x48524353;
+    /**
+     * 版本2的状态字没有发布代数，可以按代数0读取
+     */
+    private static final int VERSION = 3;
+    private static final int MIN_VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int ENTRY_SIZE_OFFSET = 12;
+    private static final int CREATED_OFFSET = 16;
+    private static final int ENTRY_HEADER_SIZE = 8;
+
+    private final MappedMemory memory;
+    private final int capacity;
+    private final int entrySize;
+    private final int valuesOffset;
+
+    private SeriesSegment(MappedMemory memory, int capacity, int entrySize) {
+        this.memory = memory;
+        this.capacity = capacity;
+        this.entrySize = entrySize;
+        this.valuesOffset = HEADER_SIZE + capacity * entrySize;
+    }
+
+    /**
+     * 初始化新文件
+     *
+     * @param channel     可读写的文件
+     * @param capacity    组合数上限
+     * @param maxKeyBytes 组合键的最大字节数
+     * @return 组合文件
+     * @throws IOException 映射失败
+     */
+    static SeriesSegment create(FileChannel channel, int capacity, int maxKeyBytes) throws IOException {
+        int entrySize = (ENTRY_HEADER_SIZE + maxKeyBytes + 7) & ~7;
+        long fileSize = fileSize(capacity, entrySize);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("series file too large: " + fileSize + " bytes");
+        }
+
+        channel.truncate(0);
+        MappedMemory memory = new MappedMemory(channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize));
+        memory.putInt(VERSION_OFFSET, VERSION);
+        memory.putInt(CAPACITY_OFFSET, capacity);
+        memory.putInt(ENTRY_SIZE_OFFSET, entrySize);
+        memory.putLong(CREATED_OFFSET, System.currentTimeMillis());
+        // magic最后写入，初始化中断的文件会被重新初始化
+        memory.putIntOrdered(MAGIC_OFFSET, MAGIC);
+        memory.force();
+        return new SeriesSegment(memory, capacity, entrySize);
+    }
+
+    /**
+     * 映射已有文件
+     *
+     * @param channel 文件
+     * @param mode    映射模式
+     * @return 组合文件；文件为空或未完成初始化时返回null
+     * @throws IOException 映射失败或不是组合文件
+     */
+    static SeriesSegment open(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return null;
+        }
+
+        MappedMemory header = new MappedMemory(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE));
+        int magic = header.getIntVolatile(MAGIC_OFFSET);
+        if (magic == 0) {
+            return null;
+        }
+        int version = header.getInt(VERSION_OFFSET);
+        if (magic != MAGIC || version < MIN_VERSION || version > VERSION) {
+            throw new IOException("not a heracles series file");
+        }
+        int capacity = header.getInt(CAPACITY_OFFSET);
+        int entrySize = header.getInt(ENTRY_SIZE_OFFSET);
+        if (capacity <= 0 || entrySize <= ENTRY_HEADER_SIZE || (entrySize & 7) != 0 || fileSize(capacity, entrySize) != size) {
+            throw new IOException("corrupted heracles series file header");
+        }
+        MappedMemory memory = new MappedMemory(channel.map(mode, 0, size));
+        if (mode == FileChannel.MapMode.READ_WRITE && version < VERSION) {
+            // 可写打开后可能复用目录项，升级版本号
+            memory.putInt(VERSION_OFFSET, VERSION);
+        }
+        return new SeriesSegment(memory, capacity, entrySize);
+    }
+
+    private static long fileSize(int capacity, int entrySize) {
+        return HEADER_SIZE + (long) capacity * (entrySize + 8);
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    int getMaxKeyBytes() {
+        return this.entrySize - ENTRY_HEADER_SIZE;
+    }
+
+    long getCreatedMillis() {
+        return this.memory.getLong(CREATED_OFFSET);
+    }
+
+    /**
+     * @param slot 槽位
+     * @return 状态字，含发布代数，用{@link #isLive(int)}、{@link #isRemoved(int)}判断状态
+     */
+    int getState(int slot) {
+        return this.memory.getIntVolatile(entryOffset(slot));
+    }
+
+    static boolean isLive(int state) {
+        return (state & STATUS_MASK) == LIVE;
+    }
+
+    static boolean isRemoved(int state) {
+        return (state & STATUS_MASK) == REMOVED;
+    }
+
+    /**
+     * 读取组合键
+     *
+     * @param slot 槽位
+     * @return 组合键编码；长度不合法时返回null
+     */
+    byte[] readKey(int slot) {
+        int offset = entryOffset(slot);
+        int length = this.memory.getInt(offset + 4);
+        if (length <= 0 || length > getMaxKeyBytes()) {
+            return null;
+        }
+        byte[] key = new byte[length];
+        this.memory.getBytes(offset + ENTRY_HEADER_SIZE, key);
+        return key;
+    }
+
+    /**
+     * 读取其他进程可能正在复用的目录项的组合键
+     *
+     * @param slot  槽位
+     * @param state 读取前的状态字
+     * @return 组合键编码；长度不合法或读取期间目录项被删除、复用时返回null
+     */
+    byte[] readKey(int slot, int state) {
+        byte[] key = readKey(slot);
+        this.memory.loadFence();
+        return getState(slot) == state ? key : null;
+    }
+
+    /**
+     * 写入目录项并发布，调用方保证同一时刻只有一个线程发布同一槽位
+     *
+     * @param slot 未使用或已标记删除的槽位
+     * @param key  组合键编码，长度不超过{@link #getMaxKeyBytes()}
+     */
+    void publish(int slot, byte[] key) {
+        int offset = entryOffset(slot);
+        int previous = getState(slot);
+        int generation = previous == EMPTY ? 0 : (previous >>> 2) + 1;
+        // 复用的目录项在状态变为删除之后才能改写组合键
+        this.memory.storeFence();
+        this.memory.putInt(offset + 4, key.length);
+        this.memory.putBytes(offset + ENTRY_HEADER_SIZE, key);
+        this.memory.putLongVolatile(valueOffset(slot), 0L);
+        this.memory.putIntOrdered(offset, generation << 2 | LIVE);
+    }
+
+    void markRemoved(int slot) {
+        int offset = entryOffset(slot);
+        this.memory.putIntOrdered(offset, (getState(slot) & ~STATUS_MASK) | REMOVED);
+    }
+
+    int valueOffset(int slot) {
+        return this.valuesOffset + (slot << 3);
+    }
+
+    double getValue(int slot) {
+        return this.memory.getDouble(valueOffset(slot));
+    }
+
+    void setValue(int slot, double value) {
+        this.memory.setDouble(valueOffset(slot), value);
+    }
+
+    void addValue(int slot, double amt) {
+        this.memory.addDouble(valueOffset(slot), amt);
+    }
+
+    MappedMemory getMemory() {
+        return this.memory;
+    }
+
+    void force() {
+        this.memory.force();
+    }
+
+    private int entryOffset(int slot) {
+        return HEADER_SIZE + slot * this.entrySize;
+    }
+}
@@ -0,0 +1,38 @@
+package io.heracles.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局的变更纪元，用于增量采集
+ * <p>
+ * 打点时把当前纪元记录到标签值组合上（一次volatile读，值变化时才写入）；增量采集前调用{@link #advance()}，
+ * 返回值作为下一次增量采集的起点。标签解析（记录纪元）与写入Child之间没有同步，因此起点取推进前的纪元：
+ * 一次变更会出现在其后的两次增量采集中，但与采集并发的打点不会被遗漏
+ *
+ * @author walter
+ * @date 2021/02/06 20:10
+ **/
+public class ChangeEpoch {
+    private static final AtomicLong CURRENT = new AtomicLong(1);
+
+    private ChangeEpoch() {
+    }
+
+    /**
+     * 获取当前纪元
+     *
+     * @return 当前纪元
+     */
+    public static long current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 推进纪元
+     *
+     * @return 推进前的纪元，下一次增量采集应采集在该纪元及之后变更的组合
+     */
+    public static long advance() {
+        return CURRENT.getAndIncrement();
+    }
+}
@@ -0,0 +1,36 @@
+package io.heracles.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 低精度时钟，由后台调度线程定时刷新，读取只是一次volatile读
+ * <p>
+ * 适用于记录最近打点时间等对精度不敏感、但调用频繁的场景
+ *
+ * @author walter
+ * @date 2021/01/29 20:10
+ **/
+public class CoarseClock {
+    /**
+     * 刷新间隔（毫秒），即时钟精度
+     */
+    public static final long TICK_MILLIS = 100;
+
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+
+    static {
+        HeraclesScheduler.scheduleWithFixedDelay(() -> currentTimeMillis = System.currentTimeMillis(), TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * 获取当前时间
+     *
+     * @return 毫秒时间戳，误差不超过{@link #TICK_MILLIS}
+     */
+    public static long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+}
@@ -0,0 +1,65 @@
+package io.heracles.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Heracles内部共享的后台调度线程，守护线程，不阻止JVM退出
+ *
+ * @author walter
+ * @date 2021/01/24 10:20
+ **/
+public class HeraclesScheduler {
+    private static final Logger LOGGER = Logger.getLogger(HeraclesScheduler.class.getName());
+    private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+    private static final ThreadFactory THREAD_FACTORY = r -> {
+        Thread thread = new Thread(r, "heracles-scheduler-" + THREAD_INDEX.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    };
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+
+    static {
+        // 取消的任务立即移出队列，不再引用任务持有的对象
+        EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private HeraclesScheduler() {
+    }
+
+    /**
+     * 以固定间隔执行任务，任务抛出的异常会被记录并吞掉，不影响后续执行
+     *
+     * @param task     任务
+     * @param interval 间隔
+     * @param unit     间隔单位
+     * @return 调度结果，可用于取消，取消后任务立即移出队列
+     */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long interval, TimeUnit unit) {
+        return EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "heracles scheduled task failed", t);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * 创建守护线程
+     *
+     * @param name     线程名
+     * @param runnable 任务
+     * @return 未启动的线程
+     */
+    public static Thread newDaemonThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -1,14 +1,20 @@
 package io.heracles.wrapper;
 
 import io.heracles.label.extractor.LabelExtractor;
-import io.heracles.label.LabelMissingStrategy;
-import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
+import io.heracles.store.MappedSeriesStore;
 import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
 import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.ChildFactory;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
 import io.prometheus.client.Counter;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.List;
 import java.util.Map;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 带标签解析的Counter
@@ -16,26 +22,89 @@ import java.util.Map;
  * @author walter
  * @date 2021/01/07 23:45
  **/
-public class CounterWrapper extends BaseCollectorWrapper<CounterWrapper, Counter> {
-    public static class Builder extends BaseWrapperBuilder<CounterWrapper, Builder, Counter, Counter.Builder> {
+public class CounterWrapper extends BaseCollectorWrapper<CounterWrapper, Counter, Counter.Child> {
+    public static class Builder extends BaseWrapperBuilder<CounterWrapper, Builder, Counter, Counter.Builder, Counter.Child> {
+        /**
+         * 组合的值保存在内存映射文件中，为null代表保存在内存中
+         */
+        private MappedSeriesStore store;
+
         protected Builder() {
             super(Counter.build());
         }
 
+        /**
+         * 组合的值保存在内存映射文件中，进程重启后恢复
+         *
+         * @param store 组合存储，可被多个Wrapper共享
+         * @return 当前对象
+         * @see MappedSeriesStore
+         */
+        public Builder persistIn(MappedSeriesStore store) {
+            this.store = store;
+            return this;
+        }
+
         @Override
-        protected CounterWrapper create(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Counter counter) {
-            return new CounterWrapper(labelNames, labelMissingStrategy, labelExtractorMap, counter);
+        protected CounterWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Counter counter) {
+            ChildFactory<Counter.Child> childFactory = this.store == null ? null : this.store.counterChildren(counter.describe().get(0).name, labelPlan.names());
+            return new CounterWrapper(labelPlan, labelExtractorMap, options, counter, childFactory);
+        }
+    }
+
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, Counter.Child> {
+        protected Recorder(CounterWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void inc() {
+            inc(DEFAULT_AMT);
+        }
+
+        public void inc(double amt) {
+            Counter.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(INC, child, amt);
         }
     }
 
+    private static final Counter.Child FAKE_CHILD = new Counter.Child();
+    private static final RecordOp<Counter.Child> INC = RecordOp.additive(Counter.Child::inc);
     private static final double DEFAULT_AMT = 1d;
 
     public static Builder builder() {
         return new Builder();
     }
 
-    protected CounterWrapper(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Counter counter) {
-        super(labelNames, labelMissingStrategy, labelExtractorMap, counter);
+    protected CounterWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Counter counter, ChildFactory<Counter.Child> childFactory) {
+        super(labelPlan, labelExtractorMap, options, counter, childFactory);
+    }
+
+    @Override
+    protected Counter.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, Counter.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        samples.add(new Collector.MetricFamilySamples.Sample(name, labelNames, labelValues, child.get()));
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
     }
 
     public void inc() {
@@ -44,17 +113,53 @@ public class CounterWrapper extends BaseCollectorWrapper<CounterWrapper, Counter
 
     public void inc(double amt) {
         try {
-            if (shouldSkip()) {
+            Counter.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.inc(amt);
-                return;
-            }
+            record(INC, child, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <T> void inc(T object, Class<T> tClass) {
+        inc(object, tClass, DEFAULT_AMT);
+    }
 
-            realCollector.labels(labels).inc(amt);
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void inc(T object, Class<T> tClass, double amt) {
+        try {
+            record(INC, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <T> void incAll(Iterable<T> objects, Class<T> tClass) {
+        incAll(objects, tClass, object -> DEFAULT_AMT);
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合预聚合后每个Child只写入一次
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void incAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(INC, objects, tClass, amt);
         } finally {
             cleanLabels();
         }
@@ -1,15 +1,22 @@
 package io.heracles.wrapper;
 
 import io.heracles.label.extractor.LabelExtractor;
-import io.heracles.label.LabelMissingStrategy;
-import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
+import io.heracles.store.MappedSeriesStore;
 import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
 import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.ChildFactory;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.TimerScope;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
 import io.prometheus.client.Gauge;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 带标签解析的Gauge
@@ -17,27 +24,159 @@ import java.util.concurrent.Callable;
  * @author walter
  * @date 2021/01/07 23:51
  **/
-public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
-    public static class Builder extends BaseWrapperBuilder<GaugeWrapper, Builder, Gauge, Gauge.Builder> {
+public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge, Gauge.Child> {
+    public static class Builder extends BaseWrapperBuilder<GaugeWrapper, Builder, Gauge, Gauge.Builder, Gauge.Child> {
+        /**
+         * 组合的值保存在内存映射文件中，为null代表保存在内存中
+         */
+        private MappedSeriesStore store;
+
         protected Builder() {
             super(Gauge.build());
         }
 
+        /**
+         * 组合的值保存在内存映射文件中，进程重启后恢复
+         *
+         * @param store 组合存储，可被多个Wrapper共享
+         * @return 当前对象
+         * @see MappedSeriesStore
+         */
+        public Builder persistIn(MappedSeriesStore store) {
+            this.store = store;
+            return this;
+        }
+
         @Override
-        protected GaugeWrapper create(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Gauge gauge) {
-            return new GaugeWrapper(labelNames, labelMissingStrategy, labelExtractorMap, gauge);
+        protected GaugeWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Gauge gauge) {
+            ChildFactory<Gauge.Child> childFactory = this.store == null ? null : this.store.gaugeChildren(gauge.describe().get(0).name, labelPlan.names());
+            return new GaugeWrapper(labelPlan, labelExtractorMap, options, gauge, childFactory);
+        }
+    }
+
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, Gauge.Child> {
+        protected Recorder(GaugeWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void inc() {
+            inc(DEFAULT_AMT);
+        }
+
+        public void inc(double amt) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(INC, child, amt);
+        }
+
+        public void dec() {
+            dec(DEFAULT_AMT);
+        }
+
+        public void dec(double amt) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(INC, child, -amt);
+        }
+
+        public void set(double val) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(SET, child, val);
+        }
+
+        public void setToCurrentTime() {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(SET, child, System.currentTimeMillis() / MILLISECONDS_PER_SECOND);
+        }
+
+        public Gauge.Timer startTimer() {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        }
+
+        public double setToTime(Runnable timeable) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.setToTime(timeable);
+            }
+
+            return child.setToTime(timeable);
+        }
+
+        public <E> E setToTime(Callable<E> timeable) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.setToTime(timeable);
+            }
+
+            return child.setToTime(timeable);
+        }
+
+        public double get() {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.get();
+            }
+
+            flushCurrentThread();
+            return child.get();
         }
     }
 
     private static final Gauge.Child FAKE_CHILD = new Gauge.Child();
+    private static final RecordOp<Gauge.Child> INC = RecordOp.additive(Gauge.Child::inc);
+    private static final RecordOp<Gauge.Child> SET = RecordOp.overwrite(Gauge.Child::set);
+    private static final double MILLISECONDS_PER_SECOND = 1000d;
     private static final double DEFAULT_AMT = 1d;
 
     public static Builder build() {
         return new Builder();
     }
 
-    protected GaugeWrapper(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Gauge gauge) {
-        super(labelNames, labelMissingStrategy, labelExtractorMap, gauge);
+    protected GaugeWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Gauge gauge, ChildFactory<Gauge.Child> childFactory) {
+        super(labelPlan, labelExtractorMap, options, gauge, childFactory);
+    }
+
+    @Override
+    protected Gauge.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, Gauge.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        samples.add(new Collector.MetricFamilySamples.Sample(name, labelNames, labelValues, child.get()));
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
     }
 
     public void inc() {
@@ -46,17 +185,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public void inc(double amt) {
         try {
-            if (shouldSkip()) {
-                return;
-            }
-
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.inc(amt);
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            realCollector.labels(labels).inc(amt);
+            record(INC, child, amt);
         } finally {
             cleanLabels();
         }
@@ -69,17 +203,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public void dec(double amt) {
         try {
-            if (shouldSkip()) {
-                return;
-            }
-
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.dec(amt);
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            realCollector.labels(labels).dec(amt);
+            record(INC, child, -amt);
         } finally {
             cleanLabels();
         }
@@ -87,17 +216,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public void set(double val) {
         try {
-            if (shouldSkip()) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.set(val);
-                return;
-            }
-
-            realCollector.labels(labels).set(val);
+            record(SET, child, val);
         } finally {
             cleanLabels();
         }
@@ -105,16 +229,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public void setToCurrentTime() {
         try {
-            if (shouldSkip()) {
-                return;
-            }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.setToCurrentTime();
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            realCollector.labels(labels).setToCurrentTime();
+            record(SET, child, System.currentTimeMillis() / MILLISECONDS_PER_SECOND);
         } finally {
             cleanLabels();
         }
@@ -122,15 +242,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public Gauge.Timer startTimer() {
         try {
-            if (shouldSkip()) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.startTimer();
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.startTimer();
-            }
 
-            return realCollector.labels(labels).startTimer();
+            return child.startTimer();
         } finally {
             cleanLabels();
         }
@@ -138,15 +255,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public double setToTime(Runnable timeable) {
         try {
-            if (shouldSkip()) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.setToTime(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.setToTime(timeable);
-            }
 
-            return realCollector.labels(labels).setToTime(timeable);
+            return child.setToTime(timeable);
         } finally {
             cleanLabels();
         }
@@ -154,15 +268,12 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public <E> E setToTime(Callable<E> timeable) {
         try {
-            if (shouldSkip()) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.setToTime(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.setToTime(timeable);
-            }
 
-            return realCollector.labels(labels).setToTime(timeable);
+            return child.setToTime(timeable);
         } finally {
             cleanLabels();
         }
@@ -170,16 +281,125 @@ public class GaugeWrapper extends BaseCollectorWrapper<GaugeWrapper, Gauge> {
 
     public double get() {
         try {
-            if (shouldSkip()) {
+            Gauge.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.get();
             }
 
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.get();
-            }
+            flushCurrentThread();
+            return child.get();
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 设置为以纳秒为单位的耗时，写入时换算为秒
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void setDurationNanos(long nanos) {
+        set(nanos / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * 设置为从startNanos到现在的耗时，与startTimer()相比不创建Timer对象
+     *
+     * @param startNanos 开始时间，取自System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        setDurationNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 开始计时，close()时设置为耗时；当前线程已填充的标签转入计时范围，计时期间还可以继续填充
+     *
+     * @return 当前线程复用的计时范围
+     * @see TimerScope
+     */
+    public TimerScope<Gauge.Child> startScope() {
+        return startScope(SET);
+    }
+
+    public <T> void inc(T object, Class<T> tClass) {
+        inc(object, tClass, DEFAULT_AMT);
+    }
 
-            return realCollector.labels(labels).get();
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void inc(T object, Class<T> tClass, double amt) {
+        try {
+            record(INC, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <T> void dec(T object, Class<T> tClass) {
+        dec(object, tClass, DEFAULT_AMT);
+    }
+
+    /**
+     * 从目标对象解析标签并减少，同inc(T, Class, double)
+     *
+     * @see #inc(Object, Class, double)
+     */
+    public <T> void dec(T object, Class<T> tClass, double amt) {
+        try {
+            record(INC, object, tClass, -amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <T> void incAll(Iterable<T> objects, Class<T> tClass) {
+        incAll(objects, tClass, object -> DEFAULT_AMT);
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合预聚合后每个Child只写入一次
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void incAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(INC, objects, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <T> void decAll(Iterable<T> objects, Class<T> tClass) {
+        incAll(objects, tClass, object -> -DEFAULT_AMT);
+    }
+
+    /**
+     * 批量减少，同incAll(Iterable, Class, ToDoubleFunction)
+     *
+     * @see #incAll(Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void decAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        incAll(objects, tClass, object -> -amt.applyAsDouble(object));
+    }
+
+    /**
+     * 批量设置，每个Child只写入批量中最后一个值
+     *
+     * @see #incAll(Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void setAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> val) {
+        try {
+            recordAll(SET, objects, tClass, val);
         } finally {
             cleanLabels();
         }
@@ -1,15 +1,21 @@
 package io.heracles.wrapper;
 
 import io.heracles.label.extractor.LabelExtractor;
-import io.heracles.label.LabelMissingStrategy;
-import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
 import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
 import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.TimerScope;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
 import io.prometheus.client.Histogram;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 带标签解析的Histogram
@@ -17,30 +23,91 @@ import java.util.concurrent.Callable;
  * @author walter
  * @date 2021/01/08 00:00
  **/
-public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, Histogram> {
-    public static class Builder extends BaseWrapperBuilder<HistogramWrapper, Builder, Histogram, Histogram.Builder> {
+public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, Histogram, Histogram.Child> {
+    public static class Builder extends BaseWrapperBuilder<HistogramWrapper, Builder, Histogram, Histogram.Builder, Histogram.Child> {
+        /**
+         * 与实际采集器一致的桶上界，原生SDK不暴露，增量采集时用于生成le标签
+         */
+        private double[] upperBounds = DEFAULT_BUCKETS;
+
         protected Builder() {
             super(Histogram.build());
         }
 
         public Builder buckets(double... buckets) {
             realBuilder.buckets(buckets);
+            this.upperBounds = buckets.clone();
             return this;
         }
 
         public Builder linearBuckets(double start, double width, int count) {
             realBuilder.linearBuckets(start, width, count);
+            this.upperBounds = new double[count];
+            for (int i = 0; i < count; i++) {
+                this.upperBounds[i] = start + i * width;
+            }
             return this;
         }
 
         public Builder exponentialBuckets(double start, double factor, int count) {
             realBuilder.exponentialBuckets(start, factor, count);
+            this.upperBounds = new double[count];
+            for (int i = 0; i < count; i++) {
+                this.upperBounds[i] = start * Math.pow(factor, i);
+            }
             return this;
         }
 
         @Override
-        protected HistogramWrapper create(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Histogram histogram) {
-            return new HistogramWrapper(labelNames, labelMissingStrategy, labelExtractorMap, histogram);
+        protected HistogramWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Histogram histogram) {
+            return new HistogramWrapper(labelPlan, labelExtractorMap, options, histogram, this.upperBounds);
+        }
+    }
+
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, Histogram.Child> {
+        protected Recorder(HistogramWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void observe(double amt) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        }
+
+        public Histogram.Timer startTimer() {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        }
+
+        public double time(Runnable timeable) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
         }
     }
 
@@ -48,30 +115,69 @@ public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, His
         return new Builder();
     }
 
+    /**
+     * 原生SDK的默认桶
+     */
+    private static final double[] DEFAULT_BUCKETS = {.005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10};
+    private static final RecordOp<Histogram.Child> OBSERVE = RecordOp.sample(Histogram.Child::observe);
     private static final Histogram.Child FAKE_CHILD = Histogram.build()
             .name("fake_histogram").help("fake")
             .labelNames("fake").buckets(10, 20)
             .create()
             .labels("fake");
 
-    protected HistogramWrapper(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Histogram histogram) {
-        super(labelNames, labelMissingStrategy, labelExtractorMap, histogram);
+    /**
+     * le标签值，最后一个为+Inf
+     */
+    private final String[] leValues;
+
+    protected HistogramWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Histogram histogram, double[] upperBounds) {
+        super(labelPlan, labelExtractorMap, options, histogram);
+        boolean endsWithInf = upperBounds.length > 0 && upperBounds[upperBounds.length - 1] == Double.POSITIVE_INFINITY;
+        this.leValues = new String[endsWithInf ? upperBounds.length : upperBounds.length + 1];
+        for (int i = 0; i < upperBounds.length; i++) {
+            this.leValues[i] = Collector.doubleToGoString(upperBounds[i]);
+        }
+        this.leValues[this.leValues.length - 1] = "+Inf";
+    }
+
+    @Override
+    protected Histogram.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, Histogram.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        Histogram.Child.Value value = child.get();
+        List<String> bucketLabelNames = new ArrayList<>(labelNames);
+        bucketLabelNames.add("le");
+        for (int i = 0; i < value.buckets.length; i++) {
+            List<String> bucketLabelValues = new ArrayList<>(labelValues);
+            bucketLabelValues.add(this.leValues[i]);
+            samples.add(new Collector.MetricFamilySamples.Sample(name + "_bucket", bucketLabelNames, bucketLabelValues, value.buckets[i]));
+        }
+        samples.add(new Collector.MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, value.buckets[value.buckets.length - 1]));
+        samples.add(new Collector.MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, value.sum));
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
     }
 
 
     public void observe(double amt) {
         try {
-            if (shouldSkip()) {
-                return;
-            }
-
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.observe(amt);
+            Histogram.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            realCollector.labels(labels).observe(amt);
+            record(OBSERVE, child, amt);
         } finally {
             cleanLabels();
         }
@@ -79,15 +185,12 @@ public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, His
 
     public Histogram.Timer startTimer() {
         try {
-            if (shouldSkip()) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.startTimer();
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.startTimer();
-            }
 
-            return realCollector.labels(labels).startTimer();
+            return child.startTimer();
         } finally {
             cleanLabels();
         }
@@ -95,15 +198,12 @@ public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, His
 
     public double time(Runnable timeable) {
         try {
-            if (shouldSkip()) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.time(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.time(timeable);
-            }
 
-            return realCollector.labels(labels).time(timeable);
+            return child.time(timeable);
         } finally {
             cleanLabels();
         }
@@ -112,15 +212,75 @@ public class HistogramWrapper extends BaseCollectorWrapper<HistogramWrapper, His
 
     public <E> E time(Callable<E> timeable) {
         try {
-            if (shouldSkip()) {
+            Histogram.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.time(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.time(timeable);
-            }
 
-            return realCollector.labels(labels).time(timeable);
+            return child.time(timeable);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 记录以纳秒为单位的耗时，写入时换算为秒
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时，与startTimer()相比不创建Timer对象
+     *
+     * @param startNanos 开始时间，取自System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 开始计时，close()时记录耗时；当前线程已填充的标签转入计时范围，计时期间还可以继续填充
+     *
+     * @return 当前线程复用的计时范围
+     * @see TimerScope
+     */
+    public TimerScope<Histogram.Child> startScope() {
+        return startScope(OBSERVE);
+    }
+
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void observe(T object, Class<T> tClass, double amt) {
+        try {
+            record(OBSERVE, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合分组后连续写入每个Child
+     * <p>
+     * 原生SDK没有合并多个观测值的接口，因此observe不能合并为一次写入，只省去了逐个打点的标签处理和缓存查询的交错
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 观测值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void observeAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(OBSERVE, objects, tClass, amt);
         } finally {
             cleanLabels();
         }
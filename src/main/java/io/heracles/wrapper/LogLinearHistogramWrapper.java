@@ -0,0 +1,274 @@
+package io.heracles.wrapper;
+
+import io.heracles.collector.LogLinearHistogram;
+import io.heracles.collector.DurationTimer;
+import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.label.LabelPlan;
+import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
+import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.TimerScope;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 带标签解析的高精度直方图
+ * <p>
+ * 与{@link HistogramWrapper}用法一致，实际采集器为{@link LogLinearHistogram}：按精度而不是按边界分桶，
+ * 导出时再选择le边界或分位数
+ *
+ * @author walter
+ * @date 2021/02/02 21:10
+ **/
+public class LogLinearHistogramWrapper extends BaseCollectorWrapper<LogLinearHistogramWrapper, LogLinearHistogram, LogLinearHistogram.Child> {
+    public static class Builder extends BaseWrapperBuilder<LogLinearHistogramWrapper, Builder, LogLinearHistogram, LogLinearHistogram.Builder, LogLinearHistogram.Child> {
+        protected Builder() {
+            super(LogLinearHistogram.build());
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#significantDigits(int)
+         */
+        public Builder significantDigits(int significantDigits) {
+            realBuilder.significantDigits(significantDigits);
+            return this;
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#range(double, double)
+         */
+        public Builder range(double minValue, double maxValue) {
+            realBuilder.range(minValue, maxValue);
+            return this;
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#stripes(int)
+         */
+        public Builder stripes(int stripes) {
+            realBuilder.stripes(stripes);
+            return this;
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#exportBuckets(double...)
+         */
+        public Builder exportBuckets(double... buckets) {
+            realBuilder.exportBuckets(buckets);
+            return this;
+        }
+
+        /**
+         * @see LogLinearHistogram.Builder#exportQuantiles(double...)
+         */
+        public Builder exportQuantiles(double... quantiles) {
+            realBuilder.exportQuantiles(quantiles);
+            return this;
+        }
+
+        @Override
+        protected LogLinearHistogramWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, LogLinearHistogram histogram) {
+            return new LogLinearHistogramWrapper(labelPlan, labelExtractorMap, options, histogram);
+        }
+    }
+
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, LogLinearHistogram.Child> {
+        protected Recorder(LogLinearHistogramWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void observe(double amt) {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        }
+
+        public DurationTimer startTimer() {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        }
+
+        public double time(Runnable timeable) {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    private static final RecordOp<LogLinearHistogram.Child> OBSERVE = RecordOp.sample(LogLinearHistogram.Child::observe);
+    private static final LogLinearHistogram.Child FAKE_CHILD = LogLinearHistogram.build()
+            .name("fake_log_linear_histogram").help("fake")
+            .labelNames("fake").significantDigits(1).range(1, 2).stripes(1)
+            .create()
+            .labels("fake");
+
+    protected LogLinearHistogramWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, LogLinearHistogram histogram) {
+        super(labelPlan, labelExtractorMap, options, histogram);
+    }
+
+    @Override
+    protected LogLinearHistogram.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, LogLinearHistogram.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        realCollector.collectSamples(labelValues, child, samples);
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
+    }
+
+    public void observe(double amt) {
+        try {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public DurationTimer startTimer() {
+        try {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public double time(Runnable timeable) {
+        try {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <E> E time(Callable<E> timeable) {
+        try {
+            LogLinearHistogram.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 记录以纳秒为单位的耗时，写入时换算为秒
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时，与startTimer()相比不创建Timer对象
+     *
+     * @param startNanos 开始时间，取自System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 开始计时，close()时记录耗时；当前线程已填充的标签转入计时范围，计时期间还可以继续填充
+     *
+     * @return 当前线程复用的计时范围
+     * @see TimerScope
+     */
+    public TimerScope<LogLinearHistogram.Child> startScope() {
+        return startScope(OBSERVE);
+    }
+
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void observe(T object, Class<T> tClass, double amt) {
+        try {
+            record(OBSERVE, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合分组后连续写入每个Child
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 观测值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void observeAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(OBSERVE, objects, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package io.heracles.wrapper;
+
+import io.heracles.collector.SketchSummary;
+import io.heracles.collector.DurationTimer;
+import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.label.LabelPlan;
+import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
+import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.TimerScope;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 带标签解析的草图Summary
+ * <p>
+ * 与{@link SummaryWrapper}用法一致，实际采集器为{@link SketchSummary}：打点不加锁，分位数在采集时合并计算
+ *
+ * @author walter
+ * @date 2021/02/03 21:20
+ **/
+public class SketchSummaryWrapper extends BaseCollectorWrapper<SketchSummaryWrapper, SketchSummary, SketchSummary.Child> {
+    public static class Builder extends BaseWrapperBuilder<SketchSummaryWrapper, Builder, SketchSummary, SketchSummary.Builder, SketchSummary.Child> {
+        protected Builder() {
+            super(SketchSummary.build());
+        }
+
+        /**
+         * @see SketchSummary.Builder#quantile(double)
+         */
+        public Builder quantile(double quantile) {
+            realBuilder.quantile(quantile);
+            return this;
+        }
+
+        /**
+         * @see SketchSummary.Builder#relativeAccuracy(double)
+         */
+        public Builder relativeAccuracy(double relativeAccuracy) {
+            realBuilder.relativeAccuracy(relativeAccuracy);
+            return this;
+        }
+
+        /**
+         * @see SketchSummary.Builder#range(double, double)
+         */
+        public Builder range(double minValue, double maxValue) {
+            realBuilder.range(minValue, maxValue);
+            return this;
+        }
+
+        /**
+         * @see SketchSummary.Builder#stripes(int)
+         */
+        public Builder stripes(int stripes) {
+            realBuilder.stripes(stripes);
+            return this;
+        }
+
+        public Builder maxAgeSeconds(long maxAgeSeconds) {
+            realBuilder.maxAgeSeconds(maxAgeSeconds);
+            return this;
+        }
+
+        public Builder ageBuckets(int ageBuckets) {
+            realBuilder.ageBuckets(ageBuckets);
+            return this;
+        }
+
+        @Override
+        protected SketchSummaryWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, SketchSummary summary) {
+            return new SketchSummaryWrapper(labelPlan, labelExtractorMap, options, summary);
+        }
+    }
+
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, SketchSummary.Child> {
+        protected Recorder(SketchSummaryWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void observe(double amt) {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        }
+
+        public DurationTimer startTimer() {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        }
+
+        public double time(Runnable timeable) {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+    }
+
+    public static Builder build() {
+        return new Builder();
+    }
+
+    private static final RecordOp<SketchSummary.Child> OBSERVE = RecordOp.sample(SketchSummary.Child::observe);
+    private static final SketchSummary.Child FAKE_CHILD = SketchSummary.build()
+            .name("fake_sketch_summary").help("fake")
+            .labelNames("fake").relativeAccuracy(0.5).range(1, 2).stripes(1).ageBuckets(1)
+            .create()
+            .labels("fake");
+
+    protected SketchSummaryWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, SketchSummary summary) {
+        super(labelPlan, labelExtractorMap, options, summary);
+    }
+
+    @Override
+    protected SketchSummary.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, SketchSummary.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        realCollector.collectSamples(labelValues, child, samples);
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
+    }
+
+    public void observe(double amt) {
+        try {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public DurationTimer startTimer() {
+        try {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public double time(Runnable timeable) {
+        try {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    public <E> E time(Callable<E> timeable) {
+        try {
+            SketchSummary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 记录以纳秒为单位的耗时，写入时换算为秒
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时，与startTimer()相比不创建Timer对象
+     *
+     * @param startNanos 开始时间，取自System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 开始计时，close()时记录耗时；当前线程已填充的标签转入计时范围，计时期间还可以继续填充
+     *
+     * @return 当前线程复用的计时范围
+     * @see TimerScope
+     */
+    public TimerScope<SketchSummary.Child> startScope() {
+        return startScope(OBSERVE);
+    }
+
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void observe(T object, Class<T> tClass, double amt) {
+        try {
+            record(OBSERVE, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合分组后连续写入每个Child
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 观测值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void observeAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(OBSERVE, objects, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+}
@@ -1,15 +1,21 @@
 package io.heracles.wrapper;
 
 import io.heracles.label.extractor.LabelExtractor;
-import io.heracles.label.LabelMissingStrategy;
-import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
 import io.heracles.wrapper.base.BaseCollectorWrapper;
+import io.heracles.wrapper.base.BaseLabelRecorder;
 import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.heracles.wrapper.base.RecordOp;
+import io.heracles.wrapper.base.TimerScope;
+import io.heracles.wrapper.base.WrapperOptions;
+import io.prometheus.client.Collector;
 import io.prometheus.client.Summary;
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 带标签解析的Summary
@@ -17,8 +23,8 @@ import java.util.concurrent.Callable;
  * @author walter
  * @date 2021/01/08 00:09
  **/
-public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary> {
-    public static class Builder extends BaseWrapperBuilder<SummaryWrapper, Builder, Summary, Summary.Builder> {
+public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary, Summary.Child> {
+    public static class Builder extends BaseWrapperBuilder<SummaryWrapper, Builder, Summary, Summary.Builder, Summary.Child> {
         protected Builder() {
             super(Summary.build());
         }
@@ -39,11 +45,69 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
         }
 
         @Override
-        protected SummaryWrapper create(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Summary summary) {
-            return new SummaryWrapper(labelNames, labelMissingStrategy, labelExtractorMap, summary);
+        protected SummaryWrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Summary summary) {
+            return new SummaryWrapper(labelPlan, labelExtractorMap, options, summary);
         }
     }
 
+    /**
+     * 携带标签的一次性打点对象，不依赖ThreadLocal
+     *
+     * @see BaseLabelRecorder
+     */
+    public static class Recorder extends BaseLabelRecorder<Recorder, Summary.Child> {
+        protected Recorder(SummaryWrapper wrapper) {
+            super(wrapper);
+        }
+
+        public void observe(double amt) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
+                return;
+            }
+
+            record(OBSERVE, child, amt);
+        }
+
+        public Summary.Timer startTimer() {
+            Summary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.startTimer();
+            }
+
+            return child.startTimer();
+        }
+
+        public double time(Runnable timeable) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+
+        public <E> E time(Callable<E> timeable) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.time(timeable);
+            }
+
+            return child.time(timeable);
+        }
+
+        public Summary.Child.Value get() {
+            Summary.Child child = resolveChild();
+            if (child == null) {
+                return FAKE_CHILD.get();
+            }
+
+            flushCurrentThread();
+            return child.get();
+        }
+    }
+
+    private static final RecordOp<Summary.Child> OBSERVE = RecordOp.sample(Summary.Child::observe);
     private static final Summary.Child FAKE_CHILD = Summary.build()
             .name("fake_summary").help("fake").quantile(0.5, 0.1)
             .labelNames("fake")
@@ -54,23 +118,46 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
         return new Builder();
     }
 
-    protected SummaryWrapper(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, Summary summary) {
-        super(labelNames, labelMissingStrategy, labelExtractorMap, summary);
+    protected SummaryWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, Summary summary) {
+        super(labelPlan, labelExtractorMap, options, summary);
+    }
+
+    @Override
+    protected Summary.Child skippedChild() {
+        return FAKE_CHILD;
+    }
+
+    @Override
+    protected void sampleChild(String name, List<String> labelNames, List<String> labelValues, Summary.Child child, List<Collector.MetricFamilySamples.Sample> samples) {
+        Summary.Child.Value value = child.get();
+        List<String> quantileLabelNames = new ArrayList<>(labelNames);
+        quantileLabelNames.add("quantile");
+        for (Map.Entry<Double, Double> quantile : value.quantiles.entrySet()) {
+            List<String> quantileLabelValues = new ArrayList<>(labelValues);
+            quantileLabelValues.add(Collector.doubleToGoString(quantile.getKey()));
+            samples.add(new Collector.MetricFamilySamples.Sample(name, quantileLabelNames, quantileLabelValues, quantile.getValue()));
+        }
+        samples.add(new Collector.MetricFamilySamples.Sample(name + "_count", labelNames, labelValues, value.count));
+        samples.add(new Collector.MetricFamilySamples.Sample(name + "_sum", labelNames, labelValues, value.sum));
+    }
+
+    /**
+     * 创建携带标签的一次性打点对象，标签保存在返回的对象中，打点不依赖ThreadLocal
+     *
+     * @return 打点对象
+     */
+    public Recorder with() {
+        return new Recorder(this);
     }
 
     public void observe(double amt) {
         try {
-            if (shouldSkip()) {
-                return;
-            }
-
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                realCollector.observe(amt);
+            Summary.Child child = resolveChild();
+            if (child == null) {
                 return;
             }
 
-            realCollector.labels(labels).observe(amt);
+            record(OBSERVE, child, amt);
         } finally {
             cleanLabels();
         }
@@ -78,15 +165,12 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
 
     public Summary.Timer startTimer() {
         try {
-            if (shouldSkip()) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.startTimer();
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.startTimer();
-            }
 
-            return realCollector.labels(labels).startTimer();
+            return child.startTimer();
         } finally {
             cleanLabels();
         }
@@ -94,15 +178,12 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
 
     public double time(Runnable timeable) {
         try {
-            if (shouldSkip()) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.time(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.time(timeable);
-            }
 
-            return realCollector.labels(labels).time(timeable);
+            return child.time(timeable);
         } finally {
             cleanLabels();
         }
@@ -110,15 +191,12 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
 
     public <E> E time(Callable<E> timeable) {
         try {
-            if (shouldSkip()) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.time(timeable);
             }
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.time(timeable);
-            }
 
-            return realCollector.labels(labels).time(timeable);
+            return child.time(timeable);
         } finally {
             cleanLabels();
         }
@@ -126,16 +204,76 @@ public class SummaryWrapper extends BaseCollectorWrapper<SummaryWrapper, Summary
 
     public Summary.Child.Value get() {
         try {
-            if (shouldSkip()) {
+            Summary.Child child = resolveChild();
+            if (child == null) {
                 return FAKE_CHILD.get();
             }
 
-            String[] labels = getCurrentLabels();
-            if (ArrayUtils.isEmpty(labels)) {
-                return realCollector.get();
-            }
+            flushCurrentThread();
+            return child.get();
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 记录以纳秒为单位的耗时，写入时换算为秒
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * 记录从startNanos到现在的耗时，与startTimer()相比不创建Timer对象
+     *
+     * @param startNanos 开始时间，取自System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 开始计时，close()时记录耗时；当前线程已填充的标签转入计时范围，计时期间还可以继续填充
+     *
+     * @return 当前线程复用的计时范围
+     * @see TimerScope
+     */
+    public TimerScope<Summary.Child> startScope() {
+        return startScope(OBSERVE);
+    }
 
-            return realCollector.labels(labels).get();
+    /**
+     * 从目标对象解析标签并打点，开启异步打点时标签解析也在后台线程执行
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param amt    值
+     * @param <T>    目标对象类型泛型
+     */
+    public <T> void observe(T object, Class<T> tClass, double amt) {
+        try {
+            record(OBSERVE, object, tClass, amt);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 批量打点：逐个解析标签，按标签值组合分组后连续写入每个Child
+     * <p>
+     * 原生SDK没有合并多个观测值的接口，因此observe不能合并为一次写入，只省去了逐个打点的标签处理和缓存查询的交错
+     *
+     * @param objects 目标对象
+     * @param tClass  目标对象类型
+     * @param amt     目标对象 -> 观测值
+     * @param <T>     目标对象类型泛型
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public <T> void observeAll(Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> amt) {
+        try {
+            recordAll(OBSERVE, objects, tClass, amt);
         } finally {
             cleanLabels();
         }
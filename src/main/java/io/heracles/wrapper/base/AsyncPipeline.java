@@ -0,0 +1,276 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.util.HeraclesScheduler;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 异步打点队列
+ * <p>
+ * 打点线程只向预分配的多生产者环形队列发布一个事件（Wrapper、已解析的Child或待解析的对象、打点、值），
+ * 由单个后台线程写入实际采集器，打点线程不接触采集器状态。
+ * 多个Collector Wrapper可以共享同一个队列。同一个打点线程发布的事件按发布顺序写入。
+ * 关闭后发布的事件一律丢弃并计入丢弃数，关闭前已发布的事件全部写入后后台线程才结束
+ *
+ * @author walter
+ * @date 2021/01/26 20:30
+ **/
+public class AsyncPipeline implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(AsyncPipeline.class.getName());
+    private static final int SPIN_TRIES = 128;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * 关闭后写入tail的标记位，与抢占槽位的CAS互斥：关闭之后不会再有槽位被抢占
+     */
+    private static final long CLOSED = 1L << 62;
+
+    /**
+     * 队列中的事件，预分配并复用
+     */
+    private static final class Event {
+        private BaseCollectorWrapper<?, ?, ?> wrapper;
+        private RecordOp<?> op;
+        private Object child;
+        private Object input;
+        private Class<?> inputClass;
+        private double value;
+    }
+
+    private final int mask;
+    private final Event[] events;
+    /**
+     * 每个槽位的序号：等于位置时可写入，等于位置+1时可读取
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * 下一个待抢占的位置，关闭后带有{@link #CLOSED}标记
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final BackpressurePolicy backpressurePolicy;
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final Thread consumer;
+
+    /**
+     * @param capacity           队列容量，向上取整为2的幂
+     * @param backpressurePolicy 队列已满时的处理策略
+     */
+    public AsyncPipeline(int capacity, BackpressurePolicy backpressurePolicy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.events = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.events[i] = new Event();
+            this.sequences.set(i, i);
+        }
+        this.backpressurePolicy = backpressurePolicy;
+        this.consumer = HeraclesScheduler.newDaemonThread("heracles-async-pipeline", this::consume);
+        this.consumer.start();
+    }
+
+    /**
+     * 发布已解析Child的打点
+     *
+     * @return 被丢弃时返回false
+     */
+    <Child> boolean publish(BaseCollectorWrapper<?, ?, Child> wrapper, RecordOp<Child> op, Child child, double value) {
+        return publish(wrapper, op, child, null, null, value);
+    }
+
+    /**
+     * 发布待解析标签的打点，标签解析在后台线程执行
+     *
+     * @return 被丢弃时返回false
+     */
+    <Child, T> boolean publish(BaseCollectorWrapper<?, ?, Child> wrapper, RecordOp<Child> op, T input, Class<T> inputClass, double value) {
+        return publish(wrapper, op, null, input, inputClass, value);
+    }
+
+    private boolean publish(BaseCollectorWrapper<?, ?, ?> wrapper, RecordOp<?> op, Object child, Object input, Class<?> inputClass, double value) {
+        long position = claim();
+        if (position < 0) {
+            this.droppedCount.increment();
+            return false;
+        }
+
+        int index = (int) position & this.mask;
+        Event event = this.events[index];
+        event.wrapper = wrapper;
+        event.op = op;
+        event.child = child;
+        event.input = input;
+        event.inputClass = inputClass;
+        event.value = value;
+        this.sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * 抢占一个槽位
+     *
+     * @return 槽位位置，队列已关闭，或队列已满且策略为DROP时返回-1
+     */
+    private long claim() {
+        int tries = 0;
+        while (true) {
+            long position = this.tail.get();
+            if ((position & CLOSED) != 0) {
+                return -1;
+            }
+            long sequence = this.sequences.get((int) position & this.mask);
+            long diff = sequence - position;
+            if (diff == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (diff < 0) {
+                if (BackpressurePolicy.DROP.equals(this.backpressurePolicy)) {
+                    return -1;
+                }
+                idle(++tries);
+            }
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void consume() {
+        long position = this.head.get();
+        int tries = 0;
+        while (true) {
+            int index = (int) position & this.mask;
+            if (this.sequences.get(index) != position + 1) {
+                long tail = this.tail.get();
+                if ((tail & CLOSED) != 0 && position == (tail & ~CLOSED)) {
+                    return;
+                }
+                idle(++tries);
+                continue;
+            }
+
+            tries = 0;
+            Event event = this.events[index];
+            try {
+                Object child = event.child;
+                if (child == null) {
+                    child = event.wrapper.resolveChild(event.input, (Class) event.inputClass);
+                }
+                if (child != null) {
+                    ((RecordOp) event.op).apply(child, event.value);
+                }
+            } catch (RuntimeException e) {
+                this.failedCount.increment();
+            } catch (Throwable t) {
+                // Error也不能终止消费线程，否则BLOCK策略下的生产者会一直阻塞
+                this.failedCount.increment();
+                LOGGER.log(Level.WARNING, "heracles async record failed", t);
+            }
+
+            event.wrapper = null;
+            event.op = null;
+            event.child = null;
+            event.input = null;
+            event.inputClass = null;
+            this.sequences.lazySet(index, position + this.events.length);
+            position++;
+            this.head.lazySet(position);
+        }
+    }
+
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * 等待已发布的事件全部写入
+     *
+     * @param timeout 超时时间
+     * @param unit    超时时间单位
+     * @return 超时前全部写入返回true
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) {
+        long target = this.tail.get() & ~CLOSED;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (this.head.get() < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * 停止接收新事件，写入已发布的事件后结束后台线程，等待队列腾出空位的打点线程也会放弃并计入丢弃数
+     */
+    @Override
+    public void close() {
+        this.tail.getAndUpdate(tail -> tail | CLOSED);
+        try {
+            this.consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 已发布但未写入的事件数
+     *
+     * @return 积压事件数
+     */
+    public long getLag() {
+        return Math.max((this.tail.get() & ~CLOSED) - this.head.get(), 0);
+    }
+
+    public long getDroppedCount() {
+        return this.droppedCount.sum();
+    }
+
+    public long getFailedCount() {
+        return this.failedCount.sum();
+    }
+
+    public int getCapacity() {
+        return this.events.length;
+    }
+
+    /**
+     * 以采集器的形式暴露队列自身的指标，采集时读取
+     *
+     * @param name 指标名前缀
+     * @return 采集器，需要自行注册
+     */
+    public Collector metricsCollector(String name) {
+        return new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                List<MetricFamilySamples> samples = new ArrayList<>(4);
+                samples.add(new CounterMetricFamily(name + "_dropped_total", "Events dropped because the pipeline was full or closed", getDroppedCount()));
+                samples.add(new CounterMetricFamily(name + "_failed_total", "Events failed when applied to the collector", getFailedCount()));
+                samples.add(new GaugeMetricFamily(name + "_lag", "Events published but not applied yet", getLag()));
+                samples.add(new GaugeMetricFamily(name + "_capacity", "Capacity of the pipeline", getCapacity()));
+                return samples;
+            }
+        };
+    }
+}
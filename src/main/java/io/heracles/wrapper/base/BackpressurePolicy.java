@@ -0,0 +1,18 @@
+package io.heracles.wrapper.base;
+
+/**
+ * 异步打点队列已满时的处理策略
+ *
+ * @author walter
+ * @date 2021/01/26 20:10
+ **/
+public enum BackpressurePolicy {
+    /**
+     * 丢弃当前打点并计数
+     */
+    DROP,
+    /**
+     * 等待队列腾出空位
+     */
+    BLOCK;
+}
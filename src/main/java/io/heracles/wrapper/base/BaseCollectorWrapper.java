@@ -2,17 +2,27 @@ package io.heracles.wrapper.base;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.heracles.label.extractor.LabelExtractor;
-import io.heracles.label.LabelMissingStrategy;
-import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
 import io.heracles.label.Labels;
+import io.heracles.label.SlotLabels;
+import io.heracles.util.ChangeEpoch;
+import io.heracles.util.CoarseClock;
 import io.heracles.util.CollectionUtils;
+import io.heracles.util.HeraclesScheduler;
+import io.prometheus.client.Collector;
 import io.prometheus.client.SimpleCollector;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToDoubleFunction;
 
 /**
  * 带标签解析的采集器
@@ -20,7 +30,12 @@ import java.util.stream.Stream;
  * @author walter
  * @date 2021/01/07 22:33
  **/
-public class BaseCollectorWrapper<Wrapper extends BaseCollectorWrapper<Wrapper, RealCollector>, RealCollector extends SimpleCollector<?>> {
+public abstract class BaseCollectorWrapper<Wrapper extends BaseCollectorWrapper<Wrapper, RealCollector, Child>, RealCollector extends SimpleCollector<Child>, Child> {
+    /**
+     * 绑定过的枚举组合的变更纪元
+     */
+    private static final long BOUND_EPOCH = Long.MAX_VALUE;
+
     protected final RealCollector realCollector;
 
     /**
@@ -28,23 +43,154 @@ public class BaseCollectorWrapper<Wrapper extends BaseCollectorWrapper<Wrapper,
      */
     private final Map<Class<?>, LabelExtractor<?>> labelExtractorMap;
     /**
-     * @see LabelMissingStrategy
+     * 按运行时类型查找标签解析
      */
-    private final LabelMissingStrategy labelMissingStrategy;
+    private final ExtractorResolver extractorResolver;
     /**
-     * @see LabelNames
+     * @see LabelPlan
+     */
+    private final LabelPlan labelPlan;
+    /**
+     * Collector Wrapper线程安全，链式调用时按线程暂存标签
+     *
+     * @see FluentLabels
      */
-    private final LabelNames labelNames;
+    private final FluentLabels<Child> fluentLabels;
     /**
-     * Collector Wrapper线程安全
+     * 未填充任何标签时的标签组合，构造时已用兜底值填充，之后只读
      */
-    private final ThreadLocal<Labels> labelsThreadLocal = new ThreadLocal<>();
+    private final SlotLabels unlabeled;
+    /**
+     * 标签值组合 -> Child，为null代表不缓存
+     */
+    private final ChildCache<Child> childCache;
+    /**
+     * 按线程缓冲的打点，为null代表直接写入Child
+     */
+    private final RecordBuffer<Child> recordBuffer;
+    /**
+     * 异步打点队列，为null代表同步写入
+     */
+    private final AsyncPipeline asyncPipeline;
+    /**
+     * 标签值组合数限制，为null代表不限制
+     */
+    private final SeriesLimiter seriesLimiter;
+    /**
+     * 超过上限后新组合使用的标签值
+     */
+    private final String[] overflowValues;
+    /**
+     * 溢出组合对应的Child，首次溢出时创建
+     */
+    private volatile Child overflowChild;
+    /**
+     * 空闲标签值组合淘汰统计，为null代表不淘汰
+     */
+    private final SeriesExpiry seriesExpiry;
+    /**
+     * 组合下标 -> Child，只在全部标签都是枚举时存在，Child在首次打点时创建，开启预创建时在构造时创建
+     *
+     * @see LabelPlan#isDense()
+     */
+    private final AtomicReferenceArray<Child> denseChildren;
+    /**
+     * 组合下标 -> 最近打点时的变更纪元，只在开启变更跟踪且{@link #denseChildren}存在时存在；
+     * 绑定过的组合为{@link #BOUND_EPOCH}，总是视为已变更
+     */
+    private final AtomicLongArray denseEpochs;
+    /**
+     * 是否跟踪变更纪元，开启时Child缓存必须开启
+     *
+     * @see ChangeEpoch
+     */
+    private final boolean trackChanges;
+    /**
+     * 并行处理批量打点的线程池，为null代表在调用线程处理
+     */
+    private final ForkJoinPool batchPool;
+    private final int batchSplitSize;
+    /**
+     * 自定义Child的创建，为null代表由实际采集器创建
+     */
+    private final ChildFactory<Child> childFactory;
+    /**
+     * 定时写入缓冲的任务，构造完成后由构造器启动，关闭后取消
+     */
+    private volatile ScheduledFuture<?> flushTask;
+    /**
+     * 定时淘汰空闲组合的任务，构造完成后由构造器启动，关闭后取消
+     */
+    private volatile ScheduledFuture<?> expireTask;
 
-    protected BaseCollectorWrapper(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, RealCollector realCollector) {
-        this.labelNames = labelNames;
-        this.labelMissingStrategy = labelMissingStrategy;
+    protected BaseCollectorWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, RealCollector realCollector) {
+        this(labelPlan, labelExtractorMap, options, realCollector, null);
+    }
+
+    protected BaseCollectorWrapper(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, RealCollector realCollector, ChildFactory<Child> childFactory) {
+        this.labelPlan = labelPlan;
+        this.fluentLabels = new FluentLabels<>(labelPlan);
+        this.unlabeled = newLabels();
+        this.unlabeled.fillMissing();
         this.labelExtractorMap = labelExtractorMap;
+        this.extractorResolver = new ExtractorResolver(labelExtractorMap);
         this.realCollector = realCollector;
+        this.childFactory = childFactory;
+        this.trackChanges = options.isTrackChanges();
+        if (options.getSeriesTtlMillis() > 0 || this.trackChanges) {
+            // Child缓存兼作最近打点时间、变更纪元索引，必须开启
+            int tableSize = Math.max(options.getChildCacheSize() > 0 ? options.getChildCacheSize() : WrapperOptions.DEFAULT_CHILD_CACHE_SIZE, options.getMaxSeries());
+            this.childCache = new ChildCache<>(tableSize, options.getSeriesTtlMillis() > 0, this.trackChanges);
+        } else {
+            // 自定义Child的创建需要按组合查找，开启缓存使其只在首次打点时发生
+            int cacheSize = options.getChildCacheSize() > 0 || childFactory == null ? options.getChildCacheSize() : WrapperOptions.DEFAULT_CHILD_CACHE_SIZE;
+            // 限制组合数时缓存全部正常组合，否则超出缓存的组合每次打点都要经过准入判断和原生SDK的labels()
+            cacheSize = Math.max(cacheSize, options.getMaxSeries());
+            this.childCache = cacheSize > 0 ? new ChildCache<>(cacheSize) : null;
+        }
+        if (options.isBuffered()) {
+            this.recordBuffer = new RecordBuffer<>(options.getMaxBufferedSeries());
+        } else {
+            this.recordBuffer = null;
+        }
+        this.asyncPipeline = options.getAsyncPipeline();
+        if (options.getMaxSeries() > 0 && labelPlan.size() > 0) {
+            this.seriesLimiter = new SeriesLimiter(options.getMaxSeries());
+            this.overflowValues = new String[labelPlan.size()];
+            Arrays.fill(this.overflowValues, options.getOverflowValue());
+        } else {
+            this.seriesLimiter = null;
+            this.overflowValues = null;
+        }
+        this.batchPool = options.getBatchPool();
+        this.batchSplitSize = options.getBatchSplitSize();
+        if (childFactory != null) {
+            childFactory.forEachRestored((labelValues, child) -> {
+                if (labelValues.length == labelPlan.size()) {
+                    if (this.seriesLimiter != null) {
+                        this.seriesLimiter.admit(labelValues);
+                    }
+                    realCollector.setChild(child, labelValues);
+                }
+            });
+        }
+        if (labelPlan.isDense()) {
+            this.denseChildren = new AtomicReferenceArray<>(labelPlan.getDenseSize());
+            if (options.isPrecreateEnumSeries()) {
+                for (int i = 0; i < labelPlan.getDenseSize(); i++) {
+                    this.denseChildren.set(i, obtainChild(labelPlan.denseValues(i)));
+                }
+            }
+            this.denseEpochs = this.trackChanges ? new AtomicLongArray(labelPlan.getDenseSize()) : null;
+        } else {
+            this.denseChildren = null;
+            this.denseEpochs = null;
+        }
+        if (options.getSeriesTtlMillis() > 0) {
+            this.seriesExpiry = new SeriesExpiry(options.getSeriesTtlMillis(), this.childCache::size);
+        } else {
+            this.seriesExpiry = null;
+        }
     }
 
     /**
@@ -57,18 +203,27 @@ public class BaseCollectorWrapper<Wrapper extends BaseCollectorWrapper<Wrapper,
      * @see LabelExtractor#extractLabels(Object)
      */
     public <T> Wrapper label(T object, Class<T> tClass) {
-        if (tClass == null || CollectionUtils.isEmpty(this.labelExtractorMap)) {
+        Labels labels = extractLabels(object, tClass);
+        if (labels == null) {
             return (Wrapper) this;
         }
 
-        LabelExtractor<T> labelExtractor = (LabelExtractor<T>) this.labelExtractorMap.get(tClass);
-        if (labelExtractor == null) {
-            return (Wrapper) this;
-        }
+        this.fluentLabels.get().with(labels);
 
-        Labels labels = labelExtractor.extractLabels(object);
-        getTempLabels().with(labels);
+        return (Wrapper) this;
+    }
 
+    /**
+     * 按目标对象的运行时类型查找标签解析并填充标签，子类、代理类（如CGLIB）也能匹配到父类或接口上注册的标签解析
+     * <p>
+     * 匹配到多个标签解析时全部应用，同名标签以最具体类型的解析为准
+     *
+     * @param object 目标对象
+     * @return 当前对象
+     * @see ExtractorResolver
+     */
+    public Wrapper label(Object object) {
+        this.extractorResolver.extractTo(object, this.fluentLabels.get());
         return (Wrapper) this;
     }
 
@@ -81,60 +236,647 @@ public class BaseCollectorWrapper<Wrapper extends BaseCollectorWrapper<Wrapper,
      * @see Labels#label(String, Object)
      */
     public Wrapper label(String labelName, Object labelValue) {
-        getTempLabels().label(labelName, labelValue);
+        this.fluentLabels.get().label(labelName, labelValue);
+        return (Wrapper) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, int)
+     */
+    public Wrapper label(String labelName, int labelValue) {
+        this.fluentLabels.get().label(labelName, labelValue);
+        return (Wrapper) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, long)
+     */
+    public Wrapper label(String labelName, long labelValue) {
+        this.fluentLabels.get().label(labelName, labelValue);
+        return (Wrapper) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, boolean)
+     */
+    public Wrapper label(String labelName, boolean labelValue) {
+        this.fluentLabels.get().label(labelName, labelValue);
+        return (Wrapper) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, char)
+     */
+    public Wrapper label(String labelName, char labelValue) {
+        this.fluentLabels.get().label(labelName, labelValue);
         return (Wrapper) this;
     }
 
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, Enum)
+     */
+    public Wrapper label(String labelName, Enum<?> labelValue) {
+        this.fluentLabels.get().label(labelName, labelValue);
+        return (Wrapper) this;
+    }
+
+    /**
+     * 按当前线程填充的标签绑定Child，之后可以直接在Child上打点，不再经过标签解析
+     *
+     * @return 绑定的Child；缺失策略为SKIP且标签缺失时返回不上报的Child
+     */
+    public Child bind() {
+        try {
+            SlotLabels labels = this.fluentLabels.peek();
+            return bind(labels == null ? this.unlabeled : labels);
+        } finally {
+            cleanLabels();
+        }
+    }
+
+    /**
+     * 按标签组合绑定Child，之后可以直接在Child上打点，不再经过标签解析
+     *
+     * @param labels 标签组合
+     * @return 绑定的Child；缺失策略为SKIP且标签缺失时返回不上报的Child
+     */
+    public Child bind(Labels labels) {
+        return bind(newLabels().with(labels));
+    }
+
+    /**
+     * 从目标对象解析标签并绑定Child，之后可以直接在Child上打点，不再经过标签解析
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param <T>    目标对象类型泛型
+     * @return 绑定的Child；缺失策略为SKIP且标签缺失时返回不上报的Child
+     * @see LabelExtractor#extractLabels(Object)
+     */
+    public <T> Child bind(T object, Class<T> tClass) {
+        return bind(extractLabels(object, tClass));
+    }
+
+    /**
+     * 绑定时与普通打点一样解析Child（经过Child缓存或枚举组合下标），之后在Child上的打点不再经过解析，
+     * 无法记录最近打点时间和变更纪元，因此固定对应组合：不被淘汰，增量采集时总是视为已变更
+     */
+    private Child bind(SlotLabels labels) {
+        Child child = resolveChild(labels);
+        if (child == null) {
+            return skippedChild();
+        }
+
+        if ((this.seriesExpiry != null || this.trackChanges) && labels.fillMissing() == 0) {
+            int denseIndex = this.denseEpochs != null ? labels.denseIndex() : -1;
+            if (denseIndex >= 0) {
+                this.denseEpochs.set(denseIndex, BOUND_EPOCH);
+            } else {
+                this.childCache.pin(labels.toValues());
+            }
+        }
+        return child;
+    }
+
     @VisibleForTesting
     public String[] getCurrentLabels() {
-        if (this.labelNames.isEmpty()) {
-            return new String[0];
+        String[] labelValues = resolveLabels();
+        return labelValues == null ? new String[0] : labelValues;
+    }
+
+    @VisibleForTesting
+    public boolean shouldSkip() {
+        return resolveLabels() == null;
+    }
+
+    /**
+     * 按标签解析计划解析当前标签值
+     *
+     * @return 标签值；需要跳过当前打点时返回null
+     * @see LabelPlan#resolve(Labels)
+     */
+    protected String[] resolveLabels() {
+        return this.labelPlan.resolve(this.fluentLabels.peek());
+    }
+
+    /**
+     * 按当前线程填充的标签解析对应的Child
+     *
+     * @return Child；需要跳过当前打点时返回null
+     */
+    protected Child resolveChild() {
+        SlotLabels labels = this.fluentLabels.peek();
+        return resolveChild(labels == null ? this.unlabeled : labels);
+    }
+
+    /**
+     * 按标签组合解析对应的Child，全部标签都是枚举时按序数直接定位，否则优先查询Child缓存
+     *
+     * @param labels 绑定到当前标签解析计划的标签组合，缺失的标签位会被兜底值填充
+     * @return Child；需要跳过当前打点时返回null
+     */
+    protected Child resolveChild(SlotLabels labels) {
+        int missing = labels.fillMissing();
+        if (missing < 0) {
+            return null;
         }
 
-        String[] labelNameArray = this.labelNames.toArray();
-        List<String> labelValues = new ArrayList<>(labelNameArray.length);
-        Labels labels = getTempLabels();
-        for (String labelName : labelNameArray) {
-            String labelValue = labels.getLabelValue(labelName);
+        // DEFAULT策略下仍有缺失，交由原生SDK处理
+        if (missing > 0) {
+            return obtainChild(this.labelPlan.resolve(labels));
+        }
 
-            // 先看是否有默认值
-            if (labelValue == null) {
-                labelValue = this.labelNames.getDefaultValue(labelName);
+        if (this.denseChildren != null) {
+            int denseIndex = labels.denseIndex();
+            if (denseIndex >= 0) {
+                if (this.denseEpochs != null) {
+                    markChanged(denseIndex);
+                }
+                return denseChild(denseIndex);
             }
+        }
+
+        if (this.childCache == null) {
+            return newChild(labels.toValues());
+        }
+
+        Child child = this.childCache.get(labels);
+        if (child != null) {
+            return child;
+        }
+
+        String[] labelValues = labels.toValues();
+        if (this.seriesLimiter != null && !this.seriesLimiter.admit(labelValues)) {
+            // 溢出的组合不进入缓存，避免挤占正常组合
+            return overflowChild();
+        }
+        return this.childCache.put(labelValues, obtainChild(labelValues));
+    }
 
-            // 默认值也为空 且 缺失策略为FILL_WITH_EMPTY_STRING时 填充空字符
-            if (labelValue == null && LabelMissingStrategy.FILL_WITH_EMPTY_STRING.equals(this.labelMissingStrategy)) {
-                labelValue = "";
+    /**
+     * 按标签值从实际采集器获取Child，设置了自定义Child的创建时由其创建并安装到实际采集器
+     */
+    private Child obtainChild(String[] labelValues) {
+        if (this.childFactory != null) {
+            Child child = this.childFactory.newChild(labelValues);
+            if (child != null) {
+                this.realCollector.setChild(child, labelValues);
+                return child;
             }
+        }
+        return this.realCollector.labels(labelValues);
+    }
+
+    /**
+     * 未开启Child缓存时按标签值获取Child，超过组合数上限时返回溢出组合
+     */
+    private Child newChild(String[] labelValues) {
+        if (this.seriesLimiter != null && !this.seriesLimiter.admit(labelValues)) {
+            return overflowChild();
+        }
+        return obtainChild(labelValues);
+    }
 
-            labelValues.add(labelValue);
+    /**
+     * 组合下标对应的Child，被移除后在下次打点时重新创建
+     */
+    private Child denseChild(int denseIndex) {
+        Child child = this.denseChildren.get(denseIndex);
+        if (child == null) {
+            child = obtainChild(this.labelPlan.denseValues(denseIndex));
+            this.denseChildren.set(denseIndex, child);
         }
+        return child;
+    }
 
-        return labelValues.stream().filter(Objects::nonNull).toArray(String[]::new);
+    private void markChanged(int denseIndex) {
+        long epoch = ChangeEpoch.current();
+        long changedEpoch = this.denseEpochs.get(denseIndex);
+        // 绑定的组合保持固定纪元，CAS避免覆盖并发的绑定
+        if (changedEpoch != epoch && changedEpoch != BOUND_EPOCH) {
+            this.denseEpochs.compareAndSet(denseIndex, changedEpoch, epoch);
+        }
     }
 
-    @VisibleForTesting
-    public boolean shouldSkip() {
-        if (!LabelMissingStrategy.SKIP.equals(this.labelMissingStrategy)
-                || this.labelNames.isEmpty()) {
-            return false;
+    private Child overflowChild() {
+        Child child = this.overflowChild;
+        if (child == null) {
+            child = obtainChild(this.overflowValues);
+            this.overflowChild = child;
+        }
+        return child;
+    }
+
+    /**
+     * 在Child上打点，开启异步时发布到异步打点队列，开启缓冲时先写入当前线程的缓冲
+     *
+     * @param op    打点
+     * @param child Child
+     * @param value 值
+     */
+    protected void record(RecordOp<Child> op, Child child, double value) {
+        if (this.asyncPipeline != null) {
+            this.asyncPipeline.publish(this, op, child, value);
+            return;
+        }
+
+        if (this.recordBuffer != null) {
+            this.recordBuffer.record(op, child, value);
+            return;
+        }
+
+        op.apply(child, value);
+    }
+
+    /**
+     * 从目标对象解析标签并打点，开启异步时标签解析也在异步打点队列的后台线程执行
+     *
+     * @param op     打点
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param value  值
+     * @param <T>    目标对象类型泛型
+     * @see LabelExtractor#extractLabels(Object)
+     */
+    protected <T> void record(RecordOp<Child> op, T object, Class<T> tClass, double value) {
+        if (this.asyncPipeline != null) {
+            this.asyncPipeline.publish(this, op, object, tClass, value);
+            return;
+        }
+
+        Child child = resolveChild(object, tClass);
+        if (child != null) {
+            record(op, child, value);
+        }
+    }
+
+    /**
+     * 批量打点：逐个解析标签后按Child预聚合，再写入每个Child
+     * <p>
+     * 可累加的打点每个Child只写入一次总和，覆盖型打点只写入最后一个值，不可累加的打点按Child分组后连续写入；
+     * 配置了并行线程池且批量可随机访问、超过拆分条数时，标签解析和预聚合在线程池中并行执行
+     *
+     * @param op            打点
+     * @param objects       目标对象
+     * @param tClass        目标对象类型
+     * @param valueFunction 目标对象 -> 值
+     * @param <T>           目标对象类型泛型
+     * @see BatchAggregate
+     */
+    protected <T> void recordAll(RecordOp<Child> op, Iterable<T> objects, Class<T> tClass, ToDoubleFunction<? super T> valueFunction) {
+        if (objects == null) {
+            return;
+        }
+
+        BatchAggregate<Child> aggregate;
+        if (this.batchPool != null && objects instanceof List && objects instanceof RandomAccess
+                && ((List<T>) objects).size() > this.batchSplitSize) {
+            List<T> list = (List<T>) objects;
+            aggregate = this.batchPool.invoke(new BatchAggregate.Task<>(this, op, list, 0, list.size(), tClass, valueFunction, this.batchSplitSize));
+        } else {
+            aggregate = new BatchAggregate<>(op);
+            for (T object : objects) {
+                aggregate(aggregate, object, tClass, valueFunction);
+            }
+        }
+
+        aggregate.replay((child, value) -> record(op, child, value));
+    }
+
+    <T> void aggregate(BatchAggregate<Child> aggregate, T object, Class<T> tClass, ToDoubleFunction<? super T> valueFunction) {
+        Child child = resolveChild(object, tClass);
+        if (child != null) {
+            aggregate.add(child, valueFunction.applyAsDouble(object));
+        }
+    }
+
+    /**
+     * 启动后台定时任务，由构造器在构造完成后调用，避免未构造完成的对象被调度线程访问
+     *
+     * @param options 可选配置
+     */
+    void startScheduledTasks(WrapperOptions options) {
+        if (this.recordBuffer != null) {
+            this.flushTask = HeraclesScheduler.scheduleWithFixedDelay(this::flush, options.getBufferFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (this.seriesExpiry != null) {
+            long sweepIntervalMillis = Math.max(this.seriesExpiry.getTtlMillis() / 2, CoarseClock.TICK_MILLIS);
+            this.expireTask = HeraclesScheduler.scheduleWithFixedDelay(this::expireIdleSeries, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 取消后台定时任务（定时写入缓冲、淘汰空闲组合）并写入所有线程缓冲的打点，调度线程不再引用当前对象
+     * <p>
+     * 不再使用的Collector Wrapper需要关闭，并从注册表注销实际采集器之后才能被回收。
+     * 关闭后仍可以打点，缓冲的打点只在采集前写入，空闲组合不再被淘汰
+     */
+    public void close() {
+        ScheduledFuture<?> flushTask = this.flushTask;
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        ScheduledFuture<?> expireTask = this.expireTask;
+        if (expireTask != null) {
+            expireTask.cancel(false);
         }
+        flush();
+    }
 
-        Labels labels = getTempLabels();
-        return Stream.of(this.labelNames.toArray())
-                .anyMatch(labelName -> labels.getLabelValue(labelName) == null && this.labelNames.getDefaultValue(labelName) == null);
+    /**
+     * 把所有线程缓冲的打点写入实际采集器，未开启缓冲时什么也不做
+     */
+    public void flush() {
+        if (this.recordBuffer != null) {
+            this.recordBuffer.flush();
+        }
+    }
+
+    /**
+     * 把当前线程缓冲的打点写入实际采集器，在读取或覆盖Child的值之前调用
+     */
+    protected void flushCurrentThread() {
+        if (this.recordBuffer != null) {
+            this.recordBuffer.flushCurrentThread();
+        }
+    }
+
+    /**
+     * 获取按线程缓冲的打点
+     *
+     * @return 缓冲，未开启时返回null
+     */
+    public RecordBuffer<Child> getRecordBuffer() {
+        return this.recordBuffer;
+    }
+
+    /**
+     * 淘汰超过存活时间没有打点的标签值组合，由后台定时任务调用，未开启淘汰时什么也不做
+     * <p>
+     * 与淘汰同时发生的打点可能写入已移除的Child而丢失；淘汰后再次打点会创建新的Child，从0开始计数
+     *
+     * @return 淘汰的组合数
+     */
+    public int expireIdleSeries() {
+        if (this.seriesExpiry == null) {
+            return 0;
+        }
+
+        // 淘汰前先写入缓冲，空闲组合最后的打点不丢失
+        flush();
+        int evicted = this.childCache.expire(this.seriesExpiry.getTtlMillis(), this::removeSeries);
+        if (evicted > 0 && this.recordBuffer != null) {
+            this.recordBuffer.reset();
+        }
+        this.seriesExpiry.recordSweep(evicted);
+        return evicted;
+    }
+
+    /**
+     * 获取空闲标签值组合淘汰统计
+     *
+     * @return 淘汰统计，未开启时返回null
+     */
+    public SeriesExpiry getSeriesExpiry() {
+        return this.seriesExpiry;
+    }
+
+    /**
+     * 增量采集：只采集在给定纪元及之后打点过的标签值组合，未变更的组合不读取、不生成样本
+     * <p>
+     * bind得到的Child以及溢出组合总是视为已变更；已移除的组合不会出现在结果中
+     *
+     * @param sinceEpoch 起始纪元，一般为上一次增量采集前{@link ChangeEpoch#advance()}的返回值
+     * @return 指标族，没有变更时样本为空
+     * @throws IllegalStateException 未开启变更跟踪
+     * @see BaseWrapperBuilder#trackChanges()
+     */
+    public Collector.MetricFamilySamples collectChangedSince(long sinceEpoch) {
+        if (!this.trackChanges) {
+            throw new IllegalStateException("trackChanges is not enabled");
+        }
+
+        flush();
+        Collector.MetricFamilySamples description = describe();
+        List<String> labelNames = Arrays.asList(this.labelPlan.names());
+        List<Collector.MetricFamilySamples.Sample> samples = new ArrayList<>();
+        this.childCache.forEachChangedSince(sinceEpoch,
+                (labelValues, child) -> sampleChild(description.name, labelNames, Arrays.asList(labelValues), child, samples));
+        if (this.denseEpochs != null) {
+            for (int i = 0; i < this.denseEpochs.length(); i++) {
+                Child child = this.denseChildren.get(i);
+                if (child != null && this.denseEpochs.get(i) >= sinceEpoch) {
+                    sampleChild(description.name, labelNames, Arrays.asList(this.labelPlan.denseValues(i)), child, samples);
+                }
+            }
+        }
+        Child overflow = this.overflowChild;
+        if (overflow != null) {
+            sampleChild(description.name, labelNames, Arrays.asList(this.overflowValues), overflow, samples);
+        }
+        return new Collector.MetricFamilySamples(description.name, description.type, description.help, samples);
+    }
+
+    /**
+     * 实际采集器的指标名、类型和帮助文本
+     *
+     * @return 不含样本的指标族
+     */
+    protected Collector.MetricFamilySamples describe() {
+        if (this.realCollector instanceof Collector.Describable) {
+            return ((Collector.Describable) this.realCollector).describe().get(0);
+        }
+        return this.realCollector.collect().get(0);
+    }
+
+    /**
+     * 把一个Child的当前值转换为样本，样本名与标签与实际采集器的collect()一致，用于增量采集
+     *
+     * @param name        指标名
+     * @param labelNames  标签名
+     * @param labelValues 标签值
+     * @param child       Child
+     * @param samples     样本输出
+     */
+    protected abstract void sampleChild(String name, List<String> labelNames, List<String> labelValues, Child child, List<Collector.MetricFamilySamples.Sample> samples);
+
+    public boolean isTrackChanges() {
+        return this.trackChanges;
+    }
+
+    public RealCollector getRealCollector() {
+        return this.realCollector;
+    }
+
+    /**
+     * 从目标对象解析标签并解析对应的Child
+     *
+     * @return Child；需要跳过当前打点时返回null
+     */
+    <T> Child resolveChild(T object, Class<T> tClass) {
+        return resolveChild(newLabels().with(extractLabels(object, tClass)));
+    }
+
+    /**
+     * 移除标签值组合对应的Child
+     *
+     * @param labelValues 按标签声明顺序排列的标签值
+     * @see SimpleCollector#remove(String...)
+     */
+    public void remove(String... labelValues) {
+        removeSeries(labelValues);
+        // 最后移除缓存：此前命中缓存的打点写入旧Child，此后未命中时重新创建
+        if (this.childCache != null) {
+            this.childCache.remove(labelValues);
+        }
+    }
+
+    /**
+     * 从实际采集器移除标签值组合，并释放组合数限制名额、清除枚举组合下标上的Child
+     */
+    private void removeSeries(String[] labelValues) {
+        if (this.childFactory != null) {
+            this.childFactory.removed(labelValues);
+        }
+        this.realCollector.remove(labelValues);
+        if (this.seriesLimiter != null) {
+            if (Arrays.equals(labelValues, this.overflowValues)) {
+                this.overflowChild = null;
+            } else {
+                this.seriesLimiter.remove(labelValues);
+            }
+        }
+        if (this.denseChildren != null) {
+            int denseIndex = this.labelPlan.denseIndex(labelValues);
+            if (denseIndex >= 0) {
+                this.denseChildren.set(denseIndex, null);
+                if (this.denseEpochs != null) {
+                    this.denseEpochs.set(denseIndex, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除所有Child
+     *
+     * @see SimpleCollector#clear()
+     */
+    public void clear() {
+        if (this.childFactory != null) {
+            this.childFactory.cleared();
+        }
+        this.realCollector.clear();
+        if (this.seriesLimiter != null) {
+            this.seriesLimiter.clear();
+            this.overflowChild = null;
+        }
+        if (this.denseChildren != null) {
+            for (int i = 0; i < this.denseChildren.length(); i++) {
+                this.denseChildren.set(i, null);
+                if (this.denseEpochs != null) {
+                    this.denseEpochs.set(i, 0);
+                }
+            }
+        }
+        if (this.childCache != null) {
+            this.childCache.clear();
+        }
+    }
+
+    /**
+     * 获取Child缓存，可用于观察命中率
+     *
+     * @return Child缓存，未开启时返回null
+     */
+    public ChildCache<Child> getChildCache() {
+        return this.childCache;
+    }
+
+    /**
+     * 获取标签值组合数限制，可用于观察被合并到溢出组合的打点次数
+     *
+     * @return 标签值组合数限制，未开启时返回null
+     */
+    public SeriesLimiter getSeriesLimiter() {
+        return this.seriesLimiter;
+    }
+
+    /**
+     * 跳过打点时使用的Child，不属于任何实际采集器，在上面打点不会被上报
+     *
+     * @return 不上报的Child
+     */
+    protected abstract Child skippedChild();
+
+    /**
+     * 开始计时，当前线程已填充的标签转入计时范围
+     *
+     * @param op 计时结束时的打点
+     * @return 当前线程复用的计时范围，嵌套计时时为新实例
+     * @see TimerScope
+     */
+    protected TimerScope<Child> startScope(RecordOp<Child> op) {
+        TimerScope<Child> scope = this.fluentLabels.timerScope();
+        if (scope == null) {
+            scope = new TimerScope<>(this, op);
+            this.fluentLabels.setTimerScope(scope);
+        } else if (scope.isActive()) {
+            scope = new TimerScope<>(this, op);
+        }
+
+        try {
+            SlotLabels labels = this.fluentLabels.peek();
+            if (labels != null) {
+                scope.getLabels().with(labels);
+            }
+        } finally {
+            cleanLabels();
+        }
+        scope.start();
+        return scope;
     }
 
     protected void cleanLabels() {
-        this.labelsThreadLocal.remove();
+        this.fluentLabels.clean();
     }
 
-    private Labels getTempLabels() {
-        Labels labels = this.labelsThreadLocal.get();
-        if (labels == null) {
-            labels = Labels.newInstance();
-            this.labelsThreadLocal.set(labels);
+    /**
+     * 创建绑定到当前标签解析计划的空标签组合
+     *
+     * @return 标签组合
+     */
+    SlotLabels newLabels() {
+        return SlotLabels.newInstance(this.labelPlan);
+    }
+
+    /**
+     * 按目标对象的运行时类型解析标签并写入标签组合
+     */
+    void extractLabels(Object object, SlotLabels labels) {
+        this.extractorResolver.extractTo(object, labels);
+    }
+
+    <T> Labels extractLabels(T object, Class<T> tClass) {
+        if (tClass == null || CollectionUtils.isEmpty(this.labelExtractorMap)) {
+            return null;
         }
-        return labels;
+
+        LabelExtractor<T> labelExtractor = (LabelExtractor<T>) this.labelExtractorMap.get(tClass);
+        if (labelExtractor == null) {
+            return null;
+        }
+
+        return labelExtractor.extractLabels(object);
     }
 }
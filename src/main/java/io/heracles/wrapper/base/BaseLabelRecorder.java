@@ -0,0 +1,140 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.label.Labels;
+import io.heracles.label.SlotLabels;
+import io.heracles.label.extractor.LabelExtractor;
+
+/**
+ * 携带标签的一次性打点对象
+ * <p>
+ * 由{@link BaseCollectorWrapper}的with()创建，标签直接保存在对象自身，打点时不依赖ThreadLocal；
+ * 生命周期通常不超出调用栈，便于JIT逃逸分析。非线程安全，不要跨线程共享
+ *
+ * @author walter
+ * @date 2021/01/19 21:16
+ **/
+public abstract class BaseLabelRecorder<Recorder extends BaseLabelRecorder<Recorder, Child>, Child> {
+    private final BaseCollectorWrapper<?, ?, Child> wrapper;
+    private final SlotLabels labels;
+
+    protected BaseLabelRecorder(BaseCollectorWrapper<?, ?, Child> wrapper) {
+        this.wrapper = wrapper;
+        this.labels = wrapper.newLabels();
+    }
+
+    /**
+     * 从目标对象解析并填充标签
+     *
+     * @param object 目标对象
+     * @param tClass 目标对象类型
+     * @param <T>    目标对象类型泛型
+     * @return 当前对象
+     * @see LabelExtractor#extractLabels(Object)
+     */
+    public <T> Recorder label(T object, Class<T> tClass) {
+        this.labels.with(this.wrapper.extractLabels(object, tClass));
+        return (Recorder) this;
+    }
+
+    /**
+     * 按目标对象的运行时类型查找标签解析并填充标签
+     *
+     * @param object 目标对象
+     * @return 当前对象
+     * @see BaseCollectorWrapper#label(Object)
+     */
+    public Recorder label(Object object) {
+        this.wrapper.extractLabels(object, this.labels);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签
+     *
+     * @param labelName  标签名
+     * @param labelValue 标签值
+     * @return 当前对象
+     * @see Labels#label(String, Object)
+     */
+    public Recorder label(String labelName, Object labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, int)
+     */
+    public Recorder label(String labelName, int labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, long)
+     */
+    public Recorder label(String labelName, long labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, boolean)
+     */
+    public Recorder label(String labelName, boolean labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, char)
+     */
+    public Recorder label(String labelName, char labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    /**
+     * 填充标签，使用缓存的字符串形式
+     *
+     * @see Labels#label(String, Enum)
+     */
+    public Recorder label(String labelName, Enum<?> labelValue) {
+        this.labels.label(labelName, labelValue);
+        return (Recorder) this;
+    }
+
+    SlotLabels getLabels() {
+        return this.labels;
+    }
+
+    /**
+     * 按已填充的标签解析对应的Child
+     *
+     * @return Child；需要跳过当前打点时返回null
+     */
+    protected Child resolveChild() {
+        return this.wrapper.resolveChild(this.labels);
+    }
+
+    /**
+     * @see BaseCollectorWrapper#record(RecordOp, Object, double)
+     */
+    protected void record(RecordOp<Child> op, Child child, double value) {
+        this.wrapper.record(op, child, value);
+    }
+
+    /**
+     * @see BaseCollectorWrapper#flushCurrentThread()
+     */
+    protected void flushCurrentThread() {
+        this.wrapper.flushCurrentThread();
+    }
+}
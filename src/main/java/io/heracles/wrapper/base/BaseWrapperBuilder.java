@@ -1,14 +1,21 @@
 package io.heracles.wrapper.base;
 
+import io.heracles.label.annotation.MetricLabel;
 import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.label.extractor.LabelExtractors;
+import io.heracles.label.LabelInterner;
 import io.heracles.label.LabelMissingStrategy;
 import io.heracles.label.LabelNames;
+import io.heracles.label.LabelPlan;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.SimpleCollector;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Stream;
 
 /**
@@ -17,7 +24,7 @@ import java.util.stream.Stream;
  * @author walter
  * @date 2021/01/07 22:32
  **/
-public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wrapper, RealCollector>, Builder extends BaseWrapperBuilder<Wrapper, Builder, RealCollector, RealBuilder>, RealCollector extends SimpleCollector<?>, RealBuilder extends SimpleCollector.Builder<RealBuilder, RealCollector>> {
+public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wrapper, RealCollector, Child>, Builder extends BaseWrapperBuilder<Wrapper, Builder, RealCollector, RealBuilder, Child>, RealCollector extends SimpleCollector<Child>, RealBuilder extends SimpleCollector.Builder<RealBuilder, RealCollector>, Child> {
     protected final RealBuilder realBuilder;
 
     /**
@@ -32,6 +39,10 @@ public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wr
      * @see LabelMissingStrategy
      */
     private LabelMissingStrategy labelMissingStrategy;
+    /**
+     * @see WrapperOptions
+     */
+    private final WrapperOptions options = new WrapperOptions();
 
     protected BaseWrapperBuilder(RealBuilder realBuilder) {
         this.realBuilder = realBuilder;
@@ -78,6 +89,23 @@ public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wr
         return (Builder) this;
     }
 
+    /**
+     * 添加取值为枚举常量的标签名，标签值为枚举常量的toString()
+     * <p>
+     * 全部标签都声明为枚举且组合数不超过{@link LabelPlan#MAX_DENSE_SERIES}时，打点按各标签的序数直接计算数组下标定位Child，
+     * 不再经过Child缓存和原生SDK的labels()；Child仍在首次打点时创建，需要预先导出全部组合时使用{@link #precreateEnumSeries()}
+     *
+     * @param labelName 标签名
+     * @param enumType  枚举类型
+     * @param <E>       枚举类型泛型
+     * @return 当前对象
+     * @see LabelNames#enumName(String, Class)
+     */
+    public <E extends Enum<E>> Builder enumLabel(String labelName, Class<E> enumType) {
+        this.labelNames.enumName(labelName, enumType);
+        return (Builder) this;
+    }
+
     /**
      * 注册标签解析逻辑，并指导解析范围
      *
@@ -121,6 +149,186 @@ public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wr
         return labelExtractor(extractor, tClass, extractor.getTargetLabelNames().toArray());
     }
 
+    /**
+     * 按目标类型上的{@link MetricLabel}标注注册标签解析，以标注的标签名作为解析范围
+     *
+     * @param tClass 解析目标类型
+     * @param <T>    对应目标类型泛型
+     * @return 当前对象
+     * @see LabelExtractors#forClass(Class)
+     */
+    public <T> Builder labelExtractor(Class<T> tClass) {
+        return labelExtractor(LabelExtractors.forClass(tClass), tClass);
+    }
+
+    /**
+     * 开启标签值驻留，每个标签位上重复出现的标签值共享同一个String实例，减少后续的哈希和比较开销
+     *
+     * @param maxValuesPerLabel 每个标签位最多驻留的标签值数，超出后新值不再驻留
+     * @return 当前对象
+     * @see LabelInterner
+     */
+    public Builder internLabelValues(int maxValuesPerLabel) {
+        if (maxValuesPerLabel <= 0) {
+            throw new IllegalArgumentException("maxValuesPerLabel must be positive");
+        }
+
+        this.options.setInternPoolSize(maxValuesPerLabel);
+        return (Builder) this;
+    }
+
+    /**
+     * 批量打点超过拆分条数时，拆分到线程池中并行解析标签和预聚合，最后在调用线程写入
+     *
+     * @param pool      线程池
+     * @param splitSize 拆分后每段的最大条数
+     * @return 当前对象
+     * @see BaseCollectorWrapper#recordAll(RecordOp, Iterable, Class, ToDoubleFunction)
+     */
+    public Builder parallelBatches(ForkJoinPool pool, int splitSize) {
+        if (pool == null || splitSize <= 0) {
+            throw new IllegalArgumentException("pool must not be null and splitSize must be positive");
+        }
+
+        this.options.setBatchPool(pool);
+        this.options.setBatchSplitSize(splitSize);
+        return (Builder) this;
+    }
+
+    /**
+     * 设置Child缓存容量，命中缓存的打点不再经过原生SDK的labels()
+     * <p>
+     * 设置了{@link #maxSeries(int)}时缓存容量至少为组合数上限
+     *
+     * @param childCacheSize 缓存的标签值组合数上限，0代表不缓存
+     * @return 当前对象
+     * @see ChildCache
+     */
+    public Builder childCacheSize(int childCacheSize) {
+        this.options.setChildCacheSize(Math.max(childCacheSize, 0));
+        return (Builder) this;
+    }
+
+    /**
+     * 开启按线程缓冲的打点，打点先累积在线程独占的缓冲中，定时以及每次采集前写入实际采集器
+     * <p>
+     * 只缓冲Counter/Gauge的inc、dec和Histogram/Summary的observe，计时器和bind得到的Child直接写入；
+     * Gauge的set不缓冲，先把所有线程的缓冲写入实际采集器再直接写入，频繁set的Gauge不宜开启缓冲。
+     * 缓冲按需扩容，只打点少量组合的线程不会占用maxBufferedSeries对应的全部空间
+     *
+     * @param flushIntervalMillis 定时写入间隔（毫秒）
+     * @param maxBufferedSeries   每个线程最多缓冲的标签值组合数，超出后直接写入
+     * @return 当前对象
+     * @see RecordBuffer
+     */
+    public Builder bufferedRecording(long flushIntervalMillis, int maxBufferedSeries) {
+        if (flushIntervalMillis <= 0 || maxBufferedSeries <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis and maxBufferedSeries must be positive");
+        }
+        if (this.options.getAsyncPipeline() != null) {
+            throw new IllegalStateException("bufferedRecording can not be used together with asyncRecording");
+        }
+
+        this.options.setBufferFlushIntervalMillis(flushIntervalMillis);
+        this.options.setMaxBufferedSeries(maxBufferedSeries);
+        return (Builder) this;
+    }
+
+    /**
+     * 开启异步打点，打点线程只向队列发布事件，由队列的后台线程写入实际采集器
+     * <p>
+     * 计时器和bind得到的Child直接写入；读取值（如Gauge的get）看不到队列中尚未写入的打点
+     *
+     * @param asyncPipeline 异步打点队列，可以被多个Collector Wrapper共享
+     * @return 当前对象
+     * @see AsyncPipeline
+     */
+    public Builder asyncRecording(AsyncPipeline asyncPipeline) {
+        if (this.options.isBuffered()) {
+            throw new IllegalStateException("asyncRecording can not be used together with bufferedRecording");
+        }
+
+        this.options.setAsyncPipeline(asyncPipeline);
+        return (Builder) this;
+    }
+
+    /**
+     * 限制标签值组合数，超过上限后新出现的组合会被合并到溢出组合上报，溢出组合的每个标签值均为{@link WrapperOptions#DEFAULT_OVERFLOW_VALUE}
+     *
+     * @param maxSeries 标签值组合数上限，0代表不限制
+     * @return 当前对象
+     * @see SeriesLimiter
+     */
+    public Builder maxSeries(int maxSeries) {
+        return maxSeries(maxSeries, WrapperOptions.DEFAULT_OVERFLOW_VALUE);
+    }
+
+    /**
+     * 限制标签值组合数，超过上限后新出现的组合会被合并到溢出组合上报
+     *
+     * @param maxSeries     标签值组合数上限，0代表不限制
+     * @param overflowValue 溢出组合每个标签位使用的标签值
+     * @return 当前对象
+     * @see SeriesLimiter
+     */
+    public Builder maxSeries(int maxSeries, String overflowValue) {
+        if (maxSeries < 0) {
+            throw new IllegalArgumentException("maxSeries must not be negative");
+        }
+        if (overflowValue == null) {
+            throw new IllegalArgumentException("overflowValue must not be null");
+        }
+
+        this.options.setMaxSeries(maxSeries);
+        this.options.setOverflowValue(overflowValue);
+        return (Builder) this;
+    }
+
+    /**
+     * 淘汰空闲的标签值组合，超过存活时间没有打点的组合会被后台定时任务从实际采集器中移除，再次打点时从0开始重新计数
+     * <p>
+     * 开启后Child缓存不再限制容量，兼作组合的最近打点时间索引；bind得到的Child对应的组合不会被淘汰
+     *
+     * @param ttl  存活时间
+     * @param unit 存活时间单位
+     * @return 当前对象
+     * @see SeriesExpiry
+     */
+    public Builder seriesTtl(long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        this.options.setSeriesTtlMillis(unit.toMillis(ttl));
+        return (Builder) this;
+    }
+
+    /**
+     * 记录各标签值组合最近一次打点的变更纪元，用于只采集变更过的组合
+     * <p>
+     * 开启后Child缓存不再限制容量，兼作组合的变更纪元索引；bind得到的Child不经过标签解析，对应的组合总是视为已变更
+     *
+     * @return 当前对象
+     * @see BaseCollectorWrapper#collectChangedSince(long)
+     */
+    public Builder trackChanges() {
+        this.options.setTrackChanges(true);
+        return (Builder) this;
+    }
+
+    /**
+     * 构造时预先创建全部枚举标签值组合的Child
+     * <p>
+     * 仅在全部标签都通过{@link #enumLabel(String, Class)}声明时生效；开启后每个组合即使从未打点也会以0值导出，
+     * 组合数等于各枚举常量数的乘积，导出体积随之增长
+     *
+     * @return 当前对象
+     */
+    public Builder precreateEnumSeries() {
+        this.options.setPrecreateEnumSeries(true);
+        return (Builder) this;
+    }
+
     /**
      * @see SimpleCollector.Builder#name(String)
      */
@@ -164,24 +372,38 @@ public abstract class BaseWrapperBuilder<Wrapper extends BaseCollectorWrapper<Wr
     }
 
     /**
-     * 调用实际构造器register方法生成实际采集器，并包装成Collector Wrapper
+     * 调用实际构造器register方法生成实际采集器，编译标签解析计划，并包装成Collector Wrapper
      *
      * @return Collector Wrapper
      * @see SimpleCollector.Builder#register(CollectorRegistry)
+     * @see LabelPlan#compile(LabelNames, LabelMissingStrategy, int)
      */
     public Wrapper wrap(CollectorRegistry registry) {
-        RealCollector realCollector = realBuilder.labelNames(this.labelNames.toArray()).register(registry);
-        return create(this.labelNames, this.labelMissingStrategy, this.labelExtractorMap, realCollector);
+        WrapperOptions options = this.options.copy();
+        LabelPlan labelPlan = LabelPlan.compile(this.labelNames, this.labelMissingStrategy, options.getInternPoolSize());
+        if (!options.isBuffered()) {
+            RealCollector realCollector = realBuilder.labelNames(labelPlan.names()).register(registry);
+            Wrapper wrapper = create(labelPlan, this.labelExtractorMap, options, realCollector);
+            wrapper.startScheduledTasks(options);
+            return wrapper;
+        }
+
+        // 缓冲模式下注册代理采集器，保证采集前缓冲已写入
+        RealCollector realCollector = realBuilder.labelNames(labelPlan.names()).create();
+        Wrapper wrapper = create(labelPlan, this.labelExtractorMap, options, realCollector);
+        new FlushingCollector(realCollector, wrapper::flush).register(registry);
+        wrapper.startScheduledTasks(options);
+        return wrapper;
     }
 
     /**
      * 创建Collector Wrapper
      *
-     * @param labelNames           标签名
-     * @param labelMissingStrategy 标签缺失处理逻辑
-     * @param labelExtractorMap    标签解析
-     * @param realCollector        对应原生SDK Collector
+     * @param labelPlan         标签解析计划
+     * @param labelExtractorMap 标签解析
+     * @param options           可选配置
+     * @param realCollector     对应原生SDK Collector
      * @return Collector Wrapper
      */
-    protected abstract Wrapper create(LabelNames labelNames, LabelMissingStrategy labelMissingStrategy, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, RealCollector realCollector);
+    protected abstract Wrapper create(LabelPlan labelPlan, Map<Class<?>, LabelExtractor<?>> labelExtractorMap, WrapperOptions options, RealCollector realCollector);
 }
@@ -0,0 +1,152 @@
+package io.heracles.wrapper.base;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 批量打点的本地预聚合，按Child分组
+ * <p>
+ * 可累加的打点合并为一个总和，覆盖型打点只保留最后一个值；不可累加的打点（observe）无法通过原生SDK合并，
+ * 按Child分组后连续回放。聚合完成后每个Child只被写入一次（observe为一组连续写入）
+ *
+ * @author walter
+ * @date 2021/02/01 20:15
+ **/
+final class BatchAggregate<Child> {
+    private final RecordOp<Child> op;
+    /**
+     * Child -> 累计值，按引用分组
+     */
+    private final Map<Child, Values> values = new IdentityHashMap<>();
+
+    BatchAggregate(RecordOp<Child> op) {
+        this.op = op;
+    }
+
+    void add(Child child, double value) {
+        Values current = this.values.get(child);
+        if (current == null) {
+            current = new Values();
+            this.values.put(child, current);
+        }
+
+        if (this.op.isAdditive()) {
+            current.sum += value;
+        } else if (this.op.isOverwrite()) {
+            current.sum = value;
+        } else {
+            current.addSample(value);
+        }
+    }
+
+    /**
+     * 合并之后的一段批量数据的聚合结果
+     *
+     * @param later 之后的一段，覆盖型打点以它为准
+     */
+    void merge(BatchAggregate<Child> later) {
+        for (Map.Entry<Child, Values> entry : later.values.entrySet()) {
+            Values current = this.values.get(entry.getKey());
+            if (current == null) {
+                this.values.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            Values other = entry.getValue();
+            if (this.op.isAdditive()) {
+                current.sum += other.sum;
+            } else if (this.op.isOverwrite()) {
+                current.sum = other.sum;
+            } else {
+                for (int i = 0; i < other.count; i++) {
+                    current.addSample(other.samples[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 回放聚合结果
+     *
+     * @param applier 写入Child
+     */
+    void replay(RecordOp.Applier<Child> applier) {
+        for (Map.Entry<Child, Values> entry : this.values.entrySet()) {
+            Values current = entry.getValue();
+            if (this.op.isAdditive() || this.op.isOverwrite()) {
+                applier.apply(entry.getKey(), current.sum);
+                continue;
+            }
+
+            for (int i = 0; i < current.count; i++) {
+                applier.apply(entry.getKey(), current.samples[i]);
+            }
+        }
+    }
+
+    private static final class Values {
+        private double sum;
+        private double[] samples;
+        private int count;
+
+        private void addSample(double value) {
+            if (this.samples == null) {
+                this.samples = new double[8];
+            } else if (this.count == this.samples.length) {
+                this.samples = Arrays.copyOf(this.samples, this.count << 1);
+            }
+            this.samples[this.count++] = value;
+        }
+    }
+
+    /**
+     * 把大批量数据拆分到ForkJoinPool中并行解析标签和预聚合
+     */
+    static final class Task<T, Child> extends RecursiveTask<BatchAggregate<Child>> {
+        private static final long serialVersionUID = 1L;
+
+        private final BaseCollectorWrapper<?, ?, Child> wrapper;
+        private final RecordOp<Child> op;
+        private final List<T> objects;
+        private final int from;
+        private final int to;
+        private final Class<T> tClass;
+        private final ToDoubleFunction<? super T> valueFunction;
+        private final int threshold;
+
+        Task(BaseCollectorWrapper<?, ?, Child> wrapper, RecordOp<Child> op, List<T> objects, int from, int to,
+             Class<T> tClass, ToDoubleFunction<? super T> valueFunction, int threshold) {
+            this.wrapper = wrapper;
+            this.op = op;
+            this.objects = objects;
+            this.from = from;
+            this.to = to;
+            this.tClass = tClass;
+            this.valueFunction = valueFunction;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected BatchAggregate<Child> compute() {
+            if (this.to - this.from <= this.threshold) {
+                BatchAggregate<Child> aggregate = new BatchAggregate<>(this.op);
+                for (int i = this.from; i < this.to; i++) {
+                    this.wrapper.aggregate(aggregate, this.objects.get(i), this.tClass, this.valueFunction);
+                }
+                return aggregate;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            Task<T, Child> left = new Task<>(this.wrapper, this.op, this.objects, this.from, middle, this.tClass, this.valueFunction, this.threshold);
+            Task<T, Child> right = new Task<>(this.wrapper, this.op, this.objects, middle, this.to, this.tClass, this.valueFunction, this.threshold);
+            right.fork();
+            BatchAggregate<Child> aggregate = left.compute();
+            aggregate.merge(right.join());
+            return aggregate;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.label.SlotLabels;
+import io.heracles.util.ChangeEpoch;
+import io.heracles.util.CoarseClock;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 标签值组合 -> 原生SDK Child 的缓存
+ * <p>
+ * 命中时跳过原生SDK的labels()（构建List Key、逐个校验标签值、查询ConcurrentHashMap）。
+ * 无锁实现：桶数组的每个桶是不可变链表，写入时CAS替换链表头；
+ * 容量有上限，超过上限后新组合不再缓存，直接走原生SDK。
+ * 开启跟踪时不限制容量，并在每次命中时用低精度时钟记录最近打点时间，用于淘汰空闲组合；
+ * 开启变更跟踪时同样不限制容量，并在每次命中时记录当前变更纪元，用于增量采集。
+ * <p>
+ * 组合数超过桶数组的3/4时持有当前对象锁扩容为两倍：逐个桶CAS为迁移标记后复制到新数组，再发布新数组。
+ * 查询遇到迁移标记按未命中处理，写入遇到迁移标记时等待扩容完成后在新数组上重试；
+ * 与复制同时发生的命中可能只记录在旧节点上，与移除组合时复制节点的情形相同
+ *
+ * @author walter
+ * @date 2021/01/17 11:05
+ **/
+public class ChildCache<Child> {
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 20;
+
+    private static final class Entry<Child> {
+        private final int hash;
+        private final String[] labelValues;
+        private final Child child;
+        private final Entry<Child> next;
+        /**
+         * 最近打点时间，只在开启跟踪时更新
+         */
+        private volatile long lastTouched;
+        /**
+         * 固定的组合不会被淘汰
+         */
+        private volatile boolean pinned;
+        /**
+         * 最近打点时的变更纪元，只在开启变更跟踪时更新
+         */
+        private volatile long changedEpoch;
+
+        private Entry(int hash, String[] labelValues, Child child, Entry<Child> next) {
+            this.hash = hash;
+            this.labelValues = labelValues;
+            this.child = child;
+            this.next = next;
+        }
+
+        private Entry<Child> copy(Entry<Child> next) {
+            Entry<Child> copy = new Entry<>(this.hash, this.labelValues, this.child, next);
+            copy.lastTouched = this.lastTouched;
+            copy.pinned = this.pinned;
+            copy.changedEpoch = this.changedEpoch;
+            return copy;
+        }
+
+        private void markChanged() {
+            long epoch = ChangeEpoch.current();
+            if (this.changedEpoch != epoch) {
+                this.changedEpoch = epoch;
+            }
+        }
+
+        private void touch() {
+            long now = CoarseClock.currentTimeMillis();
+            // 同一时钟刻度内只写一次，减少多核间的缓存行争用
+            if (this.lastTouched != now) {
+                this.lastTouched = now;
+            }
+        }
+    }
+
+    /**
+     * 桶数组，扩容时整体替换
+     */
+    private volatile AtomicReferenceArray<Entry<Child>> table;
+    /**
+     * 已迁移到新数组的桶的链表头
+     */
+    private final Entry<Child> moved = new Entry<>(0, null, null, null);
+    /**
+     * 扩容与遍历互斥，写入不持有
+     */
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    /**
+     * 缓存组合数上限，并发写入时可能被少量超出
+     */
+    private final int maxSize;
+    /**
+     * 是否跟踪最近打点时间
+     */
+    private final boolean tracking;
+    /**
+     * 是否跟踪变更纪元
+     */
+    private final boolean trackChanges;
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public ChildCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * @param maxSize  缓存组合数上限，开启跟踪时只用于确定桶数组大小
+     * @param tracking 是否跟踪最近打点时间
+     */
+    public ChildCache(int maxSize, boolean tracking) {
+        this(maxSize, tracking, false);
+    }
+
+    /**
+     * @param maxSize      缓存组合数上限，开启任一跟踪时只用于确定桶数组大小
+     * @param tracking     是否跟踪最近打点时间
+     * @param trackChanges 是否跟踪变更纪元
+     */
+    public ChildCache(int maxSize, boolean tracking, boolean trackChanges) {
+        this.maxSize = tracking || trackChanges ? Integer.MAX_VALUE : maxSize;
+        this.tracking = tracking;
+        this.trackChanges = trackChanges;
+        int tableSize = 1;
+        while (tableSize < maxSize && tableSize < MAXIMUM_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+        this.table = new AtomicReferenceArray<>(tableSize);
+    }
+
+    /**
+     * 查询标签值组合对应的Child
+     *
+     * @param labels 已填充完整的标签组合
+     * @return Child，未命中返回null
+     */
+    public Child get(SlotLabels labels) {
+        int hash = labels.hashValues();
+        AtomicReferenceArray<Entry<Child>> table = this.table;
+        for (Entry<Child> entry = table.get(hash & (table.length() - 1)); entry != null; entry = entry.next) {
+            if (entry.hash == hash && entry != this.moved && labels.equalValues(entry.labelValues)) {
+                this.hitCount.increment();
+                if (this.tracking) {
+                    entry.touch();
+                }
+                if (this.trackChanges) {
+                    entry.markChanged();
+                }
+                return entry.child;
+            }
+        }
+
+        this.missCount.increment();
+        return null;
+    }
+
+    /**
+     * 缓存标签值组合对应的Child
+     *
+     * @param labelValues 标签值，缓存后不可再修改
+     * @param child       原生SDK Child
+     * @return 已缓存的Child（并发写入时以先写入者为准），超过容量上限时返回传入的Child
+     */
+    public Child put(String[] labelValues, Child child) {
+        int hash = SlotLabels.hashValues(labelValues);
+        while (true) {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            int index = hash & (table.length() - 1);
+            Entry<Child> head = table.get(index);
+            if (head == this.moved) {
+                awaitResize(table);
+                continue;
+            }
+            for (Entry<Child> entry = head; entry != null; entry = entry.next) {
+                if (entry.hash == hash && Arrays.equals(entry.labelValues, labelValues)) {
+                    if (this.trackChanges) {
+                        entry.markChanged();
+                    }
+                    return entry.child;
+                }
+            }
+
+            if (this.size.get() >= this.maxSize) {
+                return child;
+            }
+
+            Entry<Child> newEntry = new Entry<>(hash, labelValues, child, head);
+            if (this.tracking) {
+                newEntry.touch();
+            }
+            if (this.trackChanges) {
+                newEntry.markChanged();
+            }
+            if (table.compareAndSet(index, head, newEntry)) {
+                int size = this.size.incrementAndGet();
+                if (size > table.length() - (table.length() >>> 2) && table.length() < MAXIMUM_TABLE_SIZE) {
+                    resize(table);
+                }
+                return child;
+            }
+        }
+    }
+
+    /**
+     * 移除标签值组合
+     *
+     * @param labelValues 标签值
+     */
+    public void remove(String[] labelValues) {
+        removeEntry(SlotLabels.hashValues(labelValues), labelValues);
+    }
+
+    /**
+     * 固定标签值组合，不再被淘汰
+     *
+     * @param labelValues 标签值
+     */
+    public void pin(String[] labelValues) {
+        int hash = SlotLabels.hashValues(labelValues);
+        while (true) {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            int index = hash & (table.length() - 1);
+            Entry<Child> head = table.get(index);
+            if (head == this.moved) {
+                awaitResize(table);
+                continue;
+            }
+            for (Entry<Child> entry = head; entry != null; entry = entry.next) {
+                if (entry.hash == hash && Arrays.equals(entry.labelValues, labelValues)) {
+                    entry.pinned = true;
+                    break;
+                }
+            }
+            // 桶已迁移时，迁移可能复制了固定之前的组合，在新数组上重新固定
+            if (table.get(index) != this.moved) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 淘汰超过空闲时间没有打点且未固定的标签值组合，只在开启跟踪时有效
+     *
+     * @param idleMillis 空闲时间（毫秒）
+     * @param listener   先于从缓存移除调用，用于从实际采集器移除对应Child
+     * @return 淘汰的组合数
+     */
+    public int expire(long idleMillis, Consumer<String[]> listener) {
+        if (!this.tracking) {
+            return 0;
+        }
+
+        long deadline = CoarseClock.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        // 遍历期间不扩容
+        this.resizeLock.lock();
+        try {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Entry<Child> entry = table.get(i); entry != null; entry = entry.next) {
+                    if (entry.pinned || entry.lastTouched >= deadline) {
+                        continue;
+                    }
+
+                    // 先从实际采集器移除：移除期间命中缓存的打点写入旧Child，之后未命中时重新创建
+                    listener.accept(entry.labelValues);
+                    if (removeEntry(entry.hash, entry.labelValues)) {
+                        evicted++;
+                    }
+                }
+            }
+        } finally {
+            this.resizeLock.unlock();
+        }
+        return evicted;
+    }
+
+    /**
+     * 遍历在给定纪元及之后变更过的标签值组合，固定的组合总是视为已变更；只在开启变更跟踪时有效
+     *
+     * @param sinceEpoch 起始纪元
+     * @param consumer   标签值 -> Child，标签值不可修改
+     */
+    public void forEachChangedSince(long sinceEpoch, BiConsumer<String[], Child> consumer) {
+        if (!this.trackChanges) {
+            return;
+        }
+
+        // 遍历期间不扩容，每个组合只遍历一次
+        this.resizeLock.lock();
+        try {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Entry<Child> entry = table.get(i); entry != null; entry = entry.next) {
+                    if (entry.pinned || entry.changedEpoch >= sinceEpoch) {
+                        consumer.accept(entry.labelValues, entry.child);
+                    }
+                }
+            }
+        } finally {
+            this.resizeLock.unlock();
+        }
+    }
+
+    private boolean removeEntry(int hash, String[] labelValues) {
+        while (true) {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            int index = hash & (table.length() - 1);
+            Entry<Child> head = table.get(index);
+            if (head == this.moved) {
+                awaitResize(table);
+                continue;
+            }
+            Entry<Child> target = head;
+            while (target != null && !(target.hash == hash && Arrays.equals(target.labelValues, labelValues))) {
+                target = target.next;
+            }
+            if (target == null) {
+                return false;
+            }
+
+            // 不可变链表，复制目标之前的节点
+            Entry<Child> newHead = target.next;
+            for (Entry<Child> entry = head; entry != target; entry = entry.next) {
+                newHead = entry.copy(newHead);
+            }
+            if (table.compareAndSet(index, head, newHead)) {
+                this.size.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 扩容为两倍，其他线程正在扩容或遍历时放弃，由之后的写入重新触发
+     *
+     * @param table 触发扩容时的桶数组
+     */
+    private void resize(AtomicReferenceArray<Entry<Child>> table) {
+        if (!this.resizeLock.tryLock()) {
+            return;
+        }
+        try {
+            if (this.table != table) {
+                return;
+            }
+
+            AtomicReferenceArray<Entry<Child>> resized = new AtomicReferenceArray<>(table.length() << 1);
+            int mask = resized.length() - 1;
+            for (int i = 0; i < table.length(); i++) {
+                // 迁移标记之后旧桶不再变化，并发的写入等待新数组发布后重试
+                Entry<Child> head = table.getAndSet(i, this.moved);
+                for (Entry<Child> entry = head; entry != null; entry = entry.next) {
+                    int index = entry.hash & mask;
+                    resized.set(index, entry.copy(resized.get(index)));
+                }
+            }
+            this.table = resized;
+        } finally {
+            this.resizeLock.unlock();
+        }
+    }
+
+    /**
+     * 等待扩容完成
+     *
+     * @param table 遇到迁移标记的桶数组
+     */
+    private void awaitResize(AtomicReferenceArray<Entry<Child>> table) {
+        if (this.table == table) {
+            this.resizeLock.lock();
+            this.resizeLock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        this.resizeLock.lock();
+        try {
+            AtomicReferenceArray<Entry<Child>> table = this.table;
+            for (int i = 0; i < table.length(); i++) {
+                Entry<Child> head = table.getAndSet(i, null);
+                int removed = 0;
+                for (Entry<Child> entry = head; entry != null; entry = entry.next) {
+                    removed++;
+                }
+                if (removed > 0) {
+                    this.size.addAndGet(-removed);
+                }
+            }
+        } finally {
+            this.resizeLock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前桶数组大小
+     */
+    public int tableSize() {
+        return this.table.length();
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+}
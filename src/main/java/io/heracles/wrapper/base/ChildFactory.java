@@ -0,0 +1,44 @@
+package io.heracles.wrapper.base;
+
+import java.util.function.BiConsumer;
+
+/**
+ * 自定义Child的创建，用于把组合的值保存在原生SDK之外（如内存映射文件）
+ * <p>
+ * 创建的Child通过{@link io.prometheus.client.SimpleCollector#setChild(Object, String...)}安装到实际采集器，
+ * 采集仍由实际采集器完成。同一标签值组合应当返回同一个Child
+ *
+ * @author walter
+ * @date 2021/02/09 21:10
+ **/
+public interface ChildFactory<Child> {
+    /**
+     * 创建或获取标签值组合对应的Child
+     *
+     * @param labelValues 按标签声明顺序排列的标签值
+     * @return Child；返回null时由实际采集器创建普通Child
+     */
+    Child newChild(String[] labelValues);
+
+    /**
+     * Wrapper创建时调用，用于恢复已有的组合
+     *
+     * @param consumer 标签值 -> Child
+     */
+    default void forEachRestored(BiConsumer<String[], Child> consumer) {
+    }
+
+    /**
+     * 标签值组合被移除
+     *
+     * @param labelValues 按标签声明顺序排列的标签值
+     */
+    default void removed(String[] labelValues) {
+    }
+
+    /**
+     * 所有组合被移除
+     */
+    default void cleared() {
+    }
+}
@@ -0,0 +1,102 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.label.Labels;
+import io.heracles.label.SlotLabels;
+import io.heracles.label.extractor.LabelExtractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按对象的运行时类型查找标签解析
+ * <p>
+ * 沿父类和接口向上查找所有注册过的标签解析，按类型计算一次后缓存在{@link ClassValue}中，之后的查找只是一次字段读取。
+ * 多个解析按从泛化到具体的固定顺序依次应用，同名标签以最具体类型的解析为准
+ *
+ * @author walter
+ * @date 2021/01/30 10:20
+ **/
+final class ExtractorResolver {
+    private static final LabelExtractor<?>[] NO_EXTRACTORS = new LabelExtractor<?>[0];
+
+    /**
+     * 目标类型 -> 标签解析，构造时拷贝，之后不变
+     */
+    private final Map<Class<?>, LabelExtractor<?>> labelExtractorMap;
+    private final ClassValue<LabelExtractor<?>[]> resolved = new ClassValue<LabelExtractor<?>[]>() {
+        @Override
+        protected LabelExtractor<?>[] computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    ExtractorResolver(Map<Class<?>, LabelExtractor<?>> labelExtractorMap) {
+        this.labelExtractorMap = labelExtractorMap == null ? Collections.emptyMap() : new HashMap<>(labelExtractorMap);
+    }
+
+    /**
+     * 从目标对象解析标签并写入标签组合
+     *
+     * @param object 目标对象
+     * @param labels 标签组合
+     */
+    @SuppressWarnings("unchecked")
+    void extractTo(Object object, SlotLabels labels) {
+        if (object == null) {
+            return;
+        }
+
+        for (LabelExtractor<?> extractor : this.resolved.get(object.getClass())) {
+            Labels extracted = ((LabelExtractor<Object>) extractor).extractLabels(object);
+            labels.with(extracted);
+        }
+    }
+
+    private LabelExtractor<?>[] resolve(Class<?> type) {
+        if (this.labelExtractorMap.isEmpty()) {
+            return NO_EXTRACTORS;
+        }
+
+        Set<Class<?>> hierarchy = new LinkedHashSet<>();
+        collect(type, hierarchy);
+
+        List<LabelExtractor<?>> extractors = new ArrayList<>();
+        for (Class<?> candidate : hierarchy) {
+            LabelExtractor<?> extractor = this.labelExtractorMap.get(candidate);
+            if (extractor != null) {
+                extractors.add(extractor);
+            }
+        }
+        // 从泛化到具体应用，具体类型的解析覆盖同名标签
+        Collections.reverse(extractors);
+        return extractors.isEmpty() ? NO_EXTRACTORS : extractors.toArray(NO_EXTRACTORS);
+    }
+
+    /**
+     * 按从具体到泛化的顺序收集类型：先是自身到Object的父类链，再是父类链上各类声明的接口（按声明顺序，递归父接口），
+     * 因此父类上的解析优先于接口上的解析
+     */
+    private static void collect(Class<?> type, Set<Class<?>> hierarchy) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            classes.add(current);
+            hierarchy.add(current);
+        }
+        for (Class<?> current : classes) {
+            collectInterfaces(current, hierarchy);
+        }
+    }
+
+    private static void collectInterfaces(Class<?> type, Set<Class<?>> hierarchy) {
+        for (Class<?> anInterface : type.getInterfaces()) {
+            if (hierarchy.add(anInterface)) {
+                collectInterfaces(anInterface, hierarchy);
+            }
+        }
+    }
+}
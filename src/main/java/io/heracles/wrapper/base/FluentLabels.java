@@ -0,0 +1,91 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.label.LabelPlan;
+import io.heracles.label.SlotLabels;
+
+/**
+ * 链式调用label(...)时暂存的标签
+ * <p>
+ * 每个线程复用同一个按标签位存储的标签组合，打点结束后清空，稳定状态下打点不分配对象。
+ * 每个线程的状态中同时保存该线程复用的计时范围，见{@link TimerScope}。
+ * <p>
+ * JDK 21及以上由Multi-Release JAR中的Java 21实现替代：虚拟线程不使用ThreadLocal，空闲的虚拟线程不持有任何标签状态
+ *
+ * @author walter
+ * @date 2021/01/20 22:08
+ **/
+final class FluentLabels<Child> {
+    private final LabelPlan labelPlan;
+    private final ThreadLocal<ThreadState<Child>> states = new ThreadLocal<>();
+
+    FluentLabels(LabelPlan labelPlan) {
+        this.labelPlan = labelPlan;
+    }
+
+    /**
+     * 获取当前线程暂存的标签，不存在时创建
+     *
+     * @return 标签组合
+     */
+    SlotLabels get() {
+        ThreadState<Child> state = state();
+        if (state.labels == null) {
+            state.labels = SlotLabels.newInstance(this.labelPlan);
+        }
+        return state.labels;
+    }
+
+    /**
+     * 获取当前线程暂存的标签
+     *
+     * @return 标签组合，不存在时返回null
+     */
+    SlotLabels peek() {
+        ThreadState<Child> state = this.states.get();
+        return state == null ? null : state.labels;
+    }
+
+    /**
+     * 打点结束后清空当前线程暂存的标签
+     */
+    void clean() {
+        SlotLabels labels = peek();
+        if (labels != null) {
+            labels.clear();
+        }
+    }
+
+    /**
+     * @return 当前线程复用的计时范围，未创建时返回null
+     */
+    TimerScope<Child> timerScope() {
+        ThreadState<Child> state = this.states.get();
+        return state == null ? null : state.timerScope;
+    }
+
+    /**
+     * 保存当前线程复用的计时范围
+     *
+     * @param timerScope 计时范围
+     */
+    void setTimerScope(TimerScope<Child> timerScope) {
+        state().timerScope = timerScope;
+    }
+
+    private ThreadState<Child> state() {
+        ThreadState<Child> state = this.states.get();
+        if (state == null) {
+            state = new ThreadState<>();
+            this.states.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * 线程独占的状态，只在所属线程中访问
+     */
+    private static final class ThreadState<Child> {
+        private SlotLabels labels;
+        private TimerScope<Child> timerScope;
+    }
+}
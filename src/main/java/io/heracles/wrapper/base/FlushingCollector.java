@@ -0,0 +1,37 @@
+package io.heracles.wrapper.base;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.SimpleCollector;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 代替实际采集器注册到CollectorRegistry，每次采集前先把缓冲的打点写入实际采集器
+ *
+ * @author walter
+ * @date 2021/01/24 11:30
+ **/
+class FlushingCollector extends Collector implements Collector.Describable {
+    private final SimpleCollector<?> realCollector;
+    private final Runnable flusher;
+
+    FlushingCollector(SimpleCollector<?> realCollector, Runnable flusher) {
+        this.realCollector = realCollector;
+        this.flusher = flusher;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        this.flusher.run();
+        return this.realCollector.collect();
+    }
+
+    @Override
+    public List<MetricFamilySamples> describe() {
+        if (this.realCollector instanceof Describable) {
+            return ((Describable) this.realCollector).describe();
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,361 @@
+package io.heracles.wrapper.base;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按线程缓冲的打点
+ * <p>
+ * 每个线程独占一份缓冲，打点线程只做普通写入和有序写（lazySet），不做CAS；
+ * 后台定时任务以及每次采集前调用{@link #flush()}把缓冲写入实际Child。
+ * 可累加的打点按Child累加，不可累加的打点写入单生产者单消费者环形队列。缓冲从较小的容量开始，
+ * 在flushLock内写入Child后按两倍扩容，直到最大缓冲Child数；缓冲满时直接写入Child。
+ * 覆盖型打点不缓冲：先在flushLock内写入所有线程的缓冲，再直接写入Child，覆盖之前所有线程已缓冲的打点，
+ * 因此开启缓冲时频繁的覆盖型打点代价较高。线程结束后，其缓冲会在下一次flush时被完整写入并移除
+ *
+ * @author walter
+ * @date 2021/01/24 10:45
+ **/
+public class RecordBuffer<Child> {
+    /**
+     * 不可累加打点的环形队列最大容量 = 最大缓冲Child数 * 该值
+     */
+    private static final int SAMPLES_PER_SERIES = 64;
+    /**
+     * 可累加打点的Child索引以及环形队列的初始容量
+     */
+    private static final int INITIAL_SERIES_CAPACITY = 16;
+    private static final int INITIAL_SAMPLE_CAPACITY = 64;
+
+    private final int maxBufferedSeries;
+    private final int sampleCapacity;
+    private final ThreadLocal<ThreadBuffer<Child>> threadBuffers = new ThreadLocal<>();
+    private final Queue<ThreadBuffer<Child>> allBuffers = new ConcurrentLinkedQueue<>();
+    private final Object flushLock = new Object();
+    /**
+     * 缓冲已满、直接写入Child的打点数
+     */
+    private final LongAdder writeThroughCount = new LongAdder();
+
+    public RecordBuffer(int maxBufferedSeries) {
+        this.maxBufferedSeries = maxBufferedSeries;
+        this.sampleCapacity = tableSizeFor(maxBufferedSeries * SAMPLES_PER_SERIES);
+    }
+
+    /**
+     * 打点写入当前线程的缓冲
+     *
+     * @param op    打点
+     * @param child Child
+     * @param value 值
+     */
+    public void record(RecordOp<Child> op, Child child, double value) {
+        if (op.isOverwrite()) {
+            synchronized (this.flushLock) {
+                flush();
+                op.apply(child, value);
+            }
+            return;
+        }
+
+        ThreadBuffer<Child> buffer = this.threadBuffers.get();
+        if (buffer == null) {
+            buffer = new ThreadBuffer<>(Thread.currentThread(), this.maxBufferedSeries, this.sampleCapacity);
+            this.threadBuffers.set(buffer);
+            this.allBuffers.add(buffer);
+        }
+        if (buffer.resetRequested) {
+            synchronized (this.flushLock) {
+                buffer.drain();
+                buffer.resetSeries();
+            }
+        }
+
+        if (!buffer.offer(op, child, value)) {
+            if (buffer.canGrow(op)) {
+                synchronized (this.flushLock) {
+                    buffer.drain();
+                    buffer.grow(op);
+                }
+                if (buffer.offer(op, child, value)) {
+                    return;
+                }
+            }
+            this.writeThroughCount.increment();
+            op.apply(child, value);
+        }
+    }
+
+    /**
+     * 把所有线程的缓冲写入Child，并移除已结束线程的缓冲
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            Iterator<ThreadBuffer<Child>> iterator = this.allBuffers.iterator();
+            while (iterator.hasNext()) {
+                ThreadBuffer<Child> buffer = iterator.next();
+                // 线程结束先于isAlive()返回false，此后的drain能看到它的全部写入
+                boolean dead = !buffer.owner.isAlive();
+                buffer.drain();
+                if (dead) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前线程的缓冲写入Child
+     */
+    public void flushCurrentThread() {
+        ThreadBuffer<Child> buffer = this.threadBuffers.get();
+        if (buffer == null) {
+            return;
+        }
+
+        synchronized (this.flushLock) {
+            buffer.drain();
+        }
+    }
+
+    /**
+     * 要求各线程在下一次打点时清空缓冲的Child索引，在实际采集器移除Child后调用，避免缓冲被已移除的Child占满
+     */
+    public void reset() {
+        for (ThreadBuffer<Child> buffer : this.allBuffers) {
+            buffer.resetRequested = true;
+        }
+    }
+
+    public long getWriteThroughCount() {
+        return this.writeThroughCount.sum();
+    }
+
+    private static int tableSizeFor(int size) {
+        int tableSize = 1;
+        while (tableSize < size && tableSize < (1 << 30)) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static final class ThreadBuffer<Child> {
+        private final Thread owner;
+        private final int maxSeries;
+        private final int maxSampleCapacity;
+
+        // ---------- 可累加打点：Child -> 累计值，由打点线程写入，flush读取；数组只在flushLock内替换 ----------
+        private int seriesMask;
+        /**
+         * 打点线程本地的Child索引
+         */
+        private Object[] localChildren;
+        /**
+         * 打点线程本地的累计值
+         */
+        private double[] localSums;
+        private RecordOp<?>[] ops;
+        private AtomicReferenceArray<Child> children;
+        private AtomicLongArray sums;
+        /**
+         * flush已写入的累计值，只由flush访问
+         */
+        private double[] flushed;
+        private int seriesSize;
+        /**
+         * 由{@link #reset()}设置，打点线程清空Child索引后复位
+         */
+        private volatile boolean resetRequested;
+
+        // ---------- 不可累加打点：单生产者单消费者环形队列；数组只在flushLock内、队列为空时替换 ----------
+        private int sampleMask;
+        private Object[] sampleChildren;
+        private RecordOp<?>[] sampleOps;
+        private double[] sampleValues;
+        private final AtomicLong sampleTail = new AtomicLong();
+        private final AtomicLong sampleHead = new AtomicLong();
+        /**
+         * 打点线程本地的队尾以及缓存的队头
+         */
+        private long localTail;
+        private long cachedHead;
+
+        private ThreadBuffer(Thread owner, int maxSeries, int maxSampleCapacity) {
+            this.owner = owner;
+            this.maxSeries = maxSeries;
+            this.maxSampleCapacity = maxSampleCapacity;
+            allocateSeries(Math.min(INITIAL_SERIES_CAPACITY, tableSizeFor(maxSeries * 2)));
+            allocateSamples(Math.min(INITIAL_SAMPLE_CAPACITY, maxSampleCapacity));
+        }
+
+        private void allocateSeries(int seriesCapacity) {
+            this.seriesMask = seriesCapacity - 1;
+            this.localChildren = new Object[seriesCapacity];
+            this.localSums = new double[seriesCapacity];
+            this.ops = new RecordOp<?>[seriesCapacity];
+            this.children = new AtomicReferenceArray<>(seriesCapacity);
+            this.sums = new AtomicLongArray(seriesCapacity);
+            this.flushed = new double[seriesCapacity];
+        }
+
+        private void allocateSamples(int sampleCapacity) {
+            this.sampleMask = sampleCapacity - 1;
+            this.sampleChildren = new Object[sampleCapacity];
+            this.sampleOps = new RecordOp<?>[sampleCapacity];
+            this.sampleValues = new double[sampleCapacity];
+        }
+
+        /**
+         * 写入缓冲，只由打点线程调用
+         *
+         * @return 缓冲已满返回false
+         */
+        private boolean offer(RecordOp<Child> op, Child child, double value) {
+            return op.isAdditive() ? offerAdditive(op, child, value) : offerSample(op, child, value);
+        }
+
+        private boolean offerAdditive(RecordOp<Child> op, Child child, double value) {
+            int index = System.identityHashCode(child) & this.seriesMask;
+            while (this.localChildren[index] != null && this.localChildren[index] != child) {
+                index = (index + 1) & this.seriesMask;
+            }
+
+            if (this.localChildren[index] == null) {
+                // 负载因子不超过1/2
+                if (this.seriesSize >= this.maxSeries || this.seriesSize >= (this.seriesMask + 1) >>> 1) {
+                    return false;
+                }
+
+                this.seriesSize++;
+                this.localChildren[index] = child;
+                this.ops[index] = op;
+                this.localSums[index] = value;
+                this.sums.lazySet(index, Double.doubleToRawLongBits(value));
+                // 最后发布Child，flush读到Child时op和累计值都已可见
+                this.children.lazySet(index, child);
+                return true;
+            }
+
+            this.localSums[index] += value;
+            this.sums.lazySet(index, Double.doubleToRawLongBits(this.localSums[index]));
+            return true;
+        }
+
+        private boolean offerSample(RecordOp<Child> op, Child child, double value) {
+            long tail = this.localTail;
+            if (tail - this.cachedHead > this.sampleMask) {
+                this.cachedHead = this.sampleHead.get();
+                if (tail - this.cachedHead > this.sampleMask) {
+                    return false;
+                }
+            }
+
+            int index = (int) tail & this.sampleMask;
+            this.sampleChildren[index] = child;
+            this.sampleOps[index] = op;
+            this.sampleValues[index] = value;
+            this.localTail = tail + 1;
+            this.sampleTail.lazySet(tail + 1);
+            return true;
+        }
+
+        /**
+         * @return 写入失败的缓冲是否还能扩容，只由打点线程调用
+         */
+        private boolean canGrow(RecordOp<Child> op) {
+            if (op.isAdditive()) {
+                return this.seriesSize < this.maxSeries;
+            }
+            return this.sampleMask + 1 < this.maxSampleCapacity;
+        }
+
+        /**
+         * 扩容为两倍，只由打点线程在flushLock内、drain之后调用
+         */
+        private void grow(RecordOp<Child> op) {
+            if (op.isAdditive()) {
+                growSeries();
+            } else {
+                // drain之后队列为空，队头队尾不变，新数组按新的掩码取下标
+                allocateSamples((this.sampleMask + 1) << 1);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void growSeries() {
+            Object[] oldChildren = this.localChildren;
+            double[] oldSums = this.localSums;
+            RecordOp<?>[] oldOps = this.ops;
+            allocateSeries(oldChildren.length << 1);
+            for (int i = 0; i < oldChildren.length; i++) {
+                Object child = oldChildren[i];
+                if (child == null) {
+                    continue;
+                }
+
+                int index = System.identityHashCode(child) & this.seriesMask;
+                while (this.localChildren[index] != null) {
+                    index = (index + 1) & this.seriesMask;
+                }
+                this.localChildren[index] = child;
+                this.ops[index] = oldOps[i];
+                // drain之后累计值均已写入
+                this.localSums[index] = oldSums[i];
+                this.flushed[index] = oldSums[i];
+                this.sums.set(index, Double.doubleToRawLongBits(oldSums[i]));
+                this.children.set(index, (Child) child);
+            }
+        }
+
+        /**
+         * 清空可累加打点的Child索引，只由打点线程在flushLock内、drain之后调用
+         */
+        private void resetSeries() {
+            Arrays.fill(this.localChildren, null);
+            Arrays.fill(this.localSums, 0);
+            Arrays.fill(this.ops, null);
+            Arrays.fill(this.flushed, 0);
+            for (int i = 0; i < this.flushed.length; i++) {
+                this.children.set(i, null);
+                this.sums.set(i, 0L);
+            }
+            this.seriesSize = 0;
+            this.resetRequested = false;
+        }
+
+        /**
+         * 把缓冲写入Child，只在flushLock内调用
+         */
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            for (int i = 0; i < this.flushed.length; i++) {
+                Child child = this.children.get(i);
+                if (child == null) {
+                    continue;
+                }
+
+                double sum = Double.longBitsToDouble(this.sums.get(i));
+                double delta = sum - this.flushed[i];
+                if (delta != 0) {
+                    ((RecordOp<Child>) this.ops[i]).apply(child, delta);
+                    this.flushed[i] = sum;
+                }
+            }
+
+            long head = this.sampleHead.get();
+            long tail = this.sampleTail.get();
+            for (; head < tail; head++) {
+                int index = (int) head & this.sampleMask;
+                ((RecordOp<Child>) this.sampleOps[index]).apply((Child) this.sampleChildren[index], this.sampleValues[index]);
+                this.sampleChildren[index] = null;
+            }
+            this.sampleHead.lazySet(tail);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.heracles.wrapper.base;
+
+/**
+ * 在Child上执行的一次打点
+ * <p>
+ * 可累加的打点（Counter/Gauge的inc）在缓冲、异步等模式下可以先合并再写入Child，
+ * 不可累加的打点（Histogram/Summary的observe）只能逐个写入，
+ * 覆盖型打点（Gauge的set）依赖与之前打点的先后顺序，不能缓冲
+ *
+ * @author walter
+ * @date 2021/01/24 10:02
+ **/
+public abstract class RecordOp<Child> {
+    private enum Kind {
+        ADDITIVE, SAMPLE, OVERWRITE
+    }
+
+    private final Kind kind;
+
+    private RecordOp(Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * 可累加的打点，同一个Child上的多次打点可以合并为一次
+     *
+     * @param applier 写入Child
+     * @param <Child> Child类型
+     * @return 打点
+     */
+    public static <Child> RecordOp<Child> additive(Applier<Child> applier) {
+        return new RecordOp<Child>(Kind.ADDITIVE) {
+            @Override
+            public void apply(Child child, double value) {
+                applier.apply(child, value);
+            }
+        };
+    }
+
+    /**
+     * 不可累加的打点，每个值都需要单独写入Child
+     *
+     * @param applier 写入Child
+     * @param <Child> Child类型
+     * @return 打点
+     */
+    public static <Child> RecordOp<Child> sample(Applier<Child> applier) {
+        return new RecordOp<Child>(Kind.SAMPLE) {
+            @Override
+            public void apply(Child child, double value) {
+                applier.apply(child, value);
+            }
+        };
+    }
+
+    /**
+     * 覆盖型打点，写入前需要先写入之前缓冲的打点
+     *
+     * @param applier 写入Child
+     * @param <Child> Child类型
+     * @return 打点
+     */
+    public static <Child> RecordOp<Child> overwrite(Applier<Child> applier) {
+        return new RecordOp<Child>(Kind.OVERWRITE) {
+            @Override
+            public void apply(Child child, double value) {
+                applier.apply(child, value);
+            }
+        };
+    }
+
+    /**
+     * 将值写入Child
+     *
+     * @param child Child
+     * @param value 值
+     */
+    public abstract void apply(Child child, double value);
+
+    public boolean isAdditive() {
+        return this.kind == Kind.ADDITIVE;
+    }
+
+    public boolean isOverwrite() {
+        return this.kind == Kind.OVERWRITE;
+    }
+
+    @FunctionalInterface
+    public interface Applier<Child> {
+        void apply(Child child, double value);
+    }
+}
@@ -0,0 +1,90 @@
+package io.heracles.wrapper.base;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 空闲标签值组合的淘汰统计
+ * <p>
+ * 超过存活时间没有打点的组合会被后台定时任务从实际采集器中移除，之后再次打点时重新创建，从0开始计数
+ *
+ * @author walter
+ * @date 2021/01/29 20:30
+ **/
+public class SeriesExpiry {
+    private final long ttlMillis;
+    private final IntSupplier seriesCount;
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder sweepCount = new LongAdder();
+
+    SeriesExpiry(long ttlMillis, IntSupplier seriesCount) {
+        this.ttlMillis = ttlMillis;
+        this.seriesCount = seriesCount;
+    }
+
+    void recordSweep(int evicted) {
+        this.sweepCount.increment();
+        this.evictedCount.add(evicted);
+    }
+
+    /**
+     * 存活时间（毫秒）
+     *
+     * @return 存活时间
+     */
+    public long getTtlMillis() {
+        return this.ttlMillis;
+    }
+
+    /**
+     * 累计淘汰的组合数
+     *
+     * @return 淘汰数
+     */
+    public long getEvictedCount() {
+        return this.evictedCount.sum();
+    }
+
+    /**
+     * 累计执行淘汰的次数
+     *
+     * @return 执行次数
+     */
+    public long getSweepCount() {
+        return this.sweepCount.sum();
+    }
+
+    /**
+     * 当前跟踪的组合数
+     *
+     * @return 组合数
+     */
+    public int getSeriesCount() {
+        return this.seriesCount.getAsInt();
+    }
+
+    /**
+     * 暴露淘汰统计的采集器，需要自行注册
+     *
+     * @param name 指标名前缀
+     * @return 采集器
+     */
+    public Collector metricsCollector(String name) {
+        return new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                List<MetricFamilySamples> samples = new ArrayList<>(3);
+                samples.add(new CounterMetricFamily(name + "_evicted_total", "Idle series evicted from the collector", getEvictedCount()));
+                samples.add(new CounterMetricFamily(name + "_sweeps_total", "Idle series sweeps executed", getSweepCount()));
+                samples.add(new GaugeMetricFamily(name + "_series", "Series currently tracked for expiry", getSeriesCount()));
+                return samples;
+            }
+        };
+    }
+}
@@ -0,0 +1,190 @@
+package io.heracles.wrapper.base;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 限制单个Collector Wrapper的标签值组合数
+ * <p>
+ * 只记录标签值组合的64位指纹，存放在开放寻址的long数组中，每个组合占用16字节左右。
+ * 查询无锁，新增和删除加锁；只在Child缓存未命中时才会走到这里。
+ * 溢出的组合不进入Child缓存，每次打点都会走到这里，因此拒绝按打点次数计数：
+ * 按组合去重需要记录被拒绝的指纹，其数量正是这里要限制的无界输入
+ *
+ * @author walter
+ * @date 2021/01/28 21:05
+ **/
+public class SeriesLimiter {
+    private static final long EMPTY = 0L;
+    private static final long REMOVED = 1L;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxSeries;
+    private volatile AtomicLongArray table;
+    /**
+     * 只在加锁时修改，volatile使已满时的拒绝不必加锁
+     */
+    private volatile int size;
+    /**
+     * 以下字段只在加锁时访问
+     */
+    private int removed;
+    /**
+     * 被拒绝的打点次数，同一个溢出组合每次打点都计数
+     */
+    private final LongAdder rejectedRecordCount = new LongAdder();
+
+    public SeriesLimiter(int maxSeries) {
+        this.maxSeries = maxSeries;
+        this.table = new AtomicLongArray(tableSizeFor(maxSeries));
+    }
+
+    /**
+     * 标签值组合是否允许上报，未超过上限的新组合会被记录
+     *
+     * @param labelValues 标签值
+     * @return false代表已超过上限，应当上报到溢出组合
+     */
+    public boolean admit(String[] labelValues) {
+        long fingerprint = fingerprint(labelValues);
+        if (indexOf(this.table, fingerprint) >= 0) {
+            return true;
+        }
+        if (this.size >= this.maxSeries) {
+            this.rejectedRecordCount.increment();
+            return false;
+        }
+
+        synchronized (this) {
+            AtomicLongArray current = this.table;
+            if (indexOf(current, fingerprint) >= 0) {
+                return true;
+            }
+
+            if (this.size >= this.maxSeries) {
+                this.rejectedRecordCount.increment();
+                return false;
+            }
+
+            int mask = current.length() - 1;
+            int index = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+            while (current.get(index) != EMPTY && current.get(index) != REMOVED) {
+                index = (index + 1) & mask;
+            }
+            if (current.get(index) == REMOVED) {
+                this.removed--;
+            }
+            current.set(index, fingerprint);
+            this.size++;
+            return true;
+        }
+    }
+
+    /**
+     * 删除标签值组合，腾出名额
+     *
+     * @param labelValues 标签值
+     */
+    public void remove(String[] labelValues) {
+        long fingerprint = fingerprint(labelValues);
+        synchronized (this) {
+            AtomicLongArray current = this.table;
+            int index = indexOf(current, fingerprint);
+            if (index < 0) {
+                return;
+            }
+
+            current.set(index, REMOVED);
+            this.size--;
+            this.removed++;
+            // 删除标记过多时重建，保证查询的探测长度
+            if (this.removed > current.length() / 4) {
+                rebuild(current);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.table = new AtomicLongArray(this.table.length());
+        this.size = 0;
+        this.removed = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getMaxSeries() {
+        return this.maxSeries;
+    }
+
+    /**
+     * 因超过上限而被上报到溢出组合的打点次数，不是被拒绝的组合数
+     *
+     * @return 打点次数
+     */
+    public long getRejectedRecordCount() {
+        return this.rejectedRecordCount.sum();
+    }
+
+    private void rebuild(AtomicLongArray current) {
+        AtomicLongArray rebuilt = new AtomicLongArray(current.length());
+        int mask = rebuilt.length() - 1;
+        for (int i = 0; i < current.length(); i++) {
+            long fingerprint = current.get(i);
+            if (fingerprint == EMPTY || fingerprint == REMOVED) {
+                continue;
+            }
+
+            int index = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+            while (rebuilt.get(index) != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            rebuilt.set(index, fingerprint);
+        }
+        this.table = rebuilt;
+        this.removed = 0;
+    }
+
+    private static int indexOf(AtomicLongArray table, long fingerprint) {
+        int mask = table.length() - 1;
+        int index = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = table.get(index);
+            if (current == EMPTY) {
+                return -1;
+            }
+            if (current == fingerprint) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 64位FNV-1a指纹，避开空位和删除标记
+     */
+    static long fingerprint(String[] labelValues) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String labelValue : labelValues) {
+            for (int i = 0; i < labelValue.length(); i++) {
+                hash ^= labelValue.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            // 分隔符，区分("ab", "c")和("a", "bc")
+            hash ^= 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+    }
+
+    private static int tableSizeFor(int maxSeries) {
+        int tableSize = 2;
+        while (tableSize < maxSeries * 2 && tableSize < (1 << 30)) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+}
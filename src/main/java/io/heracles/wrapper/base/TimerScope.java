@@ -0,0 +1,62 @@
+package io.heracles.wrapper.base;
+
+import io.prometheus.client.Collector;
+
+/**
+ * 可复用的计时范围
+ * <p>
+ * 由各Wrapper的startScope()返回，同一线程在同一Wrapper上复用同一个实例；标签可以在计时期间填充，
+ * {@link #close()}时才解析对应的Child并写入耗时（秒）。命中Child缓存（或全部标签都是枚举）且同步或按线程缓冲打点时，
+ * 一次计时不创建任何对象。同一线程在同一Wrapper上嵌套计时时，内层使用新创建的实例。
+ * 只在创建它的线程中使用，close()之后不要再访问
+ *
+ * @author walter
+ * @date 2021/02/11 20:15
+ **/
+public final class TimerScope<Child> extends BaseLabelRecorder<TimerScope<Child>, Child> implements AutoCloseable {
+    private final RecordOp<Child> op;
+    private long startNanos;
+    private boolean active;
+
+    TimerScope(BaseCollectorWrapper<?, ?, Child> wrapper, RecordOp<Child> op) {
+        super(wrapper);
+        this.op = op;
+    }
+
+    void start() {
+        this.startNanos = System.nanoTime();
+        this.active = true;
+    }
+
+    boolean isActive() {
+        return this.active;
+    }
+
+    /**
+     * @return 开始计时到现在的纳秒数
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - this.startNanos;
+    }
+
+    /**
+     * 按已填充的标签记录耗时，重复调用只记录一次
+     */
+    @Override
+    public void close() {
+        if (!this.active) {
+            return;
+        }
+
+        long elapsedNanos = getElapsedNanos();
+        this.active = false;
+        try {
+            Child child = resolveChild();
+            if (child != null) {
+                record(this.op, child, elapsedNanos / Collector.NANOSECONDS_PER_SECOND);
+            }
+        } finally {
+            getLabels().clear();
+        }
+    }
+}
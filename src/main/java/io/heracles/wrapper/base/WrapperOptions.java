@@ -0,0 +1,203 @@
+package io.heracles.wrapper.base;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Collector Wrapper的可选配置，由{@link BaseWrapperBuilder}填充，在wrap时拷贝一份交给Collector Wrapper
+ *
+ * @author walter
+ * @date 2021/01/17 10:40
+ **/
+public final class WrapperOptions {
+    /**
+     * 默认Child缓存容量
+     */
+    public static final int DEFAULT_CHILD_CACHE_SIZE = 1024;
+    /**
+     * 默认溢出标签值
+     */
+    public static final String DEFAULT_OVERFLOW_VALUE = "__overflow__";
+
+    /**
+     * Child缓存容量，0代表不缓存
+     *
+     * @see ChildCache
+     */
+    private int childCacheSize = DEFAULT_CHILD_CACHE_SIZE;
+    /**
+     * 缓冲写入间隔（毫秒），0代表不开启按线程缓冲
+     *
+     * @see RecordBuffer
+     */
+    private long bufferFlushIntervalMillis;
+    /**
+     * 每个线程最多缓冲的Child数
+     */
+    private int maxBufferedSeries;
+    /**
+     * 异步打点队列，为null代表同步写入
+     *
+     * @see AsyncPipeline
+     */
+    private AsyncPipeline asyncPipeline;
+    /**
+     * 标签值组合数上限，0代表不限制
+     *
+     * @see SeriesLimiter
+     */
+    private int maxSeries;
+    /**
+     * 超过上限后新组合的每个标签位统一使用的标签值
+     */
+    private String overflowValue = DEFAULT_OVERFLOW_VALUE;
+    /**
+     * 空闲标签值组合的存活时间（毫秒），0代表不淘汰
+     *
+     * @see SeriesExpiry
+     */
+    private long seriesTtlMillis;
+    /**
+     * 每个标签位最多驻留的标签值数，0代表不驻留
+     *
+     * @see io.heracles.label.LabelInterner
+     */
+    private int internPoolSize;
+    /**
+     * 并行处理批量打点的线程池，为null代表在调用线程处理
+     */
+    private ForkJoinPool batchPool;
+    /**
+     * 批量打点拆分后每段的最大条数，批量不超过该值时不拆分
+     */
+    private int batchSplitSize;
+    /**
+     * 是否记录各标签值组合的变更纪元
+     *
+     * @see io.heracles.util.ChangeEpoch
+     */
+    private boolean trackChanges;
+    /**
+     * 是否在构造时预先创建全部枚举标签值组合的Child
+     */
+    private boolean precreateEnumSeries;
+
+    WrapperOptions() {
+    }
+
+    public int getChildCacheSize() {
+        return this.childCacheSize;
+    }
+
+    void setChildCacheSize(int childCacheSize) {
+        this.childCacheSize = childCacheSize;
+    }
+
+    public boolean isBuffered() {
+        return this.bufferFlushIntervalMillis > 0;
+    }
+
+    public long getBufferFlushIntervalMillis() {
+        return this.bufferFlushIntervalMillis;
+    }
+
+    void setBufferFlushIntervalMillis(long bufferFlushIntervalMillis) {
+        this.bufferFlushIntervalMillis = bufferFlushIntervalMillis;
+    }
+
+    public int getMaxBufferedSeries() {
+        return this.maxBufferedSeries;
+    }
+
+    void setMaxBufferedSeries(int maxBufferedSeries) {
+        this.maxBufferedSeries = maxBufferedSeries;
+    }
+
+    public AsyncPipeline getAsyncPipeline() {
+        return this.asyncPipeline;
+    }
+
+    void setAsyncPipeline(AsyncPipeline asyncPipeline) {
+        this.asyncPipeline = asyncPipeline;
+    }
+
+    public int getMaxSeries() {
+        return this.maxSeries;
+    }
+
+    void setMaxSeries(int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    public String getOverflowValue() {
+        return this.overflowValue;
+    }
+
+    void setOverflowValue(String overflowValue) {
+        this.overflowValue = overflowValue;
+    }
+
+    public long getSeriesTtlMillis() {
+        return this.seriesTtlMillis;
+    }
+
+    void setSeriesTtlMillis(long seriesTtlMillis) {
+        this.seriesTtlMillis = seriesTtlMillis;
+    }
+
+    public int getInternPoolSize() {
+        return this.internPoolSize;
+    }
+
+    void setInternPoolSize(int internPoolSize) {
+        this.internPoolSize = internPoolSize;
+    }
+
+    public ForkJoinPool getBatchPool() {
+        return this.batchPool;
+    }
+
+    void setBatchPool(ForkJoinPool batchPool) {
+        this.batchPool = batchPool;
+    }
+
+    public int getBatchSplitSize() {
+        return this.batchSplitSize;
+    }
+
+    void setBatchSplitSize(int batchSplitSize) {
+        this.batchSplitSize = batchSplitSize;
+    }
+
+    public boolean isTrackChanges() {
+        return this.trackChanges;
+    }
+
+    void setTrackChanges(boolean trackChanges) {
+        this.trackChanges = trackChanges;
+    }
+
+    public boolean isPrecreateEnumSeries() {
+        return this.precreateEnumSeries;
+    }
+
+    void setPrecreateEnumSeries(boolean precreateEnumSeries) {
+        this.precreateEnumSeries = precreateEnumSeries;
+    }
+
+    WrapperOptions copy() {
+        WrapperOptions copy = new WrapperOptions();
+        copy.childCacheSize = this.childCacheSize;
+        copy.bufferFlushIntervalMillis = this.bufferFlushIntervalMillis;
+        copy.maxBufferedSeries = this.maxBufferedSeries;
+        copy.asyncPipeline = this.asyncPipeline;
+        copy.maxSeries = this.maxSeries;
+        copy.overflowValue = this.overflowValue;
+        copy.seriesTtlMillis = this.seriesTtlMillis;
+        copy.internPoolSize = this.internPoolSize;
+        copy.batchPool = this.batchPool;
+        copy.batchSplitSize = this.batchSplitSize;
+        copy.trackChanges = this.trackChanges;
+        copy.precreateEnumSeries = this.precreateEnumSeries;
+        return copy;
+    }
+}
@@ -0,0 +1,171 @@
+package io.heracles.wrapper.base;
+
+import com.google.common.collect.MapMaker;
+import io.heracles.label.LabelPlan;
+import io.heracles.label.SlotLabels;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 链式调用label(...)时暂存的标签，Java 21实现
+ * <p>
+ * 平台线程数量有限且长期存活，与Java 8实现相同，用ThreadLocal复用同一个标签组合和计时范围。
+ * 虚拟线程不使用ThreadLocal：链式调用期间的标签组合登记在按线程弱引用索引的表中，打点结束后移出并归还到有界的共享池，
+ * 下一次链式调用（任意虚拟线程）直接取用，稳定状态下不创建标签组合。
+ * 空闲、阻塞或已结束的虚拟线程不持有任何标签状态，占用的内存只与同时处于链式调用中途的虚拟线程数成正比；
+ * 链式调用中途抛出异常而残留的登记随线程一起回收。
+ * 虚拟线程上的startScope()不复用计时范围，每次计时创建一个
+ *
+ * @author walter
+ * @date 2021/01/20 22:08
+ **/
+final class FluentLabels<Child> {
+    /**
+     * 共享池容量，超出时归还的标签组合直接丢弃
+     */
+    private static final int POOL_SIZE = 64;
+
+    private final LabelPlan labelPlan;
+    private final ThreadLocal<ThreadState<Child>> states = new ThreadLocal<>();
+    /**
+     * 虚拟线程 -> 链式调用中途的标签组合
+     */
+    private final ConcurrentMap<Thread, SlotLabels> virtualLabels = new MapMaker().weakKeys().makeMap();
+    /**
+     * 虚拟线程共享的空闲标签组合，每个槽位通过getAndSet/CAS整体转移所有权
+     */
+    private final AtomicReferenceArray<SlotLabels> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+    FluentLabels(LabelPlan labelPlan) {
+        this.labelPlan = labelPlan;
+    }
+
+    /**
+     * 获取当前线程暂存的标签，不存在时创建
+     *
+     * @return 标签组合
+     */
+    SlotLabels get() {
+        Thread thread = Thread.currentThread();
+        if (thread.isVirtual()) {
+            SlotLabels labels = this.virtualLabels.get(thread);
+            if (labels == null) {
+                labels = acquire(thread);
+                this.virtualLabels.put(thread, labels);
+            }
+            return labels;
+        }
+
+        ThreadState<Child> state = state();
+        if (state.labels == null) {
+            state.labels = SlotLabels.newInstance(this.labelPlan);
+        }
+        return state.labels;
+    }
+
+    /**
+     * 获取当前线程暂存的标签
+     *
+     * @return 标签组合，不存在时返回null
+     */
+    SlotLabels peek() {
+        Thread thread = Thread.currentThread();
+        if (thread.isVirtual()) {
+            return this.virtualLabels.get(thread);
+        }
+
+        ThreadState<Child> state = this.states.get();
+        return state == null ? null : state.labels;
+    }
+
+    /**
+     * 打点结束后清空当前线程暂存的标签，虚拟线程的标签组合归还到共享池
+     */
+    void clean() {
+        Thread thread = Thread.currentThread();
+        if (thread.isVirtual()) {
+            SlotLabels labels = this.virtualLabels.remove(thread);
+            if (labels != null) {
+                release(thread, labels);
+            }
+            return;
+        }
+
+        SlotLabels labels = peek();
+        if (labels != null) {
+            labels.clear();
+        }
+    }
+
+    /**
+     * @return 当前线程复用的计时范围，未创建或当前线程是虚拟线程时返回null
+     */
+    TimerScope<Child> timerScope() {
+        if (Thread.currentThread().isVirtual()) {
+            return null;
+        }
+
+        ThreadState<Child> state = this.states.get();
+        return state == null ? null : state.timerScope;
+    }
+
+    /**
+     * 保存当前线程复用的计时范围，虚拟线程不保存
+     *
+     * @param timerScope 计时范围
+     */
+    void setTimerScope(TimerScope<Child> timerScope) {
+        if (!Thread.currentThread().isVirtual()) {
+            state().timerScope = timerScope;
+        }
+    }
+
+    private ThreadState<Child> state() {
+        ThreadState<Child> state = this.states.get();
+        if (state == null) {
+            state = new ThreadState<>();
+            this.states.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * 从共享池取出一个空闲的标签组合，从按线程分散的槽位开始查找，池为空时创建
+     */
+    private SlotLabels acquire(Thread thread) {
+        int start = (int) thread.threadId();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            int index = (start + i) & (POOL_SIZE - 1);
+            if (this.pool.get(index) != null) {
+                SlotLabels labels = this.pool.getAndSet(index, null);
+                if (labels != null) {
+                    return labels;
+                }
+            }
+        }
+        return SlotLabels.newInstance(this.labelPlan);
+    }
+
+    /**
+     * 清空后归还到共享池，池已满时丢弃
+     */
+    private void release(Thread thread, SlotLabels labels) {
+        labels.clear();
+        int start = (int) thread.threadId();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            int index = (start + i) & (POOL_SIZE - 1);
+            if (this.pool.get(index) == null && this.pool.compareAndSet(index, null, labels)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 平台线程独占的状态，只在所属线程中访问
+     */
+    private static final class ThreadState<Child> {
+        private SlotLabels labels;
+        private TimerScope<Child> timerScope;
+    }
+}
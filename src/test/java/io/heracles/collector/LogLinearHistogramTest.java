@@ -0,0 +1,118 @@
+package io.heracles.collector;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对数-线性分桶的边界、精度以及0、负数、NaN等观测值
+ *
+ * @author walter
+ * @date 2021/02/14 15:20
+ **/
+public class LogLinearHistogramTest {
+    @Test
+    public void bucketBoundariesAreContiguous() {
+        for (int digits = 1; digits <= 3; digits++) {
+            LogLinearLayout layout = new LogLinearLayout(digits, 1e-6, 1e3);
+            assertEquals(0, layout.lowerBound(0), 0);
+            for (int i = 1; i < layout.getBucketCount() - 1; i++) {
+                double lower = layout.lowerBound(i);
+                double upper = layout.upperBound(i);
+                // 下界属于当前桶，紧挨着下界的更小值属于前一个桶
+                assertEquals(i, layout.indexOf(lower));
+                assertEquals(i, layout.indexOf(Math.nextDown(upper)));
+                assertEquals(i - 1, layout.indexOf(Math.nextDown(lower)));
+                assertTrue("bucket " + i + " too wide", (upper - lower) / lower <= Math.pow(10, -digits));
+                assertTrue(layout.representative(i) >= lower && layout.representative(i) < upper);
+            }
+            assertEquals(Double.POSITIVE_INFINITY, layout.upperBound(layout.getBucketCount() - 1), 0);
+        }
+    }
+
+    @Test
+    public void valuesOutsideRange() {
+        LogLinearLayout layout = new LogLinearLayout(2, 1e-6, 1e3);
+        int last = layout.getBucketCount() - 1;
+        // 最小值向下取整到2的幂，之下的值才落入第一个桶
+        assertEquals(1, layout.indexOf(layout.lowerBound(1)));
+        assertTrue(layout.indexOf(1e-6) > 0);
+        assertEquals(0, layout.indexOf(Math.nextDown(layout.lowerBound(1))));
+        for (double value : new double[]{0d, -0d, -1d, 1e-9, Double.NEGATIVE_INFINITY, -Double.MAX_VALUE}) {
+            assertEquals(String.valueOf(value), 0, layout.indexOf(value));
+        }
+        assertTrue(layout.indexOf(1e3) < last);
+        assertTrue(layout.indexOf(Math.nextDown(1024d)) < last);
+        for (double value : new double[]{1024d, Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN}) {
+            assertEquals(String.valueOf(value), last, layout.indexOf(value));
+        }
+    }
+
+    @Test
+    public void exportedBucketsIncludeObservationsOnTheBoundary() {
+        CollectorRegistry registry = new CollectorRegistry();
+        LogLinearHistogram histogram = LogLinearHistogram.build("latency_seconds", "h")
+                .exportBuckets(0.1, 1, 10)
+                .register(registry);
+        histogram.observe(0.1);
+        histogram.observe(1);
+        histogram.observe(Math.nextUp(10d) * 1.02);
+        histogram.observe(5e3);
+
+        assertEquals(1, bucket(registry, "0.1"), 0);
+        assertEquals(2, bucket(registry, "1.0"), 0);
+        assertEquals(2, bucket(registry, "10.0"), 0);
+        assertEquals(4, bucket(registry, "+Inf"), 0);
+        assertEquals(4, registry.getSampleValue("latency_seconds_count"), 0);
+        assertEquals(0.1 + 1 + Math.nextUp(10d) * 1.02 + 5e3, registry.getSampleValue("latency_seconds_sum"), 1e-9);
+    }
+
+    @Test
+    public void zeroNegativeAndNaNObservations() {
+        CollectorRegistry registry = new CollectorRegistry();
+        LogLinearHistogram histogram = LogLinearHistogram.build("delta", "h")
+                .exportBuckets(-1, 0, 1)
+                .register(registry);
+        histogram.observe(0);
+        histogram.observe(-5);
+        histogram.observe(0.5);
+
+        // 0和负数落入第一个桶，计入所有不小于0的边界；负数边界无法区分
+        assertEquals(0, bucket(registry, "delta", "-1.0"), 0);
+        assertEquals(2, bucket(registry, "delta", "0.0"), 0);
+        assertEquals(3, bucket(registry, "delta", "1.0"), 0);
+        assertEquals(-4.5, registry.getSampleValue("delta_sum"), 0);
+
+        // NaN只计入+Inf和count，sum变为NaN
+        histogram.observe(Double.NaN);
+        assertEquals(3, bucket(registry, "delta", "1.0"), 0);
+        assertEquals(4, bucket(registry, "delta", "+Inf"), 0);
+        assertEquals(4, registry.getSampleValue("delta_count"), 0);
+        assertTrue(Double.isNaN(registry.getSampleValue("delta_sum")));
+    }
+
+    @Test
+    public void quantilesStayWithinBucketWidth() {
+        LogLinearHistogram histogram = LogLinearHistogram.build("latency_seconds", "h")
+                .exportQuantiles(0.5, 0.99)
+                .create();
+        LogLinearHistogram.Child child = histogram.labels();
+        assertTrue(Double.isNaN(child.getQuantile(0.5)));
+        for (int i = 1; i <= 1000; i++) {
+            child.observe(i / 1000d);
+        }
+        assertEquals(0.5, child.getQuantile(0.5), 0.5 * 0.01);
+        assertEquals(0.99, child.getQuantile(0.99), 0.99 * 0.01);
+        assertEquals(1000, child.getCount());
+    }
+
+    private static double bucket(CollectorRegistry registry, String le) {
+        return bucket(registry, "latency_seconds", le);
+    }
+
+    private static double bucket(CollectorRegistry registry, String name, String le) {
+        return registry.getSampleValue(name + "_bucket", new String[]{"le"}, new String[]{le});
+    }
+}
@@ -0,0 +1,114 @@
+package io.heracles.collector;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 草图Summary的分位数与精确分位数的相对误差
+ *
+ * @author walter
+ * @date 2021/02/14 16:10
+ **/
+public class SketchSummaryTest {
+    private static final int N = 100_000;
+    private static final double[] QUANTILES = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1.0};
+
+    @Test
+    public void uniform() {
+        Random random = new Random(1);
+        assertWithinAccuracy(() -> 1 + random.nextDouble() * 999);
+    }
+
+    @Test
+    public void exponential() {
+        Random random = new Random(2);
+        assertWithinAccuracy(() -> 1e-3 - Math.log(1 - random.nextDouble()) * 0.05);
+    }
+
+    @Test
+    public void logNormal() {
+        // 长尾，跨越约8个数量级
+        Random random = new Random(3);
+        assertWithinAccuracy(() -> Math.min(1e4, Math.exp(random.nextGaussian() * 3 - 2)));
+    }
+
+    @Test
+    public void bimodal() {
+        Random random = new Random(4);
+        assertWithinAccuracy(() -> random.nextInt(10) == 0 ? 2 + random.nextGaussian() * 0.1 : 0.002 + random.nextDouble() * 1e-4);
+    }
+
+    @Test
+    public void exportsQuantilesCountAndSum() {
+        CollectorRegistry registry = new CollectorRegistry();
+        SketchSummary summary = SketchSummary.build("latency_seconds", "s")
+                .quantile(0.99)
+                .quantile(0.5)
+                .relativeAccuracy(0.02)
+                .register(registry);
+        assertTrue(Double.isNaN(registry.getSampleValue("latency_seconds", new String[]{"quantile"}, new String[]{"0.5"})));
+        for (int i = 1; i <= 100; i++) {
+            summary.observe(i);
+        }
+        assertEquals(50, registry.getSampleValue("latency_seconds", new String[]{"quantile"}, new String[]{"0.5"}), 50 * 0.02);
+        assertEquals(99, registry.getSampleValue("latency_seconds", new String[]{"quantile"}, new String[]{"0.99"}), 99 * 0.02);
+        assertEquals(100, registry.getSampleValue("latency_seconds_count"), 0);
+        assertEquals(5050, registry.getSampleValue("latency_seconds_sum"), 0);
+    }
+
+    @Test
+    public void valuesOutsideRange() {
+        SketchSummary summary = SketchSummary.build("s", "s")
+                .range(1e-3, 10)
+                .relativeAccuracy(0.01)
+                .create();
+        SketchSummary.Child child = summary.labels();
+        child.observe(-1);
+        child.observe(0);
+        child.observe(1e-4);
+        child.observe(1e6);
+        child.observe(Double.POSITIVE_INFINITY);
+
+        // 不超过最小值的按0统计，超过最大值的按最大值统计
+        assertEquals(0, child.getQuantile(0.6), 0);
+        assertEquals(10, child.getQuantile(0.8), 10 * 0.01);
+        assertEquals(10, child.getQuantile(1.0), 10 * 0.01);
+        assertEquals(5, child.getCount());
+        assertEquals(Double.POSITIVE_INFINITY, child.getSum(), 0);
+    }
+
+    private static void assertWithinAccuracy(DoubleSupplier distribution) {
+        double[] values = new double[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = distribution.getAsDouble();
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double accuracy : new double[]{0.05, 0.01, 0.002}) {
+            SketchSummary.Child child = SketchSummary.build("s", "s")
+                    .relativeAccuracy(accuracy)
+                    .create()
+                    .labels();
+            for (double value : values) {
+                child.observe(value);
+            }
+            for (double quantile : QUANTILES) {
+                // 与getQuantile的定义一致：第ceil(q * n)小的值
+                double exact = sorted[(int) Math.max(1, Math.ceil(quantile * N)) - 1];
+                double estimate = child.getQuantile(quantile);
+                double error = Math.abs(estimate - exact) / exact;
+                // 桶边界上的舍入留出极小余量
+                assertTrue("q" + quantile + " a=" + accuracy + ": exact " + exact + ", estimate " + estimate,
+                        error <= accuracy * (1 + 1e-9));
+            }
+        }
+    }
+}
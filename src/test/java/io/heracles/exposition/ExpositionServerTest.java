@@ -0,0 +1,235 @@
+package io.heracles.exposition;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在本地随机端口启动暴露端点并抓取
+ *
+ * @author walter
+ * @date 2021/02/13 14:10
+ **/
+public class ExpositionServerTest {
+    private static final int SERIES = 2000;
+
+    private CollectorRegistry registry;
+    private ExpositionServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.registry = new CollectorRegistry();
+        Counter requests = Counter.build().name("requests_total").help("Total requests.\nSecond line \\ end")
+                .labelNames("path", "code").register(this.registry);
+        requests.labels("/a\"b\\c\nd", "200").inc(3);
+        requests.labels("/中文", "500").inc(0.5);
+        Gauge.build().name("temperature").help("t").register(this.registry).set(-1.5e-9);
+        Histogram latency = Histogram.build().name("latency_seconds").help("l").buckets(0.1, 1).register(this.registry);
+        latency.observe(0.05);
+        latency.observe(5);
+        Gauge many = Gauge.build().name("many").help("m").labelNames("i").register(this.registry);
+        for (int i = 0; i < SERIES; i++) {
+            many.labels(String.valueOf(i)).set(i);
+        }
+        // 小缓冲使响应体跨越多个池化缓冲
+        this.server = ExpositionServer.builder()
+                .registry(this.registry)
+                .address(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .buffers(256, 4)
+                .start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    @Test
+    public void rendersTextFormat() throws IOException {
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(TextFormatWriter.CONTENT_TYPE_004, connection.getContentType());
+        String body = read(connection.getInputStream());
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length, connection.getContentLengthLong());
+
+        assertTrue(body, body.contains("# HELP requests_total Total requests.\\nSecond line \\\\ end\n"));
+        assertTrue(body, body.contains("# TYPE requests_total counter\n"));
+        assertTrue(body, body.contains("requests_total{path=\"/a\\\"b\\\\c\\nd\",code=\"200\"} 3.0\n"));
+        assertTrue(body, body.contains("requests_total{path=\"/中文\",code=\"500\"} 0.5\n"));
+        assertTrue(body, body.contains("temperature -1.5E-9\n"));
+        assertTrue(body, body.contains("latency_seconds_bucket{le=\"0.1\"} 1.0\n"));
+        assertTrue(body, body.contains("latency_seconds_bucket{le=\"+Inf\"} 2.0\n"));
+        assertTrue(body, body.contains("latency_seconds_sum 5.05\n"));
+        assertTrue(body, body.contains("many{i=\"1999\"} 1999.0\n"));
+        // 全部样本都在，且响应体由多个缓冲拼接
+        assertEquals(SERIES, count(body, "\nmany{"));
+        assertTrue(this.server.getBufferPool().getAllocatedCount() > 1);
+    }
+
+    @Test
+    public void gzipBodyMatchesPlainBody() throws IOException {
+        String plain = read(open("/").getInputStream());
+
+        HttpURLConnection connection = open("/metrics");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        byte[] compressed = readBytes(connection.getInputStream());
+        assertEquals(compressed.length, connection.getContentLengthLong());
+        assertEquals(plain, read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void filtersByName() throws IOException {
+        String body = read(open("/metrics?name[]=temperature&name%5B%5D=latency_seconds_count").getInputStream());
+        assertTrue(body, body.contains("temperature "));
+        // 与原生SDK一致，按样本名过滤
+        assertTrue(body, body.contains("latency_seconds_count 2.0"));
+        assertFalse(body, body.contains("latency_seconds_bucket"));
+        assertFalse(body, body.contains("requests_total"));
+        assertFalse(body, body.contains("many"));
+    }
+
+    @Test
+    public void headSendsHeadersOnly() throws IOException {
+        long length = open("/metrics").getContentLengthLong();
+
+        // 原始连接读取到EOF，确认HEAD没有发送响应体
+        String response = rawRequest("HEAD /metrics HTTP/1.0\r\n\r\n");
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("Content-Length: " + length + "\r\n"));
+        assertTrue(response, response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        HttpURLConnection connection = open("/unknown");
+        assertEquals(404, connection.getResponseCode());
+        assertEquals("Not Found", read(connection.getErrorStream()));
+
+        String head = rawRequest("HEAD /unknown HTTP/1.0\r\n\r\n");
+        assertTrue(head, head.startsWith("HTTP/1.1 404 Not Found\r\n"));
+        assertTrue(head, head.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void healthCheckAndMethods() throws IOException {
+        HttpURLConnection healthy = open("/-/healthy");
+        assertEquals(200, healthy.getResponseCode());
+        assertEquals("Exporter is Healthy.", read(healthy.getInputStream()));
+
+        HttpURLConnection post = open("/metrics");
+        post.setRequestMethod("POST");
+        post.setDoOutput(true);
+        post.getOutputStream().close();
+        assertEquals(405, post.getResponseCode());
+    }
+
+    @Test
+    public void keepsConnectionAliveAcrossScrapes() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 3; i++) {
+                out.write("GET /-/healthy HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                String headers = readHeaders(in);
+                assertTrue(headers, headers.startsWith("HTTP/1.1 200 OK\r\n"));
+                assertFalse(headers, headers.contains("Connection: close"));
+                byte[] body = new byte["Exporter is Healthy.".length()];
+                int read = 0;
+                while (read < body.length) {
+                    read += in.read(body, read, body.length - read);
+                }
+                assertEquals("Exporter is Healthy.", new String(body, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void releasesBuffersAfterResponse() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            read(open("/metrics").getInputStream());
+        }
+        // 响应发送完成后缓冲归还到池中，池满后多余的缓冲交给GC
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.server.getBufferPool().getPooledCount() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, this.server.getBufferPool().getPooledCount());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + this.server.getPort() + path).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private String rawRequest(String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            return new String(readBytes(socket.getInputStream()), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            headers.append((char) b);
+        }
+        return headers.toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static int count(String s, String target) {
+        int count = 0;
+        for (int i = s.indexOf(target); i >= 0; i = s.indexOf(target, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
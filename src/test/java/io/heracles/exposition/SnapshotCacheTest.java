@@ -0,0 +1,182 @@
+package io.heracles.exposition;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 快照的过期刷新和并发请求共享同一次采集
+ *
+ * @author walter
+ * @date 2021/02/13 21:40
+ **/
+public class SnapshotCacheTest {
+    private final ByteBufferPool pool = new ByteBufferPool(64, 16);
+    private final AtomicInteger renders = new AtomicInteger();
+    private final List<Long> renderStarts = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void reusesSnapshotUntilStale() throws Exception {
+        SnapshotCache cache = new SnapshotCache(200, this::render);
+        Snapshot first = cache.get(false);
+        Snapshot cached = cache.get(false);
+        assertSame(first, cached);
+        assertEquals(1, cache.getCollectCount());
+        assertEquals(1, cache.getHitCount());
+        first.release();
+        cached.release();
+
+        Thread.sleep(250);
+        Snapshot refreshed = cache.get(false);
+        assertNotSame(first, refreshed);
+        assertEquals(2, cache.getCollectCount());
+        // 被替换的快照在最后一个引用释放后归还缓冲
+        assertEquals(1, this.pool.getPooledCount());
+        refreshed.release();
+        cache.clear();
+        assertEquals(2, this.pool.getPooledCount());
+    }
+
+    @Test
+    public void cachesPlainAndGzipSeparately() throws Exception {
+        SnapshotCache cache = new SnapshotCache(60_000, this::render);
+        Snapshot plain = cache.get(false);
+        Snapshot gzip = cache.get(true);
+        assertNotSame(plain, gzip);
+        assertSame(gzip, cache.get(true));
+        assertEquals(2, cache.getCollectCount());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneCollection() throws Exception {
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SnapshotCache cache = new SnapshotCache(60_000, gzip -> {
+            rendering.countDown();
+            release.await();
+            return render(gzip);
+        });
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<Snapshot>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get(false)));
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < requests; i++) {
+                results.add(executor.submit(() -> cache.get(false)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            Snapshot snapshot = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Snapshot> result : results) {
+                assertSame(snapshot, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, cache.getCollectCount());
+            assertEquals(requests - 1, cache.getHitCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failureIsSharedAndNextRequestRetries() throws Exception {
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SnapshotCache cache = new SnapshotCache(60_000, gzip -> {
+            if (this.renders.get() == 0) {
+                this.renders.incrementAndGet();
+                rendering.countDown();
+                release.await();
+                throw new IOException("collect failed");
+            }
+            return render(gzip);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Snapshot> leader = executor.submit(() -> cache.get(false));
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+            Future<Snapshot> follower = executor.submit(() -> cache.get(false));
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Snapshot> result : Arrays.asList(leader, follower)) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("request should fail with the collection");
+                } catch (ExecutionException e) {
+                    assertEquals("collect failed", e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 失败不缓存，下一次请求重新采集
+        cache.get(false).release();
+        assertEquals(2, cache.getCollectCount());
+    }
+
+    @Test
+    public void collectsAtMostOncePerInterval() throws Exception {
+        long intervalMillis = 50;
+        SnapshotCache cache = new SnapshotCache(intervalMillis, this::render);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.currentTimeMillis() + 1000;
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    int scrapes = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        cache.get(false).release();
+                        scrapes++;
+                    }
+                    return scrapes;
+                }));
+            }
+            long scrapes = 0;
+            for (Future<Integer> result : results) {
+                scrapes += result.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(scrapes, cache.getCollectCount() + cache.getHitCount());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 相邻两次采集的开始时间至少间隔最小刷新间隔
+        assertTrue(this.renderStarts.size() >= 2);
+        for (int i = 1; i < this.renderStarts.size(); i++) {
+            long gap = this.renderStarts.get(i) - this.renderStarts.get(i - 1);
+            assertTrue("collected again after " + gap + "ms", gap >= intervalMillis);
+        }
+        assertEquals(this.renderStarts.size(), cache.getCollectCount());
+    }
+
+    private Snapshot render(boolean gzip) {
+        long createdMillis = System.currentTimeMillis();
+        this.renderStarts.add(createdMillis);
+        PooledBufferOutputStream body = new PooledBufferOutputStream(this.pool);
+        byte[] bytes = ((gzip ? "gzip " : "plain ") + this.renders.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+        body.write(bytes, 0, bytes.length);
+        return new Snapshot(body, createdMillis);
+    }
+}
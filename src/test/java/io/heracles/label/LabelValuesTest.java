@@ -0,0 +1,93 @@
+package io.heracles.label;
+
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 基本类型、枚举标签值的字符串形式与标签值驻留
+ *
+ * @author walter
+ * @date 2021/02/14 11:00
+ **/
+public class LabelValuesTest {
+    enum Status {
+        OK,
+        FAILED {
+            @Override
+            public String toString() {
+                return "failed";
+            }
+        }
+    }
+
+    @Test
+    public void rendersLikeToString() {
+        for (int value : new int[]{-129, -128, 0, 200, 1023, 1024, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            assertEquals(Integer.toString(value), LabelValues.of(value));
+        }
+        for (long value : new long[]{-129L, -128L, 404L, 1023L, 1024L, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            assertEquals(Long.toString(value), LabelValues.of(value));
+        }
+        assertEquals("true", LabelValues.of(true));
+        assertEquals("false", LabelValues.of(false));
+        assertEquals("x", LabelValues.of('x'));
+        assertEquals("é", LabelValues.of('é'));
+        assertEquals("OK", LabelValues.of(Status.OK));
+        // 带常量体的枚举常量属于匿名子类，与toString()一致
+        assertEquals("failed", LabelValues.of(Status.FAILED));
+        assertNull(LabelValues.of((Enum<?>) null));
+    }
+
+    @Test
+    public void cachedValuesAreShared() {
+        assertSame(LabelValues.of(200), LabelValues.of(200));
+        assertSame(LabelValues.of(200), LabelValues.of(200L));
+        assertSame(LabelValues.of(-128), LabelValues.of(-128));
+        assertSame(LabelValues.of(1023), LabelValues.of(1023));
+        assertNotSame(LabelValues.of(1024), LabelValues.of(1024));
+        assertSame(LabelValues.of('a'), LabelValues.of('a'));
+        assertSame(LabelValues.of(Status.FAILED), LabelValues.of(Status.FAILED));
+    }
+
+    @Test
+    public void internerSharesInstancesUpToCapacity() {
+        LabelInterner interner = new LabelInterner(2);
+        String first = interner.intern(new String("a"));
+        assertSame(first, interner.intern(new String("a")));
+        assertSame(interner.intern(new String("b")), interner.intern(new String("b")));
+        assertEquals(2, interner.size());
+
+        // 池满后新值原样返回，已驻留的值不受影响
+        String c = new String("c");
+        assertSame(c, interner.intern(c));
+        assertNotSame(c, interner.intern(new String("c")));
+        assertSame(first, interner.intern(new String("a")));
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void typedOverloadsRecordSameSeriesAsStrings() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("typed_total")
+                .help("h")
+                .labelNames("code", "ok", "grade", "status", "user")
+                .internLabelValues(1)
+                .wrap(registry);
+        counter.label("code", 200).label("ok", true).label("grade", 'A').label("status", Status.FAILED).label("user", new String("u1")).inc();
+        counter.label("code", 200L).label("ok", "true").label("grade", "A").label("status", "failed").label("user", new String("u1")).inc();
+        // 驻留池已满，新值照常记录
+        counter.label("code", 5000).label("ok", false).label("grade", 'B').label("status", Status.OK).label("user", new String("u2")).inc();
+        counter.label("code", "5000").label("ok", false).label("grade", 'B').label("status", Status.OK).label("user", new String("u2")).inc();
+
+        String[] labelNames = {"code", "ok", "grade", "status", "user"};
+        assertEquals(2.0, registry.getSampleValue("typed_total", labelNames, new String[]{"200", "true", "A", "failed", "u1"}), 0);
+        assertEquals(2.0, registry.getSampleValue("typed_total", labelNames, new String[]{"5000", "false", "B", "OK", "u2"}), 0);
+    }
+}
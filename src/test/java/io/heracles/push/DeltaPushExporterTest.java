@@ -0,0 +1,179 @@
+package io.heracles.push;
+
+import io.heracles.util.HeraclesScheduler;
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 对本地替身端点的增量推送
+ *
+ * @author walter
+ * @date 2021/02/13 10:40
+ **/
+public class DeltaPushExporterTest {
+    private enum Op {
+        READ, WRITE
+    }
+
+    private StandInGateway gateway;
+
+    @Before
+    public void setUp() throws IOException {
+        this.gateway = new StandInGateway();
+    }
+
+    @After
+    public void tearDown() {
+        this.gateway.close();
+    }
+
+    @Test
+    public void pushesOnlyChangedSeries() throws Exception {
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("changed_ops_total").help("h")
+                .labelNames("op")
+                .trackChanges()
+                .wrap(new CollectorRegistry());
+        counter.label("op", "read").inc();
+        counter.label("op", "write").inc();
+        DeltaPushExporter exporter = exporter(counter);
+        exporter.push();
+        nextBody();
+        // 变更会出现在其后的两次推送中，第二次推送后两个组合都不再变更
+        exporter.push();
+        nextBody();
+
+        counter.label("op", "write").inc();
+        assertEquals(1, exporter.push());
+        String body = nextBody();
+        assertTrue(body, body.contains("changed_ops_total{op=\"write\"} 2.0"));
+        assertFalse(body, body.contains("read"));
+
+        exporter.push();
+        nextBody();
+        assertEquals(0, exporter.push());
+        assertEquals(0, this.gateway.pendingRequests());
+    }
+
+    @Test
+    public void resendsSeriesAfterFailedPush() throws Exception {
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("retried_ops_total").help("h")
+                .labelNames("op")
+                .trackChanges()
+                .wrap(new CollectorRegistry());
+        counter.label("op", "read").inc();
+        DeltaPushExporter exporter = exporter(counter);
+        exporter.push();
+        nextBody();
+        exporter.push();
+        nextBody();
+
+        counter.label("op", "write").inc();
+        this.gateway.respondWith(503);
+        try {
+            exporter.push();
+            fail("push should fail on 503");
+        } catch (IOException expected) {
+            assertTrue(nextBody().contains("retried_ops_total{op=\"write\"} 1.0"));
+        }
+        // 失败后不推进起始纪元，下一次推送重新包含该组合
+        assertEquals(1, exporter.push());
+        String body = nextBody();
+        assertTrue(body, body.contains("retried_ops_total{op=\"write\"} 1.0"));
+        assertFalse(body, body.contains("read"));
+        assertEquals(0, exporter.push());
+    }
+
+    @Test
+    public void slowEndpointDoesNotBlockSharedScheduler() throws Exception {
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("slow_ops_total").help("h")
+                .labelNames("op")
+                .trackChanges()
+                .wrap(new CollectorRegistry());
+        Counter.Child bound = counter.label("op", "read").bind();
+        bound.inc();
+        this.gateway.delay(2000);
+        try (DeltaPushExporter exporter = exporter(counter).start(10, TimeUnit.MILLISECONDS)) {
+            assertNotNull(this.gateway.poll(5, TimeUnit.SECONDS));
+            // 推送线程正在等待慢速端点响应，共享调度线程上的任务仍按时执行
+            CountDownLatch ticked = new CountDownLatch(1);
+            ScheduledFuture<?> task = HeraclesScheduler.scheduleWithFixedDelay(ticked::countDown, 10, TimeUnit.MILLISECONDS);
+            try {
+                assertTrue(ticked.await(500, TimeUnit.MILLISECONDS));
+            } finally {
+                task.cancel(false);
+            }
+        }
+    }
+
+    @Test
+    public void pushesBoundSeriesOnEveryPush() throws Exception {
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("bound_ops_total").help("h")
+                .labelNames("op")
+                .trackChanges()
+                .wrap(new CollectorRegistry());
+        Counter.Child bound = counter.label("op", "bound").bind();
+        counter.label("op", "once").inc();
+        DeltaPushExporter exporter = exporter(counter);
+
+        for (int i = 1; i <= 4; i++) {
+            bound.inc();
+            exporter.push();
+            String body = nextBody();
+            assertTrue(body, body.contains("bound_ops_total{op=\"bound\"} " + i + ".0"));
+        }
+        assertEquals(0, this.gateway.pendingRequests());
+    }
+
+    @Test
+    public void pushesBoundEnumSeriesOnEveryPush() throws Exception {
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("bound_enum_ops_total").help("h")
+                .enumLabel("op", Op.class)
+                .trackChanges()
+                .wrap(new CollectorRegistry());
+        Counter.Child bound = counter.label("op", Op.WRITE).bind();
+        DeltaPushExporter exporter = exporter(counter);
+
+        for (int i = 1; i <= 4; i++) {
+            bound.inc();
+            exporter.push();
+            String body = nextBody();
+            assertTrue(body, body.contains("bound_enum_ops_total{op=\"WRITE\"} " + i + ".0"));
+            assertFalse(body, body.contains("READ"));
+        }
+    }
+
+    private DeltaPushExporter exporter(CounterWrapper counter) {
+        return DeltaPushExporter.builder()
+                .address(this.gateway.address())
+                .job("test")
+                .wrappers(counter)
+                .build();
+    }
+
+    private String nextBody() throws InterruptedException {
+        StandInGateway.Request request = this.gateway.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no push received", request);
+        assertEquals("POST", request.method);
+        return request.body;
+    }
+}
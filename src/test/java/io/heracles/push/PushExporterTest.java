@@ -0,0 +1,191 @@
+package io.heracles.push;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 对本地替身端点的后台推送：重试、请求体上限和关闭时的最后一次推送
+ *
+ * @author walter
+ * @date 2021/02/13 15:30
+ **/
+public class PushExporterTest {
+    private StandInGateway gateway;
+    private CollectorRegistry registry;
+    private CollectorRegistry selfMetrics;
+    private Counter jobs;
+
+    @Before
+    public void setUp() throws IOException {
+        this.gateway = new StandInGateway();
+        this.registry = new CollectorRegistry();
+        this.selfMetrics = new CollectorRegistry();
+        this.jobs = Counter.build().name("jobs_total").help("h").register(this.registry);
+    }
+
+    @After
+    public void tearDown() {
+        this.gateway.close();
+    }
+
+    @Test
+    public void pushesGzippedRegistryToGroupingPath() throws Exception {
+        this.jobs.inc(7);
+        this.gateway.respondWith(503);
+        try (PushExporter exporter = builder()
+                .interval(1, TimeUnit.HOURS)
+                .flushOnShutdown(false, 1000)
+                .start()) {
+            try {
+                exporter.push();
+                fail("push should fail with 503");
+            } catch (PushClient.PushStatusException e) {
+                assertEquals(503, e.getStatus());
+            }
+            exporter.push();
+        }
+
+        StandInGateway.Request failed = next();
+        assertEquals("PUT", failed.method);
+        assertEquals("/metrics/job/batch/instance/host-1", failed.path);
+        assertEquals("gzip", failed.contentEncoding);
+        assertTrue(failed.body, failed.body.contains("jobs_total 7.0\n"));
+        assertEquals(failed.body, next().body);
+        assertEquals(1.0, failures("status_5xx"), 0);
+    }
+
+    @Test
+    public void backgroundPushRetriesWithBackoff() throws Exception {
+        this.jobs.inc(3);
+        this.gateway.respondWith(500, 503, 502);
+        PushExporter exporter = builder()
+                .interval(200, TimeUnit.MILLISECONDS)
+                .retries(3, 10, TimeUnit.MILLISECONDS)
+                .flushOnShutdown(false, 1000)
+                .start();
+        try {
+            // 三次5xx之后第四次尝试成功
+            for (int i = 0; i < 4; i++) {
+                StandInGateway.Request request = next();
+                assertTrue(request.body, request.body.contains("jobs_total 3.0\n"));
+            }
+            assertEquals(3.0, failures("status_5xx"), 0);
+            // 替身端点先记录请求再响应，成功指标在收到响应后才记录
+            assertEquals(1.0, awaitSample("heracles_push_duration_seconds_count", new String[]{"result"}, new String[]{"success"}), 0);
+            assertTrue(awaitSample("heracles_push_last_success_timestamp_seconds", new String[0], new String[0]) > 0);
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void givesUpAfterRetriesAndPushesCurrentValuesNextTime() throws Exception {
+        this.gateway.respondWith(500, 500, 500);
+        PushExporter exporter = builder()
+                .interval(300, TimeUnit.MILLISECONDS)
+                .retries(2, 10, TimeUnit.MILLISECONDS)
+                .flushOnShutdown(false, 1000)
+                .start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(next().body.contains("jobs_total 0.0\n"));
+            }
+            // 重试耗尽后不保留旧数据，下一次推送携带当前值
+            this.jobs.inc(5);
+            assertTrue(next().body.contains("jobs_total 5.0\n"));
+            assertEquals(3.0, failures("status_5xx"), 0);
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void dropsPayloadOverLimitWithoutRetrying() throws Exception {
+        Gauge wide = Gauge.build().name("wide").help("h").labelNames("i").register(this.registry);
+        for (int i = 0; i < 100; i++) {
+            wide.labels(String.valueOf(i)).set(i);
+        }
+        PushExporter exporter = builder()
+                .interval(50, TimeUnit.MILLISECONDS)
+                .disableGzip()
+                .maxPayloadBytes(512)
+                .retries(3, 10, TimeUnit.MILLISECONDS)
+                .flushOnShutdown(false, 1000)
+                .start();
+        try {
+            try {
+                exporter.push();
+                fail("payload over the limit should be rejected");
+            } catch (BoundedByteArrayOutputStream.PayloadTooLargeException expected) {
+                // 序列化在超过上限时立即停止
+            }
+            Thread.sleep(300);
+            assertNull(this.gateway.poll(0, TimeUnit.MILLISECONDS));
+            double tooLarge = failures("too_large");
+            // 每次定时推送只失败一次，不重试
+            assertTrue(tooLarge >= 2);
+            assertEquals(0.0, failures("io"), 0);
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void flushesCurrentValuesOnClose() throws Exception {
+        PushExporter exporter = builder()
+                .interval(1, TimeUnit.HOURS)
+                .flushOnShutdown(true, 1000)
+                .start();
+        this.jobs.inc(42);
+        exporter.close();
+
+        StandInGateway.Request request = next();
+        assertTrue(request.body, request.body.contains("jobs_total 42.0\n"));
+        // 再次关闭不重复推送
+        exporter.close();
+        assertNull(this.gateway.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private PushExporter.Builder builder() {
+        return PushExporter.builder()
+                .address(this.gateway.address())
+                .job("batch")
+                .groupingKey("instance", "host-1")
+                .registry(this.registry)
+                .selfMetrics(this.selfMetrics);
+    }
+
+    private StandInGateway.Request next() throws InterruptedException {
+        StandInGateway.Request request = this.gateway.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no push received", request);
+        return request;
+    }
+
+    private double awaitSample(String name, String[] labelNames, String[] labelValues) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        Double value;
+        while ((value = this.selfMetrics.getSampleValue(name, labelNames, labelValues)) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(name, value);
+        return value;
+    }
+
+    private double failures(String reason) {
+        Double value = this.selfMetrics.getSampleValue("heracles_push_failures_total", new String[]{"reason"}, new String[]{reason});
+        return value == null ? 0 : value;
+    }
+}
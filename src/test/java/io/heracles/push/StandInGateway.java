@@ -0,0 +1,118 @@
+package io.heracles.push;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 本地的Pushgateway替身：记录收到的请求，按预设的响应码依次响应，预设用完后响应200
+ *
+ * @author walter
+ * @date 2021/02/13 10:20
+ **/
+final class StandInGateway implements Closeable {
+    static final class Request {
+        final String method;
+        final String path;
+        final String contentEncoding;
+        final String body;
+
+        private Request(String method, String path, String contentEncoding, String body) {
+            this.method = method;
+            this.path = path;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private volatile long delayMillis;
+
+    StandInGateway() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    String address() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * 预设之后请求的响应码
+     */
+    void respondWith(int... statuses) {
+        for (int status : statuses) {
+            this.statuses.add(status);
+        }
+    }
+
+    /**
+     * 每个请求在响应前等待的时间，模拟慢速端点
+     */
+    void delay(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * 等待下一个请求
+     *
+     * @return 请求，超时返回null
+     */
+    Request poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.requests.poll(timeout, unit);
+    }
+
+    int pendingRequests() {
+        return this.requests.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        byte[] body;
+        try (InputStream in = "gzip".equals(contentEncoding) ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+            body = readAll(in);
+        }
+        this.requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), contentEncoding,
+                new String(body, StandardCharsets.UTF_8)));
+        if (this.delayMillis > 0) {
+            try {
+                Thread.sleep(this.delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Integer status = this.statuses.poll();
+        exchange.sendResponseHeaders(status == null ? 200 : status, -1);
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
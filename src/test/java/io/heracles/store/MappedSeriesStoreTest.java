@@ -0,0 +1,177 @@
+package io.heracles.store;
+
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 组合文件的崩溃恢复与槽位复用
+ *
+ * @author walter
+ * @date 2021/02/11 21:00
+ **/
+public class MappedSeriesStoreTest {
+    private static final String[] CODE = {"code"};
+    /**
+     * 默认maxKeyBytes为248时的目录项大小
+     */
+    private static final int ENTRY_SIZE = 256;
+    private static final int HEADER_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresValuesAfterProcessCrash() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("crash.series");
+        String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"), CrashingWriter.class.getName(), path.toString())
+                .inheritIO()
+                .start();
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(CrashingWriter.EXIT_CODE, process.exitValue());
+
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            assertEquals(2, store.getSize());
+            assertEquals(1000, store.counterChildren("requests_total", CODE).newChild(new String[]{"200"}).get(), 0);
+            assertEquals(42, store.gaugeChildren("queue_size", CODE).newChild(new String[]{"200"}).get(), 0);
+        }
+    }
+
+    @Test
+    public void ignoresEntriesInterruptedBeforePublish() throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve("torn.series");
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            store.counterChildren("requests_total", CODE).newChild(new String[]{"200"}).inc(3);
+        }
+        // 组合键已写入、状态未写入
+        writeEntry(path, 1, SeriesSegment.EMPTY, 5);
+
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            assertEquals(1, store.getSize());
+            assertEquals(0, store.getFreeSlotCount());
+            assertEquals(3, store.counterChildren("requests_total", CODE).newChild(new String[]{"200"}).get(), 0);
+            assertEquals(0, store.counterChildren("requests_total", CODE).newChild(new String[]{"500"}).get(), 0);
+        }
+    }
+
+    @Test
+    public void reusesCorruptedEntries() throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve("corrupted.series");
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).capacity(1).open()) {
+            store.counterChildren("requests_total", CODE).newChild(new String[]{"200"}).inc(3);
+        }
+        writeEntry(path, 0, SeriesSegment.LIVE, ENTRY_SIZE);
+
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            assertEquals(0, store.getSize());
+            assertEquals(1, store.getFreeSlotCount());
+            Counter.Child child = store.counterChildren("requests_total", CODE).newChild(new String[]{"500"});
+            assertEquals(0, child.get(), 0);
+            assertEquals(0, store.getOverflowCount());
+        }
+    }
+
+    @Test
+    public void reusesRemovedSlots() throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve("churn.series");
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).capacity(4).open()) {
+            CounterWrapper wrapper = CounterWrapper.builder()
+                    .name("requests_total")
+                    .help("requests")
+                    .labelNames(CODE)
+                    .persistIn(store)
+                    .wrap(new CollectorRegistry());
+            for (int i = 0; i < 100; i++) {
+                wrapper.label("code", i).inc();
+                wrapper.remove(String.valueOf(i));
+            }
+            assertEquals(0, store.getOverflowCount());
+            assertEquals(0, store.getSize());
+        }
+    }
+
+    @Test
+    public void reusesSlotsRemovedBeforeRestart() throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve("restart.series");
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).capacity(2).open()) {
+            store.counterChildren("requests_total", CODE).newChild(new String[]{"200"}).inc();
+            store.counterChildren("requests_total", CODE).newChild(new String[]{"500"}).inc();
+            store.counterChildren("requests_total", CODE).cleared();
+        }
+
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            assertEquals(2, store.getFreeSlotCount());
+            store.counterChildren("requests_total", CODE).newChild(new String[]{"404"}).inc(2);
+            store.gaugeChildren("queue_size", CODE).newChild(new String[]{"404"}).set(7);
+            assertEquals(0, store.getOverflowCount());
+        }
+
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).open()) {
+            assertEquals(2, store.getSize());
+            assertEquals(2, store.counterChildren("requests_total", CODE).newChild(new String[]{"404"}).get(), 0);
+            assertEquals(7, store.gaugeChildren("queue_size", CODE).newChild(new String[]{"404"}).get(), 0);
+        }
+    }
+
+    @Test
+    public void removedChildDoesNotWriteReusedSlot() throws IOException {
+        Path path = this.folder.getRoot().toPath().resolve("detach.series");
+        try (MappedSeriesStore store = MappedSeriesStore.builder().path(path).capacity(1).open()) {
+            Gauge.Child removed = store.gaugeChildren("queue_size", CODE).newChild(new String[]{"200"});
+            removed.set(3);
+            store.gaugeChildren("queue_size", CODE).removed(new String[]{"200"});
+
+            Gauge.Child reused = store.gaugeChildren("queue_size", CODE).newChild(new String[]{"500"});
+            removed.inc(5);
+            removed.set(9);
+            assertEquals(0, reused.get(), 0);
+            assertEquals(3, removed.get(), 0);
+        }
+    }
+
+    /**
+     * 直接写入目录项，模拟发布中途崩溃或损坏的文件
+     */
+    private static void writeEntry(Path path, int slot, int state, int keyLength) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+        entry.putInt(state).putInt(keyLength).put(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}).flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(entry, HEADER_SIZE + (long) slot * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * 在子进程中打点后不关闭文件直接退出，模拟进程崩溃
+     */
+    public static final class CrashingWriter {
+        static final int EXIT_CODE = 17;
+
+        public static void main(String[] args) throws IOException {
+            MappedSeriesStore store = MappedSeriesStore.builder().path(new File(args[0]).toPath()).open();
+            Counter.Child counter = store.counterChildren("requests_total", CODE).newChild(new String[]{"200"});
+            for (int i = 0; i < 1000; i++) {
+                counter.inc();
+            }
+            store.gaugeChildren("queue_size", CODE).newChild(new String[]{"200"}).set(42);
+            Runtime.getRuntime().halt(EXIT_CODE);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package io.heracles.store;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 共享目录中多个进程文件的汇总、已退出进程的归档和损坏文件
+ * <p>
+ * 当前JVM打开的文件走本地存储；其他进程的文件以关闭后另外加锁的文件模拟，锁释放即视为进程已退出
+ *
+ * @author walter
+ * @date 2021/02/13 22:10
+ **/
+public class SegmentDirectoryCollectorTest {
+    private static final String[] CODE = {"code"};
+    private static final String[] OK = {"200"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private final List<FileChannel> liveProcesses = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        this.directory = this.folder.getRoot().toPath();
+    }
+
+    @After
+    public void exitOtherProcesses() throws IOException {
+        for (FileChannel channel : this.liveProcesses) {
+            channel.close();
+        }
+        this.liveProcesses.clear();
+    }
+
+    @Test
+    public void sumsCountersAndReadsLatestValues() throws IOException {
+        writeOtherProcess("101", 3, 5);
+        try (MappedSeriesStore local = segment("102");
+             SegmentDirectoryCollector collector = collector(SegmentDirectoryCollector.GaugeMerge.SUM)) {
+            local.counterChildren("requests_total", CODE).newChild(OK).inc(4);
+            local.gaugeChildren("queue_size", CODE).newChild(OK).set(9);
+
+            CollectorRegistry registry = register(collector);
+            assertEquals(7.0, value(registry, "requests_total"), 0);
+            assertEquals(14.0, value(registry, "queue_size"), 0);
+            assertEquals(1, collector.getSegmentCount());
+
+            // 每次采集读取映射中的最新值
+            local.counterChildren("requests_total", CODE).newChild(OK).inc(10);
+            local.gaugeChildren("queue_size", CODE).newChild(OK).set(1);
+            assertEquals(17.0, value(registry, "requests_total"), 0);
+            assertEquals(6.0, value(registry, "queue_size"), 0);
+        }
+    }
+
+    @Test
+    public void mergesGauges() throws IOException {
+        writeOtherProcess("101", 0, 5);
+        writeOtherProcess("102", 0, 9);
+        assertEquals(5.0, gauge(SegmentDirectoryCollector.GaugeMerge.MIN), 0);
+        assertEquals(9.0, gauge(SegmentDirectoryCollector.GaugeMerge.MAX), 0);
+        assertEquals(14.0, gauge(SegmentDirectoryCollector.GaugeMerge.SUM), 0);
+
+        try (SegmentDirectoryCollector collector = collector(SegmentDirectoryCollector.GaugeMerge.PER_PROCESS)) {
+            CollectorRegistry registry = register(collector);
+            String[] labelNames = {"code", "pid"};
+            assertEquals(5.0, registry.getSampleValue("queue_size", labelNames, new String[]{"200", "101"}), 0);
+            assertEquals(9.0, registry.getSampleValue("queue_size", labelNames, new String[]{"200", "102"}), 0);
+            assertNull(value(registry, "queue_size"));
+        }
+    }
+
+    @Test
+    public void archivesExitedProcess() throws IOException {
+        writeOtherProcess("101", 3, 5);
+        Path exited = writeSegment("102", 4, 9);
+        try (SegmentDirectoryCollector collector = collector(SegmentDirectoryCollector.GaugeMerge.SUM)) {
+            CollectorRegistry registry = register(collector);
+            // 已退出进程的Counter合并到归档文件，Gauge不再输出
+            assertEquals(7.0, value(registry, "requests_total"), 0);
+            assertEquals(5.0, value(registry, "queue_size"), 0);
+            assertFalse(Files.exists(exited));
+            assertEquals(1, collector.getArchivedCount());
+
+            // 之后的采集从归档文件读取，不重复累加
+            assertEquals(7.0, value(registry, "requests_total"), 0);
+            assertEquals(1, collector.getArchivedCount());
+        }
+
+        // 聚合进程重启后从归档文件恢复，另一个进程退出后汇总值也不回退
+        exitOtherProcesses();
+        try (SegmentDirectoryCollector collector = collector(SegmentDirectoryCollector.GaugeMerge.SUM)) {
+            CollectorRegistry registry = register(collector);
+            assertEquals(7.0, value(registry, "requests_total"), 0);
+            assertNull(value(registry, "queue_size"));
+            assertEquals(1, collector.getArchivedCount());
+        }
+    }
+
+    @Test
+    public void skipsTruncatedAndUninitializedSegments() throws IOException {
+        writeOtherProcess("101", 3, 5);
+        Path truncated = writeSegment("102", 4, 9);
+        try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+            channel.truncate(100);
+        }
+        Path empty = Files.write(this.directory.resolve(ProcessSegments.PREFIX + "103-1" + ProcessSegments.SUFFIX), new byte[10]);
+        Path abandoned = Files.write(this.directory.resolve(ProcessSegments.PREFIX + "104-1" + ProcessSegments.TMP_SUFFIX), new byte[10]);
+
+        try (SegmentDirectoryCollector collector = collector(SegmentDirectoryCollector.GaugeMerge.SUM)) {
+            CollectorRegistry registry = register(collector);
+            assertEquals(3.0, value(registry, "requests_total"), 0);
+            assertEquals(5.0, value(registry, "queue_size"), 0);
+            assertEquals(1, collector.getSegmentCount());
+            assertEquals(0, collector.getArchivedCount());
+            // 无法读取的文件保留，创建中途退出留下的临时文件删除
+            assertTrue(Files.exists(truncated));
+            assertTrue(Files.exists(empty));
+            assertFalse(Files.exists(abandoned));
+        }
+    }
+
+    private double gauge(SegmentDirectoryCollector.GaugeMerge gaugeMerge) throws IOException {
+        try (SegmentDirectoryCollector collector = collector(gaugeMerge)) {
+            return value(register(collector), "queue_size");
+        }
+    }
+
+    /**
+     * 写入并保持加锁的文件，模拟仍在运行的其他进程
+     */
+    private void writeOtherProcess(String pid, double requests, double queueSize) throws IOException {
+        Path path = writeSegment(pid, requests, queueSize);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.liveProcesses.add(channel);
+        assertTrue(channel.tryLock() != null);
+    }
+
+    /**
+     * 写入后关闭，文件锁随之释放，模拟已退出的进程
+     */
+    private Path writeSegment(String pid, double requests, double queueSize) throws IOException {
+        try (MappedSeriesStore store = segment(pid)) {
+            if (requests > 0) {
+                store.counterChildren("requests_total", CODE).newChild(OK).inc(requests);
+            }
+            store.gaugeChildren("queue_size", CODE).newChild(OK).set(queueSize);
+            return store.getPath();
+        }
+    }
+
+    private MappedSeriesStore segment(String pid) throws IOException {
+        return MappedSeriesStore.builder()
+                .path(this.directory.resolve(ProcessSegments.PREFIX + pid + "-1" + ProcessSegments.SUFFIX))
+                .capacity(16)
+                .open();
+    }
+
+    private SegmentDirectoryCollector collector(SegmentDirectoryCollector.GaugeMerge gaugeMerge) throws IOException {
+        return SegmentDirectoryCollector.builder()
+                .directory(this.directory)
+                .gaugeMerge(gaugeMerge)
+                .build();
+    }
+
+    private static CollectorRegistry register(SegmentDirectoryCollector collector) {
+        CollectorRegistry registry = new CollectorRegistry();
+        collector.register(registry);
+        return registry;
+    }
+
+    private static Double value(CollectorRegistry registry, String name) {
+        return registry.getSampleValue(name, CODE, OK);
+    }
+}
@@ -0,0 +1,174 @@
+package io.heracles.wrapper;
+
+import io.heracles.label.LabelNames;
+import io.heracles.label.Labels;
+import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.wrapper.base.BaseWrapperBuilder;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 批量打点的结果与逐条打点一致，拆分到ForkJoinPool并行预聚合时也一致
+ *
+ * @author walter
+ * @date 2021/02/14 14:30
+ **/
+public class BatchRecordingTest {
+    private static final int RECORDS = 20_000;
+    private static final int SPLIT_SIZE = 128;
+
+    private static ForkJoinPool pool;
+    private static List<Record> records;
+
+    static final class Record {
+        private final String tenant;
+        private final int code;
+        /**
+         * 整数值，求和顺序不同也没有舍入误差，可以精确比较
+         */
+        private final int size;
+
+        private Record(String tenant, int code, int size) {
+            this.tenant = tenant;
+            this.code = code;
+            this.size = size;
+        }
+    }
+
+    private static final LabelExtractor<Record> EXTRACTOR = new LabelExtractor<Record>() {
+        @Override
+        public Labels extractLabels(Record record) {
+            return Labels.newInstance().label("tenant", record.tenant).label("code", record.code);
+        }
+
+        @Override
+        public LabelNames getTargetLabelNames() {
+            return LabelNames.newInstance().names("tenant", "code");
+        }
+    };
+
+    @BeforeClass
+    public static void setUp() {
+        pool = new ForkJoinPool(4);
+        Random random = new Random(42);
+        records = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            records.add(new Record("t" + random.nextInt(7), 200 + random.nextInt(5), random.nextInt(1000)));
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void counterBatchesMatchSingleRecords() {
+        Map<String, Double> single = collect(registry -> {
+            CounterWrapper counter = counter().wrap(registry);
+            for (Record record : records) {
+                counter.inc(record, Record.class, record.size);
+            }
+        });
+        Map<String, Double> batch = collect(registry -> counter().wrap(registry).incAll(records, Record.class, record -> record.size));
+        Map<String, Double> parallel = collect(registry -> parallel(counter()).wrap(registry).incAll(records, Record.class, record -> record.size));
+
+        assertEquals(7 * 5, single.size());
+        assertEquals(single, batch);
+        assertEquals(single, parallel);
+    }
+
+    @Test
+    public void gaugeBatchesMatchSingleRecords() {
+        Map<String, Double> single = collect(registry -> {
+            GaugeWrapper gauge = gauge().wrap(registry);
+            for (Record record : records) {
+                gauge.inc(record, Record.class, record.size);
+            }
+        });
+        Map<String, Double> parallel = collect(registry -> {
+            GaugeWrapper gauge = parallel(gauge()).wrap(registry);
+            gauge.incAll(records, Record.class, record -> record.size * 2.0);
+            gauge.decAll(records, Record.class, record -> record.size);
+        });
+        assertEquals(single, parallel);
+    }
+
+    @Test
+    public void parallelSetKeepsLastValue() {
+        Map<String, Double> expected = new HashMap<>();
+        for (Record record : records) {
+            expected.put("queue_size{tenant=" + record.tenant + ",code=" + record.code + "}", (double) record.size);
+        }
+        Map<String, Double> batch = collect(registry -> gauge().wrap(registry).setAll(records, Record.class, record -> record.size));
+        Map<String, Double> parallel = collect(registry -> parallel(gauge()).wrap(registry).setAll(records, Record.class, record -> record.size));
+        assertEquals(expected, batch);
+        assertEquals(expected, parallel);
+    }
+
+    @Test
+    public void histogramBatchesMatchSingleRecords() {
+        double[] buckets = {10, 100, 500};
+        Map<String, Double> single = collect(registry -> {
+            HistogramWrapper histogram = histogram(buckets).wrap(registry);
+            for (Record record : records) {
+                histogram.observe(record, Record.class, record.size);
+            }
+        });
+        Map<String, Double> parallel = collect(registry -> parallel(histogram(buckets)).wrap(registry).observeAll(records, Record.class, record -> record.size));
+        assertTrue(single.containsKey("payload_bytes_bucket{tenant=t0,code=200,le=+Inf}"));
+        assertEquals(single, parallel);
+    }
+
+    private static CounterWrapper.Builder counter() {
+        return CounterWrapper.builder().name("consumed_bytes_total").help("h").labelExtractor(EXTRACTOR, Record.class);
+    }
+
+    private static GaugeWrapper.Builder gauge() {
+        return GaugeWrapper.build().name("queue_size").help("h").labelExtractor(EXTRACTOR, Record.class);
+    }
+
+    private static HistogramWrapper.Builder histogram(double[] buckets) {
+        return HistogramWrapper.build().name("payload_bytes").help("h").buckets(buckets).labelExtractor(EXTRACTOR, Record.class);
+    }
+
+    private static <B extends BaseWrapperBuilder<?, B, ?, ?, ?>> B parallel(B builder) {
+        return builder.parallelBatches(pool, SPLIT_SIZE);
+    }
+
+    /**
+     * 在新的注册表上打点后读取全部样本
+     *
+     * @return 样本名与标签 -> 值
+     */
+    private static Map<String, Double> collect(Consumer<CollectorRegistry> recording) {
+        CollectorRegistry registry = new CollectorRegistry();
+        recording.accept(registry);
+        Map<String, Double> samples = new HashMap<>();
+        for (Collector.MetricFamilySamples family : Collections.list(registry.metricFamilySamples())) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                StringBuilder key = new StringBuilder(sample.name).append('{');
+                for (int i = 0; i < sample.labelNames.size(); i++) {
+                    key.append(i == 0 ? "" : ",").append(sample.labelNames.get(i)).append('=').append(sample.labelValues.get(i));
+                }
+                samples.put(key.append('}').toString(), sample.value);
+            }
+        }
+        return samples;
+    }
+}
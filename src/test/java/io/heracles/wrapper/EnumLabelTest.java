@@ -0,0 +1,135 @@
+package io.heracles.wrapper;
+
+import io.heracles.label.Labels;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 枚举标签：按序数直接定位Child、与字符串标签值一致、预创建全部组合
+ *
+ * @author walter
+ * @date 2021/02/14 11:40
+ **/
+public class EnumLabelTest {
+    private static final String[] LABEL_NAMES = {"status", "method"};
+
+    enum Status {
+        OK,
+        FAILED {
+            @Override
+            public String toString() {
+                return "failed";
+            }
+        },
+        TIMEOUT
+    }
+
+    enum Method {
+        GET,
+        POST
+    }
+
+    @Test
+    public void recordsByOrdinalWithoutChildCache() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = builder().wrap(registry);
+        counter.label("status", Status.OK).label("method", Method.GET).inc();
+        counter.label("method", Method.GET).label("status", Status.OK).inc(2);
+        counter.label("status", Status.FAILED).label("method", Method.POST).inc();
+        counter.with().label("status", Status.TIMEOUT).label("method", Method.POST).inc();
+
+        assertEquals(3.0, value(registry, "OK", "GET"), 0);
+        // 标签值与toString()一致
+        assertEquals(1.0, value(registry, "failed", "POST"), 0);
+        assertEquals(1.0, value(registry, "TIMEOUT", "POST"), 0);
+        // 未打点的组合不导出，全部打点都没有经过Child缓存
+        assertNull(registry.getSampleValue("requests_total", LABEL_NAMES, new String[]{"OK", "POST"}));
+        assertEquals(0, counter.getChildCache().size());
+    }
+
+    @Test
+    public void stringValuesReachSameSeries() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = builder().wrap(registry);
+        counter.label("status", Status.FAILED).label("method", Method.GET).inc();
+        counter.label("status", "failed").label("method", "GET").inc();
+        counter.label("status", Status.FAILED).label("method", "GET").inc();
+        assertEquals(3.0, value(registry, "failed", "GET"), 0);
+
+        Counter.Child bound = counter.bind(Labels.newInstance().label("status", Status.FAILED).label("method", Method.GET));
+        assertSame(counter.getRealCollector().labels("failed", "GET"), bound);
+        // 不是枚举常量的值照常记录
+        counter.label("status", "unknown").label("method", "GET").inc();
+        assertEquals(1.0, value(registry, "unknown", "GET"), 0);
+    }
+
+    @Test
+    public void removedSeriesStartFromZero() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = builder().wrap(registry);
+        counter.label("status", Status.OK).label("method", Method.GET).inc(5);
+        counter.remove("OK", "GET");
+        assertNull(registry.getSampleValue("requests_total", LABEL_NAMES, new String[]{"OK", "GET"}));
+        counter.label("status", Status.OK).label("method", Method.GET).inc();
+        assertEquals(1.0, value(registry, "OK", "GET"), 0);
+
+        counter.clear();
+        counter.label("status", Status.OK).label("method", Method.GET).inc();
+        assertEquals(1.0, value(registry, "OK", "GET"), 0);
+    }
+
+    @Test
+    public void precreatesEveryCombination() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = builder().precreateEnumSeries().wrap(registry);
+        Collector.MetricFamilySamples family = Collections.list(registry.metricFamilySamples()).get(0);
+        assertEquals(Status.values().length * Method.values().length, family.samples.size());
+        for (Status status : Status.values()) {
+            for (Method method : Method.values()) {
+                assertEquals(0.0, value(registry, status.toString(), method.name()), 0);
+            }
+        }
+
+        counter.label("status", Status.TIMEOUT).label("method", Method.POST).inc();
+        assertEquals(1.0, value(registry, "TIMEOUT", "POST"), 0);
+        assertEquals(0, counter.getChildCache().size());
+    }
+
+    @Test
+    public void mixedLabelsUseChildCache() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("mixed_total")
+                .help("h")
+                .enumLabel("status", Status.class)
+                .labelNames("path")
+                .precreateEnumSeries()
+                .wrap(registry);
+        // 不是全部标签都是枚举时不预创建
+        assertEquals(0, Collections.list(registry.metricFamilySamples()).get(0).samples.size());
+
+        counter.label("status", Status.FAILED).label("path", "/a").inc();
+        assertEquals(1.0, registry.getSampleValue("mixed_total", new String[]{"status", "path"}, new String[]{"failed", "/a"}), 0);
+        assertEquals(1, counter.getChildCache().size());
+    }
+
+    private static CounterWrapper.Builder builder() {
+        return CounterWrapper.builder()
+                .name("requests_total")
+                .help("h")
+                .enumLabel("status", Status.class)
+                .enumLabel("method", Method.class);
+    }
+
+    private static double value(CollectorRegistry registry, String status, String method) {
+        return registry.getSampleValue("requests_total", LABEL_NAMES, new String[]{status, method});
+    }
+}
@@ -0,0 +1,94 @@
+package io.heracles.wrapper;
+
+import io.heracles.wrapper.base.TimerScope;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Histogram;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 计时接口在稳定状态下不分配对象
+ *
+ * @author walter
+ * @date 2021/02/12 19:30
+ **/
+public class TimingAllocationTest {
+    private static final int WARMUP = 500_000;
+    private static final int CALLS = 1_000_000;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private CollectorRegistry registry;
+    private HistogramWrapper histogram;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(this.threadMXBean.isThreadAllocatedMemorySupported());
+        this.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        this.registry = new CollectorRegistry();
+        this.histogram = HistogramWrapper.build()
+                .name("request_latency_seconds")
+                .help("latency")
+                .labelNames("op", "code")
+                .wrap(this.registry);
+    }
+
+    @Test
+    public void recordSinceDoesNotAllocate() {
+        assertZeroBytesPerCall(i -> {
+            long startNanos = System.nanoTime();
+            this.histogram.label("op", "read").label("code", "200").recordSince(startNanos);
+        });
+    }
+
+    @Test
+    public void observeNanosDoesNotAllocate() {
+        assertZeroBytesPerCall(i -> this.histogram.label("op", "read").label("code", "200").observeNanos(1234567));
+    }
+
+    @Test
+    public void reusedTimerScopeDoesNotAllocate() {
+        assertZeroBytesPerCall(i -> {
+            try (TimerScope<Histogram.Child> scope = this.histogram.label("op", "write").startScope()) {
+                scope.label("code", (i & 1) == 0 ? "200" : "500");
+            }
+        });
+    }
+
+    @Test
+    public void nestedTimerScopesRecordSeparately() {
+        try (TimerScope<Histogram.Child> outer = this.histogram.label("op", "outer").startScope()) {
+            try (TimerScope<Histogram.Child> inner = this.histogram.startScope()) {
+                assertTrue(outer != inner);
+                inner.label("op", "inner").label("code", "1");
+            }
+            outer.label("code", "2");
+        }
+        assertEquals(1, this.registry.getSampleValue("request_latency_seconds_count", new String[]{"op", "code"}, new String[]{"outer", "2"}), 0);
+        assertEquals(1, this.registry.getSampleValue("request_latency_seconds_count", new String[]{"op", "code"}, new String[]{"inner", "1"}), 0);
+    }
+
+    private void assertZeroBytesPerCall(IntConsumer call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.accept(i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = this.threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < CALLS; i++) {
+            call.accept(i);
+        }
+        long allocated = this.threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        // 允许个别与打点无关的一次性分配，每次调用分配对象时至少为16字节/次
+        assertTrue("allocated " + allocated + " bytes in " + CALLS + " calls", allocated < CALLS);
+    }
+}
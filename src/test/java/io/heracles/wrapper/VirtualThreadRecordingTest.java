@@ -0,0 +1,114 @@
+package io.heracles.wrapper;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 百万虚拟线程通过链式label(...)打点后阻塞，阻塞期间不持有标签状态
+ * <p>
+ * 以Java 8为目标编译，通过反射创建虚拟线程，JDK不支持虚拟线程时跳过；
+ * JDK 21及以上构建时java21 profile使测试使用Multi-Release JAR中的Java 21实现
+ *
+ * @author walter
+ * @date 2021/02/12 17:40
+ **/
+public class VirtualThreadRecordingTest {
+    private static final int THREADS = 1_000_000;
+    private static final int CODES = 16;
+    /**
+     * 每个阻塞的虚拟线程残留一份标签状态（ThreadLocalMap、线程状态和标签组合，约250字节）时，百万线程约250MB
+     */
+    private static final long MAX_RETAINED_BYTES = 32L << 20;
+
+    private interface Task {
+        void run(int index);
+    }
+
+    @Test
+    public void parkedVirtualThreadsHoldNoLabelState() throws Exception {
+        ExecutorService probe = newVirtualThreadExecutor();
+        Assume.assumeTrue("virtual threads require Java 21", probe != null);
+        probe.shutdown();
+
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("virtual_requests_total")
+                .help("requests")
+                .labelNames("code", "method")
+                .wrap(registry);
+        // 预热Child缓存，两次测量都包含全部组合
+        for (int i = 0; i < CODES; i++) {
+            counter.label("code", i).label("method", "GET").inc(0);
+        }
+        Task record = i -> counter.label("code", i % CODES).label("method", "GET").inc();
+
+        // 对照：阻塞前没有打点
+        long idle = usedHeapWhileParked(i -> {
+        }, record);
+        // 阻塞前后各打点一次，阻塞期间的差值即残留的标签状态
+        long recorded = usedHeapWhileParked(record, record);
+
+        long retained = recorded - idle;
+        assertTrue("retained " + retained + " bytes", retained < MAX_RETAINED_BYTES);
+        double total = 0;
+        for (int i = 0; i < CODES; i++) {
+            total += registry.getSampleValue("virtual_requests_total", new String[]{"code", "method"}, new String[]{String.valueOf(i), "GET"});
+        }
+        assertEquals(3.0 * THREADS, total, 0);
+    }
+
+    /**
+     * 启动全部虚拟线程，每个线程执行before后阻塞，全部阻塞时测量堆占用，之后放行并执行after
+     */
+    private static long usedHeapWhileParked(Task before, Task after) throws Exception {
+        CountDownLatch parked = new CountDownLatch(THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = newVirtualThreadExecutor();
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            executor.execute(() -> {
+                before.run(index);
+                parked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                after.run(index);
+            });
+        }
+        parked.await();
+        long used = usedHeapAfterGc();
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        return used;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,69 @@
+package io.heracles.wrapper;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 关闭后后台定时任务不再引用Collector Wrapper
+ *
+ * @author walter
+ * @date 2021/02/13 19:10
+ **/
+public class WrapperCloseTest {
+    @Test
+    public void closeFlushesBufferAndReleasesWrapper() throws InterruptedException {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("closed_total")
+                .help("h")
+                .labelNames("op")
+                .bufferedRecording(60_000, 16)
+                .wrap(registry);
+        counter.label("op", "a").inc(3);
+        counter.close();
+        // 关闭时写入缓冲，直接读取实际采集器（不经过采集前的写入）也能读到
+        assertEquals(3.0, counter.getRealCollector().labels("a").get(), 0);
+
+        WeakReference<CounterWrapper> reference = new WeakReference<>(counter);
+        counter = null;
+        registry = null;
+        assertCollected(reference);
+    }
+
+    @Test
+    public void closeStopsExpiryAndReleasesWrapper() throws InterruptedException {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("expiring_total")
+                .help("h")
+                .labelNames("op")
+                .seriesTtl(200, TimeUnit.MILLISECONDS)
+                .wrap(registry);
+        counter.label("op", "idle").inc();
+        counter.close();
+        // 关闭后不再淘汰，超过存活时间的空闲组合仍然保留
+        Thread.sleep(600);
+        assertNotNull(registry.getSampleValue("expiring_total", new String[]{"op"}, new String[]{"idle"}));
+        assertEquals(0, counter.getSeriesExpiry().getSweepCount());
+
+        WeakReference<CounterWrapper> reference = new WeakReference<>(counter);
+        counter = null;
+        registry = null;
+        assertCollected(reference);
+    }
+
+    static void assertCollected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("wrapper is still reachable", reference.get());
+    }
+}
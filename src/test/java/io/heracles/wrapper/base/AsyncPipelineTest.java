@@ -0,0 +1,116 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 队列已满和关闭后两种背压策略下的发布结果
+ *
+ * @author walter
+ * @date 2021/02/13 17:20
+ **/
+public class AsyncPipelineTest {
+    private static final RecordOp<Counter.Child> INC = RecordOp.additive(Counter.Child::inc);
+
+    private final CounterWrapper wrapper = CounterWrapper.builder()
+            .name("pipeline_events_total")
+            .help("h")
+            .wrap(new CollectorRegistry());
+    private final Counter.Child child = new Counter.Child();
+    private final CountDownLatch applying = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    /**
+     * 第一个事件在后台线程上阻塞，直到release放行，期间队列只出不进
+     */
+    private final RecordOp<Counter.Child> stall = RecordOp.additive((child, value) -> {
+        this.applying.countDown();
+        try {
+            this.release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        child.inc(value);
+    });
+
+    @Test
+    public void dropPolicyDropsWhenFullAndAfterClose() throws InterruptedException {
+        AsyncPipeline pipeline = new AsyncPipeline(4, BackpressurePolicy.DROP);
+        stallConsumer(pipeline);
+        // 第一个事件仍占用槽位，剩余3个槽位可以发布
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pipeline.publish(this.wrapper, INC, this.child, 1));
+        }
+        assertFalse(pipeline.publish(this.wrapper, INC, this.child, 1));
+        assertEquals(1, pipeline.getDroppedCount());
+
+        this.release.countDown();
+        assertTrue(pipeline.awaitDrained(5, TimeUnit.SECONDS));
+        pipeline.close();
+        assertFalse(pipeline.publish(this.wrapper, INC, this.child, 1));
+        assertEquals(2, pipeline.getDroppedCount());
+        assertEquals(4, this.child.get(), 0);
+        assertEquals(0, pipeline.getLag());
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws InterruptedException {
+        AsyncPipeline pipeline = new AsyncPipeline(2, BackpressurePolicy.BLOCK);
+        stallConsumer(pipeline);
+        assertTrue(pipeline.publish(this.wrapper, INC, this.child, 1));
+        AtomicBoolean published = new AtomicBoolean();
+        Thread producer = new Thread(() -> published.set(pipeline.publish(this.wrapper, INC, this.child, 1)));
+        producer.start();
+        producer.join(200);
+        assertTrue("producer should wait while the pipeline is full", producer.isAlive());
+
+        this.release.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertTrue(published.get());
+        pipeline.close();
+        assertEquals(3, this.child.get(), 0);
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void blockPolicyDropsAfterClose() throws InterruptedException {
+        AsyncPipeline pipeline = new AsyncPipeline(2, BackpressurePolicy.BLOCK);
+        stallConsumer(pipeline);
+        assertTrue(pipeline.publish(this.wrapper, INC, this.child, 1));
+        AtomicBoolean published = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> published.set(pipeline.publish(this.wrapper, INC, this.child, 1)));
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        // 关闭时等待中的打点线程放弃，之后的发布立即丢弃；关闭前已发布的事件仍然写入
+        Thread closer = new Thread(pipeline::close);
+        closer.start();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertFalse(published.get());
+        assertFalse(pipeline.publish(this.wrapper, INC, this.child, 1));
+        assertEquals(2, pipeline.getDroppedCount());
+
+        this.release.countDown();
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(2, this.child.get(), 0);
+        assertEquals(0, pipeline.getLag());
+    }
+
+    private void stallConsumer(AsyncPipeline pipeline) throws InterruptedException {
+        assertTrue(pipeline.publish(this.wrapper, this.stall, this.child, 1));
+        assertTrue(this.applying.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,84 @@
+package io.heracles.wrapper.base;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 不限容量时的扩容
+ *
+ * @author walter
+ * @date 2021/02/12 10:30
+ **/
+public class ChildCacheTest {
+    private static final int THREADS = 8;
+    private static final int SERIES_PER_THREAD = 20000;
+
+    @Test
+    public void resizesWhenUnbounded() {
+        ChildCache<Object> cache = new ChildCache<>(16, true);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(values(0, i), i);
+        }
+        assertEquals(1000, cache.size());
+        assertTrue(cache.tableSize() >= 1000 * 4 / 3);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, cache.put(values(0, i), -1));
+        }
+    }
+
+    @Test
+    public void keepsEntriesWrittenDuringResize() throws InterruptedException {
+        ChildCache<Object> cache = new ChildCache<>(16, false, true);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < SERIES_PER_THREAD; i++) {
+                    cache.put(values(thread, i), thread * SERIES_PER_THREAD + i);
+                    if (i % 3 == 0) {
+                        cache.remove(values(thread, i));
+                    } else if (i % 3 == 1) {
+                        cache.pin(values(thread, i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int expected = THREADS * (SERIES_PER_THREAD - (SERIES_PER_THREAD + 2) / 3);
+        assertEquals(expected, cache.size());
+        AtomicInteger visited = new AtomicInteger();
+        AtomicInteger pinned = new AtomicInteger();
+        cache.forEachChangedSince(Long.MAX_VALUE, (labelValues, child) -> pinned.incrementAndGet());
+        cache.forEachChangedSince(Long.MIN_VALUE, (labelValues, child) -> visited.incrementAndGet());
+        assertEquals(expected, visited.get());
+        assertEquals(THREADS * ((SERIES_PER_THREAD + 1) / 3), pinned.get());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < SERIES_PER_THREAD; i++) {
+                Object cached = cache.put(values(t, i), -1);
+                if (i % 3 != 0) {
+                    assertEquals(t * SERIES_PER_THREAD + i, cached);
+                }
+            }
+        }
+    }
+
+    private static String[] values(int thread, int i) {
+        return new String[]{String.valueOf(thread), String.valueOf(i)};
+    }
+}
@@ -0,0 +1,131 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.label.LabelMissingStrategy;
+import io.heracles.label.LabelNames;
+import io.heracles.label.Labels;
+import io.heracles.label.extractor.LabelExtractor;
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 按运行时类型查找标签解析：沿父类链和接口回退，同名标签以最具体类型为准
+ *
+ * @author walter
+ * @date 2021/02/14 10:20
+ **/
+public class ExtractorResolverTest {
+    /**
+     * 按注册标签解析的顺序声明的标签名
+     */
+    private static final String[] LABEL_NAMES = {"tenant", "source", "path"};
+
+    interface TenantAware {
+        String tenant();
+    }
+
+    interface Audited {
+    }
+
+    static class Request implements TenantAware {
+        private final String path;
+
+        Request(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public String tenant() {
+            return "t1";
+        }
+    }
+
+    static class AdminRequest extends Request implements Audited {
+        AdminRequest(String path) {
+            super(path);
+        }
+    }
+
+    static class Job implements Audited, TenantAware {
+        @Override
+        public String tenant() {
+            return "t2";
+        }
+    }
+
+    private CollectorRegistry registry;
+    private CounterWrapper counter;
+
+    @Before
+    public void setUp() {
+        this.registry = new CollectorRegistry();
+        this.counter = CounterWrapper.builder()
+                .name("resolved_total")
+                .help("h")
+                .labelMissingStrategy(LabelMissingStrategy.FILL_WITH_EMPTY_STRING)
+                .labelExtractor(extractor(object -> Labels.newInstance().label("tenant", object.tenant()).label("source", "tenant"), "tenant", "source"), TenantAware.class)
+                .labelExtractor(extractor(object -> Labels.newInstance().label("source", "audited"), "source"), Audited.class)
+                .labelExtractor(extractor(object -> Labels.newInstance().label("path", object.path).label("source", "request"), "path", "source"), Request.class)
+                .labelExtractor(extractor(object -> Labels.newInstance().label("source", "admin"), "source"), AdminRequest.class)
+                .wrap(this.registry);
+    }
+
+    @Test
+    public void fallsBackToSuperclassAndInterfaces() {
+        // 匿名子类相当于代理类，没有注册过自身的标签解析
+        this.counter.label(new Request("/a") {
+        }).inc();
+        assertEquals(1.0, value("t1", "/a", "request"), 0);
+    }
+
+    @Test
+    public void mostSpecificTypeWins() {
+        // 父类链上的类型比接口具体，自身比父类具体
+        this.counter.label(new AdminRequest("/admin")).inc();
+        assertEquals(1.0, value("t1", "/admin", "admin"), 0);
+    }
+
+    @Test
+    public void firstDeclaredInterfaceWins() {
+        this.counter.label(new Job()).inc();
+        assertEquals(1.0, value("t2", "", "audited"), 0);
+    }
+
+    @Test
+    public void unrelatedTypeAddsNoLabels() {
+        this.counter.label("not registered").inc();
+        this.counter.label((Object) null).inc();
+        assertEquals(2.0, value("", "", ""), 0);
+    }
+
+    @Test
+    public void explicitTypeDoesNotFallBack() {
+        // label(object, Class)只使用该类型注册的标签解析
+        this.counter.label(new AdminRequest("/admin"), Request.class).inc();
+        assertEquals(1.0, value("", "/admin", "request"), 0);
+    }
+
+    private double value(String tenant, String path, String source) {
+        Double value = this.registry.getSampleValue("resolved_total", LABEL_NAMES, new String[]{tenant, source, path});
+        return value == null ? 0 : value;
+    }
+
+    private static <T> LabelExtractor<T> extractor(Function<T, Labels> extract, String... labelNames) {
+        return new LabelExtractor<T>() {
+            @Override
+            public Labels extractLabels(T object) {
+                return extract.apply(object);
+            }
+
+            @Override
+            public LabelNames getTargetLabelNames() {
+                return LabelNames.newInstance().names(labelNames);
+            }
+        };
+    }
+}
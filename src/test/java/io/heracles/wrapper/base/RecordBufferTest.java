@@ -0,0 +1,67 @@
+package io.heracles.wrapper.base;
+
+import io.prometheus.client.Gauge;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 缓冲扩容与覆盖型打点的顺序
+ *
+ * @author walter
+ * @date 2021/02/12 15:20
+ **/
+public class RecordBufferTest {
+    private static final RecordOp<Gauge.Child> INC = RecordOp.additive(Gauge.Child::inc);
+    private static final RecordOp<Gauge.Child> SET = RecordOp.overwrite(Gauge.Child::set);
+    private static final RecordOp<List<Double>> OBSERVE = RecordOp.sample(List::add);
+
+    @Test
+    public void growsUpToMaxBufferedSeries() {
+        RecordBuffer<Gauge.Child> buffer = new RecordBuffer<>(100);
+        List<Gauge.Child> children = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            Gauge.Child child = new Gauge.Child();
+            children.add(child);
+            buffer.record(INC, child, i);
+            buffer.record(INC, child, 1);
+        }
+        // 超出最大缓冲组合数的50个组合直接写入
+        assertEquals(100, buffer.getWriteThroughCount());
+        buffer.flush();
+        for (int i = 0; i < children.size(); i++) {
+            assertEquals(i + 1, children.get(i).get(), 0);
+        }
+    }
+
+    @Test
+    public void growsSampleQueue() {
+        RecordBuffer<List<Double>> buffer = new RecordBuffer<>(4);
+        List<Double> samples = new ArrayList<>();
+        for (int i = 0; i < 4 * 64; i++) {
+            buffer.record(OBSERVE, samples, i);
+        }
+        assertEquals(0, buffer.getWriteThroughCount());
+        buffer.flush();
+        assertEquals(4 * 64, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(i, samples.get(i), 0);
+        }
+    }
+
+    @Test
+    public void overwriteFollowsOtherThreadsBufferedRecords() throws InterruptedException {
+        RecordBuffer<Gauge.Child> buffer = new RecordBuffer<>(16);
+        Gauge.Child child = new Gauge.Child();
+        Thread other = new Thread(() -> buffer.record(INC, child, 5));
+        other.start();
+        other.join();
+
+        buffer.record(SET, child, 1);
+        buffer.flush();
+        assertEquals(1, child.get(), 0);
+    }
+}
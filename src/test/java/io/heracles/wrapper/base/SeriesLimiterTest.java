@@ -0,0 +1,59 @@
+package io.heracles.wrapper.base;
+
+import io.heracles.wrapper.CounterWrapper;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 组合数上限、溢出打点的计数和腾出名额
+ *
+ * @author walter
+ * @date 2021/02/13 21:15
+ **/
+public class SeriesLimiterTest {
+    @Test
+    public void countsRejectedRecords() {
+        SeriesLimiter limiter = new SeriesLimiter(2);
+        assertTrue(limiter.admit(new String[]{"a"}));
+        assertTrue(limiter.admit(new String[]{"b"}));
+        assertTrue(limiter.admit(new String[]{"a"}));
+        // 同一个溢出组合每次都计数
+        for (int i = 0; i < 3; i++) {
+            assertFalse(limiter.admit(new String[]{"c"}));
+        }
+        assertFalse(limiter.admit(new String[]{"d"}));
+        assertEquals(2, limiter.size());
+        assertEquals(4, limiter.getRejectedRecordCount());
+
+        limiter.remove(new String[]{"a"});
+        assertTrue(limiter.admit(new String[]{"c"}));
+        assertFalse(limiter.admit(new String[]{"a"}));
+        assertEquals(5, limiter.getRejectedRecordCount());
+    }
+
+    @Test
+    public void overflowRecordsAreMerged() {
+        CollectorRegistry registry = new CollectorRegistry();
+        CounterWrapper counter = CounterWrapper.builder()
+                .name("limited_total")
+                .help("h")
+                .labelNames("user")
+                .maxSeries(2)
+                .wrap(registry);
+        counter.label("user", "u1").inc();
+        counter.label("user", "u2").inc();
+        for (int i = 0; i < 5; i++) {
+            counter.label("user", "u3").inc();
+        }
+        counter.label("user", "u4").inc();
+        counter.label("user", "u1").inc();
+
+        assertEquals(2.0, registry.getSampleValue("limited_total", new String[]{"user"}, new String[]{"u1"}), 0);
+        assertEquals(6.0, registry.getSampleValue("limited_total", new String[]{"user"}, new String[]{"__overflow__"}), 0);
+        assertEquals(6, counter.getSeriesLimiter().getRejectedRecordCount());
+    }
+}